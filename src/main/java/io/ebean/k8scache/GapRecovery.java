@@ -0,0 +1,17 @@
+package io.ebean.k8scache;
+
+/**
+ * What to do when a gap in the sequence of messages from a member is detected.
+ */
+public enum GapRecovery {
+
+	/**
+	 * Clear all the L2 caches as the invalidations that were missed are unknown.
+	 */
+	CLEAR_CACHES,
+
+	/**
+	 * Only log the gap, relying on the cache TTL to remove any stale entries.
+	 */
+	LOG
+}
@@ -5,9 +5,6 @@ import io.ebeaninternal.server.cluster.ClusterBroadcast;
 import io.ebeaninternal.server.cluster.ClusterBroadcastFactory;
 import io.ebeaninternal.server.cluster.ClusterManager;
 import io.ebean.k8scache.socket.K8sClusterBroadcast;
-import org.avaje.k8s.discovery.K8sMemberDiscovery;
-import org.avaje.k8s.discovery.K8sServiceMember;
-import org.avaje.k8s.discovery.K8sServiceMembers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,16 +30,15 @@ public class K8sBroadcastFactory implements ClusterBroadcastFactory {
     }
 
     K8sServiceConfig k8sConfig = new K8sServiceConfig(config);
-		K8sMemberDiscovery discovery = k8sConfig.getDiscovery();
-
-		K8sServiceMember member = discovery.getMember();
-		if (member == null) {
-			String podName = discovery.getPodName();
-			K8sServiceMembers members = discovery.getMembers();
-			log.error("Unable to determine current pod Ip searching for pod:" + podName + " in members:" + members);
-			return null;
+		String localIp = k8sConfig.getLocalIp();
+		if (localIp == null) {
+			localIp = k8sConfig.getMembershipProvider().localIp();
+			if (localIp == null) {
+				log.error("Unable to determine the IP address of this member, set ebean.cluster.localIp");
+				return null;
+			}
 		}
 
-    return new K8sClusterBroadcast(manager, k8sConfig, member);
+    return new K8sClusterBroadcast(manager, k8sConfig, localIp, k8sConfig.getPodName());
   }
 }
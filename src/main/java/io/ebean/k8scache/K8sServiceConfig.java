@@ -1,35 +1,414 @@
 package io.ebean.k8scache;
 
 import io.ebean.config.ContainerConfig;
+import io.ebean.k8scache.membership.DiscoveryMembership;
+import io.ebean.k8scache.membership.DnsMembership;
+import io.ebean.k8scache.membership.EndpointSliceWatch;
+import io.ebean.k8scache.membership.StaticMembership;
 import org.avaje.k8s.discovery.K8sMemberDiscovery;
 import org.avaje.k8s.discovery.K8sServiceMember;
 import org.avaje.k8s.discovery.K8sServiceMembers;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.ServiceLoader;
 
 /**
  * Configuration for clustering using TCP sockets.
  */
 public class K8sServiceConfig {
 
-	private final K8sMemberDiscovery discovery;
+	private final String serviceName;
+
+	private final String namespace;
+
+	private final String podName;
+
+	private K8sMemberDiscovery discovery;
 
 	private String threadPoolName = "EbeanCluster";
 
 	private int port;
 
+	private int sendQueueCapacity = 10_000;
+
+	private SendOverflowPolicy sendOverflowPolicy = SendOverflowPolicy.DROP_RESYNC;
+
+	private long sendBlockTimeoutMillis = 100;
+
+	private int sendBatchBytes = 64 * 1024;
+
+	private long sendBatchLingerMicros;
+
+	private boolean nioListener;
+
+	private String bindAddress;
+
+	private int receiveThreads = 2;
+
+	private int receiveQueueCapacity = 1000;
+
+	private boolean virtualThreads;
+
+	private long coalesceWindowMillis;
+
+	private int coalesceMaxBeanIds = 1000;
+
+	private boolean receiveMerge;
+
+	private int compressThreshold;
+
+	private long broadcastWaitMillis;
+
+	private int connectTimeoutMillis = 2000;
+
+	private int writeTimeoutMillis = 5000;
+
+	private long reconnectBackoffMillis = 100;
+
+	private long reconnectMaxBackoffMillis = 10_000;
+
+	private int reconnectAttempts = 5;
+
+	private int circuitWindowSize = 20;
+
+	private int circuitMinimumCalls = 5;
+
+	private int circuitFailureRate = 50;
+
+	private int circuitSlowCallRate = 80;
+
+	private long circuitSlowCallMillis = 1000;
+
+	private long circuitOpenMillis = 5000;
+
+	private boolean sequenceNumbers;
+
+	private GapRecovery gapRecovery = GapRecovery.CLEAR_CACHES;
+
+	private int replayCapacity;
+
+	private String spillDirectory;
+
+	private boolean lanes;
+
+	private int priorityBulkBytes;
+
+	private int chunkBytes;
+
+	private int relayFanout;
+
+	private boolean relayZones;
+
+	private int relayReplayCapacity = 1000;
+
+	private String zone;
+
+	private int spillMaxBytes = 64 * 1024 * 1024;
+
+	private boolean gossip;
+
+	private long gossipIntervalMillis = 1000;
+
+	private long gossipTimeoutMillis = 300;
+
+	private int gossipIndirectPings = 3;
+
+	private long gossipSuspectMillis = 5000;
+
+	private Membership membership;
+
+	private String kubernetesApiUrl;
+
+	private String membershipDnsName;
+
+	private long membershipRefreshMillis = 5000;
+
+	private List<String> staticMembers = Collections.emptyList();
+
+	private MembershipProvider membershipProvider;
+
+	private String localIp;
+
 	K8sServiceConfig(ContainerConfig config) {
 		this.port = config.getPort();
-		this.discovery = new K8sMemberDiscovery(config.getServiceName());
-		discovery.setServiceName(config.getServiceName());
-		discovery.setNamespace(config.getNamespace());
-		discovery.setPodName(config.getPodName());
+		this.serviceName = config.getServiceName();
+		this.namespace = config.getNamespace();
+		this.podName = config.getPodName();
+		Properties properties = config.getProperties();
+		if (properties != null) {
+			loadFromProperties(properties);
+		}
+	}
+
+	/**
+	 * Load the optional settings from ebean.cluster.* properties.
+	 */
+	private void loadFromProperties(Properties properties) {
+		threadPoolName = properties.getProperty("ebean.cluster.threadPoolName", threadPoolName);
+		sendQueueCapacity = intProperty(properties, "sendQueueCapacity", sendQueueCapacity);
+		sendBlockTimeoutMillis = longProperty(properties, "sendBlockTimeoutMillis", sendBlockTimeoutMillis);
+		sendBatchBytes = intProperty(properties, "sendBatchBytes", sendBatchBytes);
+		sendBatchLingerMicros = longProperty(properties, "sendBatchLingerMicros", sendBatchLingerMicros);
+		nioListener = booleanProperty(properties, "nioListener", nioListener);
+		bindAddress = properties.getProperty("ebean.cluster.bindAddress", bindAddress);
+		receiveThreads = intProperty(properties, "receiveThreads", receiveThreads);
+		receiveQueueCapacity = intProperty(properties, "receiveQueueCapacity", receiveQueueCapacity);
+		virtualThreads = booleanProperty(properties, "virtualThreads", virtualThreads);
+		coalesceWindowMillis = longProperty(properties, "coalesceWindowMillis", coalesceWindowMillis);
+		coalesceMaxBeanIds = intProperty(properties, "coalesceMaxBeanIds", coalesceMaxBeanIds);
+		receiveMerge = booleanProperty(properties, "receiveMerge", receiveMerge);
+		compressThreshold = intProperty(properties, "compressThreshold", compressThreshold);
+		broadcastWaitMillis = longProperty(properties, "broadcastWaitMillis", broadcastWaitMillis);
+		connectTimeoutMillis = intProperty(properties, "connectTimeoutMillis", connectTimeoutMillis);
+		writeTimeoutMillis = intProperty(properties, "writeTimeoutMillis", writeTimeoutMillis);
+		reconnectBackoffMillis = longProperty(properties, "reconnectBackoffMillis", reconnectBackoffMillis);
+		reconnectMaxBackoffMillis = longProperty(properties, "reconnectMaxBackoffMillis", reconnectMaxBackoffMillis);
+		reconnectAttempts = intProperty(properties, "reconnectAttempts", reconnectAttempts);
+		circuitWindowSize = intProperty(properties, "circuitWindowSize", circuitWindowSize);
+		circuitMinimumCalls = intProperty(properties, "circuitMinimumCalls", circuitMinimumCalls);
+		circuitFailureRate = intProperty(properties, "circuitFailureRate", circuitFailureRate);
+		circuitSlowCallRate = intProperty(properties, "circuitSlowCallRate", circuitSlowCallRate);
+		circuitSlowCallMillis = longProperty(properties, "circuitSlowCallMillis", circuitSlowCallMillis);
+		circuitOpenMillis = longProperty(properties, "circuitOpenMillis", circuitOpenMillis);
+		sequenceNumbers = booleanProperty(properties, "sequenceNumbers", sequenceNumbers);
+		replayCapacity = intProperty(properties, "replayCapacity", replayCapacity);
+		spillDirectory = properties.getProperty("ebean.cluster.spillDirectory", spillDirectory);
+		spillMaxBytes = intProperty(properties, "spillMaxBytes", spillMaxBytes);
+		lanes = booleanProperty(properties, "lanes", lanes);
+		priorityBulkBytes = intProperty(properties, "priorityBulkBytes", priorityBulkBytes);
+		chunkBytes = intProperty(properties, "chunkBytes", chunkBytes);
+		relayFanout = intProperty(properties, "relayFanout", relayFanout);
+		relayZones = booleanProperty(properties, "relayZones", relayZones);
+		relayReplayCapacity = intProperty(properties, "relayReplayCapacity", relayReplayCapacity);
+		zone = properties.getProperty("ebean.cluster.zone", zone);
+		gossip = booleanProperty(properties, "gossip", gossip);
+		gossipIntervalMillis = longProperty(properties, "gossipIntervalMillis", gossipIntervalMillis);
+		gossipTimeoutMillis = longProperty(properties, "gossipTimeoutMillis", gossipTimeoutMillis);
+		gossipIndirectPings = intProperty(properties, "gossipIndirectPings", gossipIndirectPings);
+		gossipSuspectMillis = longProperty(properties, "gossipSuspectMillis", gossipSuspectMillis);
+		kubernetesApiUrl = properties.getProperty("ebean.cluster.kubernetesApiUrl", kubernetesApiUrl);
+		membershipDnsName = properties.getProperty("ebean.cluster.membershipDnsName", membershipDnsName);
+		membershipRefreshMillis = longProperty(properties, "membershipRefreshMillis", membershipRefreshMillis);
+		localIp = properties.getProperty("ebean.cluster.localIp", localIp);
+		String members = properties.getProperty("ebean.cluster.staticMembers");
+		if (members != null) {
+			staticMembers = new ArrayList<>();
+			for (String member : members.split(",")) {
+				if (!member.isBlank()) {
+					staticMembers.add(member.trim());
+				}
+			}
+		}
+		String policy = properties.getProperty("ebean.cluster.sendOverflowPolicy");
+		if (policy != null) {
+			sendOverflowPolicy = SendOverflowPolicy.valueOf(policy.trim().toUpperCase());
+		}
+		String recovery = properties.getProperty("ebean.cluster.gapRecovery");
+		if (recovery != null) {
+			gapRecovery = GapRecovery.valueOf(recovery.trim().toUpperCase());
+		}
+		String membershipType = properties.getProperty("ebean.cluster.membership");
+		if (membershipType != null) {
+			membership = Membership.valueOf(membershipType.trim().toUpperCase());
+		}
+	}
+
+	private static boolean booleanProperty(Properties properties, String key, boolean defaultValue) {
+		String value = properties.getProperty("ebean.cluster." + key);
+		return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+
+	private static int intProperty(Properties properties, String key, int defaultValue) {
+		String value = properties.getProperty("ebean.cluster." + key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	private static long longProperty(Properties properties, String key, long defaultValue) {
+		String value = properties.getProperty("ebean.cluster." + key);
+		return value == null ? defaultValue : Long.parseLong(value.trim());
 	}
 
-	public K8sMemberDiscovery getDiscovery() {
+	/**
+	 * Return the discovery of the members via the K8s API, created when first used.
+	 */
+	public synchronized K8sMemberDiscovery getDiscovery() {
+		if (discovery == null) {
+			discovery = new K8sMemberDiscovery(serviceName);
+			discovery.setServiceName(serviceName);
+			discovery.setNamespace(namespace);
+			discovery.setPodName(podName);
+		}
 		return discovery;
 	}
 
+	/**
+	 * Return the name of the K8s service.
+	 */
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	/**
+	 * Return the namespace of the K8s service.
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * Return the name of this pod, by default the HOSTNAME of the pod environment.
+	 */
+	public String getPodName() {
+		return podName != null ? podName : System.getenv("HOSTNAME");
+	}
+
+	/**
+	 * Return the IP address of this member, null to get it from the membership provider.
+	 */
+	public String getLocalIp() {
+		return localIp;
+	}
+
+	/**
+	 * Set the IP address of this member (default from the membership provider).
+	 * <p>
+	 * Set this when running outside K8s with STATIC or DNS membership and the
+	 * local host name does not resolve to the address the other members connect to.
+	 * </p>
+	 */
+	public void setLocalIp(String localIp) {
+		this.localIp = localIp;
+	}
+
+	/**
+	 * Return the provider of the members.
+	 * <p>
+	 * When not set this is the provider registered as a service when there is one and
+	 * the membership is not set, otherwise the provider for the membership.
+	 * </p>
+	 */
+	public MembershipProvider getMembershipProvider() {
+		if (membershipProvider == null) {
+			membershipProvider = createMembershipProvider();
+		}
+		return membershipProvider;
+	}
+
+	private MembershipProvider createMembershipProvider() {
+		if (membership == null) {
+			Optional<MembershipProvider> provider = ServiceLoader.load(MembershipProvider.class).findFirst();
+			if (provider.isPresent()) {
+				return provider.get();
+			}
+		}
+		String threadName = threadPoolName + "-membership";
+		switch (getMembership()) {
+			case WATCH:
+				String apiUrl = kubernetesApiUrl != null ? kubernetesApiUrl : EndpointSliceWatch.defaultApiUrl();
+				return new EndpointSliceWatch(apiUrl, namespace, serviceName, threadName, connectTimeoutMillis);
+			case DNS:
+				return new DnsMembership(getMembershipDnsName(), membershipRefreshMillis, threadName);
+			case STATIC:
+				return new StaticMembership(staticMembers);
+			default:
+				return new DiscoveryMembership(getDiscovery());
+		}
+	}
+
+	/**
+	 * Set the provider of the members (default as per the membership).
+	 */
+	public void setMembershipProvider(MembershipProvider membershipProvider) {
+		this.membershipProvider = membershipProvider;
+	}
+
+	/**
+	 * Return how the members of the cluster are provided.
+	 */
+	public Membership getMembership() {
+		return membership == null ? Membership.DISCOVERY : membership;
+	}
+
+	/**
+	 * Set how the members of the cluster are provided (default DISCOVERY).
+	 * <p>
+	 * DISCOVERY loads the endpoints of the service from the K8s API when the membership
+	 * is checked. WATCH applies the members joining and leaving as the K8s API server
+	 * reports the changes to the EndpointSlices of the service, which needs the service
+	 * account of the pods to be allowed to list and watch endpointslices. DNS resolves
+	 * the headless service without using the K8s API, and STATIC uses the static members.
+	 * </p>
+	 */
+	public void setMembership(Membership membership) {
+		this.membership = membership;
+	}
+
+	/**
+	 * Return the DNS name of the headless service resolved with DNS membership.
+	 */
+	public String getMembershipDnsName() {
+		if (membershipDnsName == null) {
+			return serviceName + "." + namespace + ".svc";
+		}
+		return membershipDnsName;
+	}
+
+	/**
+	 * Set the DNS name of the headless service resolved with DNS membership (default service.namespace.svc).
+	 */
+	public void setMembershipDnsName(String membershipDnsName) {
+		this.membershipDnsName = membershipDnsName;
+	}
+
+	/**
+	 * Return the time in millis between resolving the members with DNS membership.
+	 */
+	public long getMembershipRefreshMillis() {
+		return membershipRefreshMillis;
+	}
+
+	/**
+	 * Set the time in millis between resolving the members with DNS membership (default 5000).
+	 */
+	public void setMembershipRefreshMillis(long membershipRefreshMillis) {
+		this.membershipRefreshMillis = membershipRefreshMillis;
+	}
+
+	/**
+	 * Return the IP addresses of the members with STATIC membership.
+	 */
+	public List<String> getStaticMembers() {
+		return staticMembers;
+	}
+
+	/**
+	 * Set the IP addresses of the members with STATIC membership.
+	 * <p>
+	 * An address may be followed by the zone of the member, as in {@code 10.0.1.5@eu-west-1a}.
+	 * </p>
+	 */
+	public void setStaticMembers(List<String> staticMembers) {
+		this.staticMembers = staticMembers;
+	}
+
+	/**
+	 * Return the URL of the K8s API server watched, null for the one of the pod environment.
+	 */
+	public String getKubernetesApiUrl() {
+		return kubernetesApiUrl;
+	}
+
+	/**
+	 * Set the URL of the K8s API server watched (default from the pod environment).
+	 */
+	public void setKubernetesApiUrl(String kubernetesApiUrl) {
+		this.kubernetesApiUrl = kubernetesApiUrl;
+	}
+
 	public void setPort(int port) {
 		this.port = port;
 	}
@@ -52,15 +431,723 @@ public class K8sServiceConfig {
 		this.threadPoolName = threadPoolName;
 	}
 
+	/**
+	 * Return the maximum number of messages queued per member.
+	 */
+	public int getSendQueueCapacity() {
+		return sendQueueCapacity;
+	}
+
+	/**
+	 * Set the maximum number of messages queued per member (default 10,000).
+	 */
+	public void setSendQueueCapacity(int sendQueueCapacity) {
+		this.sendQueueCapacity = sendQueueCapacity;
+	}
+
+	/**
+	 * Return what to do when a member send queue is full.
+	 */
+	public SendOverflowPolicy getSendOverflowPolicy() {
+		return sendOverflowPolicy;
+	}
+
+	/**
+	 * Set what to do when a member send queue is full (default DROP_RESYNC).
+	 */
+	public void setSendOverflowPolicy(SendOverflowPolicy sendOverflowPolicy) {
+		this.sendOverflowPolicy = sendOverflowPolicy;
+	}
+
+	/**
+	 * Return the max time to block on a full send queue with the BLOCK policy.
+	 */
+	public long getSendBlockTimeoutMillis() {
+		return sendBlockTimeoutMillis;
+	}
+
+	/**
+	 * Set the max time to block on a full send queue with the BLOCK policy (default 100).
+	 */
+	public void setSendBlockTimeoutMillis(long sendBlockTimeoutMillis) {
+		this.sendBlockTimeoutMillis = sendBlockTimeoutMillis;
+	}
+
+	/**
+	 * Return the byte budget of messages sent to a member in a single write.
+	 */
+	public int getSendBatchBytes() {
+		return sendBatchBytes;
+	}
+
+	/**
+	 * Set the byte budget of messages sent to a member in a single write (default 64KB).
+	 */
+	public void setSendBatchBytes(int sendBatchBytes) {
+		this.sendBatchBytes = sendBatchBytes;
+	}
+
+	/**
+	 * Return the time in microseconds to wait for more messages when batching.
+	 */
+	public long getSendBatchLingerMicros() {
+		return sendBatchLingerMicros;
+	}
+
+	/**
+	 * Set the time in microseconds to wait for more messages when batching (default 0).
+	 * <p>
+	 * The wait only occurs when the previous batch held more than one message, that
+	 * is during a burst of commits, such that a single commit is not delayed.
+	 * </p>
+	 */
+	public void setSendBatchLingerMicros(long sendBatchLingerMicros) {
+		this.sendBatchLingerMicros = sendBatchLingerMicros;
+	}
+
+	/**
+	 * Return true if connections are read using a non-blocking selector.
+	 */
+	public boolean isNioListener() {
+		return nioListener;
+	}
+
+	/**
+	 * Set true to read all the connections using a single non-blocking selector
+	 * thread rather than a thread per connection (default false).
+	 */
+	public void setNioListener(boolean nioListener) {
+		this.nioListener = nioListener;
+	}
+
+	/**
+	 * Return the address the listener binds to, null for all the addresses.
+	 */
+	public String getBindAddress() {
+		return bindAddress;
+	}
+
+	/**
+	 * Set the address the listener binds to (default all the addresses of the pod).
+	 */
+	public void setBindAddress(String bindAddress) {
+		this.bindAddress = bindAddress;
+	}
+
+	/**
+	 * Return the number of threads used to decode and the number used to apply received messages.
+	 */
+	public int getReceiveThreads() {
+		return receiveThreads;
+	}
+
+	/**
+	 * Set the number of threads used to decode and the number used to apply received messages (default 2).
+	 */
+	public void setReceiveThreads(int receiveThreads) {
+		this.receiveThreads = receiveThreads;
+	}
+
+	/**
+	 * Return the max number of received messages queued per member for each of decode and apply.
+	 */
+	public int getReceiveQueueCapacity() {
+		return receiveQueueCapacity;
+	}
+
+	/**
+	 * Set the max number of received messages queued per member for each of decode and apply (default 1000).
+	 */
+	public void setReceiveQueueCapacity(int receiveQueueCapacity) {
+		this.receiveQueueCapacity = receiveQueueCapacity;
+	}
+
+	/**
+	 * Return true if virtual threads are used to read and write connections.
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Set true to use a virtual thread per connection for reading and writing (default false).
+	 * <p>
+	 * This requires Java 21 or later, otherwise platform threads continue to be used.
+	 * A writer waiting for its socket to become writable waits in Selector.select,
+	 * which holds the carrier thread while it waits.
+	 * </p>
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Return the time in millis that outgoing events are held to be merged (0 for no coalescing).
+	 */
+	public long getCoalesceWindowMillis() {
+		return coalesceWindowMillis;
+	}
+
+	/**
+	 * Set the time in millis that outgoing events of a server are held and merged into one event (default 0, off).
+	 * <p>
+	 * This trades a small delay in invalidating the caches of the other members for
+	 * sending far fewer events when many small transactions are committed.
+	 * </p>
+	 */
+	public void setCoalesceWindowMillis(long coalesceWindowMillis) {
+		this.coalesceWindowMillis = coalesceWindowMillis;
+	}
+
+	/**
+	 * Return the max number of bean ids per bean type in a merged event.
+	 */
+	public int getCoalesceMaxBeanIds() {
+		return coalesceMaxBeanIds;
+	}
+
+	/**
+	 * Set the max number of bean ids per bean type in a merged event (default 1000).
+	 * <p>
+	 * Past this the bean type is invalidated via its base table rather than by id. This
+	 * applies to both the events coalesced when sending and the received events merged.
+	 * </p>
+	 */
+	public void setCoalesceMaxBeanIds(int coalesceMaxBeanIds) {
+		this.coalesceMaxBeanIds = coalesceMaxBeanIds;
+	}
+
+	/**
+	 * Return true if received events queued to be applied are merged.
+	 */
+	public boolean isReceiveMerge() {
+		return receiveMerge;
+	}
+
+	/**
+	 * Set true to merge the received events of a server that are queued to be applied (default false).
+	 * <p>
+	 * This allows a member that has fallen behind to catch up by applying one merged
+	 * event rather than each of the queued events.
+	 * </p>
+	 */
+	public void setReceiveMerge(boolean receiveMerge) {
+		this.receiveMerge = receiveMerge;
+	}
+
+	/**
+	 * Return the size in bytes from which event data is compressed (0 for no compression).
+	 */
+	public int getCompressThreshold() {
+		return compressThreshold;
+	}
+
+	/**
+	 * Set the size in bytes from which event data is compressed (default 0, off).
+	 * <p>
+	 * Members that do not support compression are sent the data uncompressed.
+	 * </p>
+	 */
+	public void setCompressThreshold(int compressThreshold) {
+		this.compressThreshold = compressThreshold;
+	}
+
+	/**
+	 * Return the max time in millis a broadcast waits for the event to be sent to all members (0 to not wait).
+	 */
+	public long getBroadcastWaitMillis() {
+		return broadcastWaitMillis;
+	}
+
+	/**
+	 * Set the max time in millis a broadcast waits for the event to be sent to all members (default 0, no wait).
+	 * <p>
+	 * The event is written to all the members in parallel by their writers, so the
+	 * wait is bounded by the slowest member rather than the sum of the writes. This
+	 * does not apply when events are coalesced.
+	 * </p>
+	 */
+	public void setBroadcastWaitMillis(long broadcastWaitMillis) {
+		this.broadcastWaitMillis = broadcastWaitMillis;
+	}
+
+	/**
+	 * Return the timeout in millis connecting to a member.
+	 */
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * Set the timeout in millis connecting to a member (default 2000, 0 for no timeout).
+	 * <p>
+	 * This also bounds the wait for the reply to the hello, which is 10 seconds
+	 * when there is no connect timeout.
+	 * </p>
+	 */
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	/**
+	 * Return the max time in millis a write to a member can make no progress.
+	 */
+	public int getWriteTimeoutMillis() {
+		return writeTimeoutMillis;
+	}
+
+	/**
+	 * Set the max time in millis a write to a member can make no progress before
+	 * the connection is treated as failed (default 5000, 0 for no timeout).
+	 */
+	public void setWriteTimeoutMillis(int writeTimeoutMillis) {
+		this.writeTimeoutMillis = writeTimeoutMillis;
+	}
+
+	/**
+	 * Return the initial delay in millis between attempts to reconnect to a member.
+	 */
+	public long getReconnectBackoffMillis() {
+		return reconnectBackoffMillis;
+	}
+
+	/**
+	 * Set the initial delay in millis between attempts to reconnect to a member (default 100).
+	 * <p>
+	 * The delay doubles after each failed attempt up to reconnectMaxBackoffMillis
+	 * and is randomised by up to half to avoid members reconnecting in step.
+	 * </p>
+	 */
+	public void setReconnectBackoffMillis(long reconnectBackoffMillis) {
+		this.reconnectBackoffMillis = reconnectBackoffMillis;
+	}
+
+	/**
+	 * Return the max delay in millis between attempts to reconnect to a member.
+	 */
+	public long getReconnectMaxBackoffMillis() {
+		return reconnectMaxBackoffMillis;
+	}
+
+	/**
+	 * Set the max delay in millis between attempts to reconnect to a member (default 10000).
+	 */
+	public void setReconnectMaxBackoffMillis(long reconnectMaxBackoffMillis) {
+		this.reconnectMaxBackoffMillis = reconnectMaxBackoffMillis;
+	}
+
+	/**
+	 * Return the number of attempts to reconnect to a member before its circuit is opened.
+	 */
+	public int getReconnectAttempts() {
+		return reconnectAttempts;
+	}
+
+	/**
+	 * Set the number of attempts to reconnect to a member before its circuit is opened (default 5).
+	 */
+	public void setReconnectAttempts(int reconnectAttempts) {
+		this.reconnectAttempts = reconnectAttempts;
+	}
+
+	/**
+	 * Return the number of recent writes to a member the circuit breaker uses.
+	 */
+	public int getCircuitWindowSize() {
+		return circuitWindowSize;
+	}
+
+	/**
+	 * Set the number of recent writes to a member the circuit breaker uses (default 20).
+	 */
+	public void setCircuitWindowSize(int circuitWindowSize) {
+		this.circuitWindowSize = circuitWindowSize;
+	}
+
+	/**
+	 * Return the min number of recent writes before the circuit breaker can open.
+	 */
+	public int getCircuitMinimumCalls() {
+		return circuitMinimumCalls;
+	}
+
+	/**
+	 * Set the min number of recent writes before the circuit breaker can open (default 5).
+	 */
+	public void setCircuitMinimumCalls(int circuitMinimumCalls) {
+		this.circuitMinimumCalls = circuitMinimumCalls;
+	}
+
+	/**
+	 * Return the percentage of failed recent writes that opens the circuit.
+	 */
+	public int getCircuitFailureRate() {
+		return circuitFailureRate;
+	}
+
+	/**
+	 * Set the percentage of failed recent writes that opens the circuit (default 50, 0 to ignore failures).
+	 */
+	public void setCircuitFailureRate(int circuitFailureRate) {
+		this.circuitFailureRate = circuitFailureRate;
+	}
+
+	/**
+	 * Return the percentage of slow recent writes that opens the circuit.
+	 */
+	public int getCircuitSlowCallRate() {
+		return circuitSlowCallRate;
+	}
+
+	/**
+	 * Set the percentage of slow recent writes that opens the circuit (default 80, 0 to ignore slow writes).
+	 */
+	public void setCircuitSlowCallRate(int circuitSlowCallRate) {
+		this.circuitSlowCallRate = circuitSlowCallRate;
+	}
+
+	/**
+	 * Return the time in millis above which a write to a member is slow.
+	 */
+	public long getCircuitSlowCallMillis() {
+		return circuitSlowCallMillis;
+	}
+
+	/**
+	 * Set the time in millis above which a write to a member is slow (default 1000).
+	 */
+	public void setCircuitSlowCallMillis(long circuitSlowCallMillis) {
+		this.circuitSlowCallMillis = circuitSlowCallMillis;
+	}
+
+	/**
+	 * Return the time in millis the circuit stays open before the member is probed.
+	 */
+	public long getCircuitOpenMillis() {
+		return circuitOpenMillis;
+	}
+
+	/**
+	 * Set the time in millis the circuit stays open before the member is probed (default 5000).
+	 */
+	public void setCircuitOpenMillis(long circuitOpenMillis) {
+		this.circuitOpenMillis = circuitOpenMillis;
+	}
+
+	/**
+	 * Return true if the data messages sent include a sequence number.
+	 */
+	public boolean isSequenceNumbers() {
+		return sequenceNumbers;
+	}
+
+	/**
+	 * Set true to include a sequence number in the data messages sent (default false).
+	 * <p>
+	 * The members use the sequence numbers to detect messages that were missed and
+	 * recover as per their gap recovery. Members that do not support sequence numbers
+	 * are sent the messages without them.
+	 * </p>
+	 */
+	public void setSequenceNumbers(boolean sequenceNumbers) {
+		this.sequenceNumbers = sequenceNumbers;
+	}
+
+	/**
+	 * Return what to do when a gap in the messages from a member is detected.
+	 */
+	public GapRecovery getGapRecovery() {
+		return gapRecovery;
+	}
+
+	/**
+	 * Set what to do when a gap in the messages from a member is detected (default CLEAR_CACHES).
+	 */
+	public void setGapRecovery(GapRecovery gapRecovery) {
+		this.gapRecovery = gapRecovery;
+	}
+
+	/**
+	 * Return the number of recently sent events held to replay to reconnecting members (0 for no replay).
+	 */
+	public int getReplayCapacity() {
+		return replayCapacity;
+	}
+
+	/**
+	 * Set the number of recently sent events held to replay to reconnecting members (default 0, no replay).
+	 * <p>
+	 * This requires sequence numbers. A reconnecting member is sent the events it
+	 * missed, or a cache clear when they are no longer held.
+	 * </p>
+	 */
+	public void setReplayCapacity(int replayCapacity) {
+		this.replayCapacity = replayCapacity;
+	}
+
+	/**
+	 * Return the directory of the spill files (null for no spill files).
+	 */
+	public String getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	/**
+	 * Set the directory of the spill files (default null, no spill files).
+	 * <p>
+	 * When set, the messages for a member that do not fit in its send queue, or
+	 * arrive while its circuit is open, are written to a memory mapped file per
+	 * member rather than dropped and sent once the member has caught up.
+	 * </p>
+	 */
+	public void setSpillDirectory(String spillDirectory) {
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * Return the size in bytes of the spill file of a member.
+	 */
+	public int getSpillMaxBytes() {
+		return spillMaxBytes;
+	}
+
+	/**
+	 * Set the size in bytes of the spill file of a member (default 64MB).
+	 * <p>
+	 * When the file is full the messages are dropped and the member is sent a cache clear.
+	 * </p>
+	 */
+	public void setSpillMaxBytes(int spillMaxBytes) {
+		this.spillMaxBytes = spillMaxBytes;
+	}
+
+	/**
+	 * Return true if the events of each server (database) are sent on their own lane.
+	 */
+	public boolean isLanes() {
+		return lanes;
+	}
+
+	/**
+	 * Set true to send the events of each server (database) on their own lane (default false).
+	 * <p>
+	 * Each lane has its own send queue, sequence numbers and replay log, and the lanes
+	 * take turns sending over the connection to a member such that a large backlog of
+	 * events for one server does not hold up the events of the others. The receiving
+	 * member applies the events of each lane in order.
+	 * </p>
+	 */
+	public void setLanes(boolean lanes) {
+		this.lanes = lanes;
+	}
+
+	/**
+	 * Return the size in bytes from which events are sent with bulk priority (0 for no priorities).
+	 */
+	public int getPriorityBulkBytes() {
+		return priorityBulkBytes;
+	}
+
+	/**
+	 * Set the size in bytes from which events are sent with bulk priority (default 0, no priorities).
+	 * <p>
+	 * When set, membership messages are sent first, then the smaller events and then
+	 * the events of at least this size. The bulk events are sent on a lane of their
+	 * own, and a smaller event of a table with bulk events still queued is sent after
+	 * them on that lane. The receiving members apply the two lanes independently,
+	 * so the events of a table sent on different lanes may be applied out of order,
+	 * which leaves the same caches invalidated once both are applied.
+	 * </p>
+	 */
+	public void setPriorityBulkBytes(int priorityBulkBytes) {
+		this.priorityBulkBytes = priorityBulkBytes;
+	}
+
+	/**
+	 * Return the size in bytes of the chunks large events are sent as (0 for no chunks).
+	 */
+	public int getChunkBytes() {
+		return chunkBytes;
+	}
+
+	/**
+	 * Set the size in bytes of the chunks large events are sent as (default 0, no chunks).
+	 * <p>
+	 * Events larger than this are sent as several frames of at most this size, such
+	 * that other messages are sent between them and the receiving members do not
+	 * allocate the whole event as one array. Without chunks an event larger than 10MB
+	 * can not be sent. Members that do not support chunks are sent the whole event.
+	 * </p>
+	 */
+	public void setChunkBytes(int chunkBytes) {
+		this.chunkBytes = chunkBytes;
+	}
+
+	/**
+	 * Return the number of members each member relays the events to (0 to send to all the members).
+	 */
+	public int getRelayFanout() {
+		return relayFanout;
+	}
+
+	/**
+	 * Set the number of members each member relays the events to (default 0, send to all the members).
+	 * <p>
+	 * When set, the events are sent over a broadcast tree of this fanout rooted at the
+	 * sending member, such that it sends each event to this many members and they send
+	 * it on, rather than sending it to every member. A member receiving an event more
+	 * than once (while the members are changing) applies it once. Events sent as chunks
+	 * are sent to every member, and members that do not relay are sent the events directly.
+	 * </p>
+	 */
+	public void setRelayFanout(int relayFanout) {
+		this.relayFanout = relayFanout;
+	}
+
+	/**
+	 * Return true if the events are relayed to each other zone via one member of the zone.
+	 */
+	public boolean isRelayZones() {
+		return relayZones;
+	}
+
+	/**
+	 * Set true to relay the events to each other zone via one member of the zone (default false).
+	 * <p>
+	 * The events are sent directly to the members in the same zone and to one member
+	 * of each other zone, which sends them on to the members of its zone, such that
+	 * each event crosses to each other zone once. The zones of the members are taken
+	 * from the membership provider, members of an unknown zone are sent the events
+	 * directly. Takes precedence over the relay fanout.
+	 * </p>
+	 */
+	public void setRelayZones(boolean relayZones) {
+		this.relayZones = relayZones;
+	}
+
+	/**
+	 * Return the number of events relayed for each other member held to replay.
+	 */
+	public int getRelayReplayCapacity() {
+		return relayReplayCapacity;
+	}
+
+	/**
+	 * Set the number of events relayed for each other member held to replay (default 1000).
+	 * <p>
+	 * The events a member relays for each other member (and lane) are numbered and
+	 * replayed on their own, so the memory held for replay grows with the number of
+	 * members relaying through this one. This caps the replay log of each of them, at
+	 * most the replay capacity.
+	 * </p>
+	 */
+	public void setRelayReplayCapacity(int relayReplayCapacity) {
+		this.relayReplayCapacity = relayReplayCapacity;
+	}
+
+	/**
+	 * Return the zone of this member, null to take it from the membership provider.
+	 */
+	public String getZone() {
+		return zone;
+	}
+
+	/**
+	 * Set the zone of this member (default taken from the membership provider).
+	 */
+	public void setZone(String zone) {
+		this.zone = zone;
+	}
+
+	/**
+	 * Return true if failed members are detected by gossip between the members.
+	 */
+	public boolean isGossip() {
+		return gossip;
+	}
+
+	/**
+	 * Set true to detect failed members by gossip between the members (default false).
+	 * <p>
+	 * Each interval a member pings another member, asking a few others to ping it when
+	 * it does not ack in time. A member that still does not ack is suspected, and is
+	 * removed when the suspicion is not refuted within the suspect time. The suspicions
+	 * are piggybacked on the pings such that all the members learn of them. This detects
+	 * a failed member in seconds rather than waiting for the membership to change.
+	 * </p>
+	 */
+	public void setGossip(boolean gossip) {
+		this.gossip = gossip;
+	}
+
+	/**
+	 * Return the interval in millis between the pings of the members.
+	 */
+	public long getGossipIntervalMillis() {
+		return gossipIntervalMillis;
+	}
+
+	/**
+	 * Set the interval in millis between the pings of the members (default 1000).
+	 */
+	public void setGossipIntervalMillis(long gossipIntervalMillis) {
+		this.gossipIntervalMillis = gossipIntervalMillis;
+	}
+
+	/**
+	 * Return the time in millis to wait for an ack before asking other members to ping.
+	 */
+	public long getGossipTimeoutMillis() {
+		return gossipTimeoutMillis;
+	}
+
+	/**
+	 * Set the time in millis to wait for an ack before asking other members to ping (default 300).
+	 * <p>
+	 * This should be less than the interval.
+	 * </p>
+	 */
+	public void setGossipTimeoutMillis(long gossipTimeoutMillis) {
+		this.gossipTimeoutMillis = gossipTimeoutMillis;
+	}
+
+	/**
+	 * Return the number of members asked to ping a member that did not ack.
+	 */
+	public int getGossipIndirectPings() {
+		return gossipIndirectPings;
+	}
+
+	/**
+	 * Set the number of members asked to ping a member that did not ack (default 3).
+	 */
+	public void setGossipIndirectPings(int gossipIndirectPings) {
+		this.gossipIndirectPings = gossipIndirectPings;
+	}
+
+	/**
+	 * Return the time in millis a member is suspected before it is removed.
+	 */
+	public long getGossipSuspectMillis() {
+		return gossipSuspectMillis;
+	}
+
+	/**
+	 * Set the time in millis a member is suspected before it is removed (default 5000).
+	 */
+	public void setGossipSuspectMillis(long gossipSuspectMillis) {
+		this.gossipSuspectMillis = gossipSuspectMillis;
+	}
+
 	public K8sServiceMember member() {
-		return discovery.getMember();
+		return getDiscovery().getMember();
 	}
 
 	public List<String> otherIps() {
-		return discovery.getOtherIps();
+		return getDiscovery().getOtherIps();
 	}
 
 	public K8sServiceMembers allMembers() {
-		return discovery.getMembers();
+		return getDiscovery().getMembers();
 	}
 }
@@ -0,0 +1,27 @@
+package io.ebean.k8scache;
+
+/**
+ * How the members of the cluster are provided.
+ */
+public enum Membership {
+
+	/**
+	 * Load the endpoints of the service from the K8s API when the membership is checked.
+	 */
+	DISCOVERY,
+
+	/**
+	 * Watch the EndpointSlices of the service via the K8s API.
+	 */
+	WATCH,
+
+	/**
+	 * Resolve the A records of the headless service.
+	 */
+	DNS,
+
+	/**
+	 * A static list of members, for tests and running locally.
+	 */
+	STATIC
+}
@@ -0,0 +1,86 @@
+package io.ebean.k8scache;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Set;
+
+/**
+ * Provides the members of the cluster, reporting the members joining and leaving.
+ * <p>
+ * A provider can be set on the K8sServiceConfig or registered as a service
+ * (via ServiceLoader), otherwise the provider is chosen by the membership setting.
+ * </p>
+ */
+public interface MembershipProvider {
+
+	/**
+	 * Start providing the members, reporting the changes to the listener.
+	 * <p>
+	 * The members known when this returns are available via {@link #members()} and
+	 * are not reported to the listener.
+	 * </p>
+	 */
+	void start(Listener listener);
+
+	/**
+	 * Return the IP addresses of the current members, which may include this one.
+	 */
+	Set<String> members();
+
+	/**
+	 * Return the IP address of this member, null when it can not be determined.
+	 * <p>
+	 * Used when the localIp is not set. By default this is the address the local
+	 * host name resolves to, which in a pod is the pod IP address.
+	 * </p>
+	 */
+	default String localIp() {
+		try {
+			return InetAddress.getLocalHost().getHostAddress();
+		} catch (UnknownHostException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Return the zone (topology.kubernetes.io/zone) of the member, null when not known.
+	 * <p>
+	 * Used to relay the events to the members of other zones via one member of each zone.
+	 * </p>
+	 */
+	default String zone(String ip) {
+		return null;
+	}
+
+	/**
+	 * Check for changes to the members now, reporting them to the listener.
+	 * <p>
+	 * Called when the membership is checked. Providers that are notified of the
+	 * changes do not need to do anything.
+	 * </p>
+	 */
+	default void refresh() {
+		// do nothing by default
+	}
+
+	/**
+	 * Stop providing the members.
+	 */
+	void stop();
+
+	/**
+	 * Listener for the members joining and leaving the cluster.
+	 */
+	interface Listener {
+
+		/**
+		 * The member with the given IP address joined the cluster.
+		 */
+		void memberAdded(String ip);
+
+		/**
+		 * The member with the given IP address left the cluster.
+		 */
+		void memberRemoved(String ip);
+	}
+}
@@ -0,0 +1,24 @@
+package io.ebean.k8scache;
+
+/**
+ * What to do when the outbound queue for a cluster member is full.
+ */
+public enum SendOverflowPolicy {
+
+	/**
+	 * Drop the queued messages and follow them with a cache clear so that the
+	 * member does not keep stale entries.
+	 */
+	DROP_RESYNC,
+
+	/**
+	 * Block the broadcasting thread for up to the send block timeout and then
+	 * fall back to DROP_RESYNC.
+	 */
+	BLOCK,
+
+	/**
+	 * Disconnect and de-register the member. It will rejoin on the next membership check.
+	 */
+	DISCONNECT
+}
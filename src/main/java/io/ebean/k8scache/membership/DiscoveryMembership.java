@@ -0,0 +1,61 @@
+package io.ebean.k8scache.membership;
+
+import io.ebean.k8scache.MembershipProvider;
+import org.avaje.k8s.discovery.K8sMemberDiscovery;
+import org.avaje.k8s.discovery.K8sServiceMember;
+
+import java.util.Set;
+
+import static io.ebean.k8scache.K8sBroadcastFactory.log;
+
+/**
+ * Membership loaded from the endpoints of the K8s service via the discovery.
+ * <p>
+ * The endpoints are loaded from the K8s API when the membership is checked.
+ * </p>
+ */
+public final class DiscoveryMembership implements MembershipProvider {
+
+  private final K8sMemberDiscovery discovery;
+
+  private final MemberChanges members = new MemberChanges("Discovery");
+
+  public DiscoveryMembership(K8sMemberDiscovery discovery) {
+    this.discovery = discovery;
+  }
+
+  @Override
+  public void start(Listener listener) {
+    members.update(discovery.getOtherIps());
+    members.listener(listener);
+  }
+
+  /**
+   * Return the IP address of the endpoint of this pod loaded from the K8s API.
+   */
+  @Override
+  public String localIp() {
+    K8sServiceMember member = discovery.getMember();
+    if (member == null) {
+      log.error("Unable to determine current pod Ip searching for pod:" + discovery.getPodName() + " in members:" + discovery.getMembers());
+      return null;
+    }
+    return member.getIpAddress();
+  }
+
+  @Override
+  public Set<String> members() {
+    return members.members();
+  }
+
+  @Override
+  public void refresh() {
+    discovery.reload();
+    members.update(discovery.getOtherIps());
+  }
+
+  @Override
+  public void stop() {
+    // nothing to stop
+  }
+}
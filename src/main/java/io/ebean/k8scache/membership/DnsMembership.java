@@ -0,0 +1,97 @@
+package io.ebean.k8scache.membership;
+
+import io.ebean.k8scache.MembershipProvider;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static io.ebean.k8scache.K8sBroadcastFactory.log;
+
+/**
+ * Membership from the A records of a headless K8s service.
+ * <p>
+ * The DNS name of a headless service resolves to the addresses of its ready pods.
+ * It is resolved periodically in the background and when the membership is checked,
+ * which does not use the K8s API. Note the JVM caches resolved names for
+ * {@code networkaddress.cache.ttl} seconds (30 by default), which bounds how soon
+ * a change is seen.
+ * </p>
+ */
+public final class DnsMembership implements MembershipProvider {
+
+  private final String dnsName;
+
+  private final long refreshMillis;
+
+  private final String threadName;
+
+  private final MemberChanges members = new MemberChanges("DNS");
+
+  private volatile boolean running;
+
+  private Thread thread;
+
+  /**
+   * Create resolving the DNS name every refreshMillis (0 for only when the membership is checked).
+   */
+  public DnsMembership(String dnsName, long refreshMillis, String threadName) {
+    this.dnsName = dnsName;
+    this.refreshMillis = refreshMillis;
+    this.threadName = threadName;
+  }
+
+  @Override
+  public void start(Listener listener) {
+    running = true;
+    refresh();
+    members.listener(listener);
+    if (refreshMillis > 0) {
+      thread = new Thread(this::run, threadName);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  @Override
+  public Set<String> members() {
+    return members.members();
+  }
+
+  @Override
+  public void refresh() {
+    try {
+      InetAddress[] addresses = InetAddress.getAllByName(dnsName);
+      List<String> current = new ArrayList<>(addresses.length);
+      for (InetAddress address : addresses) {
+        current.add(address.getHostAddress());
+      }
+      members.update(current);
+    } catch (UnknownHostException e) {
+      // no ready pods, or DNS is not available, so keep the known members
+      log.warn("Unable to resolve members from {} {}", dnsName, e.getMessage());
+    }
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        Thread.sleep(refreshMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      refresh();
+    }
+  }
+}
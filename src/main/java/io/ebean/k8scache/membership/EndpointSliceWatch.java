@@ -0,0 +1,358 @@
+package io.ebean.k8scache.membership;
+
+import io.ebean.k8scache.MembershipProvider;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static io.ebean.k8scache.K8sBroadcastFactory.log;
+
+/**
+ * Membership from a watch of the EndpointSlices of the K8s service.
+ * <p>
+ * The slices are listed and then watched from the resource version of the list,
+ * such that the members joining and leaving are reported as the API server sends
+ * the changes to the slices. The members are the ready endpoints of all the slices,
+ * with the zone of each endpoint.
+ * When the watch fails it is started again with a backoff, listing the slices
+ * again when the resource version has expired.
+ * </p>
+ * <p>
+ * Uses the token and CA certificate of the pod service account, which needs to be
+ * allowed to list and watch endpointslices in the namespace.
+ * </p>
+ */
+public final class EndpointSliceWatch implements MembershipProvider {
+
+  private static final String SERVICE_ACCOUNT = "/var/run/secrets/kubernetes.io/serviceaccount/";
+
+  /**
+   * The time the API server holds a watch open before it is started again.
+   */
+  private static final int WATCH_SECONDS = 300;
+
+  private static final long MIN_BACKOFF_MILLIS = 500;
+
+  private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+  private final String slicesUrl;
+
+  private final String threadName;
+
+  private final int connectTimeoutMillis;
+
+  /**
+   * The ready endpoint IP addresses with their zone by slice name.
+   */
+  private final Map<String, Map<String, String>> slices = new HashMap<>();
+
+  private final MemberChanges members = new MemberChanges("EndpointSlice");
+
+  /**
+   * The zone of the members by IP address.
+   */
+  private volatile Map<String, String> zones = Collections.emptyMap();
+
+  private volatile boolean running;
+
+  private SSLSocketFactory sslSocketFactory;
+
+  private Thread thread;
+
+  private String resourceVersion;
+
+  /**
+   * Create for the service in the namespace using the given K8s API server URL.
+   */
+  public EndpointSliceWatch(String apiUrl, String namespace, String serviceName, String threadName, int connectTimeoutMillis) {
+    String base = apiUrl.endsWith("/") ? apiUrl.substring(0, apiUrl.length() - 1) : apiUrl;
+    this.slicesUrl = base + "/apis/discovery.k8s.io/v1/namespaces/" + namespace + "/endpointslices?labelSelector="
+      + URLEncoder.encode("kubernetes.io/service-name=" + serviceName, StandardCharsets.UTF_8);
+    this.threadName = threadName;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+  }
+
+  /**
+   * Return the URL of the API server from the environment of the pod.
+   */
+  public static String defaultApiUrl() {
+    String host = System.getenv("KUBERNETES_SERVICE_HOST");
+    if (host == null) {
+      return "https://kubernetes.default.svc";
+    }
+    String port = System.getenv("KUBERNETES_SERVICE_PORT");
+    if (host.indexOf(':') >= 0) {
+      // IPv6 address
+      host = "[" + host + "]";
+    }
+    return "https://" + host + (port == null ? "" : ":" + port);
+  }
+
+  @Override
+  public void start(Listener listener) {
+    this.running = true;
+    try {
+      list();
+    } catch (IOException e) {
+      log.warn("Unable to list the endpoint slices " + e.getMessage() + ", retrying in the background");
+    }
+    members.listener(listener);
+    thread = new Thread(this::run, threadName);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public Set<String> members() {
+    return members.members();
+  }
+
+  @Override
+  public String zone(String ip) {
+    return zones.get(ip);
+  }
+
+  /**
+   * Stop watching.
+   * <p>
+   * A blocked read of the watch can not be interrupted (and disconnecting from another
+   * thread blocks on it), so the daemon watch thread ends at the next event or bookmark
+   * from the API server, or when the watch times out.
+   * </p>
+   */
+  @Override
+  public void stop() {
+    running = false;
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  private void run() {
+    long backoff = MIN_BACKOFF_MILLIS;
+    while (running) {
+      try {
+        if (resourceVersion == null) {
+          list();
+        }
+        watch();
+        backoff = MIN_BACKOFF_MILLIS;
+      } catch (IOException e) {
+        if (!running) {
+          break;
+        }
+        log.warn("Error watching the endpoint slices " + e.getMessage() + ", retrying in " + backoff + " millis");
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+      }
+    }
+    log.debug("Stopped watching the endpoint slices");
+  }
+
+  /**
+   * List the slices replacing the ones known.
+   */
+  private void list() throws IOException {
+    HttpURLConnection connection = open(slicesUrl, connectTimeoutMillis);
+    Map<String, Object> list;
+    try (InputStream input = connection.getInputStream()) {
+      list = object(Json.parse(new String(input.readAllBytes(), StandardCharsets.UTF_8)));
+    } finally {
+      connection.disconnect();
+    }
+    Map<String, Map<String, String>> listed = new HashMap<>();
+    for (Object item : Json.array(list, "items")) {
+      Map<String, Object> slice = object(item);
+      listed.put(name(slice), addresses(slice));
+    }
+    synchronized (this) {
+      slices.clear();
+      slices.putAll(listed);
+      resourceVersion = Json.string(Json.object(list, "metadata"), "resourceVersion");
+      update();
+    }
+  }
+
+  /**
+   * Watch the slices applying the changes until the API server ends the watch.
+   */
+  private void watch() throws IOException {
+    String url = slicesUrl + "&watch=true&allowWatchBookmarks=true&timeoutSeconds=" + WATCH_SECONDS + "&resourceVersion=" + resourceVersion;
+    HttpURLConnection connection = open(url, (int) TimeUnit.SECONDS.toMillis(WATCH_SECONDS + 30));
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while (running && (line = reader.readLine()) != null) {
+        if (!line.isEmpty() && !apply(object(Json.parse(line)))) {
+          return;
+        }
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Apply the watch event returning false when the slices need to be listed again.
+   */
+  private synchronized boolean apply(Map<String, Object> event) throws IOException {
+    String type = Json.string(event, "type");
+    Map<String, Object> slice = Json.object(event, "object");
+    if ("ERROR".equals(type)) {
+      Object code = slice.get("code");
+      if (code instanceof Long && (Long) code == 410) {
+        // the resource version is too old
+        log.debug("Endpoint slices resource version expired, listing again");
+        resourceVersion = null;
+        return false;
+      }
+      throw new IOException("Watch error " + Json.string(slice, "message"));
+    }
+    if ("ADDED".equals(type) || "MODIFIED".equals(type)) {
+      slices.put(name(slice), addresses(slice));
+    } else if ("DELETED".equals(type)) {
+      slices.remove(name(slice));
+    }
+    String version = Json.string(Json.object(slice, "metadata"), "resourceVersion");
+    if (version != null) {
+      resourceVersion = version;
+    }
+    if (!"BOOKMARK".equals(type)) {
+      update();
+    }
+    return true;
+  }
+
+  /**
+   * Set the members from the slices reporting the members that joined and left.
+   */
+  private void update() {
+    Map<String, String> current = new LinkedHashMap<>();
+    for (Map<String, String> addresses : slices.values()) {
+      current.putAll(addresses);
+    }
+    // the zones are set first such that they are known to the listener
+    Map<String, String> currentZones = new HashMap<>();
+    for (Map.Entry<String, String> entry : current.entrySet()) {
+      if (entry.getValue() != null) {
+        currentZones.put(entry.getKey(), entry.getValue());
+      }
+    }
+    zones = currentZones;
+    members.update(current.keySet());
+  }
+
+  private static String name(Map<String, Object> slice) {
+    return Json.string(Json.object(slice, "metadata"), "name");
+  }
+
+  /**
+   * Return the addresses of the ready endpoints of the slice with their zone (null when not set).
+   */
+  private static Map<String, String> addresses(Map<String, Object> slice) throws IOException {
+    Map<String, String> addresses = new LinkedHashMap<>();
+    for (Object item : Json.array(slice, "endpoints")) {
+      Map<String, Object> endpoint = object(item);
+      // a ready condition that is not set means ready
+      if (!Boolean.FALSE.equals(Json.object(endpoint, "conditions").get("ready"))) {
+        String zone = Json.string(endpoint, "zone");
+        for (Object address : Json.array(endpoint, "addresses")) {
+          addresses.put((String) address, zone);
+        }
+      }
+    }
+    return addresses;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> object(Object value) throws IOException {
+    if (!(value instanceof Map)) {
+      throw new IOException("Expected a JSON object from the API server");
+    }
+    return (Map<String, Object>) value;
+  }
+
+  private HttpURLConnection open(String url, int readTimeoutMillis) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    if (connection instanceof HttpsURLConnection) {
+      SSLSocketFactory factory = sslSocketFactory();
+      if (factory != null) {
+        ((HttpsURLConnection) connection).setSSLSocketFactory(factory);
+      }
+    }
+    Path token = Paths.get(SERVICE_ACCOUNT + "token");
+    if (Files.exists(token)) {
+      // read each time as the projected token is rotated
+      connection.setRequestProperty("Authorization", "Bearer " + Files.readString(token).trim());
+    }
+    connection.setRequestProperty("Accept", "application/json");
+    connection.setConnectTimeout(connectTimeoutMillis);
+    connection.setReadTimeout(readTimeoutMillis);
+    int status = connection.getResponseCode();
+    if (status == HttpURLConnection.HTTP_GONE) {
+      connection.disconnect();
+      resourceVersion = null;
+      throw new IOException("Resource version expired");
+    }
+    if (status != HttpURLConnection.HTTP_OK) {
+      connection.disconnect();
+      throw new IOException("Unexpected status " + status + " from " + url);
+    }
+    return connection;
+  }
+
+  /**
+   * Return the socket factory trusting the CA certificate of the service account, null when there is none.
+   */
+  private synchronized SSLSocketFactory sslSocketFactory() throws IOException {
+    if (sslSocketFactory == null) {
+      Path caCert = Paths.get(SERVICE_ACCOUNT + "ca.crt");
+      if (!Files.exists(caCert)) {
+        return null;
+      }
+      try (InputStream input = Files.newInputStream(caCert)) {
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        int count = 0;
+        for (Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(input)) {
+          trustStore.setCertificateEntry("ca" + count++, certificate);
+        }
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagerFactory.getTrustManagers(), null);
+        sslSocketFactory = context.getSocketFactory();
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Unable to load the service account CA certificate", e);
+      }
+    }
+    return sslSocketFactory;
+  }
+}
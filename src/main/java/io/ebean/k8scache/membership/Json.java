@@ -0,0 +1,225 @@
+package io.ebean.k8scache.membership;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader for the K8s API responses.
+ * <p>
+ * Objects are read as maps, arrays as lists, numbers as Long or Double and the
+ * literals as Boolean or null.
+ * </p>
+ */
+final class Json {
+
+  private final String text;
+
+  private int pos;
+
+  private Json(String text) {
+    this.text = text;
+  }
+
+  /**
+   * Parse the JSON text.
+   */
+  static Object parse(String text) throws IOException {
+    Json json = new Json(text);
+    Object value = json.value();
+    json.whitespace();
+    if (json.pos < text.length()) {
+      throw json.error("Unexpected content");
+    }
+    return value;
+  }
+
+  /**
+   * Return the map of the named object in the object, empty when absent.
+   */
+  @SuppressWarnings("unchecked")
+  static Map<String, Object> object(Map<String, Object> object, String name) {
+    Object value = object.get(name);
+    return value instanceof Map ? (Map<String, Object>) value : Collections.emptyMap();
+  }
+
+  /**
+   * Return the named array in the object, empty when absent.
+   */
+  @SuppressWarnings("unchecked")
+  static List<Object> array(Map<String, Object> object, String name) {
+    Object value = object.get(name);
+    return value instanceof List ? (List<Object>) value : Collections.emptyList();
+  }
+
+  /**
+   * Return the named string in the object, null when absent.
+   */
+  static String string(Map<String, Object> object, String name) {
+    Object value = object.get(name);
+    return value instanceof String ? (String) value : null;
+  }
+
+  private Object value() throws IOException {
+    whitespace();
+    if (pos >= text.length()) {
+      throw error("Unexpected end");
+    }
+    char ch = text.charAt(pos);
+    switch (ch) {
+      case '{':
+        return object();
+      case '[':
+        return array();
+      case '"':
+        return string();
+      case 't':
+        return literal("true", Boolean.TRUE);
+      case 'f':
+        return literal("false", Boolean.FALSE);
+      case 'n':
+        return literal("null", null);
+      default:
+        return number();
+    }
+  }
+
+  private Map<String, Object> object() throws IOException {
+    Map<String, Object> map = new LinkedHashMap<>();
+    pos++;
+    whitespace();
+    if (next('}')) {
+      return map;
+    }
+    do {
+      whitespace();
+      if (pos >= text.length() || text.charAt(pos) != '"') {
+        throw error("Expected name");
+      }
+      String name = string();
+      whitespace();
+      if (!next(':')) {
+        throw error("Expected :");
+      }
+      map.put(name, value());
+      whitespace();
+    } while (next(','));
+    if (!next('}')) {
+      throw error("Expected }");
+    }
+    return map;
+  }
+
+  private List<Object> array() throws IOException {
+    List<Object> list = new ArrayList<>();
+    pos++;
+    whitespace();
+    if (next(']')) {
+      return list;
+    }
+    do {
+      list.add(value());
+      whitespace();
+    } while (next(','));
+    if (!next(']')) {
+      throw error("Expected ]");
+    }
+    return list;
+  }
+
+  private String string() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    pos++;
+    while (pos < text.length()) {
+      char ch = text.charAt(pos++);
+      if (ch == '"') {
+        return sb.toString();
+      }
+      if (ch != '\\') {
+        sb.append(ch);
+      } else if (pos < text.length()) {
+        char escaped = text.charAt(pos++);
+        switch (escaped) {
+          case 'b':
+            sb.append('\b');
+            break;
+          case 'f':
+            sb.append('\f');
+            break;
+          case 'n':
+            sb.append('\n');
+            break;
+          case 'r':
+            sb.append('\r');
+            break;
+          case 't':
+            sb.append('\t');
+            break;
+          case 'u':
+            if (pos + 4 > text.length()) {
+              throw error("Invalid escape");
+            }
+            try {
+              sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+            } catch (NumberFormatException e) {
+              throw error("Invalid escape");
+            }
+            pos += 4;
+            break;
+          default:
+            sb.append(escaped);
+        }
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  private Object number() throws IOException {
+    int start = pos;
+    boolean decimal = false;
+    while (pos < text.length()) {
+      char ch = text.charAt(pos);
+      if (ch == '.' || ch == 'e' || ch == 'E') {
+        decimal = true;
+      } else if (ch != '-' && ch != '+' && (ch < '0' || ch > '9')) {
+        break;
+      }
+      pos++;
+    }
+    String number = text.substring(start, pos);
+    try {
+      return decimal ? (Object) Double.valueOf(number) : (Object) Long.valueOf(number);
+    } catch (NumberFormatException e) {
+      throw error("Invalid value");
+    }
+  }
+
+  private Object literal(String literal, Object value) throws IOException {
+    if (!text.startsWith(literal, pos)) {
+      throw error("Invalid value");
+    }
+    pos += literal.length();
+    return value;
+  }
+
+  private boolean next(char ch) {
+    if (pos < text.length() && text.charAt(pos) == ch) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void whitespace() {
+    while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private IOException error(String message) {
+    return new IOException(message + " in JSON at position " + pos);
+  }
+}
@@ -0,0 +1,65 @@
+package io.ebean.k8scache.membership;
+
+import io.ebean.k8scache.MembershipProvider;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static io.ebean.k8scache.K8sBroadcastFactory.log;
+
+/**
+ * The current members of a provider, reporting the members joining and leaving
+ * as they are updated.
+ */
+final class MemberChanges {
+
+  private final String source;
+
+  private volatile Set<String> members = Collections.emptySet();
+
+  private MembershipProvider.Listener listener;
+
+  MemberChanges(String source) {
+    this.source = source;
+  }
+
+  /**
+   * Set the listener the changes are reported to.
+   */
+  synchronized void listener(MembershipProvider.Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Return the current members.
+   */
+  Set<String> members() {
+    return members;
+  }
+
+  /**
+   * Set the current members reporting the members that joined and left.
+   */
+  synchronized void update(Collection<String> current) {
+    Set<String> previous = members;
+    Set<String> updated = Collections.unmodifiableSet(new LinkedHashSet<>(current));
+    members = updated;
+    if (listener == null) {
+      return;
+    }
+    for (String ip : previous) {
+      if (!updated.contains(ip)) {
+        log.debug("{} member removed {}", source, ip);
+        listener.memberRemoved(ip);
+      }
+    }
+    for (String ip : updated) {
+      if (!previous.contains(ip)) {
+        log.debug("{} member added {}", source, ip);
+        listener.memberAdded(ip);
+      }
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package io.ebean.k8scache.membership;
+
+import io.ebean.k8scache.MembershipProvider;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Membership from a static list of IP addresses, for tests and running locally.
+ * <p>
+ * Each member can be given with its zone as <code>ip@zone</code>.
+ * </p>
+ */
+public final class StaticMembership implements MembershipProvider {
+
+  private final Set<String> members;
+
+  private final Map<String, String> zones = new HashMap<>();
+
+  public StaticMembership(Collection<String> members) {
+    Set<String> ips = new LinkedHashSet<>();
+    for (String member : members) {
+      int at = member.indexOf('@');
+      if (at < 0) {
+        ips.add(member);
+      } else {
+        String ip = member.substring(0, at);
+        ips.add(ip);
+        zones.put(ip, member.substring(at + 1));
+      }
+    }
+    this.members = Collections.unmodifiableSet(ips);
+  }
+
+  @Override
+  public void start(Listener listener) {
+    // the members do not change
+  }
+
+  @Override
+  public Set<String> members() {
+    return members;
+  }
+
+  @Override
+  public String zone(String ip) {
+    return zones.get(ip);
+  }
+
+  @Override
+  public void stop() {
+    // nothing to stop
+  }
+}
@@ -0,0 +1,84 @@
+package io.ebean.k8scache.message;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of byte arrays used for the data of messages being sent and received.
+ * <p>
+ * The arrays are pooled in power of two sizes from 512 bytes to 1MB, larger
+ * arrays are not pooled. Each size keeps up to 4MB of arrays (and at least 4)
+ * such that the memory held by the pool is bounded.
+ * </p>
+ */
+final class BufferPool {
+
+  static final BufferPool INSTANCE = new BufferPool();
+
+  private static final int MIN_SHIFT = 9;
+
+  private static final int MAX_SHIFT = 20;
+
+  private static final int BYTES_PER_SIZE = 4 * 1024 * 1024;
+
+  private final SizePool[] pools = new SizePool[MAX_SHIFT - MIN_SHIFT + 1];
+
+  private BufferPool() {
+    for (int i = 0; i < pools.length; i++) {
+      int size = 1 << (i + MIN_SHIFT);
+      pools[i] = new SizePool(Math.max(4, BYTES_PER_SIZE / size));
+    }
+  }
+
+  /**
+   * Return an array with at least the given length.
+   */
+  byte[] acquire(int minLength) {
+    int index = index(minLength);
+    if (index >= pools.length) {
+      return new byte[minLength];
+    }
+    byte[] buffer = pools[index].queue.poll();
+    if (buffer != null) {
+      pools[index].count.decrementAndGet();
+      return buffer;
+    }
+    return new byte[1 << (index + MIN_SHIFT)];
+  }
+
+  /**
+   * Return the array to the pool. The array must not be used after this.
+   */
+  void release(byte[] buffer) {
+    int index = index(buffer.length);
+    if (index < pools.length && buffer.length == 1 << (index + MIN_SHIFT)) {
+      SizePool pool = pools[index];
+      if (pool.count.incrementAndGet() <= pool.max) {
+        pool.queue.offer(buffer);
+      } else {
+        pool.count.decrementAndGet();
+      }
+    }
+  }
+
+  private static int index(int length) {
+    if (length <= 1 << MIN_SHIFT) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_SHIFT;
+  }
+
+  private static final class SizePool {
+
+    final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+
+    final AtomicInteger count = new AtomicInteger();
+
+    final int max;
+
+    SizePool(int max) {
+      this.max = max;
+    }
+  }
+}
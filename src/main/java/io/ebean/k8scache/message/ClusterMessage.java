@@ -1,18 +1,103 @@
 package io.ebean.k8scache.message;
 
 import io.ebean.k8scache.socket.MsgKeys;
+import io.ebeaninternal.api.BinaryWritable;
+import io.ebeaninternal.api.BinaryWriteContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * The message broadcast around the cluster.
+ * <p>
+ * Messages are reference counted, they are created with a count of 1 and
+ * {@link #retain()} is called for each additional holder (like each member send
+ * queue). The data of transaction messages created from an event or read from
+ * a connection is held in a pooled array which is returned to the pool when
+ * {@link #release()} has been called by every holder.
+ * </p>
+ * <p>
+ * The complete frame of the message is encoded once and each member write uses
+ * duplicate views of it. A message created from an event reserves room for the
+ * header in front of its data such that the frame is one contiguous buffer.
+ * </p>
+ * <p>
+ * A large data message can be sent as chunks, each a frame holding part of the
+ * data, such that no frame is larger than the chunk size and other messages can
+ * be sent between the chunks. The receiver assembles the chunks into a message
+ * that reads its data from the chunks without copying them into one array.
+ * </p>
  */
 public class ClusterMessage {
 
   private static final int MAX_LENGTH = 10 * 1024 * 1024;
 
+  /**
+   * The max length of the data of a message sent as chunks.
+   */
+  private static final int MAX_CHUNKED_LENGTH = 256 * 1024 * 1024;
+
+  /**
+   * Flag of a DATA_EXT message indicating the data is compressed.
+   */
+  private static final int FLAG_DEFLATE = 1;
+
+  /**
+   * Flag of a DATA_EXT message indicating it has the sequence number of the sender.
+   */
+  private static final int FLAG_SEQUENCE = 2;
+
+  /**
+   * Flag of a DATA_EXT message indicating it has the lane of the sender it was sent on.
+   */
+  private static final int FLAG_LANE = 4;
+
+  /**
+   * Flag of a DATA_EXT message indicating it is a chunk of a message with the chunk index and count.
+   */
+  private static final int FLAG_CHUNK = 8;
+
+  /**
+   * Flag of a DATA_EXT message indicating it is relayed by the members with the origin
+   * member, instance, lane, number, send time and fanout.
+   */
+  private static final int FLAG_RELAY = 64;
+
+  /**
+   * The fanout of a message relayed by one member of each other zone to the members of its zone.
+   */
+  public static final int ZONE_FANOUT = 255;
+
+  /**
+   * The flags this version is able to read.
+   */
+  private static final int KNOWN_FLAGS = FLAG_DEFLATE | FLAG_SEQUENCE | FLAG_LANE | FLAG_CHUNK | FLAG_RELAY;
+
+  /**
+   * The max size of the header of a data message.
+   */
+  private static final int MAX_HEADER = 33;
+
+  private static final BufferPool pool = BufferPool.INSTANCE;
+
   private final String registerIp;
 
   private final String podName;
@@ -21,6 +106,122 @@ public class ClusterMessage {
 
   private final byte[] data;
 
+  /**
+   * The position of the data in the array.
+   */
+  private final int offset;
+
+  /**
+   * The number of bytes of data (which can be less than the array length when pooled).
+   */
+  private final int length;
+
+  private int flags;
+
+  /**
+   * True for a failure detection message between the members.
+   */
+  private boolean gossip;
+
+  /**
+   * The sequence number of the message from the sender, -1 when not sequenced.
+   */
+  private long sequence = -1;
+
+  /**
+   * The lane of the sender the message is sent on, 0 for the default lane.
+   */
+  private int lane;
+
+  /**
+   * The member that broadcast a relayed message, null when not relayed.
+   */
+  private String origin;
+
+  /**
+   * The instance of the origin member.
+   */
+  private long originEpoch;
+
+  /**
+   * The lane of the origin member the message was sent on.
+   */
+  private int originLane;
+
+  /**
+   * The number of the message on the lane of the origin member.
+   */
+  private long originSequence;
+
+  /**
+   * The time in epoch millis the origin member sent the message.
+   */
+  private long originTime;
+
+  /**
+   * The number of members each member relays the message to, 0 when not relayed further.
+   */
+  private int fanout;
+
+  /**
+   * The priority the message is sent with, not sent to the member.
+   */
+  private MessagePriority priority;
+
+  /**
+   * The length of the data when it is not compressed.
+   */
+  private final int dataLength;
+
+  /**
+   * The index of the chunk and number of chunks of the message, when a chunk.
+   */
+  private int chunkIndex;
+
+  private int chunkCount;
+
+  /**
+   * The message a sent chunk is part of and holds a reference to.
+   */
+  private ClusterMessage parent;
+
+  /**
+   * The chunks a received message was assembled from.
+   */
+  private ClusterMessage[] chunks;
+
+  /**
+   * Decompresses the data of the chunks, ended when released.
+   */
+  private Inflater chunksInflater;
+
+  private final AtomicInteger refCount = new AtomicInteger(1);
+
+  /**
+   * True when the data is held in a pooled array.
+   */
+  private final boolean pooled;
+
+  /**
+   * Set when a thread waits for the message to be released by all holders.
+   */
+  private volatile boolean awaited;
+
+  /**
+   * The pooled decompressed data.
+   */
+  private byte[] inflated;
+
+  /**
+   * The read only buffers of the encoded frame.
+   */
+  private ByteBuffer[] frame;
+
+  /**
+   * The frames encoded for members without the capabilities for some of the flags, by the flags of the frame.
+   */
+  private Map<Integer, ByteBuffer[]> downgradedFrames;
+
   /**
    * Create a register message.
    */
@@ -32,7 +233,67 @@ public class ClusterMessage {
    * Create a transaction message.
    */
   public static ClusterMessage transEvent(byte[] data) {
-    return new ClusterMessage(data);
+    return new ClusterMessage(data, 0, data.length, 0, data.length, false);
+  }
+
+  /**
+   * Create a transaction message compressing the data when it is at least compressThreshold bytes.
+   * <p>
+   * A compressThreshold of 0 means never compress. The data is sent uncompressed
+   * when it does not compress to less than 90% of its size.
+   * </p>
+   */
+  public static ClusterMessage transEvent(byte[] data, int compressThreshold) {
+    ClusterMessage compressed = compress(data, 0, data.length, compressThreshold);
+    return compressed != null ? compressed : transEvent(data);
+  }
+
+  /**
+   * Create a transaction message writing the event into a pooled array.
+   * <p>
+   * The returned message has a reference count of 1.
+   * </p>
+   */
+  public static ClusterMessage transEvent(BinaryWritable event, int compressThreshold) throws IOException {
+    PooledOutput output = new PooledOutput(pool, 256, MAX_HEADER);
+    try {
+      DataOutputStream dataOutput = new DataOutputStream(output);
+      event.writeBinary(new BinaryWriteContext(dataOutput));
+      dataOutput.flush();
+    } catch (IOException | RuntimeException e) {
+      pool.release(output.buffer());
+      throw e;
+    }
+    int length = output.count() - MAX_HEADER;
+    ClusterMessage compressed = compress(output.buffer(), MAX_HEADER, length, compressThreshold);
+    if (compressed != null) {
+      pool.release(output.buffer());
+      return compressed;
+    }
+    return new ClusterMessage(output.buffer(), MAX_HEADER, length, 0, length, true);
+  }
+
+  /**
+   * Create a failure detection message sent with high priority.
+   */
+  public static ClusterMessage gossip(byte[] data) {
+    ClusterMessage message = new ClusterMessage(data, 0, data.length, 0, data.length, false);
+    message.gossip = true;
+    message.priority = MessagePriority.HIGH;
+    return message;
+  }
+
+  private static ClusterMessage compress(byte[] data, int offset, int length, int compressThreshold) {
+    if (compressThreshold > 0 && length >= compressThreshold) {
+      int maxLength = length - length / 10;
+      byte[] compressed = pool.acquire(maxLength);
+      int count = Deflate.compress(data, offset, length, compressed, maxLength);
+      if (count >= 0) {
+        return new ClusterMessage(compressed, 0, count, FLAG_DEFLATE, length, true);
+      }
+      pool.release(compressed);
+    }
+    return null;
   }
 
   /**
@@ -43,13 +304,25 @@ public class ClusterMessage {
     this.register = register;
     this.podName = podName;
     this.data = null;
+    this.offset = 0;
+    this.length = 0;
+    this.flags = 0;
+    this.dataLength = 0;
+    this.pooled = false;
+    this.priority = MessagePriority.HIGH;
   }
 
   /**
    * Create for a transaction message.
    */
-  private ClusterMessage(byte[] data) {
+  private ClusterMessage(byte[] data, int offset, int length, int flags, int dataLength, boolean pooled) {
     this.data = data;
+    this.offset = offset;
+    this.length = length;
+    this.flags = flags;
+    this.dataLength = dataLength;
+    this.pooled = pooled;
+    this.priority = MessagePriority.NORMAL;
     this.registerIp = null;
     this.podName = null;
     this.register = false;
@@ -62,12 +335,102 @@ public class ClusterMessage {
       sb.append(register);
       sb.append(" ");
       sb.append(registerIp);
+    } else if (gossip) {
+      sb.append("[gossip]");
+    } else if (isCompressed()) {
+      sb.append("[data compressed ").append(length).append('/').append(dataLength).append(']');
     } else {
       sb.append("[data]");
     }
+    if (chunks != null) {
+      sb.append(" chunks:").append(chunks.length);
+    } else if ((flags & FLAG_CHUNK) != 0) {
+      sb.append(" chunk:").append(chunkIndex + 1).append('/').append(chunkCount);
+    }
+    if (lane != 0) {
+      sb.append(" lane:").append(lane);
+    }
+    if (priority == MessagePriority.BULK) {
+      sb.append(" bulk");
+    }
+    if (sequence >= 0) {
+      sb.append(" seq:").append(sequence);
+    }
+    if (origin != null) {
+      sb.append(" relay:").append(origin).append('/').append(originLane).append('/').append(originSequence);
+    }
     return sb.toString();
   }
 
+  /**
+   * Add a reference to the message such that its data is not released until
+   * a matching call to {@link #release()}.
+   */
+  public void retain() {
+    if (refCount.getAndIncrement() <= 0) {
+      throw new IllegalStateException("Message already released");
+    }
+  }
+
+  /**
+   * Release a reference to the message returning its data to the pool after the last one.
+   * <p>
+   * The message must not be used by the caller after this.
+   * </p>
+   */
+  public void release() {
+    int count = refCount.decrementAndGet();
+    if (count == 0) {
+      if (pooled) {
+        pool.release(data);
+        if (inflated != null) {
+          pool.release(inflated);
+          inflated = null;
+        }
+      }
+      if (parent != null) {
+        parent.release();
+      }
+      if (chunks != null) {
+        for (ClusterMessage chunk : chunks) {
+          chunk.release();
+        }
+        if (chunksInflater != null) {
+          chunksInflater.end();
+        }
+      }
+    } else if (count < 0) {
+      throw new IllegalStateException("Message released more times than retained");
+    }
+    if (awaited) {
+      synchronized (refCount) {
+        refCount.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Wait up to the given time for the holders to release the message until at
+   * most the given number of holders remain.
+   * <p>
+   * Returns false if there were more holders of the message when the time passed.
+   * </p>
+   */
+  public boolean awaitReleased(int remaining, long timeoutMillis) throws InterruptedException {
+    awaited = true;
+    long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    synchronized (refCount) {
+      while (refCount.get() > remaining) {
+        long wait = until - System.nanoTime();
+        if (wait <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(refCount, wait);
+      }
+    }
+    return true;
+  }
+
   /**
    * Return true if this is a register event as opposed to a transaction message.
    */
@@ -75,6 +438,20 @@ public class ClusterMessage {
     return registerIp != null;
   }
 
+  /**
+   * Return true if this is a failure detection message.
+   */
+  public boolean isGossip() {
+    return gossip;
+  }
+
+  /**
+   * Return true if this is a register offline message (the member is leaving).
+   */
+  public boolean isDeregister() {
+    return registerIp != null && !register;
+  }
+
   /**
    * Return the register host for online/offline message.
    */
@@ -94,22 +471,487 @@ public class ClusterMessage {
   }
 
   /**
-   * Return the raw message data.
+   * Set the sequence number of the message from this sender.
+   * <p>
+   * This must be set before the message is encoded.
+   * </p>
+   */
+  public void setSequence(long sequence) {
+    if (frame != null) {
+      throw new IllegalStateException("Message already encoded");
+    }
+    this.sequence = sequence;
+    this.flags |= FLAG_SEQUENCE;
+  }
+
+  /**
+   * Return the sequence number of the message from the sender or -1 if it has none.
    */
-  public byte[] getData() {
-    return data;
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Set the lane the message is sent on.
+   * <p>
+   * The messages of each lane are queued, sequenced and applied independently of
+   * the other lanes. This must be set before the message is encoded.
+   * </p>
+   */
+  public void setLane(int lane) {
+    if (frame != null) {
+      throw new IllegalStateException("Message already encoded");
+    }
+    this.lane = lane;
+    this.flags |= FLAG_LANE;
+  }
+
+  /**
+   * Return the lane the message is sent on, 0 for the default lane.
+   */
+  public int getLane() {
+    return lane;
+  }
+
+  /**
+   * Set the message to be relayed by the members from the origin member.
+   * <p>
+   * The origin instance, lane and number identify the message such that the copies
+   * of it received from different members are applied once. The fanout is the
+   * number of members each member relays it to, or ZONE_FANOUT when it is relayed
+   * by one member of each other zone. This must be set before the message is encoded.
+   * </p>
+   */
+  public void setRelay(String origin, long originEpoch, int originLane, long originSequence, int fanout) {
+    if (frame != null) {
+      throw new IllegalStateException("Message already encoded");
+    }
+    this.origin = origin;
+    this.originEpoch = originEpoch;
+    this.originLane = originLane;
+    this.originSequence = originSequence;
+    this.originTime = System.currentTimeMillis();
+    this.fanout = fanout;
+    this.flags |= FLAG_RELAY;
+  }
+
+  /**
+   * Return true if the message is relayed by the members.
+   */
+  public boolean isRelayed() {
+    return origin != null;
+  }
+
+  /**
+   * Return the member that broadcast the relayed message.
+   */
+  public String getOrigin() {
+    return origin;
+  }
+
+  /**
+   * Return the instance of the member that broadcast the relayed message.
+   */
+  public long getOriginEpoch() {
+    return originEpoch;
+  }
+
+  /**
+   * Return the lane of the origin member the relayed message was sent on.
+   */
+  public int getOriginLane() {
+    return originLane;
+  }
+
+  /**
+   * Return the number of the relayed message on the lane of the origin member.
+   */
+  public long getOriginSequence() {
+    return originSequence;
+  }
+
+  /**
+   * Return the time in epoch millis the origin member sent the relayed message.
+   */
+  public long getOriginTime() {
+    return originTime;
+  }
+
+  /**
+   * Return the number of members each member relays the message to, 0 when not relayed further.
+   */
+  public int getFanout() {
+    return fanout;
+  }
+
+  /**
+   * Return a copy of the received relayed message to be sent on to other members
+   * which relay it with the given fanout.
+   * <p>
+   * The copy shares the data of this message and holds a reference to it. The
+   * lane and sequence number of the copy are those of the member relaying it.
+   * </p>
+   */
+  public ClusterMessage relay(int fanout) {
+    if (origin == null || chunks != null || isChunk()) {
+      throw new IllegalStateException("Message can not be relayed");
+    }
+    ClusterMessage copy = new ClusterMessage(data, offset, length, flags & (FLAG_DEFLATE | FLAG_RELAY), dataLength, false);
+    copy.origin = origin;
+    copy.originEpoch = originEpoch;
+    copy.originLane = originLane;
+    copy.originSequence = originSequence;
+    copy.originTime = originTime;
+    copy.fanout = fanout;
+    copy.priority = priority;
+    retain();
+    copy.parent = this;
+    return copy;
+  }
+
+  /**
+   * Set the priority the message is sent with.
+   */
+  public void setPriority(MessagePriority priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * Return the priority the message is sent with, HIGH for register messages and NORMAL by default for data messages.
+   */
+  public MessagePriority getPriority() {
+    return priority;
+  }
+
+  /**
+   * Return true if the message is no longer held by more than the given number of holders.
+   */
+  public boolean isReleased(int remaining) {
+    return refCount.get() <= remaining;
+  }
+
+  /**
+   * Return true if the message data is compressed.
+   */
+  public boolean isCompressed() {
+    return (flags & FLAG_DEFLATE) != 0;
+  }
+
+  /**
+   * Return a copy of the raw message data.
+   */
+  public byte[] getData() throws IOException {
+    if (chunks != null) {
+      byte[] out = new byte[dataLength];
+      getDataInput().readFully(out);
+      return out;
+    }
+    if (isCompressed()) {
+      byte[] out = new byte[dataLength];
+      Deflate.decompress(data, length, out, dataLength);
+      return out;
+    }
+    return offset == 0 && data.length == length ? data : Arrays.copyOfRange(data, offset, offset + length);
+  }
+
+  /**
+   * Return the raw message data as a stream without copying it.
+   * <p>
+   * Compressed data is decompressed into a pooled array, so this is expected to
+   * be called once by the thread decoding the message before it is released.
+   * </p>
+   */
+  public DataInputStream getDataInput() throws IOException {
+    if (chunks != null) {
+      return chunksInput();
+    }
+    if (isCompressed()) {
+      return new DataInputStream(new ByteArrayInputStream(inflated(), 0, dataLength));
+    }
+    return new DataInputStream(new ByteArrayInputStream(data, offset, length));
+  }
+
+  /**
+   * Return the decompressed data, decompressing it into a pooled array the first time.
+   */
+  private synchronized byte[] inflated() throws IOException {
+    if (inflated == null) {
+      byte[] out = pooled ? pool.acquire(dataLength) : new byte[dataLength];
+      Deflate.decompress(data, length, out, dataLength);
+      inflated = out;
+    }
+    return inflated;
+  }
+
+  /**
+   * Return the data of the chunks as a stream, decompressing it as it is read.
+   */
+  private DataInputStream chunksInput() {
+    List<InputStream> inputs = new ArrayList<>(chunks.length);
+    for (ClusterMessage chunk : chunks) {
+      inputs.add(new ByteArrayInputStream(chunk.data, chunk.offset, chunk.length));
+    }
+    InputStream input = new SequenceInputStream(Collections.enumeration(inputs));
+    if (isCompressed()) {
+      if (chunksInflater == null) {
+        chunksInflater = new Inflater(true);
+      } else {
+        chunksInflater.reset();
+      }
+      input = new InflaterInputStream(input, chunksInflater, 8192);
+    }
+    return new DataInputStream(input);
+  }
+
+  /**
+   * Return the approximate size of the message in binary form.
+   */
+  public int size() {
+    return registerIp == null ? length + 13 : 64;
+  }
+
+  /**
+   * Return the message as chunks of at most the given number of data bytes.
+   * <p>
+   * Each message returned holds a reference to be released by the caller. When
+   * the data fits in one chunk (or chunkBytes is 0) this message is returned
+   * retained. The chunks share the data of this message and hold a reference to it.
+   * </p>
+   */
+  public List<ClusterMessage> chunks(int chunkBytes) {
+    if (chunkBytes <= 0 || registerIp != null || gossip || length <= chunkBytes) {
+      retain();
+      return Collections.singletonList(this);
+    }
+    int count = (length + chunkBytes - 1) / chunkBytes;
+    List<ClusterMessage> list = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int start = i * chunkBytes;
+      // chunks are sent to the members directly
+      ClusterMessage chunk = new ClusterMessage(data, offset + start, Math.min(chunkBytes, length - start), (flags & ~FLAG_RELAY) | FLAG_CHUNK, dataLength, false);
+      chunk.sequence = sequence;
+      chunk.lane = lane;
+      chunk.priority = priority;
+      chunk.chunkIndex = i;
+      chunk.chunkCount = count;
+      retain();
+      chunk.parent = this;
+      list.add(chunk);
+    }
+    return list;
+  }
+
+  /**
+   * Return true if this is a chunk of a message.
+   */
+  public boolean isChunk() {
+    return (flags & FLAG_CHUNK) != 0;
+  }
+
+  /**
+   * Return the index of the chunk, 0 for the first chunk of a message.
+   */
+  public int getChunkIndex() {
+    return chunkIndex;
+  }
+
+  /**
+   * Return true if this is the last chunk of a message.
+   */
+  public boolean isLastChunk() {
+    return chunkIndex == chunkCount - 1;
+  }
+
+  /**
+   * Return the message assembled from the received chunks taking over their references.
+   */
+  public static ClusterMessage assemble(List<ClusterMessage> chunks) throws InvalidMessageException {
+    ClusterMessage first = chunks.get(0);
+    long length = 0;
+    for (ClusterMessage chunk : chunks) {
+      length += chunk.length;
+    }
+    if (length > MAX_CHUNKED_LENGTH) {
+      throw new InvalidMessageException("Chunked message data too large length:" + length);
+    }
+    ClusterMessage message = new ClusterMessage(null, 0, (int) length, first.flags & ~FLAG_CHUNK, first.isCompressed() ? first.dataLength : (int) length, false);
+    message.sequence = first.sequence;
+    message.lane = first.lane;
+    message.chunks = chunks.toArray(new ClusterMessage[0]);
+    return message;
+  }
+
+  /**
+   * Add the message in binary form to the buffers of a gathering write.
+   * <p>
+   * The buffers added are views of the frame that is encoded once and shared
+   * by the writes to all the members.
+   * </p>
+   */
+  public void encode(List<ByteBuffer> buffers) throws IOException {
+    for (ByteBuffer buffer : frame()) {
+      buffers.add(buffer.duplicate());
+    }
+  }
+
+  /**
+   * Add the message in binary form for a member with the given capabilities to
+   * the buffers of a gathering write.
+   * <p>
+   * The optional fields the member can not read are left out and compressed data is
+   * decompressed for a member that can not read it. Returns false if the message can
+   * not be sent to the member, being a chunk of a message when it can not read chunks
+   * or a gossip message when it can not read them.
+   * </p>
+   */
+  public boolean encode(List<ByteBuffer> buffers, int capabilities) throws IOException {
+    if (gossip && (capabilities & MsgKeys.CAP_GOSSIP) == 0) {
+      return false;
+    }
+    // the capabilities of the optional fields match their flags
+    int frameFlags = flags & capabilities;
+    if (frameFlags == flags) {
+      encode(buffers);
+      return true;
+    }
+    if ((flags & FLAG_CHUNK) != 0) {
+      return false;
+    }
+    for (ByteBuffer buffer : downgradedFrame(frameFlags)) {
+      buffers.add(buffer.duplicate());
+    }
+    return true;
+  }
+
+  private synchronized ByteBuffer[] downgradedFrame(int frameFlags) throws IOException {
+    if (downgradedFrames == null) {
+      downgradedFrames = new HashMap<>(4);
+    }
+    ByteBuffer[] downgraded = downgradedFrames.get(frameFlags);
+    if (downgraded == null) {
+      byte[] frameData = data;
+      int frameOffset = offset;
+      int frameLength = length;
+      if (isCompressed() && (frameFlags & FLAG_DEFLATE) == 0) {
+        // inflated once for all the members that do not read compressed data
+        frameData = inflated();
+        frameOffset = 0;
+        frameLength = dataLength;
+      }
+      ByteBuffer header = ByteBuffer.allocate(headerSize(frameFlags));
+      putHeader(header, frameFlags, frameLength);
+      header.flip();
+      downgraded = new ByteBuffer[]{header.asReadOnlyBuffer(), ByteBuffer.wrap(frameData, frameOffset, frameLength).slice().asReadOnlyBuffer()};
+      downgradedFrames.put(frameFlags, downgraded);
+    }
+    return downgraded;
+  }
+
+  private synchronized ByteBuffer[] frame() throws IOException {
+    if (frame == null) {
+      frame = encodeFrame();
+    }
+    return frame;
+  }
+
+  private ByteBuffer[] encodeFrame() throws IOException {
+    if (chunks != null) {
+      throw new IllegalStateException("Assembled message can not be sent");
+    }
+    if (registerIp != null) {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+      write(new DataOutputStream(buffer));
+      return new ByteBuffer[]{ByteBuffer.wrap(buffer.toByteArray()).asReadOnlyBuffer()};
+    }
+    int headerSize = headerSize(flags);
+    if (parent == null && offset >= headerSize) {
+      // put the header in the space reserved in front of the data
+      int start = offset - headerSize;
+      putHeader(ByteBuffer.wrap(data, start, headerSize), flags, length);
+      return new ByteBuffer[]{ByteBuffer.wrap(data, start, headerSize + length).slice().asReadOnlyBuffer()};
+    }
+    ByteBuffer header = ByteBuffer.allocate(headerSize);
+    putHeader(header, flags, length);
+    header.flip();
+    return new ByteBuffer[]{header.asReadOnlyBuffer(), ByteBuffer.wrap(data, offset, length).slice().asReadOnlyBuffer()};
+  }
+
+  private int headerSize(int flags) {
+    if (flags == 0) {
+      return 8;
+    }
+    int size = 9;
+    if ((flags & FLAG_DEFLATE) != 0) {
+      size += 4;
+    }
+    if ((flags & FLAG_SEQUENCE) != 0) {
+      size += 8;
+    }
+    if ((flags & FLAG_LANE) != 0) {
+      size += 4;
+    }
+    if ((flags & FLAG_CHUNK) != 0) {
+      size += 8;
+    }
+    if ((flags & FLAG_RELAY) != 0) {
+      size += 31 + origin.length();
+    }
+    return size;
+  }
+
+  /**
+   * Put the header of a data message which is the key, the optional fields and the data length.
+   */
+  private void putHeader(ByteBuffer header, int flags, int length) {
+    if (gossip) {
+      header.putInt(MsgKeys.GOSSIP);
+    } else if (flags == 0) {
+      header.putInt(MsgKeys.DATA);
+    } else {
+      header.putInt(MsgKeys.DATA_EXT);
+      header.put((byte) flags);
+      // the optional fields in the order of their flag bits
+      if ((flags & FLAG_DEFLATE) != 0) {
+        header.putInt(dataLength);
+      }
+      if ((flags & FLAG_SEQUENCE) != 0) {
+        header.putLong(sequence);
+      }
+      if ((flags & FLAG_LANE) != 0) {
+        header.putInt(lane);
+      }
+      if ((flags & FLAG_CHUNK) != 0) {
+        header.putInt(chunkIndex);
+        header.putInt(chunkCount);
+      }
+      if ((flags & FLAG_RELAY) != 0) {
+        // as per writeUTF for the ASCII of an IP address
+        header.putShort((short) origin.length());
+        header.put(origin.getBytes(StandardCharsets.US_ASCII));
+        header.putLong(originEpoch);
+        header.putInt(originLane);
+        header.putLong(originSequence);
+        header.putLong(originTime);
+        header.put((byte) fanout);
+      }
+    }
+    header.putInt(length);
   }
 
   /**
    * Write the message in binary form.
+   * <p>
+   * This does not flush such that several messages can be written before a single flush.
+   * </p>
    */
   public void write(DataOutputStream dataOutput) throws IOException {
 
-    if (data != null) {
+    if (registerIp == null) {
       // write data message
-      dataOutput.writeInt(MsgKeys.DATA);
-      dataOutput.writeInt(data.length);
-      dataOutput.write(data);
+      ByteBuffer header = ByteBuffer.allocate(headerSize(flags));
+      putHeader(header, flags, length);
+      dataOutput.write(header.array(), 0, header.position());
+      dataOutput.write(data, offset, length);
     } else {
       // write header message
       dataOutput.writeInt(MsgKeys.HEADER);
@@ -117,23 +959,87 @@ public class ClusterMessage {
       dataOutput.writeBoolean(register);
       dataOutput.writeUTF(getPodName());
     }
-    dataOutput.flush();
   }
 
   /**
    * Read the message from binary form.
+   * <p>
+   * The data of a transaction message is read into a pooled array and the
+   * message should be released after it has been decoded.
+   * </p>
    */
   public static ClusterMessage read(DataInputStream dataInput) throws IOException, InvalidMessageException {
 
     int key = dataInput.readInt();
     if (key == MsgKeys.DATA) {
-      int length = dataInput.readInt();
-      if (length > MAX_LENGTH) {
-        throw new IOException("Message data too large length:"+length);
+      return readData(dataInput, 0, -1);
+
+    } else if (key == MsgKeys.DATA_EXT) {
+      int flags = dataInput.readUnsignedByte();
+      if ((flags & ~KNOWN_FLAGS) != 0) {
+        throw new InvalidMessageException("Unsupported message flags:" + flags);
+      }
+      int dataLength = -1;
+      if ((flags & FLAG_DEFLATE) != 0) {
+        dataLength = dataInput.readInt();
+        if (dataLength < 0) {
+          throw new InvalidMessageException("Invalid message data length:" + dataLength);
+        }
+        if (dataLength > ((flags & FLAG_CHUNK) != 0 ? MAX_CHUNKED_LENGTH : MAX_LENGTH)) {
+          throw new IOException("Message data too large length:" + dataLength);
+        }
       }
-      byte[] data = new byte[length];
-      dataInput.readFully(data);
-      return new ClusterMessage(data);
+      long sequence = -1;
+      if ((flags & FLAG_SEQUENCE) != 0) {
+        sequence = dataInput.readLong();
+      }
+      int lane = 0;
+      if ((flags & FLAG_LANE) != 0) {
+        lane = dataInput.readInt();
+      }
+      int chunkIndex = 0;
+      int chunkCount = 0;
+      if ((flags & FLAG_CHUNK) != 0) {
+        chunkIndex = dataInput.readInt();
+        chunkCount = dataInput.readInt();
+        if (chunkIndex < 0 || chunkIndex >= chunkCount) {
+          throw new InvalidMessageException("Invalid chunk:" + chunkIndex + " of " + chunkCount);
+        }
+      }
+      String origin = null;
+      long originEpoch = 0;
+      int originLane = 0;
+      long originSequence = 0;
+      long originTime = 0;
+      int fanout = 0;
+      if ((flags & FLAG_RELAY) != 0) {
+        origin = dataInput.readUTF();
+        originEpoch = dataInput.readLong();
+        originLane = dataInput.readInt();
+        originSequence = dataInput.readLong();
+        originTime = dataInput.readLong();
+        fanout = dataInput.readUnsignedByte();
+        if ((flags & FLAG_CHUNK) != 0) {
+          throw new InvalidMessageException("Relayed message can not be a chunk");
+        }
+      }
+      ClusterMessage message = readData(dataInput, flags, dataLength);
+      message.sequence = sequence;
+      message.lane = lane;
+      message.chunkIndex = chunkIndex;
+      message.chunkCount = chunkCount;
+      message.origin = origin;
+      message.originEpoch = originEpoch;
+      message.originLane = originLane;
+      message.originSequence = originSequence;
+      message.originTime = originTime;
+      message.fanout = fanout;
+      return message;
+
+    } else if (key == MsgKeys.GOSSIP) {
+      ClusterMessage message = readData(dataInput, 0, -1);
+      message.gossip = true;
+      return message;
 
     } else if (key == MsgKeys.HEADER) {
       String host = dataInput.readUTF();
@@ -146,4 +1052,23 @@ public class ClusterMessage {
     }
   }
 
+  private static ClusterMessage readData(DataInputStream dataInput, int flags, int dataLength) throws IOException, InvalidMessageException {
+    int length = dataInput.readInt();
+    if (length < 0) {
+      throw new InvalidMessageException("Invalid message data length:" + length);
+    }
+    if (length > MAX_LENGTH) {
+      throw new IOException("Message data too large length:"+length);
+    }
+    byte[] data = pool.acquire(length);
+    try {
+      dataInput.readFully(data, 0, length);
+    } catch (EOFException e) {
+      // a partial frame so the message will be read again
+      pool.release(data);
+      throw e;
+    }
+    return new ClusterMessage(data, 0, length, flags, dataLength < 0 ? length : dataLength, true);
+  }
+
 }
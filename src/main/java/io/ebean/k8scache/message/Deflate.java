@@ -0,0 +1,67 @@
+package io.ebean.k8scache.message;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses message data using Deflater at the fastest level.
+ * <p>
+ * The Deflater and Inflater are reused per thread as they hold native memory
+ * that is relatively expensive to allocate per message.
+ * </p>
+ */
+final class Deflate {
+
+  private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+
+  private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+  private Deflate() {
+  }
+
+  /**
+   * Compress the data into out returning the compressed length, or -1 if it does
+   * not compress to less than maxLength (which is at most the length of out).
+   */
+  static int compress(byte[] data, int offset, int length, byte[] out, int maxLength) {
+    Deflater deflater = deflaters.get();
+    try {
+      deflater.setInput(data, offset, length);
+      deflater.finish();
+      int count = 0;
+      while (!deflater.finished() && count < maxLength) {
+        count += deflater.deflate(out, count, maxLength - count);
+      }
+      return deflater.finished() ? count : -1;
+    } finally {
+      deflater.reset();
+    }
+  }
+
+  /**
+   * Decompress the data into out which is expected to have the given length.
+   */
+  static void decompress(byte[] data, int dataLength, byte[] out, int length) throws IOException {
+    Inflater inflater = inflaters.get();
+    try {
+      inflater.setInput(data, 0, dataLength);
+      int read = 0;
+      while (read < length && !inflater.finished()) {
+        int count = inflater.inflate(out, read, length - read);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        read += count;
+      }
+      if (read != length || !inflater.finished()) {
+        throw new IOException("Invalid compressed message data, expected length:" + length + " got:" + read);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Invalid compressed message data", e);
+    } finally {
+      inflater.reset();
+    }
+  }
+}
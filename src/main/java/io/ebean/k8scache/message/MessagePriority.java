@@ -0,0 +1,23 @@
+package io.ebean.k8scache.message;
+
+/**
+ * The priority a message is sent to a member with, the queued messages of a
+ * higher priority are sent before those of a lower priority.
+ */
+public enum MessagePriority {
+
+  /**
+   * Membership (register and deregister) messages.
+   */
+  HIGH,
+
+  /**
+   * Transaction events, the default for data messages.
+   */
+  NORMAL,
+
+  /**
+   * Large transaction events (for example of a bulk job) that are sent after the others.
+   */
+  BULK
+}
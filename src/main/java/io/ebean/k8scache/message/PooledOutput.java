@@ -0,0 +1,61 @@
+package io.ebean.k8scache.message;
+
+import java.io.OutputStream;
+
+/**
+ * OutputStream writing into arrays taken from the buffer pool.
+ * <p>
+ * A number of bytes can be reserved at the start of the array such that a
+ * header can be put in front of the bytes written without copying them.
+ * </p>
+ */
+final class PooledOutput extends OutputStream {
+
+  private final BufferPool pool;
+
+  private byte[] buffer;
+
+  private int count;
+
+  PooledOutput(BufferPool pool, int initialSize, int reserved) {
+    this.pool = pool;
+    this.buffer = pool.acquire(initialSize);
+    this.count = reserved;
+  }
+
+  /**
+   * Return the pooled array holding the bytes written.
+   */
+  byte[] buffer() {
+    return buffer;
+  }
+
+  /**
+   * Return the number of bytes written including those reserved.
+   */
+  int count() {
+    return count;
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(count + 1);
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ensureCapacity(count + len);
+    System.arraycopy(b, off, buffer, count, len);
+    count += len;
+  }
+
+  private void ensureCapacity(int length) {
+    if (length > buffer.length) {
+      byte[] larger = pool.acquire(Math.max(length, buffer.length * 2));
+      System.arraycopy(buffer, 0, larger, 0, count);
+      pool.release(buffer);
+      buffer = larger;
+    }
+  }
+}
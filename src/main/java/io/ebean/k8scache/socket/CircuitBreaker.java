@@ -0,0 +1,151 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.K8sServiceConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker for the writes to a cluster member.
+ * <p>
+ * The outcome of the recent writes is kept in a sliding window. When the rate
+ * of failed writes or the rate of slow writes in the window reaches its
+ * threshold the circuit opens. While open the messages for the member are
+ * dropped without any cost to the broadcasting threads. After the open time
+ * the circuit becomes half open and the writer probes the member, closing the
+ * circuit when the probe succeeds and opening it again otherwise.
+ * </p>
+ * <p>
+ * The outcomes are only recorded by the writer of the member, so only the
+ * state needs to be visible to other threads.
+ * </p>
+ */
+final class CircuitBreaker {
+
+  private static final byte SUCCESS = 0;
+
+  private static final byte FAILURE = 1;
+
+  private static final byte SLOW = 2;
+
+  private final byte[] window;
+
+  private final int minimumCalls;
+
+  private final int failureRate;
+
+  private final int slowCallRate;
+
+  private final long slowCallNanos;
+
+  private final long openMillis;
+
+  private volatile CircuitState state = CircuitState.CLOSED;
+
+  private long openedAt;
+
+  private int calls;
+
+  private int position;
+
+  private int failures;
+
+  private int slowCalls;
+
+  CircuitBreaker(K8sServiceConfig config) {
+    this.window = new byte[Math.max(1, config.getCircuitWindowSize())];
+    this.minimumCalls = Math.min(window.length, Math.max(1, config.getCircuitMinimumCalls()));
+    this.failureRate = config.getCircuitFailureRate();
+    this.slowCallRate = config.getCircuitSlowCallRate();
+    this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(config.getCircuitSlowCallMillis());
+    this.openMillis = config.getCircuitOpenMillis();
+  }
+
+  /**
+   * Return the current state.
+   */
+  CircuitState state() {
+    return state;
+  }
+
+  /**
+   * Return true if messages should be sent to the member.
+   */
+  boolean isClosed() {
+    return state == CircuitState.CLOSED;
+  }
+
+  /**
+   * Record a successful write that took the given time.
+   */
+  void success(long nanos) {
+    record(slowCallNanos > 0 && nanos > slowCallNanos ? SLOW : SUCCESS);
+  }
+
+  /**
+   * Record a failed write.
+   */
+  void failure() {
+    record(FAILURE);
+  }
+
+  private void record(byte outcome) {
+    if (calls == window.length) {
+      // remove the oldest outcome from the counts
+      byte oldest = window[position];
+      if (oldest == FAILURE) {
+        failures--;
+      } else if (oldest == SLOW) {
+        slowCalls--;
+      }
+    } else {
+      calls++;
+    }
+    window[position] = outcome;
+    position = (position + 1) % window.length;
+    if (outcome == FAILURE) {
+      failures++;
+    } else if (outcome == SLOW) {
+      slowCalls++;
+    }
+    if (calls >= minimumCalls && (exceeds(failures, failureRate) || exceeds(slowCalls, slowCallRate))) {
+      open();
+    }
+  }
+
+  private boolean exceeds(int count, int ratePercent) {
+    return ratePercent > 0 && count * 100 >= ratePercent * calls;
+  }
+
+  /**
+   * Open the circuit.
+   */
+  void open() {
+    openedAt = System.currentTimeMillis();
+    state = CircuitState.OPEN;
+  }
+
+  /**
+   * Return the millis until the member should be probed.
+   */
+  long untilProbe() {
+    return Math.max(0, openedAt + openMillis - System.currentTimeMillis());
+  }
+
+  /**
+   * Move to half open while the member is probed.
+   */
+  void halfOpen() {
+    state = CircuitState.HALF_OPEN;
+  }
+
+  /**
+   * Close the circuit after a successful probe.
+   */
+  void close() {
+    calls = 0;
+    position = 0;
+    failures = 0;
+    slowCalls = 0;
+    state = CircuitState.CLOSED;
+  }
+}
@@ -0,0 +1,22 @@
+package io.ebean.k8scache.socket;
+
+/**
+ * The state of the circuit breaker of a cluster member.
+ */
+public enum CircuitState {
+
+  /**
+   * Messages are sent to the member.
+   */
+  CLOSED,
+
+  /**
+   * The member is failing or too slow and messages for it are dropped.
+   */
+  OPEN,
+
+  /**
+   * The connection to the member is being probed to decide if it can be closed again.
+   */
+  HALF_OPEN
+}
@@ -0,0 +1,53 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.K8sBroadcastFactory;
+import org.slf4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the executors used to read and write the socket connections.
+ * <p>
+ * Virtual threads are used when requested and the JVM supports them (Java 21+).
+ * They are obtained reflectively such that this still runs on Java 11, falling
+ * back to a cached pool of daemon platform threads.
+ * </p>
+ */
+final class ClusterExecutors {
+
+  private static final Logger log = K8sBroadcastFactory.log;
+
+  private ClusterExecutors() {
+  }
+
+  /**
+   * Return an executor that runs each task in its own thread.
+   */
+  static ExecutorService threadPerTask(String namePrefix, boolean virtualThreads) {
+    if (virtualThreads) {
+      ExecutorService executor = virtualThreadPerTask(namePrefix);
+      if (executor != null) {
+        return executor;
+      }
+    }
+    return Executors.newCachedThreadPool(new DaemonThreadFactory(namePrefix));
+  }
+
+  private static ExecutorService virtualThreadPerTask(String namePrefix) {
+    try {
+      // Thread.ofVirtual().name(namePrefix, 1).factory()
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+      ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+      Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return (ExecutorService) perTask.invoke(null, factory);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.warn("Virtual threads not supported by this JVM, using platform threads for {}", namePrefix);
+      return null;
+    }
+  }
+}
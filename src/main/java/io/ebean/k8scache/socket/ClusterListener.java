@@ -0,0 +1,18 @@
+package io.ebean.k8scache.socket;
+
+/**
+ * Listens for connections from the other members of the cluster and reads
+ * the messages they send.
+ */
+interface ClusterListener {
+
+  /**
+   * Start listening for requests.
+   */
+  void startListening();
+
+  /**
+   * Shutdown this listener.
+   */
+  void shutdown();
+}
@@ -0,0 +1,192 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.K8sBroadcastFactory;
+import io.ebeaninternal.server.cluster.BinaryTransactionEventReader;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the outgoing events of each server for a short window and sends them
+ * merged into a single event.
+ * <p>
+ * The first event of a server starts the window and when it ends the events
+ * collected are merged by {@link TransactionEventMerger} and broadcast. The
+ * events are held in their binary form and read back to merge them as that
+ * includes the deleted ids that are otherwise not accessible.
+ * </p>
+ * <p>
+ * The events of a server are sent in the order of their windows, a window sent
+ * early (when full) cancels its timer and a window is only sent after the
+ * previous window of the server has been sent.
+ * </p>
+ */
+final class EventCoalescer {
+
+  private static final Logger log = K8sBroadcastFactory.log;
+
+  /**
+   * Send the events early when this many are pending for a server.
+   */
+  private static final int MAX_PENDING = 10_000;
+
+  private final K8sClusterBroadcast owner;
+
+  private final BinaryTransactionEventReader reader;
+
+  private final long windowMillis;
+
+  private final int maxBeanIds;
+
+  private final int maxPending;
+
+  private final ScheduledExecutorService timer;
+
+  /**
+   * The window of each server guarded by the map.
+   */
+  private final Map<String, Batch> batches = new HashMap<>();
+
+  EventCoalescer(K8sClusterBroadcast owner, BinaryTransactionEventReader reader, String poolName, long windowMillis, int maxBeanIds) {
+    this(owner, reader, poolName, windowMillis, maxBeanIds, MAX_PENDING);
+  }
+
+  EventCoalescer(K8sClusterBroadcast owner, BinaryTransactionEventReader reader, String poolName, long windowMillis, int maxBeanIds, int maxPending) {
+    this.owner = owner;
+    this.reader = reader;
+    this.windowMillis = windowMillis;
+    this.maxBeanIds = maxBeanIds;
+    this.maxPending = maxPending;
+    this.timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(poolName + "-coalesce-"));
+  }
+
+  /**
+   * Add the serialised event of the given server to be sent at the end of the window.
+   */
+  void add(String serverName, byte[] data) {
+    Batch batch;
+    synchronized (batches) {
+      batch = batches.computeIfAbsent(serverName, Batch::new);
+      if (batch.events.isEmpty()) {
+        int window = ++batch.window;
+        batch.timer = timer.schedule(() -> flush(batch, window), windowMillis, TimeUnit.MILLISECONDS);
+      }
+      batch.events.add(data);
+      if (batch.events.size() < maxPending) {
+        return;
+      }
+    }
+    flush(batch, 0);
+  }
+
+  /**
+   * Send the pending events of all the servers.
+   */
+  void flushAll() {
+    timer.shutdown();
+    List<Batch> all;
+    synchronized (batches) {
+      all = new ArrayList<>(batches.values());
+    }
+    for (Batch batch : all) {
+      flush(batch, 0);
+    }
+  }
+
+  /**
+   * Send the pending events of the server, only those of the given window when not 0.
+   * <p>
+   * The events are taken holding the send lock of the server such that the windows
+   * are sent in order.
+   * </p>
+   */
+  private void flush(Batch batch, int window) {
+    batch.sendLock.lock();
+    try {
+      List<byte[]> events;
+      synchronized (batches) {
+        events = batch.take(window);
+      }
+      if (events != null) {
+        send(batch.serverName, events);
+      }
+    } finally {
+      batch.sendLock.unlock();
+    }
+  }
+
+  private void send(String serverName, List<byte[]> events) {
+    if (events.size() == 1) {
+      owner.broadcast(serverName, events.get(0));
+      return;
+    }
+    byte[] merged;
+    try {
+      TransactionEventMerger merger = new TransactionEventMerger(serverName, maxBeanIds);
+      for (byte[] data : events) {
+        merger.add(reader.read(data));
+      }
+      merged = merger.merged().writeBinaryAsBytes(256);
+    } catch (Exception e) {
+      log.warn("Error merging " + events.size() + " events for " + serverName + ", sending them individually", e);
+      for (byte[] data : events) {
+        owner.broadcast(serverName, data);
+      }
+      return;
+    }
+    if (log.isTraceEnabled()) {
+      log.trace("merged {} events for {}", events.size(), serverName);
+    }
+    owner.broadcast(serverName, merged);
+  }
+
+  /**
+   * The events of the current window of a server and the timer ending it.
+   */
+  private static final class Batch {
+
+    private final String serverName;
+
+    /**
+     * Held while taking and sending the events of the server.
+     */
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    private List<byte[]> events = new ArrayList<>();
+
+    private ScheduledFuture<?> timer;
+
+    /**
+     * The number of the current window such that the timer of a window sent early is ignored.
+     */
+    private int window;
+
+    private Batch(String serverName) {
+      this.serverName = serverName;
+    }
+
+    /**
+     * Return the pending events cancelling the timer, null if there are none or they are of another window.
+     */
+    private List<byte[]> take(int window) {
+      if (events.isEmpty() || (window != 0 && window != this.window)) {
+        return null;
+      }
+      if (timer != null) {
+        timer.cancel(false);
+        timer = null;
+      }
+      List<byte[]> taken = events;
+      events = new ArrayList<>();
+      return taken;
+    }
+  }
+}
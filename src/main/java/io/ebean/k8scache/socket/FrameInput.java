@@ -0,0 +1,64 @@
+package io.ebean.k8scache.socket;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream over the bytes received so far on a non-blocking connection.
+ * <p>
+ * Reading past the available bytes returns end of stream (such that decoding a
+ * partial frame fails with EOFException) and records how many more bytes were
+ * wanted. This allows the frames to be decoded by the same code that reads a
+ * blocking stream without trying again until enough bytes are available.
+ * </p>
+ */
+final class FrameInput extends InputStream {
+
+  private ByteBuffer buffer;
+
+  private int shortfall;
+
+  /**
+   * Read from the given buffer.
+   */
+  void reset(ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.shortfall = 0;
+  }
+
+  /**
+   * Return the number of bytes wanted beyond those available when the last read failed.
+   */
+  int shortfall() {
+    return shortfall;
+  }
+
+  @Override
+  public int read() {
+    if (!buffer.hasRemaining()) {
+      shortfall = 1;
+      return -1;
+    }
+    return buffer.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    if (len == 0) {
+      return 0;
+    }
+    int available = buffer.remaining();
+    if (available == 0) {
+      shortfall = len;
+      return -1;
+    }
+    int count = Math.min(len, available);
+    buffer.get(b, off, count);
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return buffer.remaining();
+  }
+}
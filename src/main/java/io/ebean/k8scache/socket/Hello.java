@@ -0,0 +1,94 @@
+package io.ebean.k8scache.socket;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * The hello a member connecting to this one starts with.
+ * <p>
+ * Reads HELLO and HELLO_V2 and builds the reply to it, being the settled protocol
+ * version and capabilities for HELLO_V2 followed by the last sequence number
+ * received on each lane when resuming.
+ * </p>
+ */
+final class Hello {
+
+  private final String member;
+
+  private final boolean negotiated;
+
+  private final int version;
+
+  private final int capabilities;
+
+  private final long epoch;
+
+  private Hello(String member, boolean negotiated, int version, int capabilities, long epoch) {
+    this.member = member;
+    this.negotiated = negotiated;
+    this.version = version;
+    this.capabilities = capabilities;
+    this.epoch = epoch;
+  }
+
+  /**
+   * Return true if the key is one of the hello keys.
+   */
+  static boolean isHello(int helloKey) {
+    return helloKey == MsgKeys.HELLO || helloKey == MsgKeys.HELLO_V2;
+  }
+
+  /**
+   * Read the rest of the hello with the given key.
+   */
+  static Hello read(int helloKey, DataInput dataInput) throws IOException {
+    String member = dataInput.readUTF();
+    if (helloKey != MsgKeys.HELLO_V2) {
+      return new Hello(member, false, 1, 0, 0);
+    }
+    int version = dataInput.readInt();
+    int capabilities = dataInput.readInt() & MsgKeys.CAPABILITIES;
+    long epoch = dataInput.readLong();
+    return new Hello(member, true, Math.min(version, MsgKeys.PROTOCOL_VERSION), capabilities, epoch);
+  }
+
+  /**
+   * Return the IP address of the member.
+   */
+  String member() {
+    return member;
+  }
+
+  /**
+   * Return the epoch of the member when resuming, otherwise 0.
+   */
+  long epoch() {
+    return (capabilities & MsgKeys.CAP_RESUME) != 0 ? epoch : 0;
+  }
+
+  /**
+   * Return the reply given the last sequence numbers received, null when there is no reply.
+   */
+  ByteBuffer reply(Map<Integer, Long> lastSequences) {
+    if (!negotiated) {
+      return null;
+    }
+    boolean resume = (capabilities & MsgKeys.CAP_RESUME) != 0;
+    ByteBuffer reply = ByteBuffer.allocate(8 + (resume ? 4 + 12 * lastSequences.size() : 0));
+    reply.putInt(version).putInt(capabilities);
+    if (resume) {
+      reply.putInt(lastSequences.size());
+      for (Map.Entry<Integer, Long> entry : lastSequences.entrySet()) {
+        reply.putInt(entry.getKey()).putLong(entry.getValue());
+      }
+    }
+    reply.flip();
+    return reply;
+  }
+
+  public String toString() {
+    return member + " version:" + version + " capabilities:" + capabilities;
+  }
+}
@@ -1,24 +1,44 @@
 package io.ebean.k8scache.socket;
 
+import io.ebeaninternal.api.BinaryReadContext;
+import io.ebeaninternal.api.SpiEbeanServer;
+import io.ebeaninternal.api.TransactionEventTable;
 import io.ebeaninternal.server.cluster.BinaryTransactionEventReader;
 import io.ebeaninternal.server.cluster.ClusterBroadcast;
 import io.ebeaninternal.server.cluster.ClusterManager;
+import io.ebean.k8scache.GapRecovery;
 import io.ebean.k8scache.K8sBroadcastFactory;
 import io.ebean.k8scache.K8sServiceConfig;
+import io.ebean.k8scache.MembershipProvider;
 import io.ebean.k8scache.message.ClusterMessage;
 import io.ebean.k8scache.message.InvalidMessageException;
+import io.ebean.k8scache.message.MessagePriority;
+import io.ebeaninternal.server.transaction.BeanPersistIds;
 import io.ebeaninternal.server.transaction.RemoteTransactionEvent;
-import org.avaje.k8s.discovery.K8sMemberDiscovery;
 import org.avaje.k8s.discovery.K8sServiceMember;
 import org.slf4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -36,10 +56,35 @@ public class K8sClusterBroadcast implements ClusterBroadcast {
 
 	private final Map<String, SocketClient> members = new ConcurrentHashMap<>();
 
-	private final SocketClusterListener listener;
+	private final ClusterListener listener;
+
+	private final ReceivePipeline receivePipeline;
+
+	/**
+	 * The writer tasks that send queued messages to each member.
+	 */
+	private final ExecutorService sendService;
+
+	/**
+	 * Runs the membership changes, checks and connects to new members in order, off
+	 * the threads reading the connections and applying the received events.
+	 */
+	private final ExecutorService membershipService;
+
+	/**
+	 * Names of the servers (databases) that have broadcast or received events.
+	 */
+	private final Set<String> serverNames = ConcurrentHashMap.newKeySet();
+
+	private final ClusterManager manager;
 
 	private final BinaryTransactionEventReader transactionEventReader;
 
+	/**
+	 * Merges the outgoing events over a short window, null when not coalescing.
+	 */
+	private final EventCoalescer coalescer;
+
 	private final AtomicLong countOutgoing = new AtomicLong();
 
 	private final AtomicLong countIncoming = new AtomicLong();
@@ -50,28 +95,173 @@ public class K8sClusterBroadcast implements ClusterBroadcast {
 
 	private final int port;
 
+	private final int compressThreshold;
+
+	private final long broadcastWaitMillis;
+
+	private final boolean sequenceNumbers;
+
+	private final GapRecovery gapRecovery;
+
+	private final int replayCapacity;
+
+	/**
+	 * The replay capacity of the lanes the events of the other members are relayed on.
+	 */
+	private final int relayReplayCapacity;
+
+	/**
+	 * Data messages of at least this many bytes are sent with BULK priority, 0 when not using priorities.
+	 */
+	private final int priorityBulkBytes;
+
+	/**
+	 * Data messages larger than this are sent as chunks of this many bytes, 0 to not chunk.
+	 */
+	private final int chunkBytes;
+
+	/**
+	 * True to send the events of each server on its own lane.
+	 */
+	private final boolean lanes;
+
+	/**
+	 * The lane the events of all the servers are sent on when not using a lane per server.
+	 */
+	private final SendLane defaultLane;
+
+	/**
+	 * The lane of each server when using a lane per server.
+	 */
+	private final Map<String, SendLane> serverLanes = new ConcurrentHashMap<>();
+
+	private final Map<Integer, SendLane> lanesById = new ConcurrentHashMap<>();
+
+	private final AtomicInteger laneIds = new AtomicInteger();
+
+	/**
+	 * The number of members each member relays the data messages to, 0 to send to all the members.
+	 */
+	private final int relayFanout;
+
+	/**
+	 * Relay the data messages to each other zone via one member of the zone.
+	 */
+	private final boolean relayZones;
+
+	/**
+	 * The zone set by configuration, otherwise the zone is taken from the membership provider.
+	 */
+	private final String zone;
+
+	/**
+	 * The bytes written to the members in the same zone (or of an unknown zone).
+	 */
+	private final AtomicLong zoneBytes = new AtomicLong();
+
+	/**
+	 * The bytes written to the members in other zones.
+	 */
+	private final AtomicLong crossZoneBytes = new AtomicLong();
+
+	/**
+	 * The broadcast tree and the relayed messages received.
+	 */
+	private final RelayTree relayTree;
+
+	/**
+	 * The lanes the messages of other members are relayed on by origin member and lane.
+	 */
+	private final Map<String, SendLane> relayLanes = new ConcurrentHashMap<>();
+
+	/**
+	 * Identifies this running instance to the members when resuming sending to them.
+	 */
+	private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
 	private final String localIp;
 
 	private final ClusterMessage registerMessage;
 
 	private volatile long checkStatus;
 
+	/**
+	 * Provides the members joining and leaving.
+	 */
+	private final MembershipProvider membershipProvider;
+
 	private final AtomicLong errorCount = new AtomicLong();
 
+	/**
+	 * Set while a membership check requested by a writer is waiting to run.
+	 */
+	private final AtomicBoolean checkPending = new AtomicBoolean();
+
+	/**
+	 * Detects failed members by gossip, null when not used.
+	 */
+	private final Swim swim;
+
 	public K8sClusterBroadcast(ClusterManager manager, K8sServiceConfig config, K8sServiceMember member) {
+		this(manager, config, member.getIpAddress(), member.getPodName());
+	}
 
+	/**
+	 * Create given the IP address and pod name of this member.
+	 */
+	public K8sClusterBroadcast(ClusterManager manager, K8sServiceConfig config, String localIp, String podName) {
+
+		this.manager = manager;
 		this.transactionEventReader = new BinaryTransactionEventReader(manager);
 		this.config = config;
 		this.port = config.getPort();
-		this.localIp = member.getIpAddress();
-		this.podName = member.getPodName();
+		this.compressThreshold = config.getCompressThreshold();
+		this.broadcastWaitMillis = config.getBroadcastWaitMillis();
+		this.sequenceNumbers = config.isSequenceNumbers();
+		this.gapRecovery = config.getGapRecovery();
+		this.replayCapacity = sequenceNumbers ? config.getReplayCapacity() : 0;
+		this.relayReplayCapacity = Math.max(0, Math.min(replayCapacity, config.getRelayReplayCapacity()));
+		this.lanes = config.isLanes();
+		this.priorityBulkBytes = config.getPriorityBulkBytes();
+		this.chunkBytes = config.getChunkBytes();
+		this.relayFanout = Math.min(config.getRelayFanout(), ClusterMessage.ZONE_FANOUT - 1);
+		this.relayZones = config.isRelayZones();
+		this.zone = config.getZone();
+		this.defaultLane = new SendLane(0, replayCapacity, bulkLane());
+		this.lanesById.put(0, defaultLane);
+		this.localIp = localIp;
+		this.podName = podName;
+		this.relayTree = new RelayTree(localIp);
 
-		K8sMemberDiscovery discovery = config.getDiscovery();
-		log.info("Cluster using localIp:{} port:{} serviceName:{} namespace:{} pod:{}", localIp, port, discovery.getServiceName(), discovery.getNamespace(), podName);
-
-		this.clientBuilder = new SocketClientBuilder(localIp);
+		this.membershipProvider = config.getMembershipProvider();
+		log.info("Cluster using localIp:{} port:{} membership:{} serviceName:{} namespace:{} pod:{}", localIp, port,
+			membershipProvider.getClass().getSimpleName(), config.getServiceName(), config.getNamespace(), podName);
+		this.clientBuilder = new SocketClientBuilder(this, config, localIp);
 		this.registerMessage = ClusterMessage.register(localIp, true, podName);
-		this.listener = new SocketClusterListener(this, port, config.getThreadPoolName());
+		this.sendService = ClusterExecutors.threadPerTask(config.getThreadPoolName() + "-send-", config.isVirtualThreads());
+		this.membershipService = Executors.newSingleThreadExecutor(new DaemonThreadFactory(config.getThreadPoolName() + "-membership-"));
+		this.receivePipeline = new ReceivePipeline(this, config.getThreadPoolName(), config.getReceiveThreads(), config.getReceiveQueueCapacity(), config.isReceiveMerge(), config.getCoalesceMaxBeanIds());
+		this.listener = createListener(config);
+		this.coalescer = createCoalescer(config);
+		this.swim = config.isGossip() ? new Swim(this, localIp, config.getThreadPoolName(), config.getGossipIntervalMillis(),
+			config.getGossipTimeoutMillis(), config.getGossipIndirectPings(), config.getGossipSuspectMillis()) : null;
+	}
+
+	private EventCoalescer createCoalescer(K8sServiceConfig config) {
+		if (config.getCoalesceWindowMillis() <= 0) {
+			return null;
+		}
+		if (config.getBroadcastWaitMillis() > 0) {
+			log.warn("broadcastWaitMillis is ignored with coalesceWindowMillis set, the broadcasts do not wait for the merged events to be sent");
+		}
+		return new EventCoalescer(this, transactionEventReader, config.getThreadPoolName(), config.getCoalesceWindowMillis(), config.getCoalesceMaxBeanIds());
+	}
+
+	private ClusterListener createListener(K8sServiceConfig config) {
+		if (config.isNioListener()) {
+			return new NioClusterListener(this, config.getBindAddress(), port);
+		}
+		return new SocketClusterListener(this, config.getBindAddress(), port, config.getThreadPoolName(), config.isVirtualThreads());
 	}
 
 	String getLocalIp() {
@@ -94,6 +284,30 @@ public class K8sClusterBroadcast implements ClusterBroadcast {
 		}
 	}
 
+	/**
+	 * Run the membership check on the membership thread after an error sending to a member.
+	 * <p>
+	 * Used by the writers and the broadcasting threads such that they do not wait
+	 * for the discovery and the connects to new members. At most one such check
+	 * waits to run at a time.
+	 * </p>
+	 */
+	void checkStatusLater() {
+		errorCount.incrementAndGet();
+		if (!checkPending.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			membershipService.execute(() -> {
+				checkPending.set(false);
+				checkStatus(false);
+			});
+		} catch (RejectedExecutionException e) {
+			// shutting down
+			checkPending.set(false);
+		}
+	}
+
 	private synchronized void checkMembership() {
 
 		try {
@@ -121,48 +335,105 @@ public class K8sClusterBroadcast implements ClusterBroadcast {
 
 	private Set<String> loadExpectedMembers() {
 
-		K8sMemberDiscovery discovery = config.getDiscovery();
-		discovery.reload();
-		return new LinkedHashSet<>(discovery.getOtherIps());
+		membershipProvider.refresh();
+		Set<String> expected = new LinkedHashSet<>(membershipProvider.members());
+		expected.remove(localIp);
+		return expected;
 	}
 
 	/**
 	 * Return the current status of this instance.
 	 */
 	public SocketClusterStatus getStatus() {
-		return new SocketClusterStatus(members.size(), countIncoming.get(), countOutgoing.get());
+		List<SocketMemberStatus> memberStatus = new ArrayList<>(members.size());
+		for (SocketClient member : members.values()) {
+			memberStatus.add(member.getStatus());
+		}
+		return new SocketClusterStatus(members.size(), countIncoming.get(), countOutgoing.get(), memberStatus, receivePipeline.getStatus(), swim == null ? null : swim.getStatus(), relayTree.getStatus(localZone(), zoneBytes.get(), crossZoneBytes.get()));
 	}
 
 	public void startup() {
 		listener.startListening();
+		membershipProvider.start(new MembershipListener());
 		checkMembership();
+		if (swim != null) {
+			swim.start();
+		}
 	}
 
 	public void shutdown() {
+		membershipProvider.stop();
+		if (swim != null) {
+			swim.shutdown();
+		}
+		if (coalescer != null) {
+			coalescer.flushAll();
+		}
 		deregister();
 		listener.shutdown();
+		receivePipeline.shutdown();
+		membershipService.shutdown();
+		sendService.shutdown();
+		for (SendLane lane : lanesById.values()) {
+			lane.clear();
+		}
 	}
 
 	private int send(SocketClient client, ClusterMessage msg) {
 
-		try {
-			// alternative would be to connect/disconnect here but prefer to use keep alive
-			if (log.isTraceEnabled()) {
-				log.trace("send to member {} broadcast msg: {}", client, msg);
-			}
-			client.send(msg);
+		// alternative would be to connect/disconnect here but prefer to use keep alive
+		if (log.isTraceEnabled()) {
+			log.trace("send to member {} broadcast msg: {}", client, msg);
+		}
+		if (client.enqueue(msg)) {
 			return 0;
+		}
+		overflowed(client, msg);
+		return 1;
+	}
+
+	/**
+	 * Release the message that did not fit in the send queue of the member and remove the member.
+	 */
+	private void overflowed(SocketClient client, ClusterMessage msg) {
+		msg.release();
+		log.warn("Send queue full for member:{} De-registering it.", client);
+		removeMember(client);
+	}
 
-		} catch (IOException ex) {
-			log.warn("reconnect due to error sending message to:" + client, ex);
+	/**
+	 * Remove the member with the disconnect done by a send thread, as the writer of the
+	 * member can hold its lock while waiting for the socket to be writable.
+	 */
+	private void removeMember(SocketClient client) {
+		members.remove(client.getIp(), client);
+		try {
+			sendService.execute(client::disconnect);
+		} catch (RejectedExecutionException e) {
+			// shutting down
+			client.disconnect();
+		}
+	}
+
+	/**
+	 * Return the messages that clear the caches of a member that had queued messages dropped.
+	 */
+	List<ClusterMessage> resyncMessages() {
+		List<ClusterMessage> messages = new ArrayList<>(serverNames.size());
+		for (String serverName : serverNames) {
 			try {
-				client.reconnect();
-			} catch (Exception e) {
-				log.warn("Error trying to reconnect to:" + client + " De-registering it.", ex);
-				members.remove(client.getIp());
+				RemoteTransactionEvent clearAll = new RemoteTransactionEvent(serverName).cacheClearAll();
+				ClusterMessage message = ClusterMessage.transEvent(clearAll.writeBinaryAsBytes(64));
+				int lane = lane(serverName).id();
+				if (lane != 0) {
+					message.setLane(lane);
+				}
+				messages.add(message);
+			} catch (IOException e) {
+				log.error("Error creating cache clear message for " + serverName, e);
 			}
-			return 1;
 		}
+		return messages;
 	}
 
 	private void setMemberRegister(ClusterMessage message) {
@@ -182,6 +453,8 @@ public class K8sClusterBroadcast implements ClusterBroadcast {
 	}
 
 	private void removePeer(String ipPort) {
+		receivePipeline.remove(ipPort);
+		removeRelayLanes(ipPort);
 		SocketClient member = members.remove(ipPort);
 		try {
 			if (member != null) {
@@ -195,12 +468,95 @@ public class K8sClusterBroadcast implements ClusterBroadcast {
 		}
 	}
 
+	/**
+	 * Register with the member reported as joining by the membership provider.
+	 */
+	private synchronized void memberAdded(String ip) {
+		if (!ip.equals(localIp) && !members.containsKey(ip)) {
+			log.debug("member joining [{}]", ip);
+			registerPeer(ip, podName);
+			if (!members.containsKey(ip)) {
+				// retried on the next membership check
+				errorCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Remove the member reported as leaving by the membership provider.
+	 */
+	private synchronized void memberRemoved(String ip) {
+		if (members.containsKey(ip)) {
+			removePeer(ip);
+		}
+	}
+
+	/**
+	 * Remove the member detected as failed by gossip.
+	 */
+	void memberFailed(String ip) {
+		// not on the thread reading the gossip
+		execute(() -> memberRemoved(ip));
+	}
+
+	/**
+	 * Register again with the member that was detected as failed but is alive.
+	 */
+	void memberAlive(String ip) {
+		if (membershipProvider.members().contains(ip)) {
+			execute(() -> memberAdded(ip));
+		}
+	}
+
+	/**
+	 * Handle the gossip message received from the member.
+	 */
+	void gossip(String member, ClusterMessage message) {
+		if (swim == null) {
+			message.release();
+		} else {
+			swim.receive(member, message);
+		}
+	}
+
+	/**
+	 * Return the IP addresses of the members that gossip.
+	 */
+	List<String> gossipMembers() {
+		return capableMembers(MsgKeys.CAP_GOSSIP);
+	}
+
+	/**
+	 * Return the IP addresses of the members with the capability.
+	 */
+	private List<String> capableMembers(int capability) {
+		List<String> ips = new ArrayList<>(members.size());
+		for (SocketClient member : members.values()) {
+			if (member.isCapable(capability)) {
+				ips.add(member.getIp());
+			}
+		}
+		return ips;
+	}
+
+	/**
+	 * Return the member to send gossip to, null when it is not a member or does not gossip.
+	 */
+	SocketClient gossipMember(String ip) {
+		SocketClient member = members.get(ip);
+		return member == null || !member.isCapable(MsgKeys.CAP_GOSSIP) ? null : member;
+	}
+
 	private void registerPeer(String otherIp, String podName) {
 		try {
 			SocketClient member = clientBuilder.build(otherIp, port);
 			if (member.register(registerMessage)) {
 				log.debug("Registered with member:{}", otherIp);
 				members.put(member.getIp(), member);
+				member.start(sendService);
+				if (swim != null) {
+					swim.joined(otherIp);
+				}
 			} else {
 				log.warn("Unable to register with member:{}", member);
 			}
@@ -215,22 +571,458 @@ public class K8sClusterBroadcast implements ClusterBroadcast {
 	public void broadcast(RemoteTransactionEvent remoteTransEvent) {
 		try {
 			countOutgoing.incrementAndGet();
-			byte[] data = remoteTransEvent.writeBinaryAsBytes(256);
-			broadcast(ClusterMessage.transEvent(data));
+			String serverName = remoteTransEvent.getServerName();
+			serverNames.add(serverName);
+			if (coalescer != null) {
+				coalescer.add(serverName, remoteTransEvent.writeBinaryAsBytes(256));
+			} else {
+				ClusterMessage msg = ClusterMessage.transEvent(remoteTransEvent, compressThreshold);
+				if (broadcastWaitMillis <= 0) {
+					broadcast(msg, lane(serverName), priorityBulkBytes > 0 ? tables(remoteTransEvent) : Collections.emptySet());
+					return;
+				}
+				// held while waiting as the broadcast releases the reference of the caller
+				msg.retain();
+				try {
+					broadcast(msg, lane(serverName), priorityBulkBytes > 0 ? tables(remoteTransEvent) : Collections.emptySet());
+					awaitSent(msg);
+				} finally {
+					msg.release();
+				}
+			}
 
 		} catch (Exception e) {
 			log.error("Error sending RemoteTransactionEvent " + remoteTransEvent + " to cluster members.", e);
 		}
 	}
 
+	/**
+	 * Wait for the writers of all the members to have sent (or dropped) the message
+	 * retained by the caller.
+	 */
+	private void awaitSent(ClusterMessage msg) {
+		try {
+			// the replay log holds the message after it has been sent
+			if (!msg.awaitReleased(replayCapacity > 0 ? 2 : 1, broadcastWaitMillis)) {
+				log.debug("broadcast not sent to all members within {} millis", broadcastWaitMillis);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Send the serialised transaction event of the server to all the members of the cluster.
+	 */
+	void broadcast(String serverName, byte[] data) {
+		broadcast(ClusterMessage.transEvent(data, compressThreshold), lane(serverName), priorityBulkBytes > 0 ? tables(data) : Collections.emptySet());
+	}
+
+	/**
+	 * Return the tables the serialised transaction event invalidates.
+	 */
+	private Set<String> tables(byte[] data) {
+		try {
+			return tables(transactionEventReader.read(new BinaryReadContext(new DataInputStream(new ByteArrayInputStream(data)))));
+		} catch (IOException e) {
+			log.warn("Error reading the tables of an event, sending it with normal priority", e);
+			return Collections.emptySet();
+		}
+	}
+
+	/**
+	 * Return the tables the transaction event invalidates.
+	 */
+	private static Set<String> tables(RemoteTransactionEvent event) {
+		Set<String> tables = new HashSet<>();
+		List<TransactionEventTable.TableIUD> tableIUDs = event.getTableIUDList();
+		if (tableIUDs != null) {
+			for (TransactionEventTable.TableIUD tableIUD : tableIUDs) {
+				tables.add(tableIUD.tableName());
+			}
+		}
+		List<BeanPersistIds> beanPersistIds = event.getBeanPersistList();
+		if (beanPersistIds != null) {
+			for (BeanPersistIds persistIds : beanPersistIds) {
+				String baseTable = persistIds.getBeanDescriptor().baseTable();
+				if (baseTable != null) {
+					tables.add(baseTable);
+				}
+			}
+		}
+		return tables;
+	}
+
+	/**
+	 * Return the lane the events of the server are sent on.
+	 */
+	private SendLane lane(String serverName) {
+		if (!lanes) {
+			return defaultLane;
+		}
+		return serverLanes.computeIfAbsent(serverName, name -> {
+			SendLane lane = new SendLane(laneIds.incrementAndGet(), replayCapacity, bulkLane());
+			lanesById.put(lane.id(), lane);
+			log.debug("Sending events of server:{} on lane:{}", name, lane.id());
+			return lane;
+		});
+	}
+
+	/**
+	 * Return a new lane for the large messages, null when not using priorities.
+	 */
+	private SendLane bulkLane() {
+		if (priorityBulkBytes <= 0) {
+			return null;
+		}
+		SendLane bulkLane = new SendLane(laneIds.incrementAndGet(), replayCapacity, null);
+		lanesById.put(bulkLane.id(), bulkLane);
+		return bulkLane;
+	}
+
+	/**
+	 * Send the data message of the tables on the lane, or with BULK priority on its
+	 * bulk lane, to all the members of the cluster.
+	 */
+	private void broadcast(ClusterMessage msg, SendLane lane, Set<String> tables) {
+		SendLane bulkLane = lane.bulkLane();
+		if (bulkLane != null) {
+			bulkLane.lock();
+			try {
+				// a message of a table with large messages still queued follows them
+				if (msg.size() >= priorityBulkBytes || bulkLane.isPending(tables)) {
+					msg.setPriority(MessagePriority.BULK);
+					bulkLane.pending(tables, msg);
+					broadcast(msg, bulkLane);
+					return;
+				}
+			} finally {
+				bulkLane.unlock();
+			}
+		}
+		broadcast(msg, lane);
+	}
+
+	/**
+	 * Send the data message on the lane to all the members of the cluster.
+	 */
+	private void broadcast(ClusterMessage msg, SendLane lane) {
+		// large messages are sent to each member as chunks rather than relayed
+		if ((relayFanout > 0 || relayZones) && (chunkBytes <= 0 || msg.size() <= chunkBytes)) {
+			relayBroadcast(msg, lane);
+			return;
+		}
+		if (lane.id() != 0) {
+			msg.setLane(lane.id());
+		}
+		if (sequenceNumbers) {
+			lane.lock();
+			try {
+				lane.sequence(msg);
+				broadcast(msg);
+			} finally {
+				lane.unlock();
+			}
+		} else if (chunkBytes > 0 && msg.size() > chunkBytes) {
+			// the chunks of a lane are queued one message at a time
+			lane.lock();
+			try {
+				broadcast(msg);
+			} finally {
+				lane.unlock();
+			}
+		} else {
+			broadcast(msg);
+		}
+	}
+
+	/**
+	 * Send the message of the lane over the broadcast tree or via the zones.
+	 * <p>
+	 * The relayed messages are sent to some of the members only, so they are numbered
+	 * on a relay lane of their own such that the numbers of the lane stay in sequence
+	 * for the members sent the other messages of the lane.
+	 * </p>
+	 */
+	private void relayBroadcast(ClusterMessage msg, SendLane lane) {
+		SendLane relayLane = relayLane(localIp, lane.id());
+		msg.setLane(relayLane.id());
+		relayLane.lock();
+		try {
+			if (sequenceNumbers) {
+				relayLane.sequence(msg);
+			}
+			msg.setRelay(localIp, epoch, lane.id(), relayLane.nextRelayed(), relayZones ? ClusterMessage.ZONE_FANOUT : relayFanout);
+			broadcast(msg);
+		} finally {
+			relayLane.unlock();
+		}
+	}
+
+	/**
+	 * Send the message, as chunks when large, to all the members of the cluster.
+	 * <p>
+	 * Members that can not read chunks are sent the whole message. The message (or
+	 * each chunk) is retained by each member it is queued for and released here.
+	 * A relayed message is sent to the first members of the broadcast tree (or to
+	 * one member of each other zone) and to the members that do not relay.
+	 * </p>
+	 */
 	private void broadcast(ClusterMessage msg) {
+		List<ClusterMessage> chunks = msg.chunks(chunkBytes);
+		List<ClusterMessage> whole = Collections.singletonList(msg);
+		Collection<SocketClient> targets = msg.isRelayed() ? relayTargets(msg.getFanout()) : members.values();
 		int errCount = 0;
-		for (SocketClient member : members.values()) {
-			errCount += send(member, msg);
+		for (SocketClient member : targets) {
+			List<ClusterMessage> frames = member.isCapable(MsgKeys.CAP_CHUNKS) && !msg.isRelayed() ? chunks : whole;
+			for (ClusterMessage frame : frames) {
+				frame.retain();
+				if (send(member, frame) > 0) {
+					errCount++;
+					break;
+				}
+			}
 		}
+		for (ClusterMessage chunk : chunks) {
+			chunk.release();
+		}
+		msg.release();
 		if (errCount > 0) {
 			log.debug("broadcast errors:{}", errCount);
-			checkStatus(true);
+			checkStatusLater();
+		}
+	}
+
+	/**
+	 * Return the members a message broadcast over the tree or via the zones is sent to by this member.
+	 */
+	private List<SocketClient> relayTargets(int fanout) {
+		List<SocketClient> targets = new ArrayList<>();
+		List<String> relayMembers = new ArrayList<>(members.size());
+		for (SocketClient member : members.values()) {
+			if (member.isCapable(MsgKeys.CAP_RELAY)) {
+				relayMembers.add(member.getIp());
+			} else {
+				targets.add(member);
+			}
+		}
+		List<String> next = fanout == ClusterMessage.ZONE_FANOUT ? zoneTargets(relayMembers) : relayTree.children(localIp, fanout, relayMembers);
+		for (String child : next) {
+			SocketClient member = members.get(child);
+			if (member != null) {
+				targets.add(member);
+			}
+		}
+		relayTree.relayed();
+		return targets;
+	}
+
+	/**
+	 * Return the members of the local zone (and of unknown zones) with one member of each other zone.
+	 */
+	private List<String> zoneTargets(List<String> relayMembers) {
+		String localZone = localZone();
+		List<String> targets = new ArrayList<>();
+		Map<String, List<String>> otherZones = new HashMap<>();
+		for (String ip : relayMembers) {
+			String memberZone = membershipProvider.zone(ip);
+			if (localZone == null || memberZone == null || memberZone.equals(localZone)) {
+				targets.add(ip);
+			} else {
+				otherZones.computeIfAbsent(memberZone, k -> new ArrayList<>()).add(ip);
+			}
+		}
+		for (List<String> zoneMembers : otherZones.values()) {
+			targets.add(relayTree.zoneRelay(zoneMembers));
+		}
+		return targets;
+	}
+
+	/**
+	 * Return the members of the local zone a message from another zone is relayed to.
+	 */
+	private List<String> zoneChildren(String origin) {
+		String localZone = localZone();
+		if (localZone == null || localZone.equals(membershipProvider.zone(origin))) {
+			// sent directly to the members of the zone of the origin
+			return new ArrayList<>();
+		}
+		List<String> children = new ArrayList<>();
+		for (String ip : capableMembers(MsgKeys.CAP_RELAY)) {
+			if (localZone.equals(membershipProvider.zone(ip))) {
+				children.add(ip);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Return the zone of this member, null when not known.
+	 */
+	private String localZone() {
+		return zone != null ? zone : membershipProvider.zone(localIp);
+	}
+
+	/**
+	 * Count the bytes written to the member as within or across zones.
+	 */
+	void sentBytes(String ip, long bytes) {
+		String localZone = localZone();
+		String memberZone = localZone == null ? null : membershipProvider.zone(ip);
+		if (memberZone != null && !memberZone.equals(localZone)) {
+			crossZoneBytes.addAndGet(bytes);
+		} else {
+			zoneBytes.addAndGet(bytes);
+		}
+	}
+
+	/**
+	 * Send the relayed message received from the member on to the next members of the broadcast tree,
+	 * or to the members of the local zone.
+	 * <p>
+	 * Returns false (releasing the message) when the message was already received from
+	 * another member. Called by the reader of the member connection before the message
+	 * is decoded such that relaying does not wait for it to be applied. The copies are
+	 * queued without waiting, a member with a full queue is sent a cache clear instead.
+	 * </p>
+	 */
+	boolean relay(String member, ClusterMessage message) {
+		String origin = message.getOrigin();
+		int originLane = message.getOriginLane();
+		long sequence = message.getOriginSequence();
+		long last = relayTree.accept(origin, message.getOriginEpoch(), originLane, sequence);
+		if (last < 0) {
+			message.release();
+			return false;
+		}
+		if (sequenceNumbers && last > 0 && sequence > last + 1) {
+			// missed by the members relaying it, or taking a different path while the members change
+			execute(() -> gapDetected(origin, originLane, last + 1, sequence));
+		}
+		relayTree.received(member.equals(origin), System.currentTimeMillis() - message.getOriginTime());
+		int fanout = message.getFanout();
+		if (fanout == 0) {
+			return true;
+		}
+		List<String> children = fanout == ClusterMessage.ZONE_FANOUT ? zoneChildren(origin) : relayTree.children(origin, fanout, capableMembers(MsgKeys.CAP_RELAY));
+		children.remove(member);
+		children.remove(origin);
+		if (children.isEmpty()) {
+			return true;
+		}
+		// relayed within the zone the copy is not relayed further
+		ClusterMessage copy = message.relay(fanout == ClusterMessage.ZONE_FANOUT ? 0 : fanout);
+		SendLane lane = relayLane(origin, originLane);
+		copy.setLane(lane.id());
+		int count = 0;
+		lane.lock();
+		try {
+			if (sequenceNumbers) {
+				lane.sequence(copy);
+			}
+			for (String child : children) {
+				SocketClient client = members.get(child);
+				if (client != null) {
+					copy.retain();
+					// the reader can be the selector thread so this does not wait for space
+					if (!client.offer(copy)) {
+						overflowed(client, copy);
+					}
+					count++;
+				}
+			}
+		} finally {
+			lane.unlock();
+		}
+		copy.release();
+		relayTree.forwarded(count);
+		return true;
+	}
+
+	/**
+	 * Return the lane the messages of the lane of the origin member (or this member) are relayed on.
+	 */
+	private SendLane relayLane(String origin, int originLane) {
+		return relayLanes.computeIfAbsent(origin + '/' + originLane, key -> {
+			// the lanes of the other members are held for each member relaying through this one
+			SendLane lane = new SendLane(laneIds.incrementAndGet(), origin.equals(localIp) ? replayCapacity : relayReplayCapacity, null);
+			lanesById.put(lane.id(), lane);
+			return lane;
+		});
+	}
+
+	/**
+	 * Remove the lanes the messages of the member that left were relayed on.
+	 */
+	private void removeRelayLanes(String origin) {
+		relayTree.remove(origin);
+		String prefix = origin + '/';
+		relayLanes.entrySet().removeIf(entry -> {
+			if (!entry.getKey().startsWith(prefix)) {
+				return false;
+			}
+			int id = entry.getValue().id();
+			lanesById.remove(id);
+			entry.getValue().clear();
+			for (SocketClient member : members.values()) {
+				member.removeLane(id);
+			}
+			return true;
+		});
+	}
+
+	/**
+	 * Return the identifier of this running instance used when resuming sending to a member.
+	 */
+	long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Return the ids of the lanes messages are sent on.
+	 */
+	Set<Integer> laneIds() {
+		return lanesById.keySet();
+	}
+
+	/**
+	 * Add the data messages sent on the lane after the given sequence number to the list retaining them.
+	 * <p>
+	 * Returns the sequence number of the last message sent on the lane. The list is
+	 * left empty when the messages are no longer all held by the replay log.
+	 * </p>
+	 */
+	long replay(int lane, long after, List<ClusterMessage> messages) {
+		SendLane sendLane = lanesById.get(lane);
+		if (sendLane == null) {
+			// a lane of an earlier instance, nothing sent on it
+			return 0;
+		}
+		return sendLane.replay(after, messages);
+	}
+
+	/**
+	 * Recover from messages from the member that were missed.
+	 */
+	void gapDetected(String member, int lane, long expected, long received) {
+		log.warn("Missed messages from member:{} lane:{} expected sequence:{} received:{} recovery:{}", member, lane, expected, received, gapRecovery);
+		if (gapRecovery == GapRecovery.CLEAR_CACHES) {
+			clearCaches();
+		}
+	}
+
+	/**
+	 * Clear the L2 caches of all the servers used with the cluster.
+	 */
+	private void clearCaches() {
+		for (String serverName : serverNames) {
+			try {
+				RemoteTransactionEvent clearAll = new RemoteTransactionEvent(serverName).cacheClearAll();
+				clearAll.setServer((SpiEbeanServer) manager.getServer(serverName));
+				clearAll.run();
+			} catch (Exception e) {
+				log.error("Error clearing caches of " + serverName, e);
+			}
 		}
 	}
 
@@ -243,6 +1035,7 @@ public class K8sClusterBroadcast implements ClusterBroadcast {
 		try {
 			broadcast(h);
 			for (SocketClient member : members.values()) {
+				member.awaitDrained(1000);
 				member.disconnect();
 			}
 		} catch (Exception e) {
@@ -250,31 +1043,47 @@ public class K8sClusterBroadcast implements ClusterBroadcast {
 		}
 	}
 
+	/**
+	 * Return the source of the messages received from the given member.
+	 */
+	ReceivePipeline.Source receiveSource(String member) {
+		return receivePipeline.source(member);
+	}
+
+	/**
+	 * Run a membership or recovery task that would otherwise be run by a thread reading
+	 * connections, on the membership thread such that a slow connect does not hold up
+	 * applying the received events.
+	 */
+	void execute(Runnable task) {
+		try {
+			membershipService.execute(task);
+		} catch (RejectedExecutionException e) {
+			// shutting down
+			log.debug("Task rejected shutting down");
+		}
+	}
+
 	/**
 	 * Process an message return true if done and should disconnect.
 	 */
-	boolean process(SocketConnection request) {
+	boolean process(SocketConnection request, ReceivePipeline.Source source) {
 
 		try {
 			ClusterMessage message = ClusterMessage.read(request.getDataInputStream());
 			if (log.isTraceEnabled()) {
 				log.trace("received msg: {}", message);
 			}
-
-			if (message.isRegisterEvent()) {
-				setMemberRegister(message);
-
-			} else {
-				countIncoming.incrementAndGet();
-				RemoteTransactionEvent event = transactionEventReader.read(message.getData());
-				if (log.isTraceEnabled()) {
-					log.trace("event:{}", event);
-				}
-				event.run();
+			message = source.accept(message);
+			if (message == null) {
+				return false;
 			}
+			source.put(message);
+			return message.isDeregister();
 
-			// return true of a de-register event
-			return message.isRegisterEvent() && !message.isRegister();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return true;
 
 		} catch (InterruptedIOException e) {
 			log.info("Timeout waiting for message", e);
@@ -299,4 +1108,46 @@ public class K8sClusterBroadcast implements ClusterBroadcast {
 		}
 	}
 
+	/**
+	 * Decode a received message into the action that applies it.
+	 */
+	Runnable decode(ClusterMessage message) throws IOException {
+
+		if (message.isRegisterEvent()) {
+			// registering connects to the member
+			return () -> execute(() -> setMemberRegister(message));
+		}
+		countIncoming.incrementAndGet();
+		RemoteTransactionEvent event;
+		try {
+			event = transactionEventReader.read(new BinaryReadContext(message.getDataInput()));
+		} finally {
+			message.release();
+		}
+		serverNames.add(event.getServer().name());
+		if (log.isTraceEnabled()) {
+			log.trace("event:{}", event);
+		}
+		return event;
+	}
+
+
+	/**
+	 * Applies the members joining and leaving as reported by the membership provider.
+	 */
+	private final class MembershipListener implements MembershipProvider.Listener {
+
+		@Override
+		public void memberAdded(String ip) {
+			K8sClusterBroadcast.this.memberAdded(ip);
+		}
+
+		@Override
+		public void memberRemoved(String ip) {
+			K8sClusterBroadcast.this.memberRemoved(ip);
+			if (swim != null) {
+				swim.left(ip);
+			}
+		}
+	}
 }
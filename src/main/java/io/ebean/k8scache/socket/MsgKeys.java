@@ -7,6 +7,61 @@ public interface MsgKeys {
 	 */
 	int HELLO = 182;
 
+	/**
+	 * Used to identify client on connection initiation with the protocol version, the
+	 * capabilities offered and the epoch of the client. The member replies with the
+	 * protocol version and the capabilities both support. When both support CAP_RESUME
+	 * this is followed by the number of lanes, and the lane and last sequence number
+	 * received from the client on each lane. A member that only supports version 1
+	 * closes the connection, and the client connects again using HELLO.
+	 */
+	int HELLO_V2 = 186;
+
+	/**
+	 * The protocol version of this implementation.
+	 */
+	int PROTOCOL_VERSION = 2;
+
+	/**
+	 * Capability to read compressed data, the frame capabilities match the DATA_EXT flags.
+	 */
+	int CAP_DEFLATE = 1;
+
+	/**
+	 * Capability to read sequence numbers.
+	 */
+	int CAP_SEQUENCE = 2;
+
+	/**
+	 * Capability to read lanes.
+	 */
+	int CAP_LANES = 4;
+
+	/**
+	 * Capability to read and assemble chunks.
+	 */
+	int CAP_CHUNKS = 8;
+
+	/**
+	 * Capability to resume with the last sequence numbers received.
+	 */
+	int CAP_RESUME = 16;
+
+	/**
+	 * Capability to read GOSSIP messages.
+	 */
+	int CAP_GOSSIP = 32;
+
+	/**
+	 * Capability to relay data messages to other members.
+	 */
+	int CAP_RELAY = 64;
+
+	/**
+	 * The capabilities of this implementation.
+	 */
+	int CAPABILITIES = CAP_DEFLATE | CAP_SEQUENCE | CAP_LANES | CAP_CHUNKS | CAP_RESUME | CAP_GOSSIP | CAP_RELAY;
+
 //	/**
 //	 * Used to confirm protocol on reading messages.
 //	 */
@@ -21,4 +76,14 @@ public interface MsgKeys {
 	 * Used to confirm protocol on reading messages.
 	 */
 	int DATA = 12;
+
+	/**
+	 * A data message with a flags byte indicating the optional fields that follow.
+	 */
+	int DATA_EXT = 13;
+
+	/**
+	 * A failure detection message between the members, being the data length and data.
+	 */
+	int GOSSIP = 14;
 }
@@ -0,0 +1,326 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.K8sBroadcastFactory;
+import io.ebean.k8scache.message.ClusterMessage;
+import io.ebean.k8scache.message.InvalidMessageException;
+import org.slf4j.Logger;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking socket listener using a single selector thread for all the
+ * connections from the other members.
+ * <p>
+ * The selector thread reads the bytes into a buffer per connection and frames
+ * them into messages that are passed to the receive pipeline for decoding and
+ * applying. Such that the number of threads does not grow with the size of the
+ * cluster.
+ * </p>
+ * <p>
+ * When the pipeline queue for a member is full, reading from that connection
+ * stops until it catches up, passing the back pressure onto the sending member
+ * via TCP.
+ * </p>
+ */
+class NioClusterListener implements ClusterListener, Runnable {
+
+  private static final Logger log = K8sBroadcastFactory.log;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final K8sClusterBroadcast owner;
+
+  private final Selector selector;
+
+  private final ServerSocketChannel serverChannel;
+
+  /**
+   * The selector thread.
+   */
+  private final Thread listenerThread;
+
+  /**
+   * Connections that have caught up and should be read from again.
+   */
+  private final Queue<Connection> resumed = new ConcurrentLinkedQueue<>();
+
+  private volatile boolean doingShutdown;
+
+  NioClusterListener(K8sClusterBroadcast owner, String bindAddress, int port) {
+    this.owner = owner;
+    try {
+      this.selector = Selector.open();
+      this.serverChannel = ServerSocketChannel.open();
+      this.serverChannel.bind(bindAddress == null ? new InetSocketAddress(port) : new InetSocketAddress(bindAddress, port));
+      this.serverChannel.configureBlocking(false);
+      this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+      this.listenerThread = new Thread(this, "EbeanClusterListener");
+
+    } catch (IOException e) {
+      throw new RuntimeException("Error starting cluster socket listener on port " + port, e);
+    }
+  }
+
+  @Override
+  public void startListening() {
+    log.trace("startListening");
+    this.listenerThread.setDaemon(true);
+    this.listenerThread.start();
+  }
+
+  @Override
+  public void shutdown() {
+    doingShutdown = true;
+    try {
+      selector.wakeup();
+      listenerThread.join(1000);
+      serverChannel.close();
+      for (SelectionKey key : selector.keys()) {
+        key.channel().close();
+      }
+      selector.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      log.error("Error shutting down listener", e);
+    }
+  }
+
+  /**
+   * This is a runnable and so this must be public. Don't call this externally
+   * but rather call the startListening() method.
+   */
+  @Override
+  public void run() {
+    while (!doingShutdown) {
+      try {
+        selector.select();
+        Connection connection;
+        while ((connection = resumed.poll()) != null) {
+          connection.resume();
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else if (key.isReadable()) {
+            ((Connection) key.attachment()).read();
+          }
+        }
+      } catch (ClosedSelectorException e) {
+        log.debug("Selector closed");
+        break;
+      } catch (IOException e) {
+        // log it and continue in the loop...
+        log.error("IOException processing cluster message", e);
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel != null) {
+      channel.configureBlocking(false);
+      Connection connection = new Connection(channel);
+      connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+  }
+
+  /**
+   * A connection from another member.
+   */
+  private class Connection {
+
+    private final SocketChannel channel;
+
+    private final FrameInput input = new FrameInput();
+
+    private final DataInputStream dataInput = new DataInputStream(input);
+
+    private SelectionKey key;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * The number of bytes needed before trying to decode the next frame.
+     */
+    private int required;
+
+    private String fromMember;
+
+    private ReceivePipeline.Source source;
+
+    /**
+     * A message waiting for space in the decode queue, reading is paused while set.
+     */
+    private ClusterMessage stalled;
+
+    private boolean closed;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Read the available bytes and dispatch the complete messages.
+     */
+    void read() {
+      try {
+        if (channel.read(buffer) < 0) {
+          log.debug("EOF disconnecting");
+          close();
+        } else {
+          decode();
+        }
+      } catch (InvalidMessageException e) {
+        log.warn(e.getMessage());
+        close();
+      } catch (IOException e) {
+        log.info("IO Error waiting/reading message", e);
+        close();
+      }
+    }
+
+    private void decode() throws IOException, InvalidMessageException {
+      buffer.flip();
+      try {
+        while (!closed && stalled == null && buffer.hasRemaining() && buffer.remaining() >= required) {
+          int start = buffer.position();
+          input.reset(buffer);
+          try {
+            if (fromMember == null) {
+              readHello();
+            } else {
+              dispatch(ClusterMessage.read(dataInput));
+            }
+            required = 0;
+          } catch (EOFException e) {
+            // partial frame so wait for more bytes
+            required = buffer.limit() - start + input.shortfall();
+            buffer.position(start);
+            break;
+          }
+        }
+      } finally {
+        buffer.compact();
+      }
+      if (required > buffer.capacity()) {
+        buffer.flip();
+        buffer = ByteBuffer.allocate(required).put(buffer);
+      } else if (buffer.position() == 0 && buffer.capacity() > BUFFER_SIZE) {
+        // release the large buffer after a large frame
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      }
+    }
+
+    private void readHello() throws IOException, InvalidMessageException {
+      int helloKey = dataInput.readInt();
+      if (!Hello.isHello(helloKey)) {
+        throw new InvalidMessageException("Received Invalid hello " + helloKey + " from " + channel.getRemoteAddress());
+      }
+      Hello hello = Hello.read(helloKey, dataInput);
+      // the whole hello has been read
+      fromMember = hello.member();
+      if (log.isDebugEnabled()) {
+        log.debug("reading messages from:{} sa:{}", hello, channel.getRemoteAddress());
+      }
+      source = owner.receiveSource(fromMember);
+      source.onSpace(this::spaceAvailable);
+      ByteBuffer reply = hello.reply(source.hello(hello.epoch()));
+      if (reply != null) {
+        channel.write(reply);
+        if (reply.hasRemaining()) {
+          throw new IOException("Unable to reply to hello from " + fromMember);
+        }
+      }
+    }
+
+    private void dispatch(ClusterMessage message) throws InvalidMessageException {
+      if (log.isTraceEnabled()) {
+        log.trace("received msg: {}", message);
+      }
+      message = source.accept(message);
+      if (message == null) {
+        return;
+      }
+      if (!source.offer(message)) {
+        // stop reading until the pipeline has caught up
+        stalled = message;
+        key.interestOps(0);
+      } else if (message.isDeregister()) {
+        close();
+      }
+    }
+
+    /**
+     * Called by the pipeline when there is space for the stalled message.
+     */
+    private void spaceAvailable() {
+      resumed.add(this);
+      selector.wakeup();
+    }
+
+    /**
+     * Dispatch the stalled message and continue reading.
+     */
+    void resume() {
+      if (closed || stalled == null || !source.offer(stalled)) {
+        return;
+      }
+      ClusterMessage message = stalled;
+      stalled = null;
+      if (message.isDeregister()) {
+        close();
+        return;
+      }
+      key.interestOps(SelectionKey.OP_READ);
+      try {
+        // decode the frames already received
+        decode();
+      } catch (InvalidMessageException e) {
+        log.warn(e.getMessage());
+        close();
+      } catch (IOException e) {
+        log.info("IO Error waiting/reading message", e);
+        close();
+      }
+    }
+
+    private void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (log.isDebugEnabled()) {
+        log.debug("end of reading messages from:{}", fromMember);
+      }
+      try {
+        key.cancel();
+        channel.close();
+      } catch (IOException e) {
+        log.info("Error disconnecting", e);
+      }
+      if (!doingShutdown) {
+        owner.execute(() -> owner.checkStatus(false));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,554 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.K8sBroadcastFactory;
+import io.ebean.k8scache.message.ClusterMessage;
+import io.ebean.k8scache.message.InvalidMessageException;
+import io.ebeaninternal.server.transaction.RemoteTransactionEvent;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes and applies the received messages away from the threads reading the sockets.
+ * <p>
+ * The readers only frame the bytes into messages and put them on the decode queue
+ * of the member that sent them. A decode stage deserialises the messages and puts
+ * them on the apply queue of that member, and an apply stage runs them. Both queues
+ * are bounded and the messages of each member are decoded and applied in order,
+ * while different members are processed concurrently by the stage thread pools.
+ * </p>
+ * <p>
+ * A decode stage stops taking messages when the apply queue of the member is full,
+ * and a full decode queue blocks (or pauses) the reader, such that a slow apply
+ * passes back pressure onto the sending member via TCP.
+ * </p>
+ * <p>
+ * Optionally the transaction events of a server that are queued to be applied are
+ * merged into one event such that a member that has fallen behind catches up in a
+ * single pass rather than invalidating the same caches over and over.
+ * </p>
+ * <p>
+ * The messages of a member sent on different lanes (one per server) have their
+ * own decode and apply stages, such that a large backlog of events for one server
+ * is applied concurrently with the events of the others while the events of each
+ * lane are applied in order.
+ * </p>
+ * <p>
+ * The order is not kept between the lanes, including the bulk lane of a server
+ * and its normal lane, such that an event of a table can be applied before an
+ * event of the same table received earlier on another lane. The events only
+ * invalidate caches (the table modifications are stamped when applied), so the
+ * caches invalidated are the same once both have been applied.
+ * </p>
+ * <p>
+ * The sequence numbers of the messages of each lane are checked by its decode
+ * stage, such that the recovery of a gap is run before the following events.
+ * Messages replayed by a member that resumed sending are dropped by the readers
+ * when they have already been received.
+ * </p>
+ */
+final class ReceivePipeline {
+
+  private static final Logger log = K8sBroadcastFactory.log;
+
+  private final K8sClusterBroadcast owner;
+
+  private final int capacity;
+
+  private final boolean merge;
+
+  private final int mergeMaxBeanIds;
+
+  private final ExecutorService decodeService;
+
+  private final ExecutorService applyService;
+
+  private final Map<String, Source> sources = new ConcurrentHashMap<>();
+
+  private final AtomicLong decodedCount = new AtomicLong();
+
+  private final AtomicLong appliedCount = new AtomicLong();
+
+  private final AtomicLong mergedCount = new AtomicLong();
+
+  private final AtomicLong gapCount = new AtomicLong();
+
+  private final AtomicLong duplicateCount = new AtomicLong();
+
+  private final AtomicInteger maxDecodeDepth = new AtomicInteger();
+
+  private final AtomicInteger maxApplyDepth = new AtomicInteger();
+
+  ReceivePipeline(K8sClusterBroadcast owner, String poolName, int threads, int capacity, boolean merge, int mergeMaxBeanIds) {
+    this.owner = owner;
+    this.capacity = capacity;
+    this.merge = merge;
+    this.mergeMaxBeanIds = mergeMaxBeanIds;
+    this.decodeService = Executors.newFixedThreadPool(threads, new DaemonThreadFactory(poolName + "-decode-"));
+    this.applyService = Executors.newFixedThreadPool(threads, new DaemonThreadFactory(poolName + "-apply-"));
+  }
+
+  /**
+   * Return the source of messages for the given member.
+   */
+  Source source(String member) {
+    return sources.computeIfAbsent(member, Source::new);
+  }
+
+  /**
+   * Remove the source for a member that has left the cluster.
+   */
+  void remove(String member) {
+    Source source = sources.get(member);
+    if (source != null && source.isEmpty()) {
+      sources.remove(member, source);
+    }
+  }
+
+  /**
+   * Return the current status of the pipeline.
+   */
+  SocketReceiveStatus getStatus() {
+    int decodeDepth = 0;
+    int applyDepth = 0;
+    for (Source source : sources.values()) {
+      for (Source.Lane lane : source.lanes.values()) {
+        decodeDepth += lane.decodeStage.queue.size();
+        applyDepth += lane.applyStage.queue.size();
+      }
+    }
+    return new SocketReceiveStatus(decodeDepth, applyDepth, maxDecodeDepth.get(), maxApplyDepth.get(), decodedCount.get(), appliedCount.get(), mergedCount.get(), gapCount.get(), duplicateCount.get());
+  }
+
+  void shutdown() {
+    decodeService.shutdown();
+    applyService.shutdown();
+  }
+
+  private static void trackDepth(AtomicInteger max, int depth) {
+    if (depth > max.get()) {
+      max.accumulateAndGet(depth, Math::max);
+    }
+  }
+
+  /**
+   * The messages received from one member.
+   */
+  final class Source {
+
+    private final String member;
+
+    /**
+     * The lanes of the member, the messages of each lane are decoded and applied in order.
+     */
+    private final Map<Integer, Lane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * Identifies the running instance of the member that resumed sending, 0 when not resuming.
+     */
+    private long epoch;
+
+    private volatile Runnable spaceListener;
+
+    /**
+     * Set when a reader is waiting for space in a decode queue.
+     */
+    private volatile boolean readerWaiting;
+
+    Source(String member) {
+      this.member = member;
+    }
+
+    private Lane lane(int id) {
+      return lanes.computeIfAbsent(id, Lane::new);
+    }
+
+    /**
+     * Set the callback run when there is space again after offer() returned false.
+     */
+    void onSpace(Runnable spaceListener) {
+      this.spaceListener = spaceListener;
+    }
+
+    /**
+     * A connection from the member has started returning the last sequence number read on each lane.
+     * <p>
+     * The epoch identifies the running instance of the member, and when it changes the
+     * member has restarted and its sequence numbers start again.
+     * </p>
+     */
+    synchronized Map<Integer, Long> hello(long epoch) {
+      for (Lane lane : lanes.values()) {
+        // the rest of the chunks were lost with the previous connection
+        lane.clearChunks();
+      }
+      Map<Integer, Long> lastSequences = new HashMap<>();
+      if (epoch != this.epoch) {
+        this.epoch = epoch;
+        for (Lane lane : lanes.values()) {
+          lane.lastSequence = -1;
+          lane.sequenceReset = true;
+        }
+      } else {
+        for (Lane lane : lanes.values()) {
+          if (lane.lastSequence >= 0) {
+            lastSequences.put(lane.id, lane.lastSequence);
+          }
+        }
+      }
+      return lastSequences;
+    }
+
+    /**
+     * Return the message to process, or null when it is a chunk of a message
+     * not yet complete or was replayed and already received in which case it is released.
+     * <p>
+     * The chunks of a message are assembled into the message returned with the last chunk.
+     * Gossip messages are passed to the failure detection as they are read, and
+     * relayed messages are sent on to the next members of the broadcast tree (or
+     * released when already received from another member).
+     * </p>
+     */
+    synchronized ClusterMessage accept(ClusterMessage message) throws InvalidMessageException {
+      if (message.isGossip()) {
+        owner.gossip(member, message);
+        return null;
+      }
+      if (message.isChunk()) {
+        message = lane(message.getLane()).addChunk(message);
+        if (message == null) {
+          return null;
+        }
+      }
+      long sequence = message.getSequence();
+      if (sequence >= 0) {
+        Lane lane = lane(message.getLane());
+        if (epoch != 0 && sequence <= lane.lastSequence) {
+          duplicateCount.incrementAndGet();
+          message.release();
+          return null;
+        }
+        lane.lastSequence = sequence;
+      }
+      if (message.isRelayed() && !owner.relay(member, message)) {
+        return null;
+      }
+      return message;
+    }
+
+    /**
+     * Put the message blocking while the decode queue of its lane is full.
+     */
+    void put(ClusterMessage message) throws InterruptedException {
+      lane(message.getLane()).decodeStage.put(message);
+    }
+
+    /**
+     * Offer the message returning false if the decode queue of its lane is full.
+     * <p>
+     * When false is returned the space listener is notified when there is space.
+     * </p>
+     */
+    boolean offer(ClusterMessage message) {
+      DecodeStage decodeStage = lane(message.getLane()).decodeStage;
+      if (decodeStage.offer(message)) {
+        return true;
+      }
+      readerWaiting = true;
+      // the decode stage may have caught up in the meantime
+      if (decodeStage.offer(message)) {
+        readerWaiting = false;
+        return true;
+      }
+      return false;
+    }
+
+    private boolean isEmpty() {
+      for (Lane lane : lanes.values()) {
+        if (!lane.decodeStage.queue.isEmpty() || !lane.applyStage.queue.isEmpty()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void decodeTaken(DecodeStage decodeStage) {
+      if (readerWaiting && decodeStage.queue.remainingCapacity() >= capacity / 2) {
+        readerWaiting = false;
+        Runnable listener = spaceListener;
+        if (listener != null) {
+          listener.run();
+        }
+      }
+    }
+
+    /**
+     * The messages of one lane of the member with their own decode and apply stages.
+     */
+    private final class Lane {
+
+      private final int id;
+
+      private final DecodeStage decodeStage;
+
+      private final ApplyStage applyStage;
+
+      private final SequenceTracker sequences = new SequenceTracker();
+
+      /**
+       * The sequence number of the last message read on the lane.
+       */
+      private long lastSequence = -1;
+
+      /**
+       * Set when the member has restarted such that the decode stage starts a new sequence.
+       */
+      private volatile boolean sequenceReset;
+
+      /**
+       * The chunks received of the message being assembled.
+       */
+      private final List<ClusterMessage> chunks = new ArrayList<>();
+
+      Lane(int id) {
+        this.id = id;
+        this.applyStage = new ApplyStage();
+        this.decodeStage = new DecodeStage(this, applyStage);
+        this.applyStage.decodeStage = decodeStage;
+      }
+
+      /**
+       * Add the chunk returning the assembled message when it is the last chunk.
+       */
+      private ClusterMessage addChunk(ClusterMessage chunk) throws InvalidMessageException {
+        if (chunk.getChunkIndex() != chunks.size()) {
+          // the start of the message was lost with the previous connection
+          clearChunks();
+          if (chunk.getChunkIndex() != 0) {
+            log.debug("Dropping chunk {} from member:{} without the start of its message", chunk, member);
+            chunk.release();
+            return null;
+          }
+        }
+        chunks.add(chunk);
+        if (!chunk.isLastChunk()) {
+          return null;
+        }
+        try {
+          return ClusterMessage.assemble(chunks);
+        } catch (InvalidMessageException e) {
+          for (ClusterMessage message : chunks) {
+            message.release();
+          }
+          throw e;
+        } finally {
+          chunks.clear();
+        }
+      }
+
+      private void clearChunks() {
+        for (ClusterMessage chunk : chunks) {
+          chunk.release();
+        }
+        chunks.clear();
+      }
+
+      /**
+       * Check the sequence number of the message for a gap.
+       * <p>
+       * Relayed messages are not checked as the copies already received from another
+       * member are dropped before they get here, and the messages missed on the way
+       * from the origin member are detected by the numbers of the origin.
+       * </p>
+       */
+      private void checkSequence(ClusterMessage message) {
+        if (sequenceReset) {
+          sequenceReset = false;
+          sequences.reset();
+        }
+        long sequence = message.getSequence();
+        if (sequence >= 0 && !message.isRelayed()) {
+          long expected = sequences.expected();
+          if (sequences.gap(sequence)) {
+            gapCount.incrementAndGet();
+            owner.gapDetected(member, id, expected, sequence);
+          }
+        }
+      }
+    }
+
+    /**
+     * Decodes the messages of a lane of the member in order.
+     */
+    private final class DecodeStage extends SerialStage<ClusterMessage> {
+
+      private final Lane lane;
+
+      private final ApplyStage applyStage;
+
+      DecodeStage(Lane lane, ApplyStage applyStage) {
+        super(decodeService, maxDecodeDepth);
+        this.lane = lane;
+        this.applyStage = applyStage;
+      }
+
+      @Override
+      boolean canProcess() {
+        return applyStage.queue.remainingCapacity() > 0;
+      }
+
+      @Override
+      void process(ClusterMessage message) {
+        try {
+          lane.checkSequence(message);
+          Runnable action = owner.decode(message);
+          decodedCount.incrementAndGet();
+          // only this stage adds to the apply queue and it was checked for space
+          applyStage.offer(action);
+        } catch (Exception e) {
+          log.error("Error decoding message from " + member, e);
+        }
+      }
+
+      @Override
+      void taken() {
+        decodeTaken(this);
+      }
+    }
+
+    /**
+     * Applies the decoded messages of a lane of the member in order.
+     */
+    private final class ApplyStage extends SerialStage<Runnable> {
+
+      private DecodeStage decodeStage;
+
+      ApplyStage() {
+        super(applyService, maxApplyDepth);
+      }
+
+      @Override
+      void process(Runnable action) {
+        try {
+          if (merge && action instanceof RemoteTransactionEvent && isMergeable((RemoteTransactionEvent) action, queue.peek())) {
+            action = merge((RemoteTransactionEvent) action);
+          }
+          action.run();
+          appliedCount.incrementAndGet();
+        } catch (Exception e) {
+          log.error("Error applying message from " + member, e);
+        }
+      }
+
+      /**
+       * Merge the event with the following queued events of the same server.
+       */
+      private RemoteTransactionEvent merge(RemoteTransactionEvent event) {
+        TransactionEventMerger merger = new TransactionEventMerger(event.getServer().name(), mergeMaxBeanIds);
+        merger.add(event);
+        Runnable next;
+        while (isMergeable(event, next = queue.peek()) && queue.remove(next)) {
+          merger.add((RemoteTransactionEvent) next);
+        }
+        // the queue has space again
+        decodeStage.schedule();
+        int merged = merger.size() - 1;
+        mergedCount.addAndGet(merged);
+        if (log.isTraceEnabled()) {
+          log.trace("merged {} queued events from {}", merged, member);
+        }
+        return merger.merged();
+      }
+
+      private boolean isMergeable(RemoteTransactionEvent event, Runnable next) {
+        return next instanceof RemoteTransactionEvent && ((RemoteTransactionEvent) next).getServer() == event.getServer();
+      }
+
+      @Override
+      void taken() {
+        // the decode stage may have stopped due to this queue being full
+        decodeStage.schedule();
+      }
+    }
+  }
+
+  /**
+   * A bounded queue of items processed in order by at most one thread at a time.
+   */
+  private abstract class SerialStage<T> implements Runnable {
+
+    final BlockingQueue<T> queue = new ArrayBlockingQueue<>(capacity);
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger maxDepth;
+
+    SerialStage(ExecutorService executor, AtomicInteger maxDepth) {
+      this.executor = executor;
+      this.maxDepth = maxDepth;
+    }
+
+    boolean offer(T item) {
+      if (queue.offer(item)) {
+        added();
+        return true;
+      }
+      return false;
+    }
+
+    void put(T item) throws InterruptedException {
+      queue.put(item);
+      added();
+    }
+
+    private void added() {
+      trackDepth(maxDepth, queue.size());
+      schedule();
+    }
+
+    void schedule() {
+      if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+        executor.execute(this);
+      }
+    }
+
+    boolean canProcess() {
+      return true;
+    }
+
+    abstract void process(T item);
+
+    void taken() {
+      // do nothing by default
+    }
+
+    @Override
+    public void run() {
+      try {
+        T item;
+        while (canProcess() && (item = queue.poll()) != null) {
+          taken();
+          process(item);
+        }
+      } finally {
+        scheduled.set(false);
+      }
+      if (canProcess()) {
+        schedule();
+      }
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package io.ebean.k8scache.socket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The broadcast tree or zones the data messages are relayed over and the relayed messages already received.
+ * <p>
+ * The members are ordered by IP address and each message is relayed over a tree
+ * of the given fanout rooted at the member that broadcast it, such that the member
+ * at position p (counting from the origin) relays it to the members at positions
+ * fanout * p + 1 to fanout * p + fanout. Each member works out the tree from the
+ * members it knows, so while the members are changing a message may be received
+ * from more than one member (or missed by a member that joined).
+ * </p>
+ * <p>
+ * Alternatively a message is sent directly to the members of the zone of the sender
+ * and to one member of each other zone, which relays it to the members of its zone,
+ * such that it crosses to each other zone once.
+ * </p>
+ * <p>
+ * The copies of a message are recognised by the instance, lane and number of the
+ * origin member. The numbers received on each lane of an origin are held in a
+ * sliding window such that a message received out of order (over a different path
+ * while the members changed) is still applied once. A jump in the numbers means
+ * messages were missed, for example lost by a relaying member that failed.
+ * </p>
+ */
+final class RelayTree {
+
+  /**
+   * The number of messages held in the window of received numbers.
+   */
+  private static final int WINDOW = 1024;
+
+  private final String localIp;
+
+  /**
+   * The numbers received by origin member and lane.
+   */
+  private final Map<String, Window> windows = new HashMap<>();
+
+  private final AtomicLong relayedCount = new AtomicLong();
+
+  private final AtomicLong forwardedCount = new AtomicLong();
+
+  private final AtomicLong duplicateCount = new AtomicLong();
+
+  private final AtomicLong directCount = new AtomicLong();
+
+  private final AtomicLong directMillis = new AtomicLong();
+
+  private final AtomicLong relayedReceivedCount = new AtomicLong();
+
+  private final AtomicLong relayedMillis = new AtomicLong();
+
+  private final AtomicLong maxMillis = new AtomicLong();
+
+  /**
+   * The members of the last tree with the local member, ordered.
+   */
+  private List<String> ordered = Collections.emptyList();
+
+  private Set<String> orderedMembers = Collections.emptySet();
+
+  RelayTree(String localIp) {
+    this.localIp = localIp;
+  }
+
+  /**
+   * Return the members this member relays the message of the origin to.
+   *
+   * @param origin  The member that broadcast the message (the root of the tree)
+   * @param fanout  The number of members each member relays to
+   * @param members The other members that relay messages
+   */
+  List<String> children(String origin, int fanout, Collection<String> members) {
+    List<String> tree = ordered(origin, members);
+    int size = tree.size();
+    int root = Collections.binarySearch(tree, origin);
+    int position = Math.floorMod(Collections.binarySearch(tree, localIp) - root, size);
+    List<String> children = new ArrayList<>(fanout);
+    for (long child = (long) fanout * position + 1; child <= (long) fanout * position + fanout && child < size; child++) {
+      children.add(tree.get((int) ((root + child) % size)));
+    }
+    return children;
+  }
+
+  /**
+   * Return the member of another zone that relays the messages of this member to its zone.
+   * <p>
+   * Each sender picks a member of the zone by its own hash, such that the relaying
+   * is spread over the members of the zone.
+   * </p>
+   */
+  String zoneRelay(List<String> zoneMembers) {
+    List<String> list = new ArrayList<>(zoneMembers);
+    Collections.sort(list);
+    return list.get(Math.floorMod(localIp.hashCode(), list.size()));
+  }
+
+  /**
+   * Return the ordered members with the origin and this member.
+   */
+  private synchronized List<String> ordered(String origin, Collection<String> members) {
+    Set<String> all = new HashSet<>(members);
+    all.add(localIp);
+    all.add(origin);
+    if (!all.equals(orderedMembers)) {
+      List<String> list = new ArrayList<>(all);
+      Collections.sort(list);
+      ordered = list;
+      orderedMembers = all;
+    }
+    return ordered;
+  }
+
+  /**
+   * Accept the relayed message returning the highest number received before on the
+   * lane of the origin (0 for none), or -1 if the message was received before.
+   */
+  synchronized long accept(String origin, long epoch, int lane, long sequence) {
+    Window window = windows.computeIfAbsent(origin + '/' + lane, k -> new Window());
+    if (window.epoch != epoch) {
+      // a new instance of the origin member
+      window.reset(epoch);
+    }
+    long max = window.max;
+    if (window.accept(sequence)) {
+      return max;
+    }
+    duplicateCount.incrementAndGet();
+    return -1;
+  }
+
+  /**
+   * Forget the messages received from the member that left.
+   */
+  synchronized void remove(String origin) {
+    String prefix = origin + '/';
+    Iterator<String> it = windows.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().startsWith(prefix)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Count the message broadcast by this member over the tree.
+   */
+  void relayed() {
+    relayedCount.incrementAndGet();
+  }
+
+  /**
+   * Count the message of another member sent on to the given number of members.
+   */
+  void forwarded(int members) {
+    forwardedCount.addAndGet(members);
+  }
+
+  /**
+   * Record the time from the origin member sending the message to receiving it,
+   * directly from the origin or via another member.
+   */
+  void received(boolean direct, long latencyMillis) {
+    // the clocks of the members may differ a little
+    long millis = Math.max(0, latencyMillis);
+    if (direct) {
+      directCount.incrementAndGet();
+      directMillis.addAndGet(millis);
+    } else {
+      relayedReceivedCount.incrementAndGet();
+      relayedMillis.addAndGet(millis);
+    }
+    maxMillis.accumulateAndGet(millis, Math::max);
+  }
+
+  /**
+   * Return the relay status with the zone of this member and the bytes sent within and across zones.
+   */
+  SocketRelayStatus getStatus(String zone, long zoneBytes, long crossZoneBytes) {
+    long direct = directCount.get();
+    long relayedReceived = relayedReceivedCount.get();
+    return new SocketRelayStatus(relayedCount.get(), forwardedCount.get(), duplicateCount.get(), zone, zoneBytes, crossZoneBytes,
+      direct, direct == 0 ? 0 : directMillis.get() / direct, relayedReceived, relayedReceived == 0 ? 0 : relayedMillis.get() / relayedReceived, maxMillis.get());
+  }
+
+  /**
+   * The numbers received on a lane of an origin member.
+   */
+  private static final class Window {
+
+    private final long[] received = new long[WINDOW / 64];
+
+    private long epoch;
+
+    /**
+     * The highest number received.
+     */
+    private long max;
+
+    void reset(long epoch) {
+      this.epoch = epoch;
+      this.max = 0;
+      Arrays.fill(received, 0);
+    }
+
+    boolean accept(long sequence) {
+      if (sequence > max) {
+        // clear the numbers that moved into the window
+        long clear = Math.min(sequence - max, WINDOW);
+        for (long i = 1; i <= clear; i++) {
+          set(max + i, false);
+        }
+        max = sequence;
+        set(sequence, true);
+        return true;
+      }
+      if (max - sequence >= WINDOW || isSet(sequence)) {
+        return false;
+      }
+      set(sequence, true);
+      return true;
+    }
+
+    private boolean isSet(long sequence) {
+      int bit = (int) (sequence % WINDOW);
+      return (received[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private void set(long sequence, boolean value) {
+      int bit = (int) (sequence % WINDOW);
+      if (value) {
+        received[bit >>> 6] |= 1L << bit;
+      } else {
+        received[bit >>> 6] &= ~(1L << bit);
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.message.ClusterMessage;
+
+import java.util.List;
+
+/**
+ * Ring buffer of the most recently sent data messages indexed by their sequence number.
+ * <p>
+ * Used to send a reconnecting member the messages it missed. The messages are
+ * retained while held and released when they are overwritten. Messages must be
+ * added in sequence order without gaps, and all access must be synchronised by
+ * the caller.
+ * </p>
+ */
+final class ReplayLog {
+
+  private final ClusterMessage[] ring;
+
+  /**
+   * The index the next message is put at.
+   */
+  private int next;
+
+  private int count;
+
+  /**
+   * The sequence number of the last message added.
+   */
+  private long last;
+
+  ReplayLog(int capacity) {
+    this.ring = new ClusterMessage[capacity];
+  }
+
+  /**
+   * Add the message which has the next sequence number.
+   */
+  void add(ClusterMessage message) {
+    message.retain();
+    ClusterMessage oldest = ring[next];
+    if (oldest != null) {
+      oldest.release();
+    }
+    ring[next] = message;
+    next = (next + 1) % ring.length;
+    if (count < ring.length) {
+      count++;
+    }
+    last = message.getSequence();
+  }
+
+  /**
+   * Add the messages after the given sequence number to the list retaining them.
+   * <p>
+   * Returns false if the messages are no longer all held, in which case none are added.
+   * </p>
+   */
+  boolean replay(long after, List<ClusterMessage> messages) {
+    long missing = last - after;
+    if (missing > count) {
+      return false;
+    }
+    for (long i = missing; i > 0; i--) {
+      ClusterMessage message = ring[(int) ((next - i + ring.length) % ring.length)];
+      message.retain();
+      messages.add(message);
+    }
+    return true;
+  }
+
+  /**
+   * Release all the messages held.
+   */
+  void clear() {
+    for (int i = 0; i < ring.length; i++) {
+      if (ring[i] != null) {
+        ring[i].release();
+        ring[i] = null;
+      }
+    }
+    count = 0;
+  }
+}
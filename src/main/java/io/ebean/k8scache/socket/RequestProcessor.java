@@ -4,7 +4,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
 /**
  * This parses and dispatches a request to the appropriate handler.
@@ -45,17 +47,25 @@ class RequestProcessor implements Runnable {
       SocketConnection sc = new SocketConnection(clientSocket);
       DataInputStream dataInputStream = sc.getDataInputStream();
       int helloKey = dataInputStream.readInt();
-      if (helloKey != MsgKeys.HELLO) {
+      if (!Hello.isHello(helloKey)) {
         if (log.isTraceEnabled()) {
           log.trace("Received Invalid hello {} from {}", helloKey, clientSocket.getRemoteSocketAddress());
         }
       } else {
-	      String fromMember = dataInputStream.readUTF();
-	      if (log.isDebugEnabled()) {
-          log.debug("reading messages from:{} sa:{}", fromMember, clientSocket.getRemoteSocketAddress());
+        Hello hello = Hello.read(helloKey, dataInputStream);
+        String fromMember = hello.member();
+        if (log.isDebugEnabled()) {
+          log.debug("reading messages from:{} sa:{}", hello, clientSocket.getRemoteSocketAddress());
+        }
+        ReceivePipeline.Source source = owner.receiveSource(fromMember);
+        ByteBuffer reply = hello.reply(source.hello(hello.epoch()));
+        if (reply != null) {
+          DataOutputStream output = sc.getDataOutputStream();
+          output.write(reply.array(), 0, reply.limit());
+          output.flush();
         }
         while (true) {
-          if (owner.process(sc)) {
+          if (owner.process(sc, source)) {
             // got the offline message or timeout
             break;
           }
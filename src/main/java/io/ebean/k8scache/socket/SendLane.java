@@ -0,0 +1,173 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.message.ClusterMessage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A lane the data messages of a server (database) are sent on.
+ * <p>
+ * Each lane numbers its messages and holds the recently sent ones for replay
+ * independently of the other lanes. Numbering a message and queuing it for the
+ * members is done holding the lane lock such that each member is sent the
+ * messages of the lane in sequence. The lock is a ReentrantLock as queuing can
+ * wait for space (BLOCK policy), which would pin a virtual thread holding a monitor.
+ * </p>
+ * <p>
+ * With priorities a lane has a bulk lane its large messages are sent on. The
+ * bulk lane holds the tables of its messages still queued for a member, such
+ * that the later messages of those tables are also sent on the bulk lane and
+ * are not applied ahead of them. The messages of a table sent on the lane before
+ * or after that are applied independently of the bulk lane by the members.
+ * </p>
+ */
+final class SendLane {
+
+  private final int id;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * The recently sent messages replayed to reconnecting members, null when not replaying.
+   */
+  private final ReplayLog replayLog;
+
+  /**
+   * The lane the large messages are sent on, null when not using priorities or for a bulk lane.
+   */
+  private final SendLane bulkLane;
+
+  /**
+   * The last message sent on the bulk lane for each table.
+   */
+  private final Map<String, ClusterMessage> pendingTables = new HashMap<>();
+
+  /**
+   * The sequence number of the last message sent.
+   */
+  private long sequence;
+
+  /**
+   * The number of the last message relayed by the members.
+   */
+  private long relayed;
+
+  SendLane(int id, int replayCapacity, SendLane bulkLane) {
+    this.id = id;
+    this.replayLog = replayCapacity > 0 ? new ReplayLog(replayCapacity) : null;
+    this.bulkLane = bulkLane;
+  }
+
+  /**
+   * Return the id of the lane, 0 for the default lane.
+   */
+  int id() {
+    return id;
+  }
+
+  /**
+   * Acquire the lane lock.
+   */
+  void lock() {
+    lock.lock();
+  }
+
+  /**
+   * Release the lane lock.
+   */
+  void unlock() {
+    lock.unlock();
+  }
+
+  /**
+   * Return the lane the large messages are sent on, null when not using priorities.
+   */
+  SendLane bulkLane() {
+    return bulkLane;
+  }
+
+  /**
+   * Return true if a message of any of the tables is still queued for a member,
+   * called holding the lane lock.
+   */
+  boolean isPending(Set<String> tables) {
+    // the replay log holds the message after it has been sent
+    int remaining = replayLog == null ? 0 : 1;
+    boolean pending = false;
+    for (String table : tables) {
+      ClusterMessage message = pendingTables.get(table);
+      if (message != null) {
+        if (message.isReleased(remaining)) {
+          pendingTables.remove(table);
+        } else {
+          pending = true;
+        }
+      }
+    }
+    return pending;
+  }
+
+  /**
+   * Hold the message as the last sent for the tables, called holding the lane lock.
+   */
+  void pending(Set<String> tables, ClusterMessage message) {
+    for (String table : tables) {
+      pendingTables.put(table, message);
+    }
+  }
+
+  /**
+   * Number the message and hold it for replay, called holding the lane lock.
+   */
+  void sequence(ClusterMessage message) {
+    message.setSequence(++sequence);
+    if (replayLog != null) {
+      replayLog.add(message);
+    }
+  }
+
+  /**
+   * Return the number of the next message relayed by the members, called holding the lane lock.
+   */
+  long nextRelayed() {
+    return ++relayed;
+  }
+
+  /**
+   * Add the messages sent after the given sequence number to the list retaining them.
+   * <p>
+   * Returns the sequence number of the last message sent. The list is left empty
+   * when the messages are no longer all held by the replay log.
+   * </p>
+   */
+  long replay(long after, List<ClusterMessage> messages) {
+    lock.lock();
+    try {
+      if (after < sequence && replayLog != null) {
+        replayLog.replay(after, messages);
+      }
+      return sequence;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Release the messages held for replay.
+   */
+  void clear() {
+    lock.lock();
+    try {
+      if (replayLog != null) {
+        replayLog.clear();
+      }
+      pendingTables.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.message.ClusterMessage;
+import io.ebean.k8scache.message.MessagePriority;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The messages waiting to be sent to a member with a queue per lane and priority.
+ * <p>
+ * The capacity bounds the messages queued over all the lanes and priorities, such
+ * that the memory held for a member does not grow with the number of lanes.
+ * </p>
+ * <p>
+ * The messages of a higher priority are taken before those of a lower priority.
+ * Within a priority the messages of each lane are taken in order while the lanes
+ * take turns using deficit round robin over the message sizes, such that a lane
+ * with a backlog of large messages does not hold up the small messages of the
+ * other lanes. With a single lane and priority this is a plain bounded FIFO queue.
+ * </p>
+ */
+final class SendQueue {
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition notEmpty = lock.newCondition();
+
+  private final Condition notFull = lock.newCondition();
+
+  private final int capacity;
+
+  /**
+   * The bytes a lane may send each time it takes its turn.
+   */
+  private final int quantum;
+
+  /**
+   * The lanes of each priority indexed by the priority ordinal.
+   */
+  private final Level[] levels;
+
+  private int count;
+
+  /**
+   * Create with the capacity over all the lanes and the bytes a lane sends per turn.
+   */
+  SendQueue(int capacity, int quantum) {
+    this.capacity = capacity;
+    this.quantum = Math.max(1, quantum);
+    this.levels = new Level[MessagePriority.values().length];
+    for (int i = 0; i < levels.length; i++) {
+      levels[i] = new Level();
+    }
+  }
+
+  /**
+   * Add the message returning false if the queue is full.
+   */
+  boolean offer(ClusterMessage message) {
+    final ReentrantLock lock = this.lock;
+    lock.lock();
+    try {
+      return add(message);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Add the message waiting up to the given time for space in the queue.
+   */
+  boolean offer(ClusterMessage message, long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    final ReentrantLock lock = this.lock;
+    lock.lockInterruptibly();
+    try {
+      while (!add(message)) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = notFull.awaitNanos(nanos);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean add(ClusterMessage message) {
+    if (count >= capacity) {
+      return false;
+    }
+    Level level = levels[message.getPriority().ordinal()];
+    Lane lane = level.lanes.computeIfAbsent(message.getLane(), id -> new Lane());
+    if (lane.messages.isEmpty()) {
+      level.active.add(lane);
+    }
+    lane.messages.add(message);
+    count++;
+    notEmpty.signal();
+    return true;
+  }
+
+  /**
+   * Take the next message returning null if there is none.
+   */
+  ClusterMessage poll() {
+    final ReentrantLock lock = this.lock;
+    lock.lock();
+    try {
+      return take();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Take the next message waiting up to the given time for one.
+   */
+  ClusterMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    final ReentrantLock lock = this.lock;
+    lock.lockInterruptibly();
+    try {
+      while (count == 0) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return take();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private ClusterMessage take() {
+    if (count == 0) {
+      return null;
+    }
+    ArrayDeque<Lane> active = null;
+    for (Level level : levels) {
+      if (!level.active.isEmpty()) {
+        active = level.active;
+        break;
+      }
+    }
+    while (true) {
+      Lane lane = active.peek();
+      ClusterMessage head = lane.messages.peek();
+      if (active.size() == 1) {
+        // no other lane is waiting for its turn
+        lane.deficit = 0;
+      } else if (head.size() > lane.deficit) {
+        // the lane has used its turn
+        active.poll();
+        lane.deficit += quantum;
+        active.add(lane);
+        continue;
+      } else {
+        lane.deficit -= head.size();
+      }
+      lane.messages.poll();
+      count--;
+      if (lane.messages.isEmpty()) {
+        lane.deficit = 0;
+        active.poll();
+      }
+      notFull.signalAll();
+      return head;
+    }
+  }
+
+  /**
+   * Remove all the messages adding them to the list returning the number removed.
+   */
+  int drainTo(List<ClusterMessage> messages) {
+    final ReentrantLock lock = this.lock;
+    lock.lock();
+    try {
+      int removed = count;
+      for (Level level : levels) {
+        for (Lane lane : level.active) {
+          messages.addAll(lane.messages);
+          lane.messages.clear();
+          lane.deficit = 0;
+        }
+        level.active.clear();
+      }
+      count = 0;
+      notFull.signalAll();
+      return removed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Forget the lane that is no longer used, its queued messages are still taken.
+   */
+  void removeLane(int id) {
+    final ReentrantLock lock = this.lock;
+    lock.lock();
+    try {
+      for (Level level : levels) {
+        level.lanes.remove(id);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Return the number of lanes known over all the priorities.
+   */
+  int laneCount() {
+    final ReentrantLock lock = this.lock;
+    lock.lock();
+    try {
+      int lanes = 0;
+      for (Level level : levels) {
+        lanes += level.lanes.size();
+      }
+      return lanes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Return the number of messages queued over all the lanes.
+   */
+  int size() {
+    final ReentrantLock lock = this.lock;
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * The lanes of a priority.
+   */
+  private static final class Level {
+
+    private final Map<Integer, Lane> lanes = new HashMap<>();
+
+    /**
+     * The lanes with queued messages in the order they take their turns.
+     */
+    private final ArrayDeque<Lane> active = new ArrayDeque<>();
+  }
+
+  /**
+   * The messages of a lane and its deficit of bytes not yet sent on its turns.
+   */
+  private static final class Lane {
+
+    private final ArrayDeque<ClusterMessage> messages = new ArrayDeque<>();
+
+    private int deficit;
+  }
+}
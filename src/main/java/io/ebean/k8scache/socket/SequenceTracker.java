@@ -0,0 +1,42 @@
+package io.ebean.k8scache.socket;
+
+/**
+ * Tracks the sequence numbers of the messages received from one member to detect gaps.
+ * <p>
+ * The sender numbers its data messages from 1 such that receiving 1 again means the
+ * sender has restarted. Any other jump in the sequence means messages were missed,
+ * for example when they were dropped by the sender or lost with a connection. Only
+ * used by the decode stage of the member so it needs no synchronisation.
+ * </p>
+ */
+final class SequenceTracker {
+
+  private long received = -1;
+
+  /**
+   * Track the sequence number of a received message returning true if messages were missed.
+   */
+  boolean gap(long sequence) {
+    long last = received;
+    received = sequence;
+    if (last == -1 || sequence == last + 1) {
+      return false;
+    }
+    // a restarted sender starts again from 1
+    return sequence != 1;
+  }
+
+  /**
+   * Start a new sequence after the member restarted.
+   */
+  void reset() {
+    received = -1;
+  }
+
+  /**
+   * Return the next sequence number expected.
+   */
+  long expected() {
+    return received + 1;
+  }
+}
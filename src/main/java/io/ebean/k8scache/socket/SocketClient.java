@@ -1,25 +1,95 @@
 package io.ebean.k8scache.socket;
 
 import io.ebean.k8scache.K8sBroadcastFactory;
+import io.ebean.k8scache.K8sServiceConfig;
+import io.ebean.k8scache.SendOverflowPolicy;
 import io.ebean.k8scache.message.ClusterMessage;
 import org.slf4j.Logger;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
  * The client side of the socket clustering.
+ * <p>
+ * Messages are put on a bounded queue and written to the member by a writer
+ * task such that broadcasting does not wait on the network.
+ * </p>
+ * <p>
+ * The queue is bounded per lane and the lanes take turns filling the batches,
+ * such that a backlog of large messages of one server does not hold up the
+ * messages of the other servers sent over the same connection.
+ * </p>
+ * <p>
+ * The writer takes all the messages queued (up to the batch byte budget) and
+ * sends them with a single gathering write. When the previous batch contained
+ * more than one message the writer lingers briefly to pick up more messages.
+ * </p>
+ * <p>
+ * The queued messages have been retained for this member and are released
+ * once written or dropped.
+ * </p>
+ * <p>
+ * Connecting and writing have timeouts. When a write fails the writer reconnects
+ * with an exponential backoff while the messages continue to be queued (subject
+ * to the overflow policy). When it can not reconnect, or too many of the recent
+ * writes failed or were slow, the circuit breaker opens. Messages for the member
+ * are then dropped until a probe of the member succeeds, after which the member
+ * is sent a cache clear.
+ * </p>
+ * <p>
+ * With a replay log, connecting resumes sending after the last message the member
+ * received on each lane. The member is first sent the messages it missed from the replay log,
+ * or a cache clear when they are no longer held, and queued messages it was sent
+ * by the replay are skipped.
+ * </p>
+ * <p>
+ * With a spill file, messages that do not fit in the queue (or arrive while the
+ * circuit is open) are appended to a memory mapped file rather than dropped. While
+ * the file holds messages all the new messages are appended to it, and the writer
+ * sends the file once it has sent the queued messages such that the order of the
+ * messages is kept.
+ * </p>
  */
-class SocketClient {
+class SocketClient implements Runnable {
 
 	private static final Logger logger = K8sBroadcastFactory.log;
 
+	/**
+	 * The time to wait for the hello reply when there is no connect timeout.
+	 */
+	private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+
+	/**
+	 * The most lanes a member can report the last sequence number of in the hello reply.
+	 */
+	private static final int MAX_RESUME_LANES = 10_000;
+
+	private final K8sClusterBroadcast owner;
+
 	private final InetSocketAddress address;
 
 	private final String ip;
@@ -31,20 +101,136 @@ class SocketClient {
 	 */
 	private final ReentrantLock lock;
 
-	private Socket socket;
+	private final SendQueue queue;
+
+	private final SendOverflowPolicy overflowPolicy;
+
+	private final long blockTimeoutMillis;
+
+	private final int batchBytes;
+
+	/**
+	 * The size of the chunks large messages are sent as, 0 to not chunk.
+	 */
+	private final int chunkBytes;
+
+	private final long batchLingerNanos;
+
+	private final int connectTimeoutMillis;
+
+	/**
+	 * The time to wait for the reply to the hello, bounded even without a connect timeout.
+	 */
+	private final int handshakeTimeoutMillis;
+
+	private final long writeTimeoutNanos;
+
+	private final long reconnectBackoffMillis;
+
+	private final long reconnectMaxBackoffMillis;
+
+	private final int reconnectAttempts;
 
-	private OutputStream os;
+	/**
+	 * Signalled when disconnected to stop waiting to reconnect.
+	 */
+	private final Condition stopped;
+
+	private final CircuitBreaker breaker;
+
+	/**
+	 * True when resuming sending after the last message received by the member.
+	 */
+	private final boolean resume;
+
+	/**
+	 * Holds the messages that do not fit in the queue, null when not spilling.
+	 */
+	private final SpillFile spill;
+
+	private final List<ClusterMessage> batch = new ArrayList<>();
+
+	private final List<ByteBuffer> buffers = new ArrayList<>();
 
-	private DataOutputStream dataOutput;
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	private final AtomicLong sentCount = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final AtomicLong writeCount = new AtomicLong();
+
+	private final AtomicLong reconnectCount = new AtomicLong();
+
+	private final AtomicLong replayedCount = new AtomicLong();
+
+	private final AtomicLong spilledCount = new AtomicLong();
+
+	/**
+	 * The protocol version used with the member, 0 before connecting.
+	 */
+	private volatile int protocolVersion;
+
+	/**
+	 * The capabilities of both this and the member, assumed to be all of them until connected.
+	 */
+	private volatile int capabilities = MsgKeys.CAPABILITIES;
+
+	/**
+	 * The sequence number per lane up to which the messages were replayed, the queued messages up to these are skipped.
+	 */
+	private final Map<Integer, Long> replayedTo = new HashMap<>();
+
+	/**
+	 * Set when queued messages were dropped and the member needs a cache clear.
+	 */
+	private volatile boolean resync;
+
+	private volatile boolean active;
+
+	private volatile boolean writing;
+
+	private SocketChannel channel;
+
+	/**
+	 * Used to wait for the channel to be writable, created when first needed.
+	 */
+	private Selector selector;
 
 	/**
 	 * Construct with an IP address and port.
 	 */
-	SocketClient(String ip, InetSocketAddress address, String localIp) {
+	SocketClient(K8sClusterBroadcast owner, K8sServiceConfig config, String ip, InetSocketAddress address, String localIp) {
 		this.lock = new ReentrantLock(false);
+		this.stopped = lock.newCondition();
+		this.owner = owner;
 		this.address = address;
 		this.ip = ip;
 		this.localIp = localIp;
+		this.overflowPolicy = config.getSendOverflowPolicy();
+		this.blockTimeoutMillis = config.getSendBlockTimeoutMillis();
+		this.batchBytes = config.getSendBatchBytes();
+		this.chunkBytes = config.getChunkBytes();
+		this.queue = new SendQueue(config.getSendQueueCapacity(), batchBytes);
+		this.batchLingerNanos = TimeUnit.MICROSECONDS.toNanos(config.getSendBatchLingerMicros());
+		this.connectTimeoutMillis = config.getConnectTimeoutMillis();
+		this.handshakeTimeoutMillis = connectTimeoutMillis > 0 ? connectTimeoutMillis : HANDSHAKE_TIMEOUT_MILLIS;
+		this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getWriteTimeoutMillis());
+		this.reconnectBackoffMillis = config.getReconnectBackoffMillis();
+		this.reconnectMaxBackoffMillis = config.getReconnectMaxBackoffMillis();
+		this.reconnectAttempts = config.getReconnectAttempts();
+		this.breaker = new CircuitBreaker(config);
+		this.resume = config.isSequenceNumbers() && config.getReplayCapacity() > 0;
+		this.spill = createSpill(config);
+	}
+
+	private SpillFile createSpill(K8sServiceConfig config) {
+		String directory = config.getSpillDirectory();
+		if (directory == null) {
+			return null;
+		}
+		String name = "ebean-cluster-" + localIp + "-" + ip + ".spill";
+		return new SpillFile(Paths.get(directory, name), config.getSpillMaxBytes(), batchBytes);
 	}
 
 	public String toString() {
@@ -55,46 +241,496 @@ class SocketClient {
 		return ip;
 	}
 
-	void reconnect() throws IOException {
+	/**
+	 * Return the current send status of this member.
+	 */
+	SocketMemberStatus getStatus() {
+		return new SocketMemberStatus(ip, queue.size(), maxQueueDepth.get(), sentCount.get(), droppedCount.get(), writeCount.get(), reconnectCount.get(), breaker.state(), replayedCount.get(), spilledCount.get(), protocolVersion);
+	}
+
+	/**
+	 * Start the writer task that sends the queued messages.
+	 */
+	void start(ExecutorService executor) {
+		active = true;
+		executor.execute(this);
+	}
+
+	/**
+	 * Queue the message to be sent to the member.
+	 * <p>
+	 * Returns false when the queue is full and the overflow policy is to
+	 * disconnect the member.
+	 * </p>
+	 */
+	boolean enqueue(ClusterMessage msg) {
+		if (!breaker.isClosed()) {
+			if (!spill(msg)) {
+				// the member is sent a cache clear when the circuit closes
+				drop(msg);
+			}
+			return true;
+		}
+		if (spill != null) {
+			// the queued messages are sent before the spilled ones
+			if (!spill.isActive() && queue.offer(msg)) {
+				trackDepth();
+			} else if (!spill(msg)) {
+				drop(msg);
+			}
+			return true;
+		}
+		if (queue.offer(msg)) {
+			trackDepth();
+			return true;
+		}
+		switch (overflowPolicy) {
+			case DISCONNECT:
+				droppedCount.incrementAndGet();
+				return false;
+			case BLOCK:
+				try {
+					if (queue.offer(msg, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+						trackDepth();
+						return true;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				dropAndResync(msg);
+				return true;
+			default:
+				dropAndResync(msg);
+				return true;
+		}
+	}
+
+	/**
+	 * Queue the relayed message without waiting for space or spilling it.
+	 * <p>
+	 * Called by the reader of another member, which can be the selector thread. When
+	 * the message can not be queued now it is dropped with the member sent a cache
+	 * clear, or false is returned when the overflow policy is to disconnect the member.
+	 * </p>
+	 */
+	boolean offer(ClusterMessage msg) {
+		if (!breaker.isClosed() || isSpilling()) {
+			drop(msg);
+			return true;
+		}
+		if (queue.offer(msg)) {
+			trackDepth();
+			return true;
+		}
+		if (overflowPolicy == SendOverflowPolicy.DISCONNECT) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		dropAndResync(msg);
+		return true;
+	}
+
+	/**
+	 * Remove the lane of the send queue that is no longer used.
+	 */
+	void removeLane(int lane) {
+		queue.removeLane(lane);
+	}
+
+	/**
+	 * Queue the gossip message without blocking, dropping it when it can not be sent now.
+	 * <p>
+	 * A dropped gossip message does not need a cache clear, the failure detection
+	 * treats it as lost.
+	 * </p>
+	 */
+	void gossip(ClusterMessage msg) {
+		if (breaker.isClosed() && isCapable(MsgKeys.CAP_GOSSIP) && queue.offer(msg)) {
+			trackDepth();
+		} else {
+			msg.release();
+		}
+	}
+
+	/**
+	 * Append the message to the spill file returning false if it is full.
+	 */
+	private boolean spill(ClusterMessage msg) {
+		if (spill != null && spill.append(msg, capabilities)) {
+			spilledCount.incrementAndGet();
+			msg.release();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Drop the message such that the member is sent a cache clear.
+	 */
+	private void drop(ClusterMessage msg) {
+		resync = true;
+		droppedCount.incrementAndGet();
+		msg.release();
+	}
+
+	private void trackDepth() {
+		int depth = queue.size();
+		if (depth > maxQueueDepth.get()) {
+			maxQueueDepth.accumulateAndGet(depth, Math::max);
+		}
+	}
+
+	/**
+	 * Drop the queued messages and have the writer send a cache clear before
+	 * it sends anything else.
+	 */
+	private void dropAndResync(ClusterMessage msg) {
+		boolean resyncPending = resync;
+		int dropped = clearQueue();
+		resync = true;
+		if (!queue.offer(msg)) {
+			msg.release();
+			dropped++;
+		}
+		droppedCount.addAndGet(dropped);
+		if (resyncPending) {
+			logger.debug("Send queue full for member:{} dropped {} messages", ip, dropped);
+		} else {
+			logger.warn("Send queue full for member:{} dropped {} messages and will resync", ip, dropped);
+		}
+	}
+
+	/**
+	 * Remove and release the queued messages returning the number removed.
+	 */
+	private int clearQueue() {
+		List<ClusterMessage> removed = new ArrayList<>();
+		queue.drainTo(removed);
+		for (ClusterMessage msg : removed) {
+			msg.release();
+		}
+		return removed.size();
+	}
+
+	/**
+	 * Wait up to the given time for the queued messages to be written.
+	 */
+	void awaitDrained(long timeoutMillis) {
+		long until = System.currentTimeMillis() + timeoutMillis;
+		try {
+			while (active && (writing || !queue.isEmpty() || isSpilling()) && System.currentTimeMillis() < until) {
+				Thread.sleep(10);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Write the queued messages until disconnected.
+	 */
+	@Override
+	public void run() {
+		int lastBatchSize = 0;
+		while (active) {
+			try {
+				if (!breaker.isClosed()) {
+					probe();
+					continue;
+				}
+				if (!batch.isEmpty()) {
+					// kept while the circuit was open
+					writeBatch();
+					continue;
+				}
+				ClusterMessage msg = isSpilling() ? queue.poll() : queue.poll(500, TimeUnit.MILLISECONDS);
+				if (msg != null) {
+					collectBatch(msg, lastBatchSize > 1);
+					lastBatchSize = batch.size();
+					writeBatch();
+				} else if (isSpilling()) {
+					writing = true;
+					try {
+						writeSpilled();
+					} finally {
+						writing = false;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (RuntimeException e) {
+				// the writer keeps going with the member sent a cache clear for the lost messages
+				logger.error("Error sending messages to member:" + ip, e);
+				releaseBatch();
+				resync = true;
+			}
+		}
+		releaseBatch();
+		logger.trace("writer stopped for member {}", ip);
+	}
+
+	/**
+	 * Write the batch keeping it to be sent again when the circuit opened and the
+	 * following messages are being spilled.
+	 */
+	private void writeBatch() {
+		writing = true;
+		try {
+			write(() -> send(batch));
+		} finally {
+			if (spill == null || breaker.isClosed()) {
+				releaseBatch();
+			}
+			writing = false;
+		}
+	}
+
+	private void releaseBatch() {
+		for (ClusterMessage sent : batch) {
+			sent.release();
+		}
+		batch.clear();
+	}
+
+	/**
+	 * Collect the queued messages up to the batch byte budget, lingering for
+	 * more messages when the previous batch indicates a burst of messages.
+	 */
+	private void collectBatch(ClusterMessage first, boolean linger) throws InterruptedException {
+		if (resync) {
+			resync = false;
+			batch.addAll(owner.resyncMessages());
+		}
+		batch.add(first);
+		int bytes = first.size();
+		long lingerUntil = linger && batchLingerNanos > 0 ? System.nanoTime() + batchLingerNanos : 0;
+		while (bytes < batchBytes) {
+			ClusterMessage next = queue.poll();
+			if (next == null && lingerUntil > 0) {
+				long wait = lingerUntil - System.nanoTime();
+				if (wait > 0) {
+					next = queue.poll(wait, TimeUnit.NANOSECONDS);
+				}
+			}
+			if (next == null) {
+				break;
+			}
+			batch.add(next);
+			bytes += next.size();
+		}
+	}
+
+	private boolean isSpilling() {
+		return spill != null && spill.isActive();
+	}
+
+	/**
+	 * Send the next chunk of the spill file.
+	 */
+	private void writeSpilled() {
+		long[] chunk = spill.nextChunk();
+		if (chunk != null) {
+			write(() -> transfer(chunk));
+		}
+	}
+
+	/**
+	 * Write with the outcome recorded by the circuit breaker, reconnecting and
+	 * writing again when it fails.
+	 */
+	private void write(Write write) {
+		long start = System.nanoTime();
+		try {
+			write.write();
+			breaker.success(System.nanoTime() - start);
+			if (!breaker.isClosed()) {
+				openCircuit("writes too slow");
+			}
+		} catch (IOException e) {
+			breaker.failure();
+			if (!breaker.isClosed()) {
+				openCircuit("writes failing " + e.getMessage());
+				return;
+			}
+			logger.warn("reconnect due to error sending message to:" + ip, e);
+			if (active && reconnect()) {
+				// the messages were lost with the old connection so send them again
+				try {
+					write.write();
+				} catch (IOException ex) {
+					breaker.failure();
+					openCircuit("error sending after reconnect " + ex.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Open the circuit dropping the queued messages, or with a spill file keeping
+	 * them to be sent before the spilled messages when the circuit closes.
+	 */
+	private void openCircuit(String reason) {
+		if (!active) {
+			return;
+		}
+		breaker.open();
+		if (spill == null) {
+			resync = true;
+			droppedCount.addAndGet(batch.size() + clearQueue());
+		}
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try {
+			closeChannel();
+		} finally {
+			lock.unlock();
+		}
+		logger.warn("Circuit opened for member:{} due to {}", ip, reason);
+		owner.checkStatusLater();
+	}
+
+	/**
+	 * Wait until the member is due to be probed and then reconnect and send it a
+	 * cache clear, closing the circuit if that succeeds.
+	 */
+	private void probe() {
+		if (!awaitBackoff(breaker.untilProbe())) {
+			return;
+		}
+		breaker.halfOpen();
+		try {
+			reconnectCount.incrementAndGet();
+			reconnectChannel();
+			breaker.close();
+			boolean dropped = resync;
+			resync = false;
+			if (!replayedTo.isEmpty()) {
+				// replay the messages dropped while the probe was resuming
+				replay(new HashMap<>(replayedTo));
+			} else if (dropped) {
+				sendResync();
+			}
+			logger.info("Circuit closed for member:{}", ip);
+		} catch (IOException e) {
+			logger.debug("Probe of member:{} failed {}", ip, e.getMessage());
+			breaker.open();
+		}
+	}
+
+	/**
+	 * Reconnect with an exponential backoff between the attempts.
+	 * <p>
+	 * Returns false when the member could not be reconnected and the circuit has been opened.
+	 * </p>
+	 */
+	private boolean reconnect() {
+		long backoff = reconnectBackoffMillis;
+		for (int attempt = 1; attempt <= reconnectAttempts; attempt++) {
+			if (attempt > 1) {
+				// randomise the delay such that the members do not reconnect in step
+				long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+				if (!awaitBackoff(delay)) {
+					return false;
+				}
+				backoff = Math.min(backoff * 2, reconnectMaxBackoffMillis);
+			}
+			try {
+				reconnectCount.incrementAndGet();
+				reconnectChannel();
+				owner.checkStatusLater();
+				return true;
+			} catch (IOException e) {
+				logger.debug("reconnect attempt {} to {} failed {}", attempt, ip, e.getMessage());
+			}
+		}
+		openCircuit("unable to reconnect after " + reconnectAttempts + " attempts");
+		return false;
+	}
+
+	/**
+	 * Wait for the given time returning false if disconnected in the meantime.
+	 */
+	private boolean awaitBackoff(long delayMillis) {
 		final ReentrantLock lock = this.lock;
 		lock.lock();
 		try {
-			disconnect();
+			long remaining = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+			while (active && remaining > 0) {
+				remaining = stopped.awaitNanos(remaining);
+			}
+			return active;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void reconnectChannel() throws IOException {
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try {
+			closeChannel();
 			connect();
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	/**
+	 * Stop the writer and close the connection.
+	 */
 	void disconnect() {
+		active = false;
+		clearQueue();
+		if (spill != null) {
+			spill.close();
+		}
 		final ReentrantLock lock = this.lock;
 		lock.lock();
 		try {
-			if (socket != null) {
-				try {
-					socket.close();
-				} catch (IOException e) {
-					logger.debug("Error disconnecting from Cluster member " + localIp, e);
-				}
-				os = null;
-				dataOutput = null;
-				socket = null;
-			}
+			stopped.signalAll();
+			closeChannel();
+			closeSelector();
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	private void closeSelector() {
+		if (selector != null) {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				logger.debug("Error closing selector for member " + ip, e);
+			}
+			selector = null;
+		}
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.debug("Error disconnecting from Cluster member " + localIp, e);
+			}
+			channel = null;
+		}
+	}
+
 	boolean register(ClusterMessage registerMsg) {
 		final ReentrantLock lock = this.lock;
 		lock.lock();
 		try {
 			try {
 				setOnline();
-				send(registerMsg);
+				send(Collections.singletonList(registerMsg));
 				return true;
 			} catch (IOException e) {
-				disconnect();
+				closeChannel();
 				return false;
 			}
 		} finally {
@@ -102,16 +738,128 @@ class SocketClient {
 		}
 	}
 
-	void send(ClusterMessage msg) throws IOException {
+	/**
+	 * Send the member a cache clear of each server.
+	 */
+	private void sendResync() throws IOException {
+		List<ClusterMessage> messages = owner.resyncMessages();
+		try {
+			send(messages);
+		} finally {
+			for (ClusterMessage msg : messages) {
+				msg.release();
+			}
+		}
+	}
+
+	/**
+	 * Send the messages using a single gathering write.
+	 */
+	private void send(List<ClusterMessage> messages) throws IOException {
 		final ReentrantLock lock = this.lock;
 		lock.lock();
 		try {
-			msg.write(dataOutput);
+			if (channel == null) {
+				throw new IOException("Not connected to member " + ip);
+			}
+			int count = 0;
+			try {
+				for (ClusterMessage msg : messages) {
+					if (replayed(msg)) {
+						continue;
+					}
+					// a message the member can not read is skipped here and released with the rest
+					if (msg.encode(buffers, capabilities)) {
+						count++;
+					} else if (!msg.isGossip()) {
+						// a chunk queued before the member reconnected without chunks
+						droppedCount.incrementAndGet();
+						resync = true;
+					}
+				}
+				if (count > 0) {
+					writeFully(buffers.toArray(new ByteBuffer[0]));
+				}
+			} finally {
+				buffers.clear();
+			}
+			sentCount.addAndGet(count);
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	/**
+	 * Write the chunk of the spill file to the member.
+	 */
+	private void transfer(long[] chunk) throws IOException {
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try {
+			ByteBuffer buffer = spill.chunkBuffer(chunk);
+			if (channel == null || buffer == null) {
+				throw new IOException("Not connected to member " + ip);
+			}
+			// copied into the socket buffers by the write so the file can then be reused
+			writeFully(new ByteBuffer[]{buffer});
+			sentCount.addAndGet(chunk[1]);
+		} finally {
+			lock.unlock();
+		}
+		spill.sent(chunk);
+	}
+
+	/**
+	 * Write the buffers failing if the write makes no progress within the write timeout.
+	 */
+	private void writeFully(ByteBuffer[] buffers) throws IOException {
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers) {
+			remaining += buffer.remaining();
+		}
+		final long bytes = remaining;
+		long deadline = 0;
+		while (remaining > 0) {
+			long written = channel.write(buffers);
+			remaining -= written;
+			if (written > 0) {
+				deadline = 0;
+			} else {
+				if (deadline == 0) {
+					deadline = System.nanoTime() + writeTimeoutNanos;
+				}
+				awaitWritable(deadline);
+			}
+		}
+		writeCount.incrementAndGet();
+		owner.sentBytes(ip, bytes);
+	}
+
+	private void awaitWritable(long deadline) throws IOException {
+		long timeoutMillis = 0;
+		if (writeTimeoutNanos > 0) {
+			timeoutMillis = remainingMillis(deadline, "writing to");
+		}
+		select(SelectionKey.OP_WRITE, timeoutMillis);
+	}
+
+	private long remainingMillis(long deadline, String action) throws SocketTimeoutException {
+		long wait = deadline - System.nanoTime();
+		if (wait <= 0) {
+			throw new SocketTimeoutException("Timeout " + action + " member " + ip);
+		}
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+	}
+
+	private void select(int ops, long timeoutMillis) throws IOException {
+		if (selector == null) {
+			selector = Selector.open();
+		}
+		channel.register(selector, ops);
+		selector.select(timeoutMillis);
+		selector.selectedKeys().clear();
+	}
+
 	/**
 	 * Set whether the client is thought to be online.
 	 */
@@ -120,24 +868,224 @@ class SocketClient {
 	}
 
 	private void connect() throws IOException {
-		if (socket != null) {
+		if (channel != null) {
 			throw new IllegalStateException("Already got a socket connection?");
 		}
-		Socket s = new Socket();
-		s.setKeepAlive(true);
-		s.connect(address);
+		this.channel = openChannel();
+		if (!sayHello()) {
+			// the member only supports version 1 so connect again using HELLO
+			closeChannel();
+			this.channel = openChannel();
+			sayHelloV1();
+		}
+	}
 
-		this.socket = s;
-		this.os = socket.getOutputStream();
-		this.dataOutput = new DataOutputStream(new BufferedOutputStream(os, 512));
-		sayHello();
+	private SocketChannel openChannel() throws IOException {
+		SocketChannel ch = SocketChannel.open();
+		try {
+			Socket s = ch.socket();
+			s.setKeepAlive(true);
+			// messages are batched explicitly so send each batch immediately
+			s.setTcpNoDelay(true);
+			s.connect(address, connectTimeoutMillis);
+			// non-blocking such that writes can time out
+			ch.configureBlocking(false);
+		} catch (IOException e) {
+			ch.close();
+			throw e;
+		}
+		return ch;
 	}
 
-	private void sayHello() throws IOException {
+	/**
+	 * Say hello with the protocol version and capabilities, returning false if the
+	 * member closed the connection as it only supports version 1.
+	 */
+	private boolean sayHello() throws IOException {
 		logger.debug("saying hello from local:{} to:{}", localIp, ip);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+		DataOutputStream dataOutput = new DataOutputStream(buffer);
+		dataOutput.writeInt(MsgKeys.HELLO_V2);
+		dataOutput.writeUTF(localIp);
+		dataOutput.writeInt(MsgKeys.PROTOCOL_VERSION);
+		dataOutput.writeInt(resume ? MsgKeys.CAPABILITIES : MsgKeys.CAPABILITIES & ~MsgKeys.CAP_RESUME);
+		dataOutput.writeLong(resume ? owner.getEpoch() : 0);
+		writeFully(new ByteBuffer[]{ByteBuffer.wrap(buffer.toByteArray())});
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(handshakeTimeoutMillis);
+		ByteBuffer reply;
+		try {
+			reply = readReply(8, deadline);
+		} catch (SocketTimeoutException e) {
+			throw e;
+		} catch (IOException e) {
+			logger.debug("Member:{} closed the connection on hello v2 {}", ip, e.getMessage());
+			return false;
+		}
+		negotiated(reply.getInt(), reply.getInt());
+		if ((capabilities & MsgKeys.CAP_RESUME) != 0) {
+			replay(readLastSequences(deadline));
+		}
+		return true;
+	}
+
+	private void sayHelloV1() throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+		DataOutputStream dataOutput = new DataOutputStream(buffer);
 		dataOutput.writeInt(MsgKeys.HELLO);
 		dataOutput.writeUTF(localIp);
-		dataOutput.flush();
+		writeFully(new ByteBuffer[]{ByteBuffer.wrap(buffer.toByteArray())});
+		negotiated(1, 0);
+	}
+
+	private void negotiated(int version, int capabilities) {
+		if (version != protocolVersion) {
+			logger.info("Member:{} using protocol version:{} capabilities:{}", ip, version, capabilities);
+		}
+		if (spill != null && (this.capabilities & ~capabilities) != 0) {
+			// the spilled frames may use capabilities the member no longer has
+			int count = spill.clear();
+			if (count > 0) {
+				droppedCount.addAndGet(count);
+				resync = true;
+			}
+		}
+		if ((capabilities & MsgKeys.CAP_RESUME) == 0) {
+			replayedTo.clear();
+		}
+		this.protocolVersion = version;
+		this.capabilities = capabilities;
+	}
+
+	/**
+	 * Return true if the member has the given capability.
+	 */
+	boolean isCapable(int capability) {
+		return (capabilities & capability) != 0;
+	}
+
+	/**
+	 * Read the reply to the hello which is the last sequence number the member received on each lane.
+	 */
+	private Map<Integer, Long> readLastSequences(long deadline) throws IOException {
+		int count = readReply(4, deadline).getInt();
+		if (count < 0 || count > MAX_RESUME_LANES) {
+			throw new IOException("Invalid number of lanes:" + count + " in hello reply from member " + ip);
+		}
+		ByteBuffer reply = readReply(count * 12, deadline);
+		Map<Integer, Long> lastSequences = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			lastSequences.put(reply.getInt(), reply.getLong());
+		}
+		return lastSequences;
+	}
+
+	private ByteBuffer readReply(int bytes, long deadline) throws IOException {
+		ByteBuffer reply = ByteBuffer.allocate(bytes);
+		while (reply.hasRemaining()) {
+			int read = channel.read(reply);
+			if (read < 0) {
+				throw new EOFException("Member " + ip + " closed the connection");
+			}
+			if (read == 0) {
+				select(SelectionKey.OP_READ, remainingMillis(deadline, "reading hello reply from"));
+			}
+		}
+		reply.flip();
+		return reply;
+	}
+
+	/**
+	 * Send the messages of each lane sent after the last sequence number the member
+	 * received on the lane, or a cache clear when they are no longer held by the replay log.
+	 */
+	private void replay(Map<Integer, Long> lastSequences) throws IOException {
+		replayedTo.clear();
+		if (lastSequences.isEmpty()) {
+			// the member has not received messages from this instance
+			return;
+		}
+		boolean resyncLanes = false;
+		for (int lane : owner.laneIds()) {
+			// a lane the member has not received messages on is replayed from the start
+			long lastSequence = lastSequences.getOrDefault(lane, 0L);
+			List<ClusterMessage> missed = new ArrayList<>();
+			long last = owner.replay(lane, lastSequence, missed);
+			try {
+				if (missed.isEmpty() && lastSequence < last) {
+					logger.info("Member:{} missed messages {} to {} of lane:{} that are no longer held", ip, lastSequence + 1, last, lane);
+					resyncLanes = true;
+				} else if (!missed.isEmpty()) {
+					int count = missed.size();
+					logger.info("Replaying {} messages of lane:{} to member:{}", count, lane, ip);
+					sendBatches(isCapable(MsgKeys.CAP_CHUNKS) ? chunks(missed) : missed);
+					replayedCount.addAndGet(count);
+				}
+				replayedTo.put(lane, last);
+			} finally {
+				for (ClusterMessage msg : missed) {
+					msg.release();
+				}
+			}
+		}
+		if (resyncLanes) {
+			logger.info("Sending cache clear to member:{}", ip);
+			sendResync();
+		}
 	}
 
+	/**
+	 * Return true if the message was sent by the replay.
+	 */
+	private boolean replayed(ClusterMessage msg) {
+		long sequence = msg.getSequence();
+		if (sequence < 0 || replayedTo.isEmpty()) {
+			return false;
+		}
+		Long to = replayedTo.get(msg.getLane());
+		return to != null && sequence <= to;
+	}
+
+	/**
+	 * Return the messages as chunks, the messages are replaced by their chunks retaining them.
+	 */
+	private List<ClusterMessage> chunks(List<ClusterMessage> messages) {
+		if (chunkBytes <= 0) {
+			return messages;
+		}
+		List<ClusterMessage> frames = new ArrayList<>(messages.size());
+		for (ClusterMessage msg : messages) {
+			frames.addAll(msg.chunks(chunkBytes));
+			msg.release();
+		}
+		messages.clear();
+		messages.addAll(frames);
+		return messages;
+	}
+
+	/**
+	 * Send the messages using a write per batch byte budget.
+	 */
+	private void sendBatches(List<ClusterMessage> messages) throws IOException {
+		int from = 0;
+		int bytes = 0;
+		for (int i = 0; i < messages.size(); i++) {
+			bytes += messages.get(i).size();
+			if (bytes >= batchBytes) {
+				send(messages.subList(from, i + 1));
+				from = i + 1;
+				bytes = 0;
+			}
+		}
+		if (from < messages.size()) {
+			send(messages.subList(from, messages.size()));
+		}
+	}
+
+	/**
+	 * A write to the member.
+	 */
+	private interface Write {
+
+		void write() throws IOException;
+	}
 }
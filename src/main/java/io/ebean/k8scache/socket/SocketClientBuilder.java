@@ -1,18 +1,26 @@
 package io.ebean.k8scache.socket;
 
+import io.ebean.k8scache.K8sServiceConfig;
+
 import java.net.InetSocketAddress;
 
 public class SocketClientBuilder {
 
+	private final K8sClusterBroadcast owner;
+
+	private final K8sServiceConfig config;
+
 	private final String localIp;
 
-	SocketClientBuilder(String localIp) {
+	SocketClientBuilder(K8sClusterBroadcast owner, K8sServiceConfig config, String localIp) {
+		this.owner = owner;
+		this.config = config;
 		this.localIp = localIp;
 	}
 
 	public SocketClient build(String ip, int port) {
 		InetSocketAddress address = new InetSocketAddress(ip, port);
-		return new SocketClient(ip, address, localIp);
+		return new SocketClient(owner, config, ip, address, localIp);
 	}
 
 }
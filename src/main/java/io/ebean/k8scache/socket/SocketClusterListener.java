@@ -5,11 +5,11 @@ import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 
 /**
@@ -25,7 +25,7 @@ import java.util.concurrent.Executors;
  * ServerSocket.
  * </p>
  */
-class SocketClusterListener implements Runnable {
+class SocketClusterListener implements ClusterListener, Runnable {
 
   private static final Logger log = K8sBroadcastFactory.log;
 
@@ -59,11 +59,11 @@ class SocketClusterListener implements Runnable {
   /**
    * Construct with a given thread pool name.
    */
-  SocketClusterListener(K8sClusterBroadcast owner, int port, String poolName) {
+  SocketClusterListener(K8sClusterBroadcast owner, String bindAddress, int port, String poolName, boolean virtualThreads) {
     this.owner = owner;
-    this.service = Executors.newCachedThreadPool(new DaemonThreadFactory(poolName));
+    this.service = ClusterExecutors.threadPerTask(poolName, virtualThreads);
     try {
-      this.serverListenSocket = new ServerSocket(port);
+      this.serverListenSocket = new ServerSocket(port, 50, bindAddress == null ? null : InetAddress.getByName(bindAddress));
       this.serverListenSocket.setSoTimeout(60000);
       this.listenerThread = new Thread(this, "EbeanClusterListener");
 
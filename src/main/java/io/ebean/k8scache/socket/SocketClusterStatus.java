@@ -1,5 +1,8 @@
 package io.ebean.k8scache.socket;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * The current state of this cluster member.
  */
@@ -8,11 +11,23 @@ public class SocketClusterStatus {
   private final int currentGroupSize;
   private final long incoming;
   private final long outgoing;
+  private final List<SocketMemberStatus> members;
+  private final SocketReceiveStatus receive;
+  private final SocketGossipStatus gossip;
+  private final SocketRelayStatus relay;
 
   public SocketClusterStatus(int currentGroupSize, long incoming, long txnOutgoing) {
+    this(currentGroupSize, incoming, txnOutgoing, Collections.emptyList(), null, null, null);
+  }
+
+  public SocketClusterStatus(int currentGroupSize, long incoming, long txnOutgoing, List<SocketMemberStatus> members, SocketReceiveStatus receive, SocketGossipStatus gossip, SocketRelayStatus relay) {
     this.currentGroupSize = currentGroupSize;
     this.incoming = incoming;
     this.outgoing = txnOutgoing;
+    this.members = members;
+    this.receive = receive;
+    this.gossip = gossip;
+    this.relay = relay;
   }
 
   /**
@@ -36,4 +51,32 @@ public class SocketClusterStatus {
     return outgoing;
   }
 
+  /**
+   * Return the send status of each member.
+   */
+  public List<SocketMemberStatus> getMembers() {
+    return members;
+  }
+
+  /**
+   * Return the status of decoding and applying the received messages.
+   */
+  public SocketReceiveStatus getReceive() {
+    return receive;
+  }
+
+  /**
+   * Return the status of detecting failed members, null when gossip is not used.
+   */
+  public SocketGossipStatus getGossip() {
+    return gossip;
+  }
+
+  /**
+   * Return the status of relaying the messages over the broadcast tree.
+   */
+  public SocketRelayStatus getRelay() {
+    return relay;
+  }
+
 }
@@ -1,6 +1,7 @@
 package io.ebean.k8scache.socket;
 
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -48,6 +49,13 @@ class SocketConnection {
 		socket.close();
 	}
 
+	/**
+	 * Get a DataOutputStream to reply to the client.
+	 */
+	DataOutputStream getDataOutputStream() {
+		return new DataOutputStream(os);
+	}
+
 	/**
 	 * Get the DataInputStream to read the message.
 	 */
@@ -0,0 +1,71 @@
+package io.ebean.k8scache.socket;
+
+/**
+ * The current state of detecting failed members by gossip.
+ */
+public class SocketGossipStatus {
+
+  private final long pings;
+  private final long indirectPings;
+  private final long suspected;
+  private final long failed;
+  private final long refuted;
+  private final int currentSuspects;
+
+  public SocketGossipStatus(long pings, long indirectPings, long suspected, long failed, long refuted, int currentSuspects) {
+    this.pings = pings;
+    this.indirectPings = indirectPings;
+    this.suspected = suspected;
+    this.failed = failed;
+    this.refuted = refuted;
+    this.currentSuspects = currentSuspects;
+  }
+
+  public String toString() {
+    return "pings:" + pings + " indirectPings:" + indirectPings + " suspected:" + suspected + " failed:" + failed
+      + " refuted:" + refuted + " currentSuspects:" + currentSuspects;
+  }
+
+  /**
+   * Return the number of members pinged.
+   */
+  public long getPings() {
+    return pings;
+  }
+
+  /**
+   * Return the number of times other members were asked to ping a member that did not ack.
+   */
+  public long getIndirectPings() {
+    return indirectPings;
+  }
+
+  /**
+   * Return the number of times this member suspected another member as it did not ack.
+   */
+  public long getSuspected() {
+    return suspected;
+  }
+
+  /**
+   * Return the number of members declared failed and removed.
+   */
+  public long getFailed() {
+    return failed;
+  }
+
+  /**
+   * Return the number of times this member refuted being suspected by the others.
+   */
+  public long getRefuted() {
+    return refuted;
+  }
+
+  /**
+   * Return the number of members currently suspected.
+   */
+  public int getCurrentSuspects() {
+    return currentSuspects;
+  }
+
+}
@@ -0,0 +1,119 @@
+package io.ebean.k8scache.socket;
+
+/**
+ * The current send state of a single cluster member.
+ */
+public class SocketMemberStatus {
+
+  private final String ip;
+  private final int queueDepth;
+  private final int maxQueueDepth;
+  private final long sent;
+  private final long dropped;
+  private final long writes;
+  private final long reconnects;
+  private final CircuitState circuitState;
+  private final long replayed;
+  private final long spilled;
+  private final int protocolVersion;
+
+  public SocketMemberStatus(String ip, int queueDepth, int maxQueueDepth, long sent, long dropped, long writes, long reconnects, CircuitState circuitState, long replayed, long spilled, int protocolVersion) {
+    this.ip = ip;
+    this.queueDepth = queueDepth;
+    this.maxQueueDepth = maxQueueDepth;
+    this.sent = sent;
+    this.dropped = dropped;
+    this.writes = writes;
+    this.reconnects = reconnects;
+    this.circuitState = circuitState;
+    this.replayed = replayed;
+    this.spilled = spilled;
+    this.protocolVersion = protocolVersion;
+  }
+
+  public String toString() {
+    return ip + " queue:" + queueDepth + " maxQueue:" + maxQueueDepth + " sent:" + sent + " dropped:" + dropped + " writes:" + writes + " reconnects:" + reconnects + " circuit:" + circuitState + " replayed:" + replayed + " spilled:" + spilled + " protocol:" + protocolVersion;
+  }
+
+  /**
+   * Return the IP address of the member.
+   */
+  public String getIp() {
+    return ip;
+  }
+
+  /**
+   * Return the number of messages waiting to be sent to the member.
+   */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * Return the highest queue depth seen for the member.
+   */
+  public int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  /**
+   * Return the number of messages sent to the member.
+   */
+  public long getSent() {
+    return sent;
+  }
+
+  /**
+   * Return the number of messages dropped due to a full queue or an open circuit.
+   */
+  public long getDropped() {
+    return dropped;
+  }
+
+  /**
+   * Return the number of socket writes used to send the messages.
+   * <p>
+   * Multiple queued messages are sent together such that this is expected to be
+   * lower than the sent count when there are bursts of messages.
+   * </p>
+   */
+  public long getWrites() {
+    return writes;
+  }
+
+  /**
+   * Return the number of attempts made to reconnect to the member.
+   */
+  public long getReconnects() {
+    return reconnects;
+  }
+
+  /**
+   * Return the state of the circuit breaker for the member.
+   */
+  public CircuitState getCircuitState() {
+    return circuitState;
+  }
+
+  /**
+   * Return the number of messages replayed to the member after it reconnected.
+   */
+  public long getReplayed() {
+    return replayed;
+  }
+
+  /**
+   * Return the number of messages written to the spill file of the member.
+   */
+  public long getSpilled() {
+    return spilled;
+  }
+
+  /**
+   * Return the protocol version used with the member, 0 before it is connected.
+   */
+  public int getProtocolVersion() {
+    return protocolVersion;
+  }
+
+}
@@ -0,0 +1,98 @@
+package io.ebean.k8scache.socket;
+
+/**
+ * The current state of processing the messages received from other members.
+ */
+public class SocketReceiveStatus {
+
+  private final int decodeQueueDepth;
+  private final int applyQueueDepth;
+  private final int maxDecodeQueueDepth;
+  private final int maxApplyQueueDepth;
+  private final long decoded;
+  private final long applied;
+  private final long merged;
+  private final long gaps;
+  private final long duplicates;
+
+  public SocketReceiveStatus(int decodeQueueDepth, int applyQueueDepth, int maxDecodeQueueDepth, int maxApplyQueueDepth, long decoded, long applied, long merged, long gaps, long duplicates) {
+    this.decodeQueueDepth = decodeQueueDepth;
+    this.applyQueueDepth = applyQueueDepth;
+    this.maxDecodeQueueDepth = maxDecodeQueueDepth;
+    this.maxApplyQueueDepth = maxApplyQueueDepth;
+    this.decoded = decoded;
+    this.applied = applied;
+    this.merged = merged;
+    this.gaps = gaps;
+    this.duplicates = duplicates;
+  }
+
+  public String toString() {
+    return "decodeQueue:" + decodeQueueDepth + " applyQueue:" + applyQueueDepth + " maxDecodeQueue:" + maxDecodeQueueDepth
+      + " maxApplyQueue:" + maxApplyQueueDepth + " decoded:" + decoded + " applied:" + applied + " merged:" + merged + " gaps:" + gaps + " duplicates:" + duplicates;
+  }
+
+  /**
+   * Return the number of received messages waiting to be decoded.
+   */
+  public int getDecodeQueueDepth() {
+    return decodeQueueDepth;
+  }
+
+  /**
+   * Return the number of decoded messages waiting to be applied.
+   */
+  public int getApplyQueueDepth() {
+    return applyQueueDepth;
+  }
+
+  /**
+   * Return the highest decode queue depth seen for a member.
+   */
+  public int getMaxDecodeQueueDepth() {
+    return maxDecodeQueueDepth;
+  }
+
+  /**
+   * Return the highest apply queue depth seen for a member.
+   */
+  public int getMaxApplyQueueDepth() {
+    return maxApplyQueueDepth;
+  }
+
+  /**
+   * Return the number of messages decoded.
+   */
+  public long getDecoded() {
+    return decoded;
+  }
+
+  /**
+   * Return the number of messages applied.
+   */
+  public long getApplied() {
+    return applied;
+  }
+
+  /**
+   * Return the number of queued events that were merged into another event rather than applied separately.
+   */
+  public long getMerged() {
+    return merged;
+  }
+
+  /**
+   * Return the number of gaps detected in the sequence of messages received from members.
+   */
+  public long getGaps() {
+    return gaps;
+  }
+
+  /**
+   * Return the number of replayed messages dropped as they had already been received.
+   */
+  public long getDuplicates() {
+    return duplicates;
+  }
+
+}
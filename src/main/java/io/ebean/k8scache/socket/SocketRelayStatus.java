@@ -0,0 +1,126 @@
+package io.ebean.k8scache.socket;
+
+/**
+ * The current state of relaying the data messages over the broadcast tree or via the zones.
+ */
+public class SocketRelayStatus {
+
+  private final long relayed;
+  private final long forwarded;
+  private final long duplicates;
+  private final String zone;
+  private final long zoneBytes;
+  private final long crossZoneBytes;
+  private final long directReceived;
+  private final long directLatencyMillis;
+  private final long relayedReceived;
+  private final long relayedLatencyMillis;
+  private final long maxLatencyMillis;
+
+  public SocketRelayStatus(long relayed, long forwarded, long duplicates) {
+    this(relayed, forwarded, duplicates, null, 0, 0, 0, 0, 0, 0, 0);
+  }
+
+  public SocketRelayStatus(long relayed, long forwarded, long duplicates, String zone, long zoneBytes, long crossZoneBytes,
+                           long directReceived, long directLatencyMillis, long relayedReceived, long relayedLatencyMillis, long maxLatencyMillis) {
+    this.relayed = relayed;
+    this.forwarded = forwarded;
+    this.duplicates = duplicates;
+    this.zone = zone;
+    this.zoneBytes = zoneBytes;
+    this.crossZoneBytes = crossZoneBytes;
+    this.directReceived = directReceived;
+    this.directLatencyMillis = directLatencyMillis;
+    this.relayedReceived = relayedReceived;
+    this.relayedLatencyMillis = relayedLatencyMillis;
+    this.maxLatencyMillis = maxLatencyMillis;
+  }
+
+  public String toString() {
+    return "relayed:" + relayed + " forwarded:" + forwarded + " duplicates:" + duplicates + " zone:" + zone
+      + " zoneBytes:" + zoneBytes + " crossZoneBytes:" + crossZoneBytes + " directReceived:" + directReceived
+      + " directLatency:" + directLatencyMillis + " relayedReceived:" + relayedReceived + " relayedLatency:" + relayedLatencyMillis
+      + " maxLatency:" + maxLatencyMillis;
+  }
+
+  /**
+   * Return the number of messages this member broadcast over the tree or via the zones.
+   */
+  public long getRelayed() {
+    return relayed;
+  }
+
+  /**
+   * Return the number of copies of the messages of other members this member sent on.
+   */
+  public long getForwarded() {
+    return forwarded;
+  }
+
+  /**
+   * Return the number of copies of relayed messages dropped as they had already been received.
+   */
+  public long getDuplicates() {
+    return duplicates;
+  }
+
+  /**
+   * Return the zone of this member, null when not known.
+   */
+  public String getZone() {
+    return zone;
+  }
+
+  /**
+   * Return the bytes sent to the members in the same zone (or when the zones are not known).
+   */
+  public long getZoneBytes() {
+    return zoneBytes;
+  }
+
+  /**
+   * Return the bytes sent to the members in other zones.
+   */
+  public long getCrossZoneBytes() {
+    return crossZoneBytes;
+  }
+
+  /**
+   * Return the number of relayed messages received directly from the member that sent them.
+   */
+  public long getDirectReceived() {
+    return directReceived;
+  }
+
+  /**
+   * Return the mean time in millis from sending to receiving the messages received directly.
+   */
+  public long getDirectLatencyMillis() {
+    return directLatencyMillis;
+  }
+
+  /**
+   * Return the number of relayed messages received via another member.
+   */
+  public long getRelayedReceived() {
+    return relayedReceived;
+  }
+
+  /**
+   * Return the mean time in millis from sending to receiving the messages received via another member.
+   */
+  public long getRelayedLatencyMillis() {
+    return relayedLatencyMillis;
+  }
+
+  /**
+   * Return the longest time in millis from sending to receiving a relayed message.
+   * <p>
+   * The times are measured with the clocks of the sending and receiving members.
+   * </p>
+   */
+  public long getMaxLatencyMillis() {
+    return maxLatencyMillis;
+  }
+
+}
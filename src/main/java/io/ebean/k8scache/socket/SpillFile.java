@@ -0,0 +1,207 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.K8sBroadcastFactory;
+import io.ebean.k8scache.message.ClusterMessage;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory mapped file holding the messages for a member that do not fit in its send queue.
+ * <p>
+ * The frames of the messages are appended to the mapped file by the broadcasting
+ * threads and sent by the writer of the member straight from the mapped buffer
+ * such that they are not held on the heap nor copied again when sent. The file
+ * is sent in chunks of whole frames and, once it has all been sent, it is reused
+ * from the start.
+ * </p>
+ * <p>
+ * The chunks are not sent with FileChannel.transferTo() as the socket can still
+ * refer to the pages of the file after it returns (sendfile), such that reusing
+ * the file would change the bytes of messages not yet on the wire.
+ * </p>
+ * <p>
+ * The file is created when first needed and deleted when closed.
+ * </p>
+ */
+final class SpillFile {
+
+  private static final Logger log = K8sBroadcastFactory.log;
+
+  private final Path path;
+
+  private final int maxBytes;
+
+  private final int chunkBytes;
+
+  private final List<ByteBuffer> buffers = new ArrayList<>();
+
+  /**
+   * The end position and message count of each chunk waiting to be sent.
+   */
+  private final ArrayDeque<long[]> chunks = new ArrayDeque<>();
+
+  private FileChannel file;
+
+  private MappedByteBuffer mapped;
+
+  private long readPosition;
+
+  private int pendingBytes;
+
+  private int pendingCount;
+
+  private boolean failed;
+
+  private boolean closed;
+
+  SpillFile(Path path, int maxBytes, int chunkBytes) {
+    this.path = path;
+    this.maxBytes = maxBytes;
+    this.chunkBytes = chunkBytes;
+  }
+
+  /**
+   * Return true if there are messages in the file waiting to be sent.
+   */
+  synchronized boolean isActive() {
+    return mapped != null && mapped.position() > readPosition;
+  }
+
+  /**
+   * Append the message encoded for the capabilities of the member returning false
+   * if there is no room for it or it can not be sent to the member.
+   */
+  synchronized boolean append(ClusterMessage message, int capabilities) {
+    if (closed || failed) {
+      return false;
+    }
+    int size;
+    try {
+      if (mapped == null) {
+        open();
+      }
+      if (!message.encode(buffers, capabilities)) {
+        return false;
+      }
+      size = 0;
+      for (ByteBuffer buffer : buffers) {
+        size += buffer.remaining();
+      }
+      if (size > mapped.remaining()) {
+        return false;
+      }
+      for (ByteBuffer buffer : buffers) {
+        mapped.put(buffer);
+      }
+    } catch (IOException e) {
+      log.error("Error writing to spill file " + path + ", messages will not be spilled", e);
+      failed = true;
+      return false;
+    } finally {
+      buffers.clear();
+    }
+    pendingCount++;
+    pendingBytes += size;
+    if (pendingBytes >= chunkBytes) {
+      endChunk();
+    }
+    return true;
+  }
+
+  private void open() throws IOException {
+    file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    mapped = file.map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+  }
+
+  private void endChunk() {
+    chunks.add(new long[]{mapped.position(), pendingCount});
+    pendingBytes = 0;
+    pendingCount = 0;
+  }
+
+  /**
+   * Return the next chunk to send as its end position and message count, or null if there is none.
+   */
+  synchronized long[] nextChunk() {
+    if (chunks.isEmpty() && pendingCount > 0) {
+      endChunk();
+    }
+    return chunks.peek();
+  }
+
+  /**
+   * Return the bytes of the chunk returned by nextChunk(), or null when closed.
+   * <p>
+   * These are a view of the mapped file and are valid until sent() is called.
+   * </p>
+   */
+  synchronized ByteBuffer chunkBuffer(long[] chunk) {
+    if (mapped == null) {
+      return null;
+    }
+    ByteBuffer buffer = mapped.duplicate();
+    buffer.limit((int) chunk[0]).position((int) readPosition);
+    return buffer.slice();
+  }
+
+  /**
+   * The chunk returned by nextChunk() has been sent.
+   */
+  synchronized void sent(long[] chunk) {
+    if (chunks.peek() != chunk) {
+      // cleared in the meantime
+      return;
+    }
+    chunks.remove();
+    readPosition = chunk[0];
+    if (chunks.isEmpty() && pendingCount == 0) {
+      // all sent so reuse the file from the start
+      readPosition = 0;
+      mapped.clear();
+    }
+  }
+
+  /**
+   * Discard the messages waiting to be sent returning the number discarded.
+   */
+  synchronized int clear() {
+    int count = pendingCount;
+    for (long[] chunk : chunks) {
+      count += (int) chunk[1];
+    }
+    chunks.clear();
+    pendingBytes = 0;
+    pendingCount = 0;
+    readPosition = 0;
+    if (mapped != null) {
+      mapped.clear();
+    }
+    return count;
+  }
+
+  /**
+   * Close and delete the file.
+   */
+  synchronized void close() {
+    closed = true;
+    clear();
+    mapped = null;
+    if (file != null) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        log.debug("Error closing spill file " + path, e);
+      }
+      file = null;
+    }
+  }
+}
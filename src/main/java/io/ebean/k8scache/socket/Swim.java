@@ -0,0 +1,536 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.K8sBroadcastFactory;
+import io.ebean.k8scache.message.ClusterMessage;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SWIM style failure detection of the members over the cluster connections.
+ * <p>
+ * Each protocol period one member is pinged (in a shuffled round robin order).
+ * When it does not ack within the timeout, some other members are asked to ping
+ * it on our behalf, and when there is still no ack by the end of the period the
+ * member is suspected. A suspected member that does not refute the suspicion within
+ * the suspect timeout is declared dead and removed from the members.
+ * </p>
+ * <p>
+ * The membership updates (alive, suspect and dead with the incarnation of the
+ * member) are piggybacked on the pings and acks, each sent a number of times that
+ * grows with the log of the cluster size. A member that hears it is suspected (or
+ * declared dead) refutes it by gossiping alive with a higher incarnation.
+ * </p>
+ * <p>
+ * A dead member is remembered for a number of protocol periods such that older
+ * updates about it are ignored, and is then forgotten, as is a member heard of that
+ * is not a member of this one. A member that the membership provider reports as
+ * leaving is forgotten at once.
+ * </p>
+ * <p>
+ * The messages are sent with high priority on the member connections, and only to
+ * members that support them. The owner is called without holding the lock of this.
+ * </p>
+ */
+final class Swim {
+
+  private static final Logger log = K8sBroadcastFactory.log;
+
+  private static final byte PING = 1;
+  private static final byte ACK = 2;
+  private static final byte PING_REQ = 3;
+
+  /**
+   * The max number of membership updates piggybacked on a message.
+   */
+  private static final int MAX_UPDATES = 8;
+
+  /**
+   * The multiplier of the log of the cluster size an update is sent.
+   */
+  private static final int RETRANSMIT_MULTIPLIER = 3;
+
+  /**
+   * The protocol periods after which a dead member, or one that is not a member, is forgotten.
+   */
+  private static final int FORGET_PERIODS = 30;
+
+  enum State {
+    ALIVE, SUSPECT, DEAD
+  }
+
+  private final K8sClusterBroadcast owner;
+
+  private final String localIp;
+
+  private final long intervalMillis;
+
+  private final long timeoutMillis;
+
+  private final int indirectPings;
+
+  private final long suspectMillis;
+
+  private final long forgetMillis;
+
+  private final ScheduledExecutorService timer;
+
+  /**
+   * The state of each member heard of.
+   */
+  private final Map<String, Member> members = new HashMap<>();
+
+  /**
+   * The pings waiting for an ack by sequence number.
+   */
+  private final Map<Long, Probe> probes = new HashMap<>();
+
+  /**
+   * The updates to piggyback by member, newer updates replacing older ones.
+   */
+  private final Map<String, Update> updates = new LinkedHashMap<>();
+
+  private final List<String> probeOrder = new ArrayList<>();
+
+  private final AtomicLong pingCount = new AtomicLong();
+  private final AtomicLong indirectCount = new AtomicLong();
+  private final AtomicLong suspectCount = new AtomicLong();
+  private final AtomicLong deadCount = new AtomicLong();
+  private final AtomicLong refuteCount = new AtomicLong();
+
+  private int probeIndex;
+
+  private int incarnation;
+
+  private long sequence;
+
+  /**
+   * The ping of the current protocol period, null when there is no member to ping.
+   */
+  private Probe current;
+
+  Swim(K8sClusterBroadcast owner, String localIp, String threadPoolName, long intervalMillis, long timeoutMillis, int indirectPings, long suspectMillis) {
+    this.owner = owner;
+    this.localIp = localIp;
+    this.intervalMillis = intervalMillis;
+    this.timeoutMillis = timeoutMillis;
+    this.indirectPings = indirectPings;
+    this.suspectMillis = suspectMillis;
+    this.forgetMillis = Math.max(suspectMillis, FORGET_PERIODS * intervalMillis);
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory(threadPoolName + "-gossip-"));
+    executor.setRemoveOnCancelPolicy(true);
+    this.timer = executor;
+  }
+
+  void start() {
+    timer.scheduleWithFixedDelay(this::period, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  void shutdown() {
+    timer.shutdownNow();
+  }
+
+  /**
+   * Return the failure detection status.
+   */
+  SocketGossipStatus getStatus() {
+    int suspected = 0;
+    synchronized (this) {
+      for (Member member : members.values()) {
+        if (member.state == State.SUSPECT) {
+          suspected++;
+        }
+      }
+    }
+    return new SocketGossipStatus(pingCount.get(), indirectCount.get(), suspectCount.get(), deadCount.get(), refuteCount.get(), suspected);
+  }
+
+  /**
+   * The member was registered, so is alive unless it is later detected as failed.
+   */
+  synchronized void joined(String ip) {
+    Member member = members.get(ip);
+    if (member != null && member.state != State.ALIVE) {
+      member.state(State.ALIVE, System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * The membership provider reports the member as leaving so forget it.
+   */
+  synchronized void left(String ip) {
+    members.remove(ip);
+    updates.remove(ip);
+  }
+
+  /**
+   * Return the number of members heard of, including those suspected and dead.
+   */
+  synchronized int knownMembers() {
+    return members.size();
+  }
+
+  /**
+   * Start the next protocol period, suspecting the member pinged in the last one
+   * when there was no ack.
+   */
+  private void period() {
+    List<String> failed = new ArrayList<>();
+    try {
+      synchronized (this) {
+        long now = System.currentTimeMillis();
+        if (current != null && !current.acked) {
+          suspect(current.target, now);
+        }
+        expireSuspects(now, failed);
+        expireProbes(now);
+        forget(now);
+        String target = nextTarget();
+        if (target == null) {
+          current = null;
+        } else {
+          long seq = ++sequence;
+          current = new Probe(target, null, 0, now + intervalMillis);
+          if (send(target, PING, seq, "")) {
+            probes.put(seq, current);
+            pingCount.incrementAndGet();
+            timer.schedule(() -> indirect(seq), timeoutMillis, TimeUnit.MILLISECONDS);
+          } else {
+            // no longer a member
+            current = null;
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      log.error("Error in failure detection period", e);
+    }
+    for (String ip : failed) {
+      owner.memberFailed(ip);
+    }
+  }
+
+  /**
+   * Ask other members to ping the target when the ping was not acked in time.
+   */
+  private synchronized void indirect(long seq) {
+    Probe probe = probes.get(seq);
+    if (probe == null || probe.acked) {
+      return;
+    }
+    List<String> others = new ArrayList<>(owner.gossipMembers());
+    others.remove(probe.target);
+    Collections.shuffle(others, ThreadLocalRandom.current());
+    int count = Math.min(indirectPings, others.size());
+    for (int i = 0; i < count; i++) {
+      send(others.get(i), PING_REQ, seq, probe.target);
+      indirectCount.incrementAndGet();
+    }
+  }
+
+  private String nextTarget() {
+    if (probeIndex >= probeOrder.size()) {
+      probeOrder.clear();
+      probeOrder.addAll(owner.gossipMembers());
+      Collections.shuffle(probeOrder, ThreadLocalRandom.current());
+      probeIndex = 0;
+    }
+    while (probeIndex < probeOrder.size()) {
+      String target = probeOrder.get(probeIndex++);
+      Member member = members.get(target);
+      if (member == null || member.state != State.DEAD) {
+        return target;
+      }
+    }
+    return null;
+  }
+
+  private void suspect(String ip, long now) {
+    Member member = member(ip);
+    if (member.state == State.ALIVE) {
+      log.info("Suspecting member:{} as it did not ack a ping", ip);
+      member.state(State.SUSPECT, now);
+      suspectCount.incrementAndGet();
+      update(ip, State.SUSPECT, member.incarnation);
+    }
+  }
+
+  private void expireSuspects(long now, List<String> failed) {
+    for (Map.Entry<String, Member> entry : members.entrySet()) {
+      Member member = entry.getValue();
+      if (member.state == State.SUSPECT && now - member.changedAt >= suspectMillis) {
+        dead(entry.getKey(), member, failed);
+      }
+    }
+  }
+
+  private void dead(String ip, Member member, List<String> failed) {
+    log.warn("Member:{} failed, removing it", ip);
+    member.state(State.DEAD, System.currentTimeMillis());
+    deadCount.incrementAndGet();
+    update(ip, State.DEAD, member.incarnation);
+    failed.add(ip);
+  }
+
+  /**
+   * Forget the members dead, or not members of this one, for the forget time.
+   */
+  private void forget(long now) {
+    List<String> current = owner.gossipMembers();
+    Iterator<Map.Entry<String, Member>> it = members.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Member> entry = it.next();
+      Member member = entry.getValue();
+      if (now - member.changedAt >= forgetMillis && (member.state == State.DEAD || !current.contains(entry.getKey()))) {
+        it.remove();
+      }
+    }
+  }
+
+  private void expireProbes(long now) {
+    Iterator<Probe> it = probes.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().expiresAt <= now) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Handle the gossip message received from the member, releasing it.
+   */
+  void receive(String from, ClusterMessage message) {
+    List<String> failed = new ArrayList<>();
+    List<String> alive = new ArrayList<>();
+    try {
+      DataInputStream input = message.getDataInput();
+      byte type = input.readByte();
+      long seq = input.readLong();
+      String target = input.readUTF();
+      int count = input.readUnsignedByte();
+      synchronized (this) {
+        for (int i = 0; i < count; i++) {
+          State state = State.values()[input.readUnsignedByte()];
+          String ip = input.readUTF();
+          apply(ip, state, input.readInt(), failed, alive);
+        }
+        switch (type) {
+          case PING:
+            send(from, ACK, seq, "");
+            break;
+          case PING_REQ:
+            long pingSeq = ++sequence;
+            probes.put(pingSeq, new Probe(target, from, seq, System.currentTimeMillis() + intervalMillis));
+            send(target, PING, pingSeq, "");
+            break;
+          case ACK:
+            acked(seq);
+            break;
+          default:
+            log.debug("Unknown gossip type:{} from:{}", type, from);
+        }
+      }
+    } catch (IOException | ArrayIndexOutOfBoundsException e) {
+      log.warn("Invalid gossip message from:{} {}", from, e.getMessage());
+    } finally {
+      message.release();
+    }
+    for (String ip : failed) {
+      owner.memberFailed(ip);
+    }
+    for (String ip : alive) {
+      owner.memberAlive(ip);
+    }
+  }
+
+  private void acked(long seq) {
+    Probe probe = probes.remove(seq);
+    if (probe == null) {
+      return;
+    }
+    if (probe.requester != null) {
+      // pinged on behalf of the requester
+      send(probe.requester, ACK, probe.requesterSeq, "");
+    } else {
+      probe.acked = true;
+    }
+  }
+
+  /**
+   * Apply a membership update as per the incarnation numbers.
+   */
+  private void apply(String ip, State state, int updateIncarnation, List<String> failed, List<String> alive) {
+    if (ip.equals(localIp)) {
+      if (state != State.ALIVE && updateIncarnation >= incarnation) {
+        // refute the suspicion
+        incarnation = updateIncarnation + 1;
+        refuteCount.incrementAndGet();
+        log.info("Refuting {} of this member with incarnation:{}", state, incarnation);
+        update(localIp, State.ALIVE, incarnation);
+      }
+      return;
+    }
+    Member member = member(ip);
+    switch (state) {
+      case ALIVE:
+        if (updateIncarnation > member.incarnation) {
+          if (member.state == State.DEAD) {
+            alive.add(ip);
+          }
+          member.state(State.ALIVE, System.currentTimeMillis());
+          member.incarnation = updateIncarnation;
+          update(ip, State.ALIVE, updateIncarnation);
+        }
+        break;
+      case SUSPECT:
+        if (member.state == State.ALIVE ? updateIncarnation >= member.incarnation : member.state == State.SUSPECT && updateIncarnation > member.incarnation) {
+          member.state(State.SUSPECT, System.currentTimeMillis());
+          member.incarnation = updateIncarnation;
+          update(ip, State.SUSPECT, updateIncarnation);
+        }
+        break;
+      default:
+        if (member.state != State.DEAD && updateIncarnation >= member.incarnation) {
+          member.incarnation = updateIncarnation;
+          dead(ip, member, failed);
+        }
+    }
+  }
+
+  private Member member(String ip) {
+    return members.computeIfAbsent(ip, k -> new Member(System.currentTimeMillis()));
+  }
+
+  /**
+   * Add the update to be piggybacked on the following messages.
+   */
+  private void update(String ip, State state, int updateIncarnation) {
+    int size = Math.max(1, owner.gossipMembers().size());
+    int transmits = RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(size + 1));
+    updates.remove(ip);
+    updates.put(ip, new Update(ip, state, updateIncarnation, transmits));
+  }
+
+  /**
+   * Send a gossip message piggybacking the pending updates, returning false when the member does not gossip.
+   */
+  private boolean send(String ip, byte type, long seq, String target) {
+    SocketClient client = owner.gossipMember(ip);
+    if (client == null) {
+      return false;
+    }
+    try {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+      DataOutputStream output = new DataOutputStream(buffer);
+      output.writeByte(type);
+      output.writeLong(seq);
+      output.writeUTF(target);
+      List<Update> piggyback = piggyback(ip);
+      output.writeByte(piggyback.size());
+      for (Update update : piggyback) {
+        output.writeByte(update.state.ordinal());
+        output.writeUTF(update.ip);
+        output.writeInt(update.incarnation);
+      }
+      client.gossip(ClusterMessage.gossip(buffer.toByteArray()));
+    } catch (IOException e) {
+      log.error("Error writing gossip message", e);
+    }
+    return true;
+  }
+
+  /**
+   * Return the updates to piggyback on a message to the member, most recent first.
+   */
+  private List<Update> piggyback(String ip) {
+    List<Update> list = new ArrayList<>(Math.min(MAX_UPDATES, updates.size()));
+    List<Update> all = new ArrayList<>(updates.values());
+    for (int i = all.size() - 1; i >= 0 && list.size() < MAX_UPDATES; i--) {
+      Update update = all.get(i);
+      // the member is sent the suspicions of it so that it can refute them
+      if (!update.ip.equals(ip) || update.state != State.ALIVE) {
+        list.add(update);
+        if (--update.transmits <= 0) {
+          updates.remove(update.ip);
+        }
+      }
+    }
+    return list;
+  }
+
+  private static final class Member {
+
+    private State state = State.ALIVE;
+
+    private int incarnation;
+
+    /**
+     * The time the member was heard of or last changed state.
+     */
+    private long changedAt;
+
+    Member(long now) {
+      this.changedAt = now;
+    }
+
+    private void state(State state, long now) {
+      this.state = state;
+      this.changedAt = now;
+    }
+  }
+
+  private static final class Probe {
+
+    private final String target;
+
+    /**
+     * The member that asked for the ping, null for our own ping.
+     */
+    private final String requester;
+
+    private final long requesterSeq;
+
+    private final long expiresAt;
+
+    private boolean acked;
+
+    Probe(String target, String requester, long requesterSeq, long expiresAt) {
+      this.target = target;
+      this.requester = requester;
+      this.requesterSeq = requesterSeq;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private static final class Update {
+
+    private final String ip;
+
+    private final State state;
+
+    private final int incarnation;
+
+    private int transmits;
+
+    Update(String ip, State state, int incarnation, int transmits) {
+      this.ip = ip;
+      this.state = state;
+      this.incarnation = incarnation;
+      this.transmits = transmits;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package io.ebean.k8scache.socket;
+
+import io.ebeaninternal.api.SpiEbeanServer;
+import io.ebeaninternal.api.TransactionEventTable.TableIUD;
+import io.ebeaninternal.server.cache.RemoteCacheEvent;
+import io.ebeaninternal.server.core.PersistRequest;
+import io.ebeaninternal.server.deploy.BeanDescriptor;
+import io.ebeaninternal.server.transaction.BeanPersistIds;
+import io.ebeaninternal.server.transaction.RemoteTableMod;
+import io.ebeaninternal.server.transaction.RemoteTransactionEvent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges the RemoteTransactionEvents of a server into a single event.
+ * <p>
+ * The table insert/update/delete flags are combined per table, the bean ids are
+ * de-duplicated per bean type (keeping the bean types with only inserts, which
+ * have no ids but clear the query caches) and the cache clears are combined. When the number
+ * of bean ids for a bean type exceeds maxBeanIds they are replaced by an update
+ * and delete of the base table, which invalidates the caches of that bean type.
+ * </p>
+ */
+final class TransactionEventMerger {
+
+  private final String serverName;
+
+  private final int maxBeanIds;
+
+  private final Map<String, boolean[]> tables = new LinkedHashMap<>();
+
+  private final Map<BeanDescriptor<?>, Set<Object>> beanIds = new LinkedHashMap<>();
+
+  private final Set<BeanDescriptor<?>> escalated = new HashSet<>();
+
+  private final Set<String> tableMods = new LinkedHashSet<>();
+
+  private final Set<String> clearCaches = new LinkedHashSet<>();
+
+  private SpiEbeanServer server;
+
+  private boolean clearAll;
+
+  private boolean cacheEvent;
+
+  private int count;
+
+  TransactionEventMerger(String serverName, int maxBeanIds) {
+    this.serverName = serverName;
+    this.maxBeanIds = maxBeanIds;
+  }
+
+  /**
+   * Return the number of events merged.
+   */
+  int size() {
+    return count;
+  }
+
+  /**
+   * Add an event to be merged.
+   */
+  void add(RemoteTransactionEvent event) {
+    count++;
+    if (server == null) {
+      server = event.getServer();
+    }
+    RemoteTableMod tableMod = event.getRemoteTableMod();
+    if (tableMod != null) {
+      tableMods.addAll(tableMod.getTables());
+    }
+    List<TableIUD> tableIUDList = event.getTableIUDList();
+    if (tableIUDList != null) {
+      for (TableIUD tableIUD : tableIUDList) {
+        addTable(tableIUD.tableName(), tableIUD.isInsert(), tableIUD.isUpdate(), tableIUD.isDelete());
+      }
+    }
+    for (BeanPersistIds persistIds : event.getBeanPersistList()) {
+      addBeanIds(persistIds);
+    }
+    RemoteCacheEvent remoteCacheEvent = event.getRemoteCacheEvent();
+    if (remoteCacheEvent != null) {
+      cacheEvent = true;
+      if (remoteCacheEvent.isClearAll()) {
+        clearAll = true;
+      } else if (remoteCacheEvent.getClearCaches() != null) {
+        clearCaches.addAll(remoteCacheEvent.getClearCaches());
+      }
+    }
+  }
+
+  private void addTable(String tableName, boolean insert, boolean update, boolean delete) {
+    boolean[] iud = tables.computeIfAbsent(tableName, name -> new boolean[3]);
+    iud[0] |= insert;
+    iud[1] |= update;
+    iud[2] |= delete;
+  }
+
+  private void addBeanIds(BeanPersistIds persistIds) {
+    BeanDescriptor<?> descriptor = persistIds.getBeanDescriptor();
+    if (escalated.contains(descriptor)) {
+      return;
+    }
+    // kept without ids (only inserts) as the query caches of the bean type are cleared
+    Set<Object> idSet = beanIds.computeIfAbsent(descriptor, desc -> new LinkedHashSet<>());
+    List<Object> ids = persistIds.getIds();
+    if (ids == null) {
+      return;
+    }
+    idSet.addAll(ids);
+    String baseTable = descriptor.baseTable();
+    if (idSet.size() > maxBeanIds && baseTable != null) {
+      // invalidate the bean type via its base table rather than by id
+      beanIds.remove(descriptor);
+      escalated.add(descriptor);
+      addTable(baseTable, false, true, true);
+    }
+  }
+
+  /**
+   * Return the merged event.
+   */
+  RemoteTransactionEvent merged() {
+    RemoteTransactionEvent merged = new RemoteTransactionEvent(serverName);
+    merged.setServer(server);
+    if (!tableMods.isEmpty()) {
+      merged.addRemoteTableMod(new RemoteTableMod(tableMods));
+    }
+    for (Map.Entry<String, boolean[]> entry : tables.entrySet()) {
+      boolean[] iud = entry.getValue();
+      merged.addTableIUD(new TableIUD(entry.getKey(), iud[0], iud[1], iud[2]));
+    }
+    for (Map.Entry<BeanDescriptor<?>, Set<Object>> entry : beanIds.entrySet()) {
+      BeanPersistIds persistIds = new BeanPersistIds(entry.getKey());
+      for (Object id : entry.getValue()) {
+        persistIds.addId(PersistRequest.Type.UPDATE, id);
+      }
+      merged.addBeanPersistIds(persistIds);
+    }
+    if (clearAll) {
+      merged.addRemoteCacheEvent(new RemoteCacheEvent(true));
+    } else if (cacheEvent) {
+      merged.addRemoteCacheEvent(new RemoteCacheEvent(false, new ArrayList<>(clearCaches)));
+    }
+    return merged;
+  }
+}
@@ -1,9 +1,12 @@
 module io.ebean.k8scache {
 
     exports io.ebean.k8scache;
+    exports io.ebean.k8scache.membership;
 
     requires io.ebean.core;
     requires k8s.discovery;
 
+    uses io.ebean.k8scache.MembershipProvider;
+
     provides io.ebeaninternal.server.cluster.ClusterBroadcastFactory with io.ebean.k8scache.K8sBroadcastFactory;
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package io.ebean.k8scache;
+
+import io.ebean.config.ContainerConfig;
+import io.ebean.k8scache.membership.DiscoveryMembership;
+import io.ebean.k8scache.membership.DnsMembership;
+import io.ebean.k8scache.membership.StaticMembership;
+import io.ebean.k8scache.socket.K8sClusterBroadcast;
+import io.ebeaninternal.server.cluster.ClusterBroadcast;
+import io.ebeaninternal.server.cluster.ClusterManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MembershipProviderTest {
+
+  /**
+   * A provider registered as a service.
+   */
+  public static final class Registered implements MembershipProvider {
+
+    @Override
+    public void start(Listener listener) {
+      // the members do not change
+    }
+
+    @Override
+    public Set<String> members() {
+      return Collections.singleton("10.0.0.7");
+    }
+
+    @Override
+    public void stop() {
+      // nothing to stop
+    }
+  }
+
+  @Test
+  void providerOfTheMembership() {
+    assertThat(TestConfig.create("10.0.0.1").getMembershipProvider()).isInstanceOf(DiscoveryMembership.class);
+    assertThat(TestConfig.create("10.0.0.1", "membership=dns").getMembershipProvider()).isInstanceOf(DnsMembership.class);
+
+    MembershipProvider provider = TestConfig.create("10.0.0.1", "membership=STATIC", "staticMembers=10.0.0.1@zone-a, 10.0.0.2@zone-b").getMembershipProvider();
+    assertThat(provider).isInstanceOf(StaticMembership.class);
+    assertThat(provider.members()).containsExactly("10.0.0.1", "10.0.0.2");
+    assertThat(provider.zone("10.0.0.2")).isEqualTo("zone-b");
+  }
+
+  @Test
+  void dnsNameOfTheService() {
+    assertThat(TestConfig.create("10.0.0.1").getMembershipDnsName()).isEqualTo("test-service.test.svc");
+    assertThat(TestConfig.create("10.0.0.1", "membershipDnsName=members.local").getMembershipDnsName()).isEqualTo("members.local");
+  }
+
+  @Test
+  void localIpOfTheMember() {
+    assertThat(TestConfig.create("10.0.0.1", "localIp=10.0.0.5").getLocalIp()).isEqualTo("10.0.0.5");
+    assertThat(TestConfig.create("10.0.0.1").getLocalIp()).isNull();
+    // by default the address of the local host
+    assertThat(new StaticMembership(Collections.singletonList("10.0.0.1")).localIp()).isNotNull();
+  }
+
+  @Test
+  void staticMembershipWithoutTheK8sApi() {
+    Properties properties = new Properties();
+    properties.setProperty("ebean.cluster.membership", "STATIC");
+    properties.setProperty("ebean.cluster.staticMembers", "127.0.0.31");
+    properties.setProperty("ebean.cluster.localIp", "127.0.0.31");
+    properties.setProperty("ebean.cluster.bindAddress", "127.0.0.31");
+    ContainerConfig container = new ContainerConfig();
+    container.setActive(true);
+    container.setPort(TestConfig.PORT);
+    container.setProperties(properties);
+
+    ClusterBroadcast broadcast = new K8sBroadcastFactory().create(new ClusterManager(new ContainerConfig()), container);
+    try {
+      assertThat(broadcast).isInstanceOf(K8sClusterBroadcast.class);
+    } finally {
+      broadcast.shutdown();
+    }
+  }
+
+  @Test
+  void providerRegisteredAsService(@TempDir Path directory) throws Exception {
+    Path services = Files.createDirectories(directory.resolve("META-INF/services"));
+    Files.write(services.resolve(MembershipProvider.class.getName()), Registered.class.getName().getBytes(StandardCharsets.UTF_8));
+
+    Thread thread = Thread.currentThread();
+    ClassLoader original = thread.getContextClassLoader();
+    try (URLClassLoader loader = new URLClassLoader(new URL[]{directory.toUri().toURL()}, original)) {
+      thread.setContextClassLoader(loader);
+      assertThat(TestConfig.create("10.0.0.1").getMembershipProvider()).isInstanceOf(Registered.class);
+      // the membership setting is used over the service
+      assertThat(TestConfig.create("10.0.0.1", "membership=STATIC").getMembershipProvider()).isInstanceOf(StaticMembership.class);
+    } finally {
+      thread.setContextClassLoader(original);
+    }
+
+    // the provider set is used over both
+    K8sServiceConfig config = TestConfig.create("10.0.0.1", "membership=DNS");
+    Registered registered = new Registered();
+    config.setMembershipProvider(registered);
+    assertThat(config.getMembershipProvider()).isSameAs(registered);
+  }
+}
@@ -0,0 +1,34 @@
+package io.ebean.k8scache;
+
+import io.ebean.config.ContainerConfig;
+
+import java.util.Properties;
+
+/**
+ * Creates the configuration of a member for the tests.
+ */
+public class TestConfig {
+
+  /**
+   * The port the members of the tests listen on.
+   */
+  public static final int PORT = 19911;
+
+  /**
+   * Return the configuration of the pod with the given ebean.cluster.* properties as key=value.
+   */
+  public static K8sServiceConfig create(String podIp, String... properties) {
+    Properties props = new Properties();
+    for (String property : properties) {
+      String[] keyValue = property.split("=", 2);
+      props.setProperty("ebean.cluster." + keyValue[0], keyValue[1]);
+    }
+    ContainerConfig container = new ContainerConfig();
+    container.setPodName(podIp);
+    container.setServiceName("test-service");
+    container.setNamespace("test");
+    container.setPort(PORT);
+    container.setProperties(props);
+    return new K8sServiceConfig(container);
+  }
+}
@@ -0,0 +1,69 @@
+package io.ebean.k8scache.membership;
+
+import io.ebean.k8scache.MembershipProvider;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DnsMembershipTest {
+
+  private final List<String> changes = new CopyOnWriteArrayList<>();
+
+  private final MembershipProvider.Listener listener = new MembershipProvider.Listener() {
+    @Override
+    public void memberAdded(String ip) {
+      changes.add("+" + ip);
+    }
+
+    @Override
+    public void memberRemoved(String ip) {
+      changes.add("-" + ip);
+    }
+  };
+
+  @Test
+  void resolvedWhenStarted() {
+    DnsMembership membership = new DnsMembership("127.0.0.5", 0, "test-dns");
+    membership.start(listener);
+    try {
+      assertThat(membership.members()).containsExactly("127.0.0.5");
+      membership.refresh();
+      assertThat(membership.members()).containsExactly("127.0.0.5");
+      // the members resolved when started are not reported
+      assertThat(changes).isEmpty();
+    } finally {
+      membership.stop();
+    }
+  }
+
+  @Test
+  void knownMembersKeptWhenNotResolved() {
+    DnsMembership membership = new DnsMembership("no-such-service.invalid", 0, "test-dns");
+    membership.start(listener);
+    try {
+      assertThat(membership.members()).isEmpty();
+      membership.refresh();
+      assertThat(changes).isEmpty();
+    } finally {
+      membership.stop();
+    }
+  }
+
+  @Test
+  void refreshedInTheBackground() throws InterruptedException {
+    DnsMembership membership = new DnsMembership("127.0.0.5", 20, "test-dns");
+    membership.start(listener);
+    Thread thread = Thread.getAllStackTraces().keySet().stream()
+      .filter(t -> t.getName().equals("test-dns")).findFirst().orElse(null);
+    assertThat(thread).isNotNull();
+    assertThat(thread.isDaemon()).isTrue();
+
+    membership.stop();
+    thread.join(5_000);
+    assertThat(thread.isAlive()).isFalse();
+    assertThat(membership.members()).containsExactly("127.0.0.5");
+  }
+}
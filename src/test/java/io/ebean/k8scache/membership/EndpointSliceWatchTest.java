@@ -0,0 +1,128 @@
+package io.ebean.k8scache.membership;
+
+import io.ebean.k8scache.MembershipProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static io.ebean.k8scache.membership.FakeApiServer.slice;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EndpointSliceWatchTest {
+
+  private final List<String> changes = new CopyOnWriteArrayList<>();
+
+  private final MembershipProvider.Listener listener = new MembershipProvider.Listener() {
+    @Override
+    public void memberAdded(String ip) {
+      changes.add("+" + ip);
+    }
+
+    @Override
+    public void memberRemoved(String ip) {
+      changes.add("-" + ip);
+    }
+  };
+
+  private FakeApiServer api;
+
+  private EndpointSliceWatch watch;
+
+  @BeforeEach
+  void start() throws IOException {
+    api = new FakeApiServer();
+    api.listed(10, slice("slice-a", 10, "zone-a", List.of("10.0.0.1"), List.of()));
+    watch = new EndpointSliceWatch(api.url(), FakeApiServer.NAMESPACE, FakeApiServer.SERVICE, "test-watch", 1000);
+  }
+
+  @AfterEach
+  void stop() throws IOException {
+    watch.stop();
+    api.close();
+  }
+
+  @Test
+  void listThenWatch() throws Exception {
+    watch.start(listener);
+    assertThat(watch.members()).containsExactly("10.0.0.1");
+    assertThat(watch.zone("10.0.0.1")).isEqualTo("zone-a");
+    assertThat(changes).isEmpty();
+
+    // the endpoints that are not ready are not members
+    api.event("MODIFIED", slice("slice-a", 11, "zone-a", List.of("10.0.0.1", "10.0.0.2"), List.of("10.0.0.3")));
+    api.event("ADDED", slice("slice-b", 12, "zone-b", List.of("10.0.0.4"), List.of()));
+    await(() -> changes.size() == 2);
+    assertThat(changes).containsExactly("+10.0.0.2", "+10.0.0.4");
+    assertThat(watch.members()).containsExactlyInAnyOrder("10.0.0.1", "10.0.0.2", "10.0.0.4");
+    assertThat(watch.zone("10.0.0.4")).isEqualTo("zone-b");
+
+    api.event("DELETED", slice("slice-b", 13, "zone-b", List.of("10.0.0.4"), List.of()));
+    await(() -> changes.size() == 3);
+    assertThat(changes).endsWith("-10.0.0.4");
+    assertThat(watch.zone("10.0.0.4")).isNull();
+
+    assertThat(api.listRequests()).isEqualTo(1);
+    assertThat(api.requests()).filteredOn(query -> query.contains("watch=true"))
+      .singleElement().asString().contains("resourceVersion=10");
+  }
+
+  @Test
+  void listAgainWhenWatchExpired() throws Exception {
+    watch.start(listener);
+    await(() -> api.watchRequests() == 1);
+
+    api.listed(20, slice("slice-a", 20, "zone-a", List.of("10.0.0.1", "10.0.0.2"), List.of()));
+    api.expired();
+    await(() -> changes.size() == 1);
+
+    assertThat(changes).containsExactly("+10.0.0.2");
+    assertThat(api.listRequests()).isEqualTo(2);
+    await(() -> api.watchRequests() == 2);
+    assertThat(api.requests().get(api.requests().size() - 1)).contains("watch=true").contains("resourceVersion=20");
+  }
+
+  @Test
+  void listAgainWhenWatchGone() throws Exception {
+    api.goneOnNextWatch();
+    watch.start(listener);
+    api.listed(20, slice("slice-a", 20, "zone-a", List.of("10.0.0.2"), List.of()));
+
+    // listed again after the backoff
+    await(() -> changes.size() == 2);
+    assertThat(changes).containsExactly("-10.0.0.1", "+10.0.0.2");
+    assertThat(api.listRequests()).isEqualTo(2);
+  }
+
+  @Test
+  void watchAgainFromLastVersion() throws Exception {
+    watch.start(listener);
+    api.event("BOOKMARK", "{\"kind\":\"EndpointSlice\",\"metadata\":{\"resourceVersion\":\"15\"}}");
+    api.event("MODIFIED", slice("slice-a", 16, "zone-a", List.of("10.0.0.1", "10.0.0.2"), List.of()));
+    await(() -> changes.size() == 1);
+
+    // the API server ends the watch when it times out
+    api.endWatch();
+    await(() -> api.watchRequests() == 2);
+    assertThat(api.requests().get(api.requests().size() - 1)).contains("resourceVersion=16");
+    assertThat(api.listRequests()).isEqualTo(1);
+
+    api.event("MODIFIED", slice("slice-a", 17, "zone-a", List.of("10.0.0.2"), List.of()));
+    await(() -> changes.size() == 2);
+    assertThat(changes).containsExactly("+10.0.0.2", "-10.0.0.1");
+  }
+
+  /**
+   * Wait up to 10 seconds for the condition to be true.
+   */
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long until = System.currentTimeMillis() + 10_000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < until) {
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package io.ebean.k8scache.membership;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A K8s API server in the tests serving the list and watch of the EndpointSlices of a service.
+ * <p>
+ * Speaks just enough HTTP/1.1 for HttpURLConnection, with each response ending the connection.
+ * </p>
+ */
+final class FakeApiServer implements AutoCloseable {
+
+  static final String NAMESPACE = "test";
+
+  static final String SERVICE = "test-service";
+
+  private static final String SLICES_PATH = "/apis/discovery.k8s.io/v1/namespaces/" + NAMESPACE + "/endpointslices";
+
+  private final ServerSocket serverSocket;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+
+  /**
+   * Incremented to end the current watch.
+   */
+  private final AtomicInteger watchGeneration = new AtomicInteger();
+
+  private volatile String list = list(1);
+
+  private volatile boolean goneOnWatch;
+
+  FakeApiServer() throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    executor.execute(this::accept);
+  }
+
+  /**
+   * Return the URL of the API server.
+   */
+  String url() {
+    return "http://127.0.0.1:" + serverSocket.getLocalPort();
+  }
+
+  /**
+   * Return the endpoint slice of the service with the ready and not ready addresses in the zone.
+   */
+  static String slice(String name, long resourceVersion, String zone, List<String> ready, List<String> notReady) {
+    StringBuilder json = new StringBuilder();
+    json.append("{\"kind\":\"EndpointSlice\",\"metadata\":{\"name\":\"").append(name)
+      .append("\",\"resourceVersion\":\"").append(resourceVersion)
+      .append("\",\"labels\":{\"kubernetes.io/service-name\":\"").append(SERVICE).append("\"}},")
+      .append("\"addressType\":\"IPv4\",\"endpoints\":[");
+    String separator = "";
+    for (String ip : ready) {
+      json.append(separator).append("{\"addresses\":[\"").append(ip).append("\"],\"conditions\":{\"ready\":true,\"serving\":true},\"zone\":\"").append(zone).append("\"}");
+      separator = ",";
+    }
+    for (String ip : notReady) {
+      json.append(separator).append("{\"addresses\":[\"").append(ip).append("\"],\"conditions\":{\"ready\":false}}");
+      separator = ",";
+    }
+    return json.append("],\"ports\":[{\"port\":9911}]}").toString();
+  }
+
+  /**
+   * Set the slices returned by the list at the resource version.
+   */
+  void listed(long resourceVersion, String... slices) {
+    this.list = list(resourceVersion, slices);
+  }
+
+  private static String list(long resourceVersion, String... slices) {
+    return "{\"kind\":\"EndpointSliceList\",\"metadata\":{\"resourceVersion\":\"" + resourceVersion + "\"},\"items\":[" + String.join(",", slices) + "]}";
+  }
+
+  /**
+   * Send the watch event of the given type (ADDED, MODIFIED, DELETED, BOOKMARK or ERROR).
+   */
+  void event(String type, String object) {
+    events.add("{\"type\":\"" + type + "\",\"object\":" + object + "}");
+  }
+
+  /**
+   * Send the error event of a watch from a resource version that has expired.
+   */
+  void expired() {
+    event("ERROR", "{\"kind\":\"Status\",\"status\":\"Failure\",\"message\":\"too old resource version\",\"reason\":\"Expired\",\"code\":410}");
+  }
+
+  /**
+   * Reply 410 Gone to the next watch request.
+   */
+  void goneOnNextWatch() {
+    this.goneOnWatch = true;
+  }
+
+  /**
+   * End the current watch as the API server does when the watch times out.
+   */
+  void endWatch() {
+    watchGeneration.incrementAndGet();
+  }
+
+  /**
+   * Return the query strings of the requests received.
+   */
+  List<String> requests() {
+    return requests;
+  }
+
+  int listRequests() {
+    return (int) requests.stream().filter(query -> !query.contains("watch=true")).count();
+  }
+
+  int watchRequests() {
+    return (int) requests.stream().filter(query -> query.contains("watch=true")).count();
+  }
+
+  private void accept() {
+    try {
+      while (!serverSocket.isClosed()) {
+        Socket socket = serverSocket.accept();
+        executor.execute(() -> handle(socket));
+      }
+    } catch (IOException e) {
+      // closed
+    }
+  }
+
+  private void handle(Socket socket) {
+    try (Socket current = socket) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(current.getInputStream(), StandardCharsets.ISO_8859_1));
+      String requestLine = reader.readLine();
+      String header;
+      do {
+        header = reader.readLine();
+      } while (header != null && !header.isEmpty());
+      OutputStream output = current.getOutputStream();
+      URI uri = URI.create(requestLine.split(" ")[1]);
+      String query = uri.getRawQuery();
+      if (!SLICES_PATH.equals(uri.getPath()) || query == null || !query.startsWith("labelSelector=kubernetes.io%2Fservice-name%3D" + SERVICE)) {
+        respond(output, "404 Not Found", "");
+        return;
+      }
+      requests.add(query);
+      if (!query.contains("watch=true")) {
+        respond(output, "200 OK", list);
+      } else if (goneOnWatch) {
+        goneOnWatch = false;
+        respond(output, "410 Gone", "");
+      } else {
+        watch(output);
+      }
+    } catch (IOException e) {
+      // the client disconnected
+    }
+  }
+
+  private static void respond(OutputStream output, String status, String body) throws IOException {
+    byte[] content = body.getBytes(StandardCharsets.UTF_8);
+    String head = "HTTP/1.1 " + status + "\r\nContent-Type: application/json\r\nContent-Length: " + content.length + "\r\nConnection: close\r\n\r\n";
+    output.write(head.getBytes(StandardCharsets.ISO_8859_1));
+    output.write(content);
+    output.flush();
+  }
+
+  /**
+   * Stream the events until the watch is ended, the end of the response being when the connection closes.
+   */
+  private void watch(OutputStream output) throws IOException {
+    int generation = watchGeneration.get();
+    output.write("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+    output.flush();
+    try {
+      while (generation == watchGeneration.get()) {
+        String event = events.poll(20, TimeUnit.MILLISECONDS);
+        if (event != null) {
+          output.write((event + "\n").getBytes(StandardCharsets.UTF_8));
+          output.flush();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    endWatch();
+    serverSocket.close();
+    executor.shutdownNow();
+  }
+}
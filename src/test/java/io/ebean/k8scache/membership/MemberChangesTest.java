@@ -0,0 +1,45 @@
+package io.ebean.k8scache.membership;
+
+import io.ebean.k8scache.MembershipProvider;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemberChangesTest {
+
+  private final List<String> changes = new ArrayList<>();
+
+  private final MembershipProvider.Listener listener = new MembershipProvider.Listener() {
+    @Override
+    public void memberAdded(String ip) {
+      changes.add("+" + ip);
+    }
+
+    @Override
+    public void memberRemoved(String ip) {
+      changes.add("-" + ip);
+    }
+  };
+
+  @Test
+  void changesReported() {
+    MemberChanges members = new MemberChanges("test");
+    // the members known before the listener is set are not reported
+    members.update(Arrays.asList("10.0.0.1", "10.0.0.2"));
+    members.listener(listener);
+    assertThat(members.members()).containsExactly("10.0.0.1", "10.0.0.2");
+    assertThat(changes).isEmpty();
+
+    members.update(Arrays.asList("10.0.0.2", "10.0.0.3", "10.0.0.3"));
+    assertThat(members.members()).containsExactly("10.0.0.2", "10.0.0.3");
+    assertThat(changes).containsExactly("-10.0.0.1", "+10.0.0.3");
+
+    changes.clear();
+    members.update(Arrays.asList("10.0.0.3", "10.0.0.2"));
+    assertThat(changes).isEmpty();
+  }
+}
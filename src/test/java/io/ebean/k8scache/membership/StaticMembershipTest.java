@@ -0,0 +1,25 @@
+package io.ebean.k8scache.membership;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StaticMembershipTest {
+
+  @Test
+  void membersWithZones() {
+    StaticMembership membership = new StaticMembership(Arrays.asList("10.0.0.1@zone-a", "10.0.0.2", "10.0.0.3@zone-b", "10.0.0.1"));
+    membership.start(null);
+
+    assertThat(membership.members()).containsExactly("10.0.0.1", "10.0.0.2", "10.0.0.3");
+    assertThat(membership.zone("10.0.0.1")).isEqualTo("zone-a");
+    assertThat(membership.zone("10.0.0.2")).isNull();
+    assertThat(membership.zone("10.0.0.3")).isEqualTo("zone-b");
+    assertThat(membership.zone("10.0.0.9")).isNull();
+    membership.refresh();
+    membership.stop();
+    assertThat(membership.members()).hasSize(3);
+  }
+}
@@ -0,0 +1,368 @@
+package io.ebean.k8scache.message;
+
+import io.ebean.k8scache.socket.MsgKeys;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ClusterMessageTest {
+
+  private static DataInputStream input(int key, int... ints) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(key);
+    for (int value : ints) {
+      output.writeInt(value);
+    }
+    return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  @Test
+  void compressed() throws IOException {
+    byte[] data = new byte[10_000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 10);
+    }
+    ClusterMessage message = ClusterMessage.transEvent(data, 1000);
+    assertThat(message.size()).isLessThan(data.length);
+    assertThat(message.getData()).isEqualTo(data);
+    message.release();
+  }
+
+  @Test
+  void notCompressedWhenLarger() throws IOException {
+    byte[] data = new byte[10_000];
+    new Random(42).nextBytes(data);
+    ClusterMessage message = ClusterMessage.transEvent(data, 1000);
+    assertThat(message.getData()).isSameAs(data);
+    message.release();
+  }
+
+  /**
+   * Return event data invalidating the given number of beans, a header followed
+   * by a type and an ascending id per bean.
+   */
+  private static byte[] invalidations(int beans) throws IOException {
+    Random random = new Random(42);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeUTF("db");
+    output.writeUTF("customer_order_line");
+    output.writeInt(beans);
+    long id = 1_000_000;
+    for (int i = 0; i < beans; i++) {
+      id += 1 + random.nextInt(8);
+      output.writeByte(2);
+      output.writeLong(id);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test
+  void compressedFromTheThreshold() throws IOException {
+    byte[] data = invalidations(100);
+    ClusterMessage below = ClusterMessage.transEvent(data, data.length + 1);
+    assertThat(below.isCompressed()).isFalse();
+    assertThat(below.getData()).isSameAs(data);
+    below.release();
+
+    ClusterMessage at = ClusterMessage.transEvent(data, data.length);
+    assertThat(at.isCompressed()).isTrue();
+    // the ids compress to less than half
+    assertThat(at.size()).isLessThan(data.length / 2);
+    assertThat(at.getData()).isEqualTo(data);
+    at.release();
+  }
+
+  @Test
+  void notCompressedWithoutThreshold() throws IOException {
+    byte[] data = invalidations(5_000);
+    ClusterMessage message = ClusterMessage.transEvent(data, 0);
+    assertThat(message.isCompressed()).isFalse();
+    assertThat(message.getData()).isSameAs(data);
+    message.release();
+  }
+
+  @Test
+  void readNegativeLength() throws IOException {
+    assertThatThrownBy(() -> ClusterMessage.read(input(MsgKeys.DATA, -1)))
+      .isInstanceOf(InvalidMessageException.class);
+    assertThatThrownBy(() -> ClusterMessage.read(input(MsgKeys.GOSSIP, Integer.MIN_VALUE)))
+      .isInstanceOf(InvalidMessageException.class);
+  }
+
+  @Test
+  void readNegativeDeflatedLength() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(MsgKeys.DATA_EXT);
+    // the deflate flag with the uncompressed length
+    output.writeByte(1);
+    output.writeInt(-10);
+    output.writeInt(4);
+    output.write(new byte[4]);
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+    assertThatThrownBy(() -> ClusterMessage.read(input))
+      .isInstanceOf(InvalidMessageException.class);
+  }
+
+  @Test
+  void releasedMoreTimesThanRetained() {
+    ClusterMessage message = ClusterMessage.transEvent(new byte[]{1, 2, 3});
+    message.retain();
+    message.release();
+    message.release();
+    assertThatThrownBy(message::release)
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("released more times than retained");
+    assertThatThrownBy(message::retain)
+      .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void chunksReleaseTheirParent() throws InterruptedException {
+    ClusterMessage message = ClusterMessage.transEvent(new byte[100]);
+    List<ClusterMessage> chunks = message.chunks(30);
+    assertThat(chunks).hasSize(4);
+    assertThat(chunks).allMatch(ClusterMessage::isChunk);
+
+    message.release();
+    assertThat(message.awaitReleased(0, 0)).isFalse();
+    for (ClusterMessage chunk : chunks) {
+      chunk.release();
+    }
+    assertThat(message.awaitReleased(0, 0)).isTrue();
+    assertThatThrownBy(chunks.get(0)::release)
+      .isInstanceOf(IllegalStateException.class);
+  }
+
+  private static ClusterMessage encoded(ClusterMessage message, int capabilities) throws Exception {
+    List<ByteBuffer> buffers = new ArrayList<>();
+    assertThat(message.encode(buffers, capabilities)).isTrue();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (ByteBuffer buffer : buffers) {
+      byte[] array = new byte[buffer.remaining()];
+      buffer.get(array);
+      bytes.write(array);
+    }
+    return ClusterMessage.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+
+  @Test
+  void downgradedForMembersWithDifferentCapabilities() throws Exception {
+    byte[] data = new byte[10_000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 10);
+    }
+    ClusterMessage message = ClusterMessage.transEvent(data, 1000);
+    message.setSequence(42);
+
+    int withoutDeflate = MsgKeys.CAPABILITIES & ~MsgKeys.CAP_DEFLATE;
+    int withoutDeflateOrSequence = withoutDeflate & ~MsgKeys.CAP_SEQUENCE;
+    // alternating between the frames of each set of flags
+    for (int i = 0; i < 2; i++) {
+      ClusterMessage plain = encoded(message, withoutDeflate);
+      assertThat(plain.getData()).isEqualTo(data);
+      assertThat(plain.getSequence()).isEqualTo(42);
+
+      ClusterMessage bare = encoded(message, withoutDeflateOrSequence);
+      assertThat(bare.getData()).isEqualTo(data);
+      assertThat(bare.getSequence()).isLessThan(0);
+
+      ClusterMessage compressed = encoded(message, MsgKeys.CAPABILITIES);
+      assertThat(compressed.size()).isLessThan(data.length);
+      assertThat(compressed.getData()).isEqualTo(data);
+    }
+    message.release();
+  }
+
+  private static byte[] bytes(List<ByteBuffer> buffers) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (ByteBuffer buffer : buffers) {
+      byte[] array = new byte[buffer.remaining()];
+      buffer.get(array);
+      bytes.write(array, 0, array.length);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] written(ClusterMessage message) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    message.write(new DataOutputStream(bytes));
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Assert the frame shared by the members is the same as written and each gets its own view.
+   */
+  private static void assertSharedFrame(ClusterMessage message, int buffers) throws IOException {
+    List<ByteBuffer> first = new ArrayList<>();
+    message.encode(first);
+    List<ByteBuffer> second = new ArrayList<>();
+    message.encode(second);
+    assertThat(first).hasSize(buffers).allMatch(ByteBuffer::isReadOnly);
+
+    byte[] expected = written(message);
+    // consuming the views of one member leaves those of the other
+    assertThat(bytes(first)).isEqualTo(expected);
+    assertThat(bytes(second)).isEqualTo(expected);
+    List<ByteBuffer> third = new ArrayList<>();
+    message.encode(third);
+    assertThat(bytes(third)).isEqualTo(expected);
+  }
+
+  @Test
+  void pooledArrayReleasedWhenWriteFails() {
+    byte[] data = new byte[300_000];
+    new Random(11).nextBytes(data);
+    assertThatThrownBy(() -> ClusterMessage.transEvent(context -> {
+      context.os().write(data);
+      throw new IOException("write failed");
+    }, 0)).isInstanceOf(IOException.class);
+
+    // the array written into is back in the pool
+    List<byte[]> acquired = new ArrayList<>();
+    try {
+      boolean released = false;
+      for (int i = 0; i < 16 && !released; i++) {
+        byte[] buffer = BufferPool.INSTANCE.acquire(data.length);
+        acquired.add(buffer);
+        released = startsWith(buffer, data);
+      }
+      assertThat(released).isTrue();
+    } finally {
+      acquired.forEach(BufferPool.INSTANCE::release);
+    }
+  }
+
+  /**
+   * Return true if the data was written into the buffer after the reserved header.
+   */
+  private static boolean startsWith(byte[] buffer, byte[] data) {
+    for (int offset = 0; offset < 64; offset++) {
+      if (Arrays.equals(buffer, offset, offset + 1000, data, 0, 1000)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  void frameOfEventSharedWithoutCopy() throws Exception {
+    byte[] data = new byte[500];
+    new Random(7).nextBytes(data);
+    ClusterMessage message = ClusterMessage.transEvent(context -> context.os().write(data), 0);
+    message.setSequence(3);
+    message.setLane(2);
+
+    // the header is put in front of the pooled data as one buffer
+    assertSharedFrame(message, 1);
+    ClusterMessage read = ClusterMessage.read(new DataInputStream(new ByteArrayInputStream(written(message))));
+    assertThat(read.getData()).isEqualTo(data);
+    assertThat(read.getSequence()).isEqualTo(3);
+    assertThat(read.getLane()).isEqualTo(2);
+    read.release();
+    message.release();
+  }
+
+  @Test
+  void frameOfCompressedAndReceivedShared() throws Exception {
+    byte[] data = new byte[10_000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 10);
+    }
+    ClusterMessage compressed = ClusterMessage.transEvent(data, 1000);
+    assertThat(compressed.isCompressed()).isTrue();
+    assertSharedFrame(compressed, 2);
+
+    ClusterMessage received = ClusterMessage.read(new DataInputStream(new ByteArrayInputStream(written(ClusterMessage.transEvent(data)))));
+    assertSharedFrame(received, 2);
+    assertThat(received.getData()).isEqualTo(data);
+    received.release();
+
+    ClusterMessage register = ClusterMessage.register("127.0.0.2", true, "pod-2");
+    assertSharedFrame(register, 1);
+  }
+
+  /**
+   * Return the chunks of the message as read by the member.
+   */
+  static List<ClusterMessage> receivedChunks(ClusterMessage message, int chunkBytes) throws Exception {
+    List<ClusterMessage> received = new ArrayList<>();
+    for (ClusterMessage chunk : message.chunks(chunkBytes)) {
+      received.add(ClusterMessage.read(new DataInputStream(new ByteArrayInputStream(written(chunk)))));
+      chunk.release();
+    }
+    return received;
+  }
+
+  @Test
+  void chunksAssembled() throws Exception {
+    byte[] data = new byte[10_000];
+    new Random(11).nextBytes(data);
+    ClusterMessage message = ClusterMessage.transEvent(data);
+    message.setSequence(9);
+    message.setLane(2);
+
+    List<ClusterMessage> chunks = receivedChunks(message, 3000);
+    assertThat(chunks).hasSize(4);
+    assertThat(chunks).allMatch(ClusterMessage::isChunk);
+    assertThat(chunks).extracting(ClusterMessage::getChunkIndex).containsExactly(0, 1, 2, 3);
+    assertThat(chunks).extracting(ClusterMessage::isLastChunk).containsExactly(false, false, false, true);
+    assertThat(chunks.get(3).size()).isLessThan(chunks.get(0).size());
+
+    ClusterMessage assembled = ClusterMessage.assemble(chunks);
+    assertThat(assembled.isChunk()).isFalse();
+    assertThat(assembled.getSequence()).isEqualTo(9);
+    assertThat(assembled.getLane()).isEqualTo(2);
+    assertThat(assembled.getData()).isEqualTo(data);
+    byte[] read = new byte[data.length];
+    assembled.getDataInput().readFully(read);
+    assertThat(read).isEqualTo(data);
+    assembled.release();
+    assertThat(chunks).allMatch(chunk -> chunk.isReleased(0));
+    message.release();
+  }
+
+  @Test
+  void compressedChunksInflatedWhenAssembled() throws Exception {
+    byte[] data = new byte[100_000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 100);
+    }
+    ClusterMessage message = ClusterMessage.transEvent(data, 1000);
+    assertThat(message.isCompressed()).isTrue();
+
+    List<ClusterMessage> chunks = receivedChunks(message, 500);
+    assertThat(chunks.size()).isGreaterThan(1);
+    ClusterMessage assembled = ClusterMessage.assemble(chunks);
+    assertThat(assembled.isCompressed()).isTrue();
+    assertThat(assembled.getData()).isEqualTo(data);
+    assembled.release();
+    message.release();
+  }
+
+  @Test
+  void notChunkedWhenSmall() {
+    ClusterMessage message = ClusterMessage.transEvent(new byte[100]);
+    assertThat(message.chunks(100)).containsExactly(message);
+    assertThat(message.chunks(0)).containsExactly(message);
+    // retained for each list returned
+    message.release();
+    message.release();
+    assertThat(message.isReleased(1)).isTrue();
+  }
+}
@@ -0,0 +1,118 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.K8sServiceConfig;
+import io.ebean.k8scache.TestConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+  private static CircuitBreaker breaker(int windowSize, int minimumCalls) {
+    K8sServiceConfig config = TestConfig.create("127.0.0.2", "circuitWindowSize=" + windowSize,
+      "circuitMinimumCalls=" + minimumCalls, "circuitFailureRate=50", "circuitSlowCallRate=80",
+      "circuitSlowCallMillis=1000", "circuitOpenMillis=200");
+    return new CircuitBreaker(config);
+  }
+
+  @Test
+  void closedUntilMinimumCalls() {
+    CircuitBreaker breaker = breaker(10, 4);
+    breaker.failure();
+    breaker.failure();
+    breaker.failure();
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+    assertThat(breaker.isClosed()).isTrue();
+
+    breaker.failure();
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+    assertThat(breaker.isClosed()).isFalse();
+  }
+
+  @Test
+  void opensAtFailureRate() {
+    CircuitBreaker breaker = breaker(10, 4);
+    breaker.success(FAST);
+    breaker.success(FAST);
+    breaker.success(FAST);
+    breaker.failure();
+    breaker.failure();
+    // 2 of 5 failed
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+
+    breaker.failure();
+    // 3 of 6 failed
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+  }
+
+  @Test
+  void opensAtSlowCallRate() {
+    CircuitBreaker breaker = breaker(5, 5);
+    breaker.success(FAST);
+    for (int i = 0; i < 3; i++) {
+      breaker.success(SLOW);
+    }
+    breaker.success(FAST);
+    // 3 of 5 slow
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+
+    // the first fast call leaves the window, 4 of 5 slow
+    breaker.success(SLOW);
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+  }
+
+  @Test
+  void oldestOutcomesLeaveTheWindow() {
+    CircuitBreaker breaker = breaker(4, 4);
+    breaker.failure();
+    for (int i = 0; i < 5; i++) {
+      breaker.success(FAST);
+    }
+    // the failure left the window
+    breaker.failure();
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+
+    // 2 of the last 4 failed
+    breaker.failure();
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+  }
+
+  @Test
+  void halfOpenProbeClosesWithAnEmptyWindow() throws InterruptedException {
+    CircuitBreaker breaker = breaker(4, 2);
+    breaker.failure();
+    breaker.failure();
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+    assertThat(breaker.untilProbe()).isGreaterThan(0).isLessThanOrEqualTo(200);
+
+    Thread.sleep(250);
+    assertThat(breaker.untilProbe()).isEqualTo(0);
+    breaker.halfOpen();
+    assertThat(breaker.state()).isEqualTo(CircuitState.HALF_OPEN);
+    assertThat(breaker.isClosed()).isFalse();
+
+    breaker.close();
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+    // the failures before the circuit opened are forgotten
+    breaker.failure();
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+    breaker.failure();
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+  }
+
+  @Test
+  void halfOpenProbeFailsOpensAgain() {
+    CircuitBreaker breaker = breaker(4, 2);
+    breaker.open();
+    breaker.halfOpen();
+    breaker.open();
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+    assertThat(breaker.untilProbe()).isGreaterThan(0);
+  }
+}
@@ -0,0 +1,97 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.TestConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static io.ebean.k8scache.socket.TestNode.await;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClusterExecutorsTest {
+
+  /**
+   * Run tasks that block until all have started, returning the threads they ran on.
+   */
+  private static List<Thread> runBlocking(ExecutorService executor, int tasks) throws InterruptedException {
+    List<Thread> threads = new CopyOnWriteArrayList<>();
+    CountDownLatch started = new CountDownLatch(tasks);
+    try {
+      for (int i = 0; i < tasks; i++) {
+        executor.execute(() -> {
+          threads.add(Thread.currentThread());
+          started.countDown();
+          try {
+            started.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+      }
+      assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    return threads;
+  }
+
+  private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+    return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+  }
+
+  @Test
+  void platformThreadPerTask() throws InterruptedException {
+    List<Thread> threads = runBlocking(ClusterExecutors.threadPerTask("test-platform-", false), 20);
+
+    // each blocking task has its own daemon thread
+    assertThat(threads).hasSize(20).doesNotHaveDuplicates();
+    assertThat(threads).allMatch(Thread::isDaemon);
+    assertThat(threads).allMatch(thread -> thread.getName().startsWith("test-platform-"));
+  }
+
+  @Test
+  void virtualThreadPerTask() throws Exception {
+    List<Thread> threads = runBlocking(ClusterExecutors.threadPerTask("test-virtual-", true), 20);
+
+    assertThat(threads).hasSize(20).doesNotHaveDuplicates();
+    assertThat(threads).allMatch(thread -> thread.getName().startsWith("test-virtual-"));
+    if (Runtime.version().feature() >= 21) {
+      for (Thread thread : threads) {
+        assertThat(isVirtual(thread)).isTrue();
+      }
+    } else {
+      // falls back to platform threads
+      assertThat(threads).allMatch(Thread::isDaemon);
+    }
+  }
+
+  @Test
+  void virtualThreadsProperty() {
+    assertThat(TestConfig.create("127.0.0.2").isVirtualThreads()).isFalse();
+    assertThat(TestConfig.create("127.0.0.2", "virtualThreads=true").isVirtualThreads()).isTrue();
+  }
+
+  @Test
+  void membersWithVirtualThreads() throws InterruptedException {
+    List<TestNode> nodes = TestNode.startAll(asList("127.0.0.2", "127.0.0.3"),
+      "virtualThreads=true", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3");
+    try {
+      await(() -> nodes.stream().allMatch(node -> node.isConnected(1)));
+      for (int i = 0; i < 10; i++) {
+        nodes.get(0).broadcast.broadcast(TestNode.event("virtual_" + i));
+        nodes.get(1).broadcast.broadcast(TestNode.event("virtual_" + i));
+      }
+      await(() -> nodes.stream().allMatch(node -> node.receivedPrefix("virtual_") == 10));
+
+      assertThat(nodes).allMatch(node -> node.receivedPrefix("virtual_") == 10);
+    } finally {
+      nodes.forEach(TestNode::close);
+    }
+  }
+}
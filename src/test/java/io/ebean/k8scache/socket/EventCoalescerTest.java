@@ -0,0 +1,111 @@
+package io.ebean.k8scache.socket;
+
+import io.ebeaninternal.server.cluster.BinaryTransactionEventReader;
+import io.ebeaninternal.server.transaction.RemoteTransactionEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static io.ebean.k8scache.socket.TestNode.await;
+import static io.ebean.k8scache.socket.TransactionEventMergerTest.descriptor;
+import static io.ebean.k8scache.socket.TransactionEventMergerTest.persisted;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EventCoalescerTest {
+
+  private final List<byte[]> sent = new CopyOnWriteArrayList<>();
+
+  private final K8sClusterBroadcast owner = mock(K8sClusterBroadcast.class);
+
+  private final BinaryTransactionEventReader reader = mock(BinaryTransactionEventReader.class);
+
+  private final byte[] first = {1};
+
+  private final byte[] second = {2};
+
+  private final byte[] third = {3};
+
+  EventCoalescerTest() throws Exception {
+    RemoteTransactionEvent event = persisted(descriptor("customer"));
+    when(reader.read(any(byte[].class))).thenReturn(event);
+  }
+
+  /**
+   * Record the sent events, the first taking the given time to send.
+   */
+  private void recordSent(long sleepMillis) {
+    doAnswer(invocation -> {
+      if (invocation.getArgument(1) == first) {
+        Thread.sleep(sleepMillis);
+      }
+      sent.add(invocation.getArgument(1));
+      return null;
+    }).when(owner).broadcast(eq("db"), any(byte[].class));
+  }
+
+  @Test
+  void sentAtTheEndOfTheWindow() throws Exception {
+    recordSent(0);
+    EventCoalescer coalescer = new EventCoalescer(owner, reader, "test", 200, 1000);
+    coalescer.add("db", first);
+    coalescer.add("db", second);
+    assertThat(sent).isEmpty();
+
+    await(() -> sent.size() == 1);
+    // merged into one event
+    assertThat(sent.get(0)).isNotSameAs(first).isNotSameAs(second);
+    coalescer.flushAll();
+  }
+
+  @Test
+  void earlyFlushCancelsTheWindowTimer() throws Exception {
+    recordSent(0);
+    EventCoalescer coalescer = new EventCoalescer(owner, reader, "test", 600, 1000, 2);
+    coalescer.add("db", first);
+    Thread.sleep(300);
+    // full so sent early
+    coalescer.add("db", second);
+    assertThat(sent).hasSize(1);
+
+    // a new window that the timer of the first window does not end
+    coalescer.add("db", third);
+    Thread.sleep(500);
+    assertThat(sent).hasSize(1);
+
+    await(() -> sent.size() == 2);
+    assertThat(sent.get(1)).isSameAs(third);
+    coalescer.flushAll();
+  }
+
+  @Test
+  void windowsOfAServerSentInOrder() throws Exception {
+    // the first window is slow to send
+    recordSent(500);
+    EventCoalescer coalescer = new EventCoalescer(owner, reader, "test", 50, 1000, 2);
+    coalescer.add("db", first);
+    Thread.sleep(200);
+    // the full second window waits for the first to be sent
+    coalescer.add("db", second);
+    coalescer.add("db", third);
+
+    await(() -> sent.size() == 2);
+    assertThat(sent.get(0)).isSameAs(first);
+    assertThat(sent.get(1)).isNotSameAs(first);
+    coalescer.flushAll();
+  }
+
+  @Test
+  void flushAllSendsThePendingEvents() {
+    recordSent(0);
+    EventCoalescer coalescer = new EventCoalescer(owner, reader, "test", 60_000, 1000);
+    coalescer.add("db", first);
+    coalescer.flushAll();
+    assertThat(sent).containsExactly(first);
+  }
+}
@@ -0,0 +1,218 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.TestConfig;
+import io.ebean.k8scache.message.ClusterMessage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A member in the tests that replies to the hello with the given capabilities
+ * and records the messages it reads.
+ */
+class FakeMember implements AutoCloseable {
+
+  private final ServerSocket serverSocket;
+
+  private final List<Received> messages = new CopyOnWriteArrayList<>();
+
+  private final AtomicInteger connections = new AtomicInteger();
+
+  private volatile int capabilities;
+
+  private volatile boolean reading = true;
+
+  private volatile boolean replying = true;
+
+  private volatile Map<Integer, Long> lastSequences;
+
+  private volatile Integer laneCount;
+
+  private volatile Socket socket;
+
+  /**
+   * A message read with the number of the connection it was read on (from 1).
+   */
+  static final class Received {
+
+    final int connection;
+
+    final ClusterMessage message;
+
+    Received(int connection, ClusterMessage message) {
+      this.connection = connection;
+      this.message = message;
+    }
+
+    /**
+     * Return true if this is a whole data message of an event with the table.
+     */
+    boolean isEvent(String table) throws IOException {
+      if (message.getRegisterIp() != null || message.isGossip() || message.isChunk()) {
+        return false;
+      }
+      return new String(message.getData(), StandardCharsets.ISO_8859_1).contains(table);
+    }
+  }
+
+  FakeMember(String ip, int capabilities) throws IOException {
+    this.capabilities = capabilities;
+    this.serverSocket = new ServerSocket();
+    // a small window such that a large message fills the socket buffers
+    serverSocket.setReceiveBufferSize(4096);
+    bind(new InetSocketAddress(InetAddress.getByName(ip), TestConfig.PORT));
+    Thread thread = new Thread(this::accept, "fake-member-" + ip);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Bind retrying for a while as the connections of the previous test may still be closing.
+   */
+  private void bind(InetSocketAddress address) throws IOException {
+    long until = System.currentTimeMillis() + 5_000;
+    while (true) {
+      try {
+        serverSocket.bind(address);
+        return;
+      } catch (BindException e) {
+        if (System.currentTimeMillis() > until) {
+          throw e;
+        }
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Set the capabilities replied to the next hello.
+   */
+  void capabilities(int capabilities) {
+    this.capabilities = capabilities;
+  }
+
+  /**
+   * Resume the next connections replying the last sequence number received on each lane.
+   */
+  void resume(Map<Integer, Long> lastSequences) {
+    this.lastSequences = lastSequences;
+  }
+
+  /**
+   * Reply the given number of lanes to the next hello rather than the number resumed.
+   */
+  void laneCount(int laneCount) {
+    this.laneCount = laneCount;
+  }
+
+  /**
+   * Set false to accept the next connections without replying to their hello.
+   */
+  void replying(boolean replying) {
+    this.replying = replying;
+  }
+
+  /**
+   * Set false to stop reading the messages such that the sender blocks.
+   */
+  void reading(boolean reading) {
+    this.reading = reading;
+  }
+
+  /**
+   * Reset the current connection.
+   */
+  void reset() throws IOException {
+    Socket current = socket;
+    if (current != null && !current.isClosed()) {
+      current.setSoLinger(true, 0);
+      current.close();
+    }
+  }
+
+  int connections() {
+    return connections.get();
+  }
+
+  List<Received> messages() {
+    return messages;
+  }
+
+  private void accept() {
+    try {
+      while (!serverSocket.isClosed()) {
+        Socket accepted = serverSocket.accept();
+        Thread thread = new Thread(() -> read(accepted));
+        thread.setDaemon(true);
+        thread.start();
+      }
+    } catch (IOException e) {
+      // closed
+    }
+  }
+
+  private void read(Socket accepted) {
+    try (Socket current = accepted) {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(current.getInputStream()));
+      if (input.readInt() != MsgKeys.HELLO_V2) {
+        return;
+      }
+      while (!replying) {
+        Thread.sleep(10);
+      }
+      input.readUTF();
+      int version = input.readInt();
+      Map<Integer, Long> resumed = lastSequences;
+      int settled = input.readInt() & capabilities;
+      if (resumed == null) {
+        settled &= ~MsgKeys.CAP_RESUME;
+      }
+      input.readLong();
+      DataOutputStream output = new DataOutputStream(current.getOutputStream());
+      output.writeInt(Math.min(version, MsgKeys.PROTOCOL_VERSION));
+      output.writeInt(settled);
+      if ((settled & MsgKeys.CAP_RESUME) != 0) {
+        Integer count = laneCount;
+        output.writeInt(count == null ? resumed.size() : count);
+        for (Map.Entry<Integer, Long> entry : resumed.entrySet()) {
+          output.writeInt(entry.getKey());
+          output.writeLong(entry.getValue());
+        }
+      }
+      output.flush();
+      this.socket = current;
+      int connection = connections.incrementAndGet();
+      while (true) {
+        while (!reading) {
+          Thread.sleep(10);
+        }
+        messages.add(new Received(connection, ClusterMessage.read(input)));
+      }
+    } catch (Exception e) {
+      // the connection was closed
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    reset();
+  }
+}
@@ -0,0 +1,80 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.message.ClusterMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FrameInputTest {
+
+  /**
+   * Return the frame of a data message with the given data.
+   */
+  static byte[] frame(byte[] data) throws Exception {
+    ClusterMessage message = ClusterMessage.transEvent(data);
+    List<ByteBuffer> buffers = new ArrayList<>();
+    message.encode(buffers, 0);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (ByteBuffer buffer : buffers) {
+      byte[] array = new byte[buffer.remaining()];
+      buffer.get(array);
+      bytes.write(array);
+    }
+    message.release();
+    return bytes.toByteArray();
+  }
+
+  @Test
+  void partialFrameEndsWithShortfall() throws Exception {
+    byte[] frame = frame("partial_frame".getBytes(StandardCharsets.ISO_8859_1));
+    FrameInput input = new FrameInput();
+    DataInputStream dataInput = new DataInputStream(input);
+
+    // all but the last 3 bytes received
+    ByteBuffer buffer = ByteBuffer.wrap(frame, 0, frame.length - 3);
+    input.reset(buffer);
+    assertThatThrownBy(() -> ClusterMessage.read(dataInput)).isInstanceOf(EOFException.class);
+    assertThat(input.shortfall()).isEqualTo(3);
+
+    // the whole frame decodes from the start
+    input.reset(ByteBuffer.wrap(frame));
+    assertThat(input.shortfall()).isEqualTo(0);
+    ClusterMessage message = ClusterMessage.read(dataInput);
+    assertThat(new String(message.getData(), StandardCharsets.ISO_8859_1)).isEqualTo("partial_frame");
+    assertThat(input.available()).isEqualTo(0);
+  }
+
+  @Test
+  void partialHeader() {
+    FrameInput input = new FrameInput();
+    input.reset(ByteBuffer.wrap(new byte[]{0, 0}));
+    DataInputStream dataInput = new DataInputStream(input);
+    assertThatThrownBy(dataInput::readInt).isInstanceOf(EOFException.class);
+    assertThat(input.shortfall()).isGreaterThan(0);
+  }
+
+  @Test
+  void framesReadInTurn() throws Exception {
+    byte[] first = frame("first".getBytes(StandardCharsets.ISO_8859_1));
+    byte[] second = frame("second".getBytes(StandardCharsets.ISO_8859_1));
+    ByteBuffer buffer = ByteBuffer.allocate(first.length + second.length + 4);
+    buffer.put(first).put(second).put(new byte[]{0, 0, 0, 0}).flip();
+
+    FrameInput input = new FrameInput();
+    DataInputStream dataInput = new DataInputStream(input);
+    input.reset(buffer);
+    assertThat(ClusterMessage.read(dataInput).getData()).isEqualTo("first".getBytes(StandardCharsets.ISO_8859_1));
+    assertThat(ClusterMessage.read(dataInput).getData()).isEqualTo("second".getBytes(StandardCharsets.ISO_8859_1));
+    // the start of a third frame
+    assertThat(buffer.remaining()).isEqualTo(4);
+  }
+}
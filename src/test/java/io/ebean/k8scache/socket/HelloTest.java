@@ -0,0 +1,98 @@
+package io.ebean.k8scache.socket;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HelloTest {
+
+  /**
+   * Return the hello after its key with the member followed by the given ints and longs.
+   */
+  private static DataInputStream input(Object... values) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeUTF("127.0.0.3");
+    for (Object value : values) {
+      if (value instanceof Long) {
+        output.writeLong((Long) value);
+      } else {
+        output.writeInt((Integer) value);
+      }
+    }
+    return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  @Test
+  void helloWithoutReply() throws IOException {
+    assertThat(Hello.isHello(MsgKeys.HELLO)).isTrue();
+    Hello hello = Hello.read(MsgKeys.HELLO, input());
+
+    assertThat(hello.member()).isEqualTo("127.0.0.3");
+    assertThat(hello.epoch()).isEqualTo(0);
+    assertThat(hello.reply(Collections.singletonMap(0, 5L))).isNull();
+  }
+
+  @Test
+  void resumeRepliedWithTheLastSequences() throws IOException {
+    assertThat(Hello.isHello(MsgKeys.HELLO_V2)).isTrue();
+    Hello hello = Hello.read(MsgKeys.HELLO_V2, input(MsgKeys.PROTOCOL_VERSION, MsgKeys.CAP_RESUME, 42L));
+    assertThat(hello.epoch()).isEqualTo(42);
+
+    Map<Integer, Long> lastSequences = new LinkedHashMap<>();
+    lastSequences.put(0, 5L);
+    lastSequences.put(3, 9L);
+    ByteBuffer reply = hello.reply(lastSequences);
+    assertThat(reply.remaining()).isEqualTo(8 + 4 + 2 * 12);
+    assertThat(reply.getInt()).isEqualTo(MsgKeys.PROTOCOL_VERSION);
+    assertThat(reply.getInt()).isEqualTo(MsgKeys.CAP_RESUME);
+    assertThat(reply.getInt()).isEqualTo(2);
+    assertThat(reply.getInt()).isEqualTo(0);
+    assertThat(reply.getLong()).isEqualTo(5);
+    assertThat(reply.getInt()).isEqualTo(3);
+    assertThat(reply.getLong()).isEqualTo(9);
+
+    // nothing received yet
+    ByteBuffer empty = hello.reply(Collections.emptyMap());
+    assertThat(empty.remaining()).isEqualTo(8 + 4);
+    empty.position(8);
+    assertThat(empty.getInt()).isEqualTo(0);
+  }
+
+  @Test
+  void negotiatedVersionAndCapabilities() throws IOException {
+    // a newer member with capabilities unknown to this one
+    Hello hello = Hello.read(MsgKeys.HELLO_V2, input(MsgKeys.PROTOCOL_VERSION + 1, MsgKeys.CAP_DEFLATE | MsgKeys.CAP_RESUME | 1 << 30, 7L));
+    assertThat(hello.epoch()).isEqualTo(7);
+
+    ByteBuffer reply = hello.reply(Collections.singletonMap(1, 3L));
+    assertThat(reply.getInt()).isEqualTo(MsgKeys.PROTOCOL_VERSION);
+    assertThat(reply.getInt()).isEqualTo(MsgKeys.CAP_DEFLATE | MsgKeys.CAP_RESUME);
+    assertThat(reply.getInt()).isEqualTo(1);
+    assertThat(reply.getInt()).isEqualTo(1);
+    assertThat(reply.getLong()).isEqualTo(3);
+    assertThat(reply.hasRemaining()).isFalse();
+  }
+
+  @Test
+  void negotiatedWithoutResume() throws IOException {
+    Hello hello = Hello.read(MsgKeys.HELLO_V2, input(1, MsgKeys.CAP_SEQUENCE, 7L));
+    // the epoch only identifies a member that resumes
+    assertThat(hello.epoch()).isEqualTo(0);
+
+    ByteBuffer reply = hello.reply(Collections.singletonMap(1, 3L));
+    assertThat(reply.remaining()).isEqualTo(8);
+    assertThat(reply.getInt()).isEqualTo(1);
+    assertThat(reply.getInt()).isEqualTo(MsgKeys.CAP_SEQUENCE);
+  }
+}
@@ -0,0 +1,101 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.TestConfig;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static io.ebean.k8scache.socket.FrameInputTest.frame;
+import static io.ebean.k8scache.socket.TestNode.await;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NioClusterListenerTest {
+
+  private static byte[] hello(String ip) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(MsgKeys.HELLO);
+    output.writeUTF(ip);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] eventFrame(String table, int tables) throws Exception {
+    return frame(TestNode.largeEvent(table, tables).writeBinaryAsBytes(256));
+  }
+
+  private static Socket connect() throws Exception {
+    Socket socket = new Socket();
+    socket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.3"), 0));
+    socket.connect(new InetSocketAddress("127.0.0.2", TestConfig.PORT), 2000);
+    socket.setTcpNoDelay(true);
+    return socket;
+  }
+
+  @Test
+  void framesSplitAcrossReads() throws Exception {
+    try (TestNode node = TestNode.start("127.0.0.2", "nioListener=true", "membership=STATIC", "staticMembers=127.0.0.2");
+         Socket socket = connect()) {
+      OutputStream output = socket.getOutputStream();
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      stream.write(hello("127.0.0.3"));
+      stream.write(eventFrame("split_0", 0));
+      stream.write(eventFrame("split_1", 0));
+      // written a few bytes at a time such that the frames are received in parts
+      byte[] bytes = stream.toByteArray();
+      for (int i = 0; i < bytes.length; i += 3) {
+        output.write(bytes, i, Math.min(3, bytes.length - i));
+        output.flush();
+        Thread.sleep(1);
+      }
+      await(() -> node.receivedPrefix("split_") == 2);
+
+      assertThat(node.receivedPrefix("split_")).isEqualTo(2);
+    }
+  }
+
+  @Test
+  void frameLargerThanTheBuffer() throws Exception {
+    try (TestNode node = TestNode.start("127.0.0.2", "nioListener=true", "membership=STATIC", "staticMembers=127.0.0.2");
+         Socket socket = connect()) {
+      DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+      output.write(hello("127.0.0.3"));
+      // much larger than the 8KB read buffer, followed by a small frame
+      output.write(eventFrame("large_0", 2000));
+      output.write(eventFrame("small_0", 0));
+      output.flush();
+      await(() -> node.receivedPrefix("small_") == 1);
+
+      assertThat(node.receivedPrefix("large_")).isEqualTo(1);
+      assertThat(node.receivedPrefix("small_")).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void invalidHelloClosesTheConnection() throws Exception {
+    try (TestNode node = TestNode.start("127.0.0.2", "nioListener=true", "membership=STATIC", "staticMembers=127.0.0.2");
+         Socket socket = connect()) {
+      DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+      output.writeInt(12345);
+      output.writeUTF("127.0.0.3");
+      output.flush();
+      socket.setSoTimeout(5000);
+
+      assertThat(socket.getInputStream().read()).isEqualTo(-1);
+
+      // the listener still accepts the member connecting again
+      try (Socket again = connect()) {
+        DataOutputStream valid = new DataOutputStream(again.getOutputStream());
+        valid.write(hello("127.0.0.3"));
+        valid.write(eventFrame("again_0", 0));
+        valid.flush();
+        await(() -> node.receivedPrefix("again_") == 1);
+      }
+      assertThat(node.receivedPrefix("again_")).isEqualTo(1);
+    }
+  }
+}
@@ -0,0 +1,424 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.message.ClusterMessage;
+import io.ebeaninternal.api.SpiEbeanServer;
+import io.ebeaninternal.server.cache.CacheChangeSet;
+import io.ebeaninternal.server.deploy.BeanDescriptor;
+import io.ebeaninternal.server.transaction.BeanPersistIds;
+import io.ebeaninternal.server.transaction.RemoteTransactionEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.ebean.k8scache.socket.TestNode.await;
+import static io.ebean.k8scache.socket.TransactionEventMergerTest.descriptor;
+import static io.ebean.k8scache.socket.TransactionEventMergerTest.persisted;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReceivePipelineTest {
+
+  private final K8sClusterBroadcast owner = mock(K8sClusterBroadcast.class);
+
+  /**
+   * The member and number of each message applied.
+   */
+  private final List<String> applied = new CopyOnWriteArrayList<>();
+
+  /**
+   * Blocks applying the messages of the given member until released.
+   */
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  /**
+   * Decode the messages into actions recording the member and number in the message.
+   */
+  private void decodeNumbered(String blockedMember) throws Exception {
+    when(owner.decode(any())).thenAnswer(invocation -> {
+      String[] memberNumber = ((ClusterMessage) invocation.getArgument(0)).getDataInput().readUTF().split(":");
+      return (Runnable) () -> {
+        if (memberNumber[0].equals(blockedMember)) {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        applied.add(memberNumber[0] + ":" + memberNumber[1]);
+      };
+    });
+  }
+
+  private static ClusterMessage numbered(String member, int number) throws Exception {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    new DataOutputStream(buffer).writeUTF(member + ":" + number);
+    return ClusterMessage.transEvent(buffer.toByteArray());
+  }
+
+  private List<String> appliedFrom(String member) {
+    List<String> numbers = new ArrayList<>();
+    for (String memberNumber : applied) {
+      if (memberNumber.startsWith(member + ":")) {
+        numbers.add(memberNumber.substring(member.length() + 1));
+      }
+    }
+    return numbers;
+  }
+
+  private static List<String> numbers(int count) {
+    List<String> numbers = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      numbers.add(String.valueOf(i));
+    }
+    return numbers;
+  }
+
+  @Test
+  void appliedInOrderPerMember() throws Exception {
+    decodeNumbered(null);
+    ReceivePipeline pipeline = new ReceivePipeline(owner, "test", 4, 10, false, 1000);
+    try {
+      List<Thread> readers = new ArrayList<>();
+      for (String member : new String[]{"127.0.0.3", "127.0.0.4", "127.0.0.5"}) {
+        ReceivePipeline.Source source = pipeline.source(member);
+        readers.add(new Thread(() -> {
+          try {
+            for (int i = 0; i < 500; i++) {
+              source.put(numbered(member, i));
+            }
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        }));
+      }
+      readers.forEach(Thread::start);
+      for (Thread reader : readers) {
+        reader.join();
+      }
+      await(() -> applied.size() == 1500);
+
+      assertThat(applied).hasSize(1500);
+      assertThat(appliedFrom("127.0.0.3")).isEqualTo(numbers(500));
+      assertThat(appliedFrom("127.0.0.4")).isEqualTo(numbers(500));
+      assertThat(appliedFrom("127.0.0.5")).isEqualTo(numbers(500));
+      assertThat(pipeline.getStatus().getDecoded()).isEqualTo(1500);
+      assertThat(pipeline.getStatus().getApplied()).isEqualTo(1500);
+      // the queues were bounded
+      assertThat(pipeline.getStatus().getMaxDecodeQueueDepth()).isLessThanOrEqualTo(10);
+      assertThat(pipeline.getStatus().getMaxApplyQueueDepth()).isLessThanOrEqualTo(10);
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  @Test
+  void fullQueuesPushBackOnTheReader() throws Exception {
+    decodeNumbered("127.0.0.3");
+    ReceivePipeline pipeline = new ReceivePipeline(owner, "test", 2, 4, false, 1000);
+    try {
+      ReceivePipeline.Source source = pipeline.source("127.0.0.3");
+      AtomicInteger spaceNotified = new AtomicInteger();
+      source.onSpace(spaceNotified::incrementAndGet);
+
+      // one applying, 4 queued to apply and 4 queued to decode
+      int offered = 0;
+      while (source.offer(numbered("127.0.0.3", offered))) {
+        offered++;
+        assertThat(offered).isLessThan(20);
+        Thread.sleep(20);
+      }
+      assertThat(offered).isEqualTo(9);
+      assertThat(pipeline.getStatus().getDecodeQueueDepth()).isEqualTo(4);
+      assertThat(pipeline.getStatus().getApplyQueueDepth()).isEqualTo(4);
+      assertThat(spaceNotified.get()).isEqualTo(0);
+
+      // the reader is told when there is space again
+      release.countDown();
+      await(() -> spaceNotified.get() == 1);
+      assertThat(spaceNotified.get()).isEqualTo(1);
+      for (int i = offered; i < 20; i++) {
+        source.put(numbered("127.0.0.3", i));
+      }
+      await(() -> applied.size() == 20);
+      assertThat(appliedFrom("127.0.0.3")).isEqualTo(numbers(20));
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  @Test
+  void slowMemberDoesNotHoldUpOthers() throws Exception {
+    decodeNumbered("127.0.0.3");
+    ReceivePipeline pipeline = new ReceivePipeline(owner, "test", 2, 4, false, 1000);
+    try {
+      ReceivePipeline.Source slow = pipeline.source("127.0.0.3");
+      for (int i = 0; i < 5; i++) {
+        slow.put(numbered("127.0.0.3", i));
+      }
+      ReceivePipeline.Source other = pipeline.source("127.0.0.4");
+      for (int i = 0; i < 100; i++) {
+        other.put(numbered("127.0.0.4", i));
+      }
+      await(() -> appliedFrom("127.0.0.4").size() == 100);
+
+      assertThat(appliedFrom("127.0.0.4")).isEqualTo(numbers(100));
+      assertThat(appliedFrom("127.0.0.3")).isEmpty();
+      release.countDown();
+      await(() -> appliedFrom("127.0.0.3").size() == 5);
+      assertThat(appliedFrom("127.0.0.3")).isEqualTo(numbers(5));
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  private static ClusterMessage sequenced(int lane, long sequence) throws Exception {
+    ClusterMessage message = numbered("127.0.0.3", (int) sequence);
+    message.setLane(lane);
+    message.setSequence(sequence);
+    return message;
+  }
+
+  @Test
+  void gapDetectedPerLaneBeforeLaterEvents() throws Exception {
+    decodeNumbered(null);
+    List<String> gaps = new CopyOnWriteArrayList<>();
+    List<Integer> appliedAtGap = new CopyOnWriteArrayList<>();
+    doAnswer(invocation -> {
+      gaps.add(invocation.getArgument(1) + ":" + invocation.getArgument(2) + "-" + invocation.getArgument(3));
+      appliedAtGap.add(applied.size());
+      return null;
+    }).when(owner).gapDetected(eq("127.0.0.3"), anyInt(), anyLong(), anyLong());
+
+    ReceivePipeline pipeline = new ReceivePipeline(owner, "test", 1, 100, false, 1000);
+    try {
+      ReceivePipeline.Source source = pipeline.source("127.0.0.3");
+      for (long sequence : new long[]{1, 2, 4, 5}) {
+        source.put(sequenced(1, sequence));
+      }
+      await(() -> applied.size() == 4);
+      for (long sequence : new long[]{1, 2, 3, 7}) {
+        source.put(sequenced(2, sequence));
+      }
+      await(() -> applied.size() == 8);
+
+      assertThat(gaps).containsExactly("1:3-4", "2:4-7");
+      // the messages after the gap were not applied before it was recovered
+      assertThat(appliedAtGap.get(0)).isLessThanOrEqualTo(2);
+      assertThat(appliedAtGap.get(1)).isBetween(4, 7);
+      assertThat(pipeline.getStatus().getGaps()).isEqualTo(2);
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  @Test
+  void lanesOfATableAppliedIndependently() throws Exception {
+    BeanDescriptor<?> order = descriptor("order");
+    List<RemoteTransactionEvent> appliedEvents = new CopyOnWriteArrayList<>();
+    SpiEbeanServer server = mock(SpiEbeanServer.class);
+    when(server.name()).thenReturn("db");
+    doAnswer(invocation -> {
+      RemoteTransactionEvent event = invocation.getArgument(0);
+      CacheChangeSet changes = new CacheChangeSet();
+      for (BeanPersistIds persistIds : event.getBeanPersistList()) {
+        persistIds.notifyCache(changes);
+      }
+      changes.apply();
+      return appliedEvents.add(event);
+    }).when(server).remoteTransactionEvent(any());
+
+    RemoteTransactionEvent small = persisted(order, 1);
+    small.setServer(server);
+    RemoteTransactionEvent bulk = persisted(order, 2, 3);
+    bulk.setServer(server);
+    // the normal lane has a backlog when the bulk event of the table is received
+    when(owner.decode(any())).thenAnswer(invocation -> {
+      if (((ClusterMessage) invocation.getArgument(0)).getLane() == 2) {
+        return bulk;
+      }
+      return (Runnable) () -> {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        small.run();
+      };
+    });
+
+    ReceivePipeline pipeline = new ReceivePipeline(owner, "test", 2, 100, false, 1000);
+    try {
+      ReceivePipeline.Source source = pipeline.source("127.0.0.3");
+      source.put(sequenced(1, 1));
+      source.put(sequenced(2, 1));
+      await(() -> !appliedEvents.isEmpty());
+      assertThat(appliedEvents).containsExactly(bulk);
+
+      release.countDown();
+      await(() -> appliedEvents.size() == 2);
+      // the event received first is applied last, and both invalidate the beans
+      assertThat(appliedEvents).containsExactly(bulk, small);
+      verify(order).cacheApplyInvalidate(argThat((Collection<Object> ids) -> ids.size() == 2));
+      verify(order).cacheApplyInvalidate(argThat((Collection<Object> ids) -> ids.size() == 1));
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  /**
+   * Return the chunks of a message of the given data on the lane as read by the member.
+   */
+  private static List<ClusterMessage> chunks(int lane, byte[] data, int chunkBytes) throws Exception {
+    ClusterMessage message = ClusterMessage.transEvent(data);
+    message.setLane(lane);
+    List<ClusterMessage> received = new ArrayList<>();
+    for (ClusterMessage chunk : message.chunks(chunkBytes)) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      chunk.write(new DataOutputStream(bytes));
+      chunk.release();
+      received.add(ClusterMessage.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+    message.release();
+    return received;
+  }
+
+  private static byte[] data(int length, int seed) {
+    byte[] data = new byte[length];
+    new Random(seed).nextBytes(data);
+    return data;
+  }
+
+  @Test
+  void chunksOfEachLaneAssembled() throws Exception {
+    ReceivePipeline pipeline = new ReceivePipeline(owner, "test", 1, 100, false, 1000);
+    try {
+      ReceivePipeline.Source source = pipeline.source("127.0.0.3");
+      byte[] first = data(10_000, 1);
+      byte[] second = data(7_000, 2);
+      List<ClusterMessage> firstChunks = chunks(1, first, 3000);
+      List<ClusterMessage> secondChunks = chunks(2, second, 3000);
+
+      // the chunks of the lanes are interleaved
+      assertThat(source.accept(firstChunks.get(0))).isNull();
+      assertThat(source.accept(secondChunks.get(0))).isNull();
+      assertThat(source.accept(firstChunks.get(1))).isNull();
+      assertThat(source.accept(secondChunks.get(1))).isNull();
+      ClusterMessage secondMessage = source.accept(secondChunks.get(2));
+      assertThat(source.accept(firstChunks.get(2))).isNull();
+      ClusterMessage firstMessage = source.accept(firstChunks.get(3));
+
+      assertThat(firstMessage.getLane()).isEqualTo(1);
+      assertThat(firstMessage.getData()).isEqualTo(first);
+      assertThat(secondMessage.getLane()).isEqualTo(2);
+      assertThat(secondMessage.getData()).isEqualTo(second);
+      firstMessage.release();
+      secondMessage.release();
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  @Test
+  void partialChunksDropped() throws Exception {
+    ReceivePipeline pipeline = new ReceivePipeline(owner, "test", 1, 100, false, 1000);
+    try {
+      ReceivePipeline.Source source = pipeline.source("127.0.0.3");
+      List<ClusterMessage> lost = chunks(1, data(10_000, 1), 3000);
+      assertThat(source.accept(lost.get(0))).isNull();
+      assertThat(source.accept(lost.get(1))).isNull();
+
+      // the member connected again so the rest of the message was lost
+      source.hello(0);
+      assertThat(lost.get(0).isReleased(0)).isTrue();
+      assertThat(lost.get(1).isReleased(0)).isTrue();
+      // a chunk without the start of its message
+      assertThat(source.accept(lost.get(2))).isNull();
+      assertThat(lost.get(2).isReleased(0)).isTrue();
+
+      byte[] data = data(10_000, 3);
+      List<ClusterMessage> sent = chunks(1, data, 3000);
+      ClusterMessage message = null;
+      for (ClusterMessage chunk : sent) {
+        message = source.accept(chunk);
+      }
+      assertThat(message.getData()).isEqualTo(data);
+      message.release();
+
+      // a new message started before the last ended
+      List<ClusterMessage> cut = chunks(1, data(10_000, 4), 3000);
+      assertThat(source.accept(cut.get(0))).isNull();
+      List<ClusterMessage> whole = chunks(1, data, 6000);
+      assertThat(source.accept(whole.get(0))).isNull();
+      assertThat(cut.get(0).isReleased(0)).isTrue();
+      message = source.accept(whole.get(1));
+      assertThat(message.getData()).isEqualTo(data);
+      message.release();
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  @Test
+  void mergeQueuedInsertOnlyAndUpdate() throws Exception {
+    BeanDescriptor<?> customer = descriptor("customer");
+    BeanDescriptor<?> order = descriptor("order");
+    List<RemoteTransactionEvent> appliedEvents = new CopyOnWriteArrayList<>();
+    SpiEbeanServer server = mock(SpiEbeanServer.class);
+    when(server.name()).thenReturn("db");
+    doAnswer(invocation -> appliedEvents.add(invocation.getArgument(0))).when(server).remoteTransactionEvent(any());
+
+    RemoteTransactionEvent insert = persisted(customer);
+    insert.setServer(server);
+    RemoteTransactionEvent update = persisted(order, 1, 2);
+    update.setServer(server);
+
+    // the apply stage waits on the first message while the events queue up behind it
+    CountDownLatch applying = new CountDownLatch(1);
+    Runnable blocking = () -> {
+      try {
+        applying.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    when(owner.decode(any())).thenReturn(blocking, insert, update);
+
+    ReceivePipeline pipeline = new ReceivePipeline(owner, "test", 1, 100, true, 1000);
+    try {
+      ReceivePipeline.Source source = pipeline.source("127.0.0.3");
+      for (int i = 0; i < 3; i++) {
+        assertThat(source.offer(ClusterMessage.transEvent(new byte[]{1}))).isTrue();
+      }
+      await(() -> pipeline.getStatus().getDecoded() == 3);
+      applying.countDown();
+      await(() -> !appliedEvents.isEmpty());
+
+      assertThat(appliedEvents).hasSize(1);
+      assertThat(pipeline.getStatus().getMerged()).isEqualTo(1);
+      List<BeanPersistIds> merged = appliedEvents.get(0).getBeanPersistList();
+      assertThat(merged).extracting(BeanPersistIds::getBeanDescriptor).containsExactly(customer, order);
+      assertThat(merged.get(0).getIds()).isNull();
+      assertThat(merged.get(1).getIds()).containsExactly(1, 2);
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+}
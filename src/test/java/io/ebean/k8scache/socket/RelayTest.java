@@ -0,0 +1,87 @@
+package io.ebean.k8scache.socket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.ebean.k8scache.socket.TestNode.await;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RelayTest {
+
+  private static final List<String> IPS = Arrays.asList("127.0.0.2", "127.0.0.3", "127.0.0.4");
+
+  private final List<TestNode> nodes = new ArrayList<>();
+
+  @AfterEach
+  void shutdown() {
+    for (TestNode node : nodes) {
+      node.close();
+    }
+  }
+
+  private void start(String... properties) throws InterruptedException {
+    List<String> all = new ArrayList<>(Arrays.asList(properties));
+    all.add("membership=STATIC");
+    all.add("staticMembers=" + String.join(",", IPS));
+    nodes.addAll(TestNode.startAll(IPS, all.toArray(new String[0])));
+    await(() -> nodes.stream().allMatch(node -> node.isConnected(IPS.size() - 1)));
+    assertThat(nodes).allMatch(node -> node.isConnected(IPS.size() - 1));
+  }
+
+  @Test
+  void relayedAndChunkedWithSequenceNumbers() throws InterruptedException {
+    // the last member is sent the relayed messages by the second only
+    start("relayFanout=1", "sequenceNumbers=true", "chunkBytes=4096");
+    TestNode sender = nodes.get(0);
+    for (int i = 0; i < 20; i++) {
+      sender.broadcast.broadcast(TestNode.event("small_" + i));
+      sender.broadcast.broadcast(TestNode.largeEvent("large_" + i, 500));
+    }
+    List<TestNode> receivers = nodes.subList(1, nodes.size());
+    await(() -> receivers.stream().allMatch(node -> node.receivedPrefix("small_") == 20 && node.receivedPrefix("large_") == 20));
+
+    for (TestNode node : receivers) {
+      assertThat(node.receivedPrefix("small_")).isEqualTo(20);
+      assertThat(node.receivedPrefix("large_")).isEqualTo(20);
+      assertThat(node.broadcast.getStatus().getReceive().getGaps()).isEqualTo(0);
+    }
+    assertThat(sender.broadcast.getStatus().getRelay().getRelayed()).isEqualTo(20);
+    assertThat(nodes.get(1).broadcast.getStatus().getRelay().getForwarded()).isEqualTo(20);
+  }
+
+  @Test
+  void relayedOnceIntoEachOtherZone() throws InterruptedException {
+    List<String> ips = Arrays.asList("127.0.0.12", "127.0.0.13", "127.0.0.14", "127.0.0.15");
+    nodes.addAll(TestNode.startAll(ips, "relayZones=true", "membership=STATIC",
+      "staticMembers=127.0.0.12@zone-a,127.0.0.13@zone-b,127.0.0.14@zone-b,127.0.0.15@zone-b"));
+    await(() -> nodes.stream().allMatch(node -> node.isConnected(ips.size() - 1)));
+    TestNode sender = nodes.get(0);
+    for (int i = 0; i < 20; i++) {
+      sender.broadcast.broadcast(TestNode.event("zone_" + i));
+    }
+    List<TestNode> receivers = nodes.subList(1, nodes.size());
+    await(() -> receivers.stream().allMatch(node -> node.receivedPrefix("zone_") == 20));
+
+    long direct = 0;
+    long relayed = 0;
+    for (TestNode node : receivers) {
+      assertThat(node.receivedPrefix("zone_")).isEqualTo(20);
+      SocketRelayStatus status = node.broadcast.getStatus().getRelay();
+      assertThat(status.getZone()).isEqualTo("zone-b");
+      direct += status.getDirectReceived();
+      relayed += status.getRelayedReceived();
+    }
+    // sent across to one member of zone-b which sent them on to the other two
+    assertThat(direct).isEqualTo(20);
+    assertThat(relayed).isEqualTo(40);
+    assertThat(receivers.stream().mapToLong(node -> node.broadcast.getStatus().getRelay().getForwarded()).sum()).isEqualTo(40);
+    SocketRelayStatus status = sender.broadcast.getStatus().getRelay();
+    assertThat(status.getZone()).isEqualTo("zone-a");
+    assertThat(status.getRelayed()).isEqualTo(20);
+    assertThat(status.getCrossZoneBytes()).isGreaterThan(0);
+  }
+}
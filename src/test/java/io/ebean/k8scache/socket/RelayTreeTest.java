@@ -0,0 +1,130 @@
+package io.ebean.k8scache.socket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RelayTreeTest {
+
+  private static final List<String> IPS = asList("10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4", "10.0.0.5", "10.0.0.6", "10.0.0.7");
+
+  private static List<String> children(String local, String origin, int fanout) {
+    List<String> others = new ArrayList<>(IPS);
+    others.remove(local);
+    return new RelayTree(local).children(origin, fanout, others);
+  }
+
+  @Test
+  void childrenOfTheTree() {
+    // positions counted from the origin 10.0.0.3
+    assertThat(children("10.0.0.3", "10.0.0.3", 2)).containsExactly("10.0.0.4", "10.0.0.5");
+    assertThat(children("10.0.0.4", "10.0.0.3", 2)).containsExactly("10.0.0.6", "10.0.0.7");
+    assertThat(children("10.0.0.5", "10.0.0.3", 2)).containsExactly("10.0.0.1", "10.0.0.2");
+    assertThat(children("10.0.0.6", "10.0.0.3", 2)).isEmpty();
+  }
+
+  @Test
+  void eachMemberReachedOnce() {
+    for (String origin : IPS) {
+      for (int fanout = 1; fanout <= 3; fanout++) {
+        Set<String> reached = new HashSet<>();
+        reached.add(origin);
+        int sent = 0;
+        for (String local : IPS) {
+          List<String> children = children(local, origin, fanout);
+          reached.addAll(children);
+          sent += children.size();
+        }
+        assertThat(reached).containsExactlyInAnyOrderElementsOf(IPS);
+        assertThat(sent).isEqualTo(IPS.size() - 1);
+      }
+    }
+  }
+
+  @Test
+  void zoneRelaySpreadBySender() {
+    List<String> zone = asList("10.0.1.3", "10.0.1.1", "10.0.1.2");
+    // the same relay whatever the order of the members
+    String relay = new RelayTree("10.0.0.1").zoneRelay(zone);
+    assertThat(relay).isEqualTo(new RelayTree("10.0.0.1").zoneRelay(asList("10.0.1.1", "10.0.1.2", "10.0.1.3")));
+    assertThat(zone).contains(relay);
+
+    Set<String> relays = new HashSet<>();
+    for (int i = 1; i < 50; i++) {
+      relays.add(new RelayTree("10.0.0." + i).zoneRelay(zone));
+    }
+    assertThat(relays).containsExactlyInAnyOrderElementsOf(zone);
+  }
+
+  @Test
+  void copiesAcceptedOnce() {
+    RelayTree tree = new RelayTree("10.0.0.1");
+    assertThat(tree.accept("10.0.0.2", 1, 0, 1)).isEqualTo(0);
+    assertThat(tree.accept("10.0.0.2", 1, 0, 3)).isEqualTo(1);
+    // received out of order over another path
+    assertThat(tree.accept("10.0.0.2", 1, 0, 2)).isEqualTo(3);
+    assertThat(tree.accept("10.0.0.2", 1, 0, 2)).isEqualTo(-1);
+    assertThat(tree.accept("10.0.0.2", 1, 0, 3)).isEqualTo(-1);
+    // other lanes and origins have their own numbers
+    assertThat(tree.accept("10.0.0.2", 1, 1, 3)).isEqualTo(0);
+    assertThat(tree.accept("10.0.0.3", 1, 0, 3)).isEqualTo(0);
+    assertThat(tree.getStatus(null, 0, 0).getDuplicates()).isEqualTo(2);
+  }
+
+  @Test
+  void windowSlides() {
+    RelayTree tree = new RelayTree("10.0.0.1");
+    for (long sequence = 1; sequence <= 3000; sequence++) {
+      assertThat(tree.accept("10.0.0.2", 1, 0, sequence)).isEqualTo(sequence - 1);
+    }
+    assertThat(tree.accept("10.0.0.2", 1, 0, 2990)).isEqualTo(-1);
+    // older than the window
+    assertThat(tree.accept("10.0.0.2", 1, 0, 1000)).isEqualTo(-1);
+
+    // a jump clears the numbers that moved into the window
+    assertThat(tree.accept("10.0.0.2", 1, 0, 5000)).isEqualTo(3000);
+    assertThat(tree.accept("10.0.0.2", 1, 0, 4500)).isEqualTo(5000);
+  }
+
+  @Test
+  void restartedOrLeftOriginStartsAgain() {
+    RelayTree tree = new RelayTree("10.0.0.1");
+    tree.accept("10.0.0.2", 1, 0, 5);
+    // a new instance of the origin numbers from the start
+    assertThat(tree.accept("10.0.0.2", 2, 0, 1)).isEqualTo(0);
+    assertThat(tree.accept("10.0.0.2", 2, 0, 1)).isEqualTo(-1);
+
+    tree.remove("10.0.0.2");
+    assertThat(tree.accept("10.0.0.2", 2, 0, 1)).isEqualTo(0);
+  }
+
+  @Test
+  void latencyAndBytes() {
+    RelayTree tree = new RelayTree("10.0.0.1");
+    tree.relayed();
+    tree.forwarded(3);
+    tree.received(true, 10);
+    tree.received(true, 20);
+    tree.received(false, 40);
+    // clocks running behind count as no latency
+    tree.received(false, -5);
+
+    SocketRelayStatus status = tree.getStatus("zone-a", 100, 200);
+    assertThat(status.getRelayed()).isEqualTo(1);
+    assertThat(status.getForwarded()).isEqualTo(3);
+    assertThat(status.getZone()).isEqualTo("zone-a");
+    assertThat(status.getZoneBytes()).isEqualTo(100);
+    assertThat(status.getCrossZoneBytes()).isEqualTo(200);
+    assertThat(status.getDirectReceived()).isEqualTo(2);
+    assertThat(status.getDirectLatencyMillis()).isEqualTo(15);
+    assertThat(status.getRelayedReceived()).isEqualTo(2);
+    assertThat(status.getRelayedLatencyMillis()).isEqualTo(20);
+    assertThat(status.getMaxLatencyMillis()).isEqualTo(40);
+  }
+}
@@ -0,0 +1,129 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.message.ClusterMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static io.ebean.k8scache.socket.TestNode.await;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplayLogTest {
+
+  private static List<ClusterMessage> add(ReplayLog log, int count) {
+    List<ClusterMessage> added = new ArrayList<>();
+    for (int i = 1; i <= count; i++) {
+      ClusterMessage message = ClusterMessage.transEvent(new byte[]{(byte) i});
+      message.setSequence(i);
+      log.add(message);
+      // the log holds its own reference
+      message.release();
+      added.add(message);
+    }
+    return added;
+  }
+
+  private static List<Long> sequences(List<ClusterMessage> messages) {
+    return messages.stream().map(ClusterMessage::getSequence).collect(Collectors.toList());
+  }
+
+  @Test
+  void replayAfter() {
+    ReplayLog log = new ReplayLog(10);
+    add(log, 6);
+
+    List<ClusterMessage> replayed = new ArrayList<>();
+    assertThat(log.replay(3, replayed)).isTrue();
+    assertThat(sequences(replayed)).containsExactly(4L, 5L, 6L);
+    // retained for the replay
+    replayed.forEach(message -> assertThat(message.isReleased(1)).isFalse());
+    replayed.forEach(ClusterMessage::release);
+
+    replayed.clear();
+    assertThat(log.replay(6, replayed)).isTrue();
+    assertThat(replayed).isEmpty();
+    assertThat(log.replay(0, replayed)).isTrue();
+    assertThat(sequences(replayed)).containsExactly(1L, 2L, 3L, 4L, 5L, 6L);
+    replayed.forEach(ClusterMessage::release);
+  }
+
+  @Test
+  void overwrittenMessagesReleased() {
+    ReplayLog log = new ReplayLog(4);
+    List<ClusterMessage> added = add(log, 10);
+
+    // the oldest are overwritten and no longer replayed
+    assertThat(added.subList(0, 6)).allMatch(message -> message.isReleased(0));
+    assertThat(added.subList(6, 10)).noneMatch(message -> message.isReleased(0));
+    List<ClusterMessage> replayed = new ArrayList<>();
+    assertThat(log.replay(5, replayed)).isFalse();
+    assertThat(replayed).isEmpty();
+    assertThat(log.replay(6, replayed)).isTrue();
+    assertThat(sequences(replayed)).containsExactly(7L, 8L, 9L, 10L);
+    replayed.forEach(ClusterMessage::release);
+
+    log.clear();
+    assertThat(added).allMatch(message -> message.isReleased(0));
+    assertThat(log.replay(10, replayed)).isTrue();
+  }
+
+  @Test
+  void missedMessagesReplayedOnReconnect() throws Exception {
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES);
+         TestNode node = TestNode.start("127.0.0.2", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3",
+           "sequenceNumbers=true", "replayCapacity=100")) {
+      for (int i = 0; i < 10; i++) {
+        node.broadcast.broadcast(TestNode.event("replay_" + i));
+      }
+      await(() -> received(member, "replay_9") != null);
+      ClusterMessage last = received(member, "replay_4");
+      assertThat(last).isNotNull();
+
+      // the member only got the first 5 and reconnects with the sequence of the last
+      member.resume(Collections.singletonMap(last.getLane(), last.getSequence()));
+      member.reset();
+      node.broadcast.broadcast(TestNode.event("after_0"));
+      await(() -> secondConnection(member).contains("after_0"));
+
+      assertThat(secondConnection(member)).containsExactly("replay_5", "replay_6", "replay_7", "replay_8", "replay_9", "after_0");
+    }
+  }
+
+  private static boolean isEvent(FakeMember.Received received, String table) {
+    try {
+      return received.isEvent(table);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private static ClusterMessage received(FakeMember member, String table) {
+    for (FakeMember.Received received : member.messages()) {
+      if (isEvent(received, table)) {
+        return received.message;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Return the events read on the second connection.
+   */
+  private static List<String> secondConnection(FakeMember member) {
+    List<String> events = new ArrayList<>();
+    for (FakeMember.Received received : member.messages()) {
+      if (received.connection != 2) {
+        continue;
+      }
+      for (String table : new String[]{"replay_0", "replay_1", "replay_2", "replay_3", "replay_4", "replay_5", "replay_6", "replay_7", "replay_8", "replay_9", "after_0"}) {
+        if (isEvent(received, table)) {
+          events.add(table);
+        }
+      }
+    }
+    return events;
+  }
+}
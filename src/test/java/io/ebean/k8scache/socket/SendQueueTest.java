@@ -0,0 +1,114 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.message.ClusterMessage;
+import io.ebean.k8scache.message.MessagePriority;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SendQueueTest {
+
+  private static ClusterMessage message(int lane) {
+    ClusterMessage message = ClusterMessage.transEvent(new byte[]{1});
+    message.setLane(lane);
+    return message;
+  }
+
+  @Test
+  void removeLane() {
+    SendQueue queue = new SendQueue(10, 1024);
+    ClusterMessage first = message(5);
+    ClusterMessage second = message(6);
+    assertThat(queue.offer(first)).isTrue();
+    assertThat(queue.offer(second)).isTrue();
+    assertThat(queue.laneCount()).isEqualTo(2);
+
+    // the messages queued on a removed lane are still taken
+    queue.removeLane(5);
+    assertThat(queue.laneCount()).isEqualTo(1);
+    assertThat(queue.poll()).isSameAs(first);
+    assertThat(queue.poll()).isSameAs(second);
+    assertThat(queue.poll()).isNull();
+
+    queue.removeLane(6);
+    assertThat(queue.laneCount()).isEqualTo(0);
+  }
+
+  @Test
+  void capacityOverAllLanes() {
+    SendQueue queue = new SendQueue(2, 1024);
+    assertThat(queue.offer(message(1))).isTrue();
+    assertThat(queue.offer(message(2))).isTrue();
+    assertThat(queue.offer(message(3))).isFalse();
+    assertThat(queue.size()).isEqualTo(2);
+
+    queue.poll();
+    assertThat(queue.offer(message(3))).isTrue();
+    assertThat(queue.offer(message(1))).isFalse();
+  }
+
+  @Test
+  void lanesTakeTurns() {
+    SendQueue queue = new SendQueue(10, 1);
+    ClusterMessage a1 = message(1);
+    ClusterMessage a2 = message(1);
+    ClusterMessage b1 = message(2);
+    queue.offer(a1);
+    queue.offer(a2);
+    queue.offer(b1);
+    assertThat(queue.poll()).isSameAs(a1);
+    assertThat(queue.poll()).isSameAs(b1);
+    assertThat(queue.poll()).isSameAs(a2);
+  }
+
+  private static ClusterMessage message(int lane, MessagePriority priority, int size) {
+    ClusterMessage message = ClusterMessage.transEvent(new byte[size]);
+    message.setLane(lane);
+    message.setPriority(priority);
+    return message;
+  }
+
+  @Test
+  void higherPriorityTakenFirst() {
+    SendQueue queue = new SendQueue(10, 1024);
+    ClusterMessage bulk1 = message(3, MessagePriority.BULK, 1);
+    ClusterMessage normal1 = message(1, MessagePriority.NORMAL, 1);
+    ClusterMessage bulk2 = message(3, MessagePriority.BULK, 1);
+    ClusterMessage high = message(0, MessagePriority.HIGH, 1);
+    ClusterMessage normal2 = message(1, MessagePriority.NORMAL, 1);
+    for (ClusterMessage message : new ClusterMessage[]{bulk1, normal1, bulk2, high, normal2}) {
+      assertThat(queue.offer(message)).isTrue();
+    }
+
+    assertThat(queue.poll()).isSameAs(high);
+    assertThat(queue.poll()).isSameAs(normal1);
+    assertThat(queue.poll()).isSameAs(normal2);
+    assertThat(queue.poll()).isSameAs(bulk1);
+    // a message of a higher priority added in the meantime goes first
+    ClusterMessage normal3 = message(2, MessagePriority.NORMAL, 1);
+    queue.offer(normal3);
+    assertThat(queue.poll()).isSameAs(normal3);
+    assertThat(queue.poll()).isSameAs(bulk2);
+    assertThat(queue.poll()).isNull();
+  }
+
+  @Test
+  void largeMessagesShareTheTurnsBySize() {
+    SendQueue queue = new SendQueue(100, 1000);
+    // a lane with a backlog of large messages and one with small messages
+    for (int i = 0; i < 10; i++) {
+      queue.offer(message(1, MessagePriority.NORMAL, 5000));
+    }
+    for (int i = 0; i < 20; i++) {
+      queue.offer(message(2, MessagePriority.NORMAL, 100));
+    }
+
+    // the small messages are sent in the turns the large lane builds up its deficit
+    int small = 0;
+    while (queue.poll().getLane() == 2) {
+      small++;
+    }
+    assertThat(small).isEqualTo(20);
+    assertThat(queue.size()).isEqualTo(9);
+  }
+}
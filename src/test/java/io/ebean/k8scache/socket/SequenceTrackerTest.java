@@ -0,0 +1,55 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.GapRecovery;
+import io.ebean.k8scache.TestConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SequenceTrackerTest {
+
+  @Test
+  void inSequence() {
+    SequenceTracker tracker = new SequenceTracker();
+    assertThat(tracker.expected()).isEqualTo(0);
+    // the first number received starts the sequence
+    assertThat(tracker.gap(5)).isFalse();
+    for (long sequence = 6; sequence < 100; sequence++) {
+      assertThat(tracker.expected()).isEqualTo(sequence);
+      assertThat(tracker.gap(sequence)).isFalse();
+    }
+  }
+
+  @Test
+  void gap() {
+    SequenceTracker tracker = new SequenceTracker();
+    assertThat(tracker.gap(1)).isFalse();
+    assertThat(tracker.gap(2)).isFalse();
+    assertThat(tracker.expected()).isEqualTo(3);
+    assertThat(tracker.gap(5)).isTrue();
+    // carries on from the number received
+    assertThat(tracker.expected()).isEqualTo(6);
+    assertThat(tracker.gap(6)).isFalse();
+    // going backwards other than to 1 is also a gap
+    assertThat(tracker.gap(4)).isTrue();
+  }
+
+  @Test
+  void restartedSender() {
+    SequenceTracker tracker = new SequenceTracker();
+    assertThat(tracker.gap(41)).isFalse();
+    assertThat(tracker.gap(42)).isFalse();
+    assertThat(tracker.gap(1)).isFalse();
+    assertThat(tracker.gap(2)).isFalse();
+
+    tracker.reset();
+    assertThat(tracker.expected()).isEqualTo(0);
+    assertThat(tracker.gap(7)).isFalse();
+  }
+
+  @Test
+  void gapRecoveryProperty() {
+    assertThat(TestConfig.create("127.0.0.2").getGapRecovery()).isEqualTo(GapRecovery.CLEAR_CACHES);
+    assertThat(TestConfig.create("127.0.0.2", "gapRecovery=log").getGapRecovery()).isEqualTo(GapRecovery.LOG);
+  }
+}
@@ -0,0 +1,575 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.TestConfig;
+import io.ebean.k8scache.message.ClusterMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.ebean.k8scache.socket.TestNode.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SocketClientTest {
+
+  /**
+   * Start a client with the given properties to the fake member at 127.0.0.3.
+   */
+  private static SocketClient client(ExecutorService executor, K8sClusterBroadcast owner, String... properties) {
+    SocketClient client = new SocketClient(owner, TestConfig.create("127.0.0.2", properties), "127.0.0.3",
+      new InetSocketAddress("127.0.0.3", TestConfig.PORT), "127.0.0.2");
+    client.start(executor);
+    return client;
+  }
+
+  /**
+   * Enqueue the events while the writer waits for the member that is not reading.
+   */
+  private static void enqueueWhilePaused(FakeMember member, SocketClient client, String prefix, int count) throws Exception {
+    member.reading(false);
+    client.enqueue(ClusterMessage.transEvent("paused".getBytes(StandardCharsets.ISO_8859_1)));
+    await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "paused")));
+    client.enqueue(ClusterMessage.transEvent(new byte[2_000_000]));
+    Thread.sleep(300);
+    for (int i = 0; i < count; i++) {
+      client.enqueue(ClusterMessage.transEvent((prefix + i).getBytes(StandardCharsets.ISO_8859_1)));
+    }
+    member.reading(true);
+  }
+
+  @Test
+  void queuedMessagesBatchedIntoFewWrites() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS)) {
+      SocketClient client = client(executor, mock(K8sClusterBroadcast.class), "writeTimeoutMillis=10000");
+      enqueueWhilePaused(member, client, "batched_", 100);
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "batched_99")));
+
+      SocketMemberStatus status = client.getStatus();
+      assertThat(status.getSent()).isEqualTo(102);
+      // the 100 queued messages went in a few gathering writes
+      assertThat(status.getWrites()).isLessThan(10);
+      // in order
+      int last = -1;
+      for (FakeMember.Received received : member.messages()) {
+        String data = new String(received.message.getData(), StandardCharsets.ISO_8859_1);
+        if (data.startsWith("batched_")) {
+          int index = Integer.parseInt(data.substring(8));
+          assertThat(index).isEqualTo(last + 1);
+          last = index;
+        }
+      }
+      assertThat(last).isEqualTo(99);
+      client.disconnect();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void batchLimitedBySendBatchBytes() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS)) {
+      // room for about two of the messages in a batch
+      SocketClient client = client(executor, mock(K8sClusterBroadcast.class), "writeTimeoutMillis=10000", "sendBatchBytes=40");
+      enqueueWhilePaused(member, client, "limited_", 20);
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "limited_19")));
+
+      assertThat(client.getStatus().getSent()).isEqualTo(22);
+      assertThat(client.getStatus().getWrites()).isGreaterThanOrEqualTo(10);
+      client.disconnect();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void broadcastNotHeldUpBySlowMember() throws Exception {
+    try (FakeMember slow = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS);
+         FakeMember fast = new FakeMember("127.0.0.4", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS);
+         TestNode node = TestNode.start("127.0.0.2", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3,127.0.0.4",
+           "writeTimeoutMillis=10000")) {
+      await(() -> node.isConnected(2));
+
+      // the writer of the slow member waits for the socket to be writable
+      slow.reading(false);
+      node.broadcast.broadcast(TestNode.event("paused"));
+      await(() -> slow.messages().stream().anyMatch(received -> isEvent(received, "paused")));
+      node.broadcast.broadcast(TestNode.largeEvent("large_event", 200_000));
+      Thread.sleep(500);
+
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < 5; i++) {
+        node.broadcast.broadcast(TestNode.event("event_" + i));
+      }
+      long millis = System.currentTimeMillis() - start;
+      await(() -> fast.messages().stream().anyMatch(received -> isEvent(received, "event_4")));
+
+      assertThat(millis).isLessThan(1000);
+      for (int i = 0; i < 5; i++) {
+        String table = "event_" + i;
+        assertThat(fast.messages()).anyMatch(received -> isEvent(received, table));
+      }
+      slow.reading(true);
+    }
+  }
+
+  @Test
+  void dropAndResyncOnOverflow() throws Exception {
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS);
+         TestNode node = TestNode.start("127.0.0.2", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3",
+           "sendOverflowPolicy=DROP_RESYNC", "sendQueueCapacity=2", "writeTimeoutMillis=10000")) {
+      await(() -> node.isConnected(1));
+
+      member.reading(false);
+      node.broadcast.broadcast(TestNode.event("paused"));
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "paused")));
+      node.broadcast.broadcast(TestNode.largeEvent("large_event", 200_000));
+      Thread.sleep(500);
+
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < 5; i++) {
+        node.broadcast.broadcast(TestNode.event("overflow_" + i));
+      }
+      long millis = System.currentTimeMillis() - start;
+
+      // the messages are dropped without waiting and the member kept
+      assertThat(millis).isLessThan(1000);
+      SocketMemberStatus status = node.broadcast.getStatus().getMembers().get(0);
+      assertThat(status.getDropped()).isGreaterThan(0);
+      assertThat(status.getMaxQueueDepth()).isLessThanOrEqualTo(2);
+      assertThat(node.isConnected(1)).isTrue();
+
+      // the member receives the later messages once it reads again
+      member.reading(true);
+      node.broadcast.broadcast(TestNode.event("after_resync"));
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "after_resync")));
+      assertThat(member.messages()).anyMatch(received -> isEvent(received, "after_resync"));
+    }
+  }
+
+  @Test
+  void spilledMessagesSentInOrder(@TempDir Path directory) throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS)) {
+      SocketClient client = client(executor, mock(K8sClusterBroadcast.class), "sendQueueCapacity=2",
+        "spillDirectory=" + directory, "writeTimeoutMillis=10000");
+      enqueueWhilePaused(member, client, "spilled_", 100);
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "spilled_99")));
+
+      // none were dropped and the spill file was used
+      SocketMemberStatus status = client.getStatus();
+      assertThat(status.getDropped()).isEqualTo(0);
+      assertThat(status.getSpilled()).isGreaterThan(50);
+      assertThat(status.getMaxQueueDepth()).isLessThanOrEqualTo(2);
+      int last = -1;
+      for (FakeMember.Received received : member.messages()) {
+        String data = new String(received.message.getData(), StandardCharsets.ISO_8859_1);
+        if (data.startsWith("spilled_")) {
+          int index = Integer.parseInt(data.substring(8));
+          assertThat(index).isEqualTo(last + 1);
+          last = index;
+        }
+      }
+      assertThat(last).isEqualTo(99);
+      client.disconnect();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void bulkEventsSentAfterTheOthers() throws Exception {
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS);
+         TestNode node = TestNode.start("127.0.0.2", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3",
+           "lanes=true", "priorityBulkBytes=10000", "writeTimeoutMillis=10000")) {
+      await(() -> node.isConnected(1));
+
+      member.reading(false);
+      node.broadcast.broadcast(TestNode.event("paused"));
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "paused")));
+      node.broadcast.broadcast(TestNode.largeEvent("bulk_blocking", 200_000));
+      Thread.sleep(300);
+      node.broadcast.broadcast(TestNode.largeEvent("bulk_queued", 2000));
+      node.broadcast.broadcast(TestNode.event("small_other"));
+      // a small event of a table with a bulk event queued follows it
+      node.broadcast.broadcast(TestNode.event("bulk_queued"));
+      node.broadcast.broadcast(TestNode.event("small_last"));
+      member.reading(true);
+      await(() -> member.messages().stream().filter(received -> isEvent(received, "bulk_queued")).count() == 2);
+
+      List<String> order = new ArrayList<>();
+      List<Integer> lanes = new ArrayList<>();
+      for (FakeMember.Received received : member.messages()) {
+        for (String table : new String[]{"bulk_queued", "small_other", "small_last"}) {
+          if (isEvent(received, table)) {
+            order.add(table + (received.message.size() > 10000 ? "_large" : ""));
+            lanes.add(received.message.getLane());
+          }
+        }
+      }
+      assertThat(order).containsExactly("small_other", "small_last", "bulk_queued_large", "bulk_queued");
+      // the bulk lane of the server
+      assertThat(lanes.get(2)).isEqualTo(lanes.get(3)).isNotEqualTo(lanes.get(0));
+      assertThat(lanes.get(0)).isEqualTo(lanes.get(1));
+    }
+  }
+
+  @Test
+  void broadcastWaitsForTheSend() throws Exception {
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS);
+         TestNode node = TestNode.start("127.0.0.2", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3",
+           "broadcastWaitMillis=5000")) {
+      await(() -> member.connections() == 1);
+
+      long start = System.currentTimeMillis();
+      node.broadcast.broadcast(TestNode.event("waited_event"));
+      long millis = System.currentTimeMillis() - start;
+
+      // returned once written rather than at the deadline
+      assertThat(millis).isLessThan(4000);
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "waited_event")));
+      assertThat(member.messages()).anyMatch(received -> isEvent(received, "waited_event"));
+    }
+  }
+
+  @Test
+  void broadcastWaitEndsAtTheDeadline() throws Exception {
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS);
+         TestNode node = TestNode.start("127.0.0.2", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3",
+           "broadcastWaitMillis=300", "writeTimeoutMillis=10000")) {
+      await(() -> member.connections() == 1);
+
+      // the writer waits for the socket to be writable while the member is not reading
+      member.reading(false);
+      node.broadcast.broadcast(TestNode.event("paused"));
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "paused")));
+      node.broadcast.broadcast(TestNode.largeEvent("large_event", 200_000));
+
+      long start = System.currentTimeMillis();
+      node.broadcast.broadcast(TestNode.event("late_event"));
+      long millis = System.currentTimeMillis() - start;
+
+      assertThat(millis).isGreaterThanOrEqualTo(250).isLessThan(2000);
+      // the message is still sent once the member reads again
+      member.reading(true);
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "late_event")));
+      assertThat(member.messages()).anyMatch(received -> isEvent(received, "late_event"));
+      assertThat(node.broadcast.getStatus().getMembers().get(0).getDropped()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  void chunkedBroadcastToMemberWithoutChunks() throws Exception {
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS);
+         TestNode node = TestNode.start("127.0.0.2", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3", "chunkBytes=16384")) {
+      await(() -> member.connections() == 1);
+      node.broadcast.broadcast(TestNode.largeEvent("large_event", 5000));
+      node.broadcast.broadcast(TestNode.event("small_event"));
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "small_event")));
+
+      // sent the whole message rather than chunks
+      assertThat(member.messages()).anyMatch(received -> isEvent(received, "large_event"));
+      assertThat(member.messages()).anyMatch(received -> isEvent(received, "small_event"));
+      assertThat(member.messages()).noneMatch(received -> received.message.isChunk());
+      assertThat(node.broadcast.getStatus().getMembers().get(0).getDropped()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  void chunkedBroadcastToMembersWithMixedCapabilities() throws Exception {
+    try (FakeMember plain = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS);
+         FakeMember chunked = new FakeMember("127.0.0.4", MsgKeys.CAPABILITIES);
+         TestNode node = TestNode.start("127.0.0.2", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3,127.0.0.4", "chunkBytes=16384")) {
+      await(() -> plain.connections() == 1 && chunked.connections() == 1);
+      for (int i = 0; i < 3; i++) {
+        node.broadcast.broadcast(TestNode.largeEvent("large_event_" + i, 5000));
+      }
+      node.broadcast.broadcast(TestNode.event("small_event"));
+      await(() -> plain.messages().stream().anyMatch(received -> isEvent(received, "small_event"))
+        && chunked.messages().stream().anyMatch(received -> isEvent(received, "small_event")));
+
+      // the whole messages to one member and chunks of the same messages to the other
+      assertThat(plain.messages()).noneMatch(received -> received.message.isChunk());
+      for (int i = 0; i < 3; i++) {
+        String table = "large_event_" + i;
+        assertThat(plain.messages()).anyMatch(received -> isEvent(received, table));
+      }
+      assertThat(chunked.messages()).anyMatch(received -> received.message.isChunk());
+
+      // the writers are still sending, no message was released more times than retained
+      node.broadcast.broadcast(TestNode.event("after_chunks"));
+      await(() -> plain.messages().stream().anyMatch(received -> isEvent(received, "after_chunks"))
+        && chunked.messages().stream().anyMatch(received -> isEvent(received, "after_chunks")));
+      assertThat(plain.connections()).isEqualTo(1);
+      assertThat(chunked.connections()).isEqualTo(1);
+      for (SocketMemberStatus member : node.broadcast.getStatus().getMembers()) {
+        assertThat(member.getDropped()).isEqualTo(0);
+      }
+    }
+  }
+
+  @Test
+  void chunksQueuedForMemberReconnectingWithoutChunks() throws Exception {
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES);
+         TestNode node = TestNode.start("127.0.0.2", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3", "chunkBytes=16384")) {
+      await(() -> member.connections() == 1);
+      assertThat(member.connections()).isEqualTo(1);
+
+      // a large event the writer blocks sending while the member is not reading
+      member.reading(false);
+      node.broadcast.broadcast(TestNode.largeEvent("large_event", 200_000));
+      Thread.sleep(500);
+
+      // the member reconnects without chunks while chunks are queued for it
+      member.capabilities(MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS);
+      member.reset();
+      member.reading(true);
+      await(() -> member.connections() == 2);
+      assertThat(member.connections()).isEqualTo(2);
+
+      // the writer is still sending
+      node.broadcast.broadcast(TestNode.event("after_reconnect"));
+      await(() -> member.messages().stream().anyMatch(received -> received.connection == 2 && isEvent(received, "after_reconnect")));
+
+      assertThat(member.messages()).anyMatch(received -> received.connection == 2 && isEvent(received, "after_reconnect"));
+      assertThat(member.messages()).noneMatch(received -> received.connection == 2 && received.message.isChunk());
+      assertThat(node.broadcast.getStatus().getMembers().get(0).getDropped()).isGreaterThan(0);
+    }
+  }
+
+  @Test
+  void disconnectOnOverflowWithoutWaitingForWriter() throws Exception {
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS);
+         TestNode node = TestNode.start("127.0.0.2", "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3",
+           "sendOverflowPolicy=DISCONNECT", "sendQueueCapacity=2", "writeTimeoutMillis=5000")) {
+      await(() -> node.isConnected(1));
+
+      // the writer waits for the socket to be writable while the member is not reading
+      member.reading(false);
+      node.broadcast.broadcast(TestNode.event("paused"));
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "paused")));
+      node.broadcast.broadcast(TestNode.largeEvent("large_event", 200_000));
+      Thread.sleep(500);
+
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < 4; i++) {
+        node.broadcast.broadcast(TestNode.event("overflow_" + i));
+      }
+      long millis = System.currentTimeMillis() - start;
+
+      assertThat(node.isConnected(0)).isTrue();
+      assertThat(millis).isLessThan(2000);
+    }
+  }
+
+  @Test
+  void relayedMessageDroppedRatherThanWaitingForSpace() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS)) {
+      K8sClusterBroadcast owner = mock(K8sClusterBroadcast.class);
+      SocketClient client = new SocketClient(owner, TestConfig.create("127.0.0.2", "sendOverflowPolicy=BLOCK", "sendQueueCapacity=1",
+          "sendBlockTimeoutMillis=5000", "writeTimeoutMillis=2000"),
+        "127.0.0.3", new InetSocketAddress("127.0.0.3", TestConfig.PORT), "127.0.0.2");
+      client.start(executor);
+
+      // the writer waits for the socket to be writable while the member is not reading
+      member.reading(false);
+      client.enqueue(ClusterMessage.transEvent("paused".getBytes(StandardCharsets.ISO_8859_1)));
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "paused")));
+      client.enqueue(ClusterMessage.transEvent(new byte[8_000_000]));
+      Thread.sleep(500);
+      client.enqueue(ClusterMessage.transEvent("queued".getBytes(StandardCharsets.ISO_8859_1)));
+
+      long start = System.currentTimeMillis();
+      boolean offered = client.offer(ClusterMessage.transEvent("relayed".getBytes(StandardCharsets.ISO_8859_1)));
+      long millis = System.currentTimeMillis() - start;
+
+      assertThat(offered).isTrue();
+      assertThat(millis).isLessThan(1000);
+      assertThat(client.getStatus().getDropped()).isGreaterThan(0);
+      member.reading(true);
+      client.disconnect();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void writerKeepsSendingAfterError() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES)) {
+      K8sClusterBroadcast owner = mock(K8sClusterBroadcast.class);
+      SocketClient client = new SocketClient(owner, TestConfig.create("127.0.0.2"), "127.0.0.3",
+        new InetSocketAddress("127.0.0.3", TestConfig.PORT), "127.0.0.2");
+      client.start(executor);
+
+      ClusterMessage failing = spy(ClusterMessage.transEvent("failing_event".getBytes(StandardCharsets.ISO_8859_1)));
+      doThrow(new IllegalStateException("encode failed")).when(failing).encode(any(), anyInt());
+      client.enqueue(failing);
+      // released with the batch it failed in
+      assertThat(failing.awaitReleased(0, 10_000)).isTrue();
+      client.enqueue(ClusterMessage.transEvent("after_error".getBytes(StandardCharsets.ISO_8859_1)));
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "after_error")));
+
+      assertThat(member.messages()).anyMatch(received -> isEvent(received, "after_error"));
+      // the member is sent a cache clear for the lost message
+      verify(owner).resyncMessages();
+      client.disconnect();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void resyncMessagesReleasedAfterReplay() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS)) {
+      // the member missed messages that are no longer held
+      member.resume(Collections.singletonMap(0, 5L));
+      ClusterMessage clear = ClusterMessage.transEvent("cache_clear".getBytes(StandardCharsets.ISO_8859_1));
+      K8sClusterBroadcast owner = mock(K8sClusterBroadcast.class);
+      when(owner.laneIds()).thenReturn(Collections.singleton(0));
+      when(owner.replay(eq(0), eq(5L), any())).thenReturn(10L);
+      when(owner.resyncMessages()).thenReturn(Collections.singletonList(clear));
+      SocketClient client = new SocketClient(owner, TestConfig.create("127.0.0.2", "sequenceNumbers=true", "replayCapacity=100"), "127.0.0.3",
+        new InetSocketAddress("127.0.0.3", TestConfig.PORT), "127.0.0.2");
+      client.start(executor);
+
+      client.enqueue(ClusterMessage.transEvent("connect".getBytes(StandardCharsets.ISO_8859_1)));
+      await(() -> member.messages().stream().anyMatch(received -> isEvent(received, "cache_clear")));
+
+      assertThat(member.messages()).anyMatch(received -> isEvent(received, "cache_clear"));
+      assertThat(clear.awaitReleased(0, 10_000)).isTrue();
+      client.disconnect();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void invalidLaneCountInHelloReply() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS)) {
+      member.resume(Collections.emptyMap());
+      member.laneCount(-1);
+      K8sClusterBroadcast owner = mock(K8sClusterBroadcast.class);
+      SocketClient client = new SocketClient(owner, TestConfig.create("127.0.0.2", "sequenceNumbers=true", "replayCapacity=100", "reconnectAttempts=1"),
+        "127.0.0.3", new InetSocketAddress("127.0.0.3", TestConfig.PORT), "127.0.0.2");
+      client.start(executor);
+
+      client.enqueue(ClusterMessage.transEvent("connect".getBytes(StandardCharsets.ISO_8859_1)));
+      await(() -> client.getStatus().getCircuitState() != CircuitState.CLOSED);
+
+      // failed the connect as an IO error rather than allocating the reply
+      assertThat(client.getStatus().getCircuitState()).isNotEqualTo(CircuitState.CLOSED);
+      assertThat(member.messages()).isEmpty();
+      client.disconnect();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void helloReplyTimesOutWithoutConnectTimeout() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (FakeMember member = new FakeMember("127.0.0.3", MsgKeys.CAPABILITIES)) {
+      // accepts the connection and never replies to the hello
+      member.replying(false);
+      K8sClusterBroadcast owner = mock(K8sClusterBroadcast.class);
+      SocketClient client = new SocketClient(owner, TestConfig.create("127.0.0.2", "connectTimeoutMillis=0", "reconnectAttempts=1"),
+        "127.0.0.3", new InetSocketAddress("127.0.0.3", TestConfig.PORT), "127.0.0.2");
+      client.start(executor);
+
+      client.enqueue(ClusterMessage.transEvent("connect".getBytes(StandardCharsets.ISO_8859_1)));
+      long until = System.currentTimeMillis() + 20_000;
+      while (client.getStatus().getCircuitState() == CircuitState.CLOSED && System.currentTimeMillis() < until) {
+        Thread.sleep(50);
+      }
+
+      // the writer gave up on the hello rather than waiting forever
+      assertThat(client.getStatus().getCircuitState()).isNotEqualTo(CircuitState.CLOSED);
+      client.disconnect();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void membershipCheckedOffTheWriterWhenCircuitOpens() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // no member listening on the address
+      K8sClusterBroadcast owner = mock(K8sClusterBroadcast.class);
+      SocketClient client = new SocketClient(owner, TestConfig.create("127.0.0.2", "reconnectAttempts=1"),
+        "127.0.0.5", new InetSocketAddress("127.0.0.5", TestConfig.PORT), "127.0.0.2");
+      client.start(executor);
+
+      client.enqueue(ClusterMessage.transEvent("connect".getBytes(StandardCharsets.ISO_8859_1)));
+      await(() -> client.getStatus().getCircuitState() != CircuitState.CLOSED);
+
+      assertThat(client.getStatus().getCircuitState()).isNotEqualTo(CircuitState.CLOSED);
+      verify(owner, timeout(5_000)).checkStatusLater();
+      verify(owner, never()).checkStatus(anyBoolean());
+      client.disconnect();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void eventsAppliedWhileMembershipTaskWaits() throws Exception {
+    List<String> ips = Arrays.asList("127.0.0.2", "127.0.0.3");
+    List<TestNode> nodes = TestNode.startAll(ips, "membership=STATIC", "staticMembers=127.0.0.2,127.0.0.3", "receiveThreads=1");
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      await(() -> nodes.stream().allMatch(node -> node.isConnected(1)));
+      TestNode receiver = nodes.get(1);
+      // such as a connect to a member that does not answer
+      receiver.broadcast.execute(() -> {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      nodes.get(0).broadcast.broadcast(TestNode.event("applied_event"));
+      await(() -> receiver.receivedPrefix("applied_event") == 1);
+
+      assertThat(receiver.receivedPrefix("applied_event")).isEqualTo(1);
+    } finally {
+      release.countDown();
+      for (TestNode node : nodes) {
+        node.close();
+      }
+    }
+  }
+
+  private static boolean isEvent(FakeMember.Received received, String table) {
+    try {
+      return received.isEvent(table);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.message.ClusterMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpillFileTest {
+
+  @TempDir
+  Path directory;
+
+  private SpillFile spill;
+
+  @AfterEach
+  void close() {
+    if (spill != null) {
+      spill.close();
+    }
+  }
+
+  private static ClusterMessage message(String text) {
+    return ClusterMessage.transEvent(text.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  /**
+   * Send the next chunk as the writer would, returning the messages in it.
+   */
+  private List<String> sendChunk() throws Exception {
+    long[] chunk = spill.nextChunk();
+    if (chunk == null) {
+      return null;
+    }
+    ByteBuffer buffer = spill.chunkBuffer(chunk);
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    spill.sent(chunk);
+
+    List<String> messages = new ArrayList<>();
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+    while (input.available() > 0) {
+      messages.add(new String(ClusterMessage.read(input).getData(), StandardCharsets.ISO_8859_1));
+    }
+    assertThat(messages).hasSize((int) chunk[1]);
+    return messages;
+  }
+
+  @Test
+  void sentInChunksOfWholeFrames() throws Exception {
+    Path path = directory.resolve("member.spill");
+    spill = new SpillFile(path, 10_000, 100);
+    assertThat(spill.isActive()).isFalse();
+
+    for (int i = 0; i < 20; i++) {
+      assertThat(spill.append(message("spilled_" + i), MsgKeys.CAPABILITIES)).isTrue();
+    }
+    assertThat(spill.isActive()).isTrue();
+
+    List<String> sent = new ArrayList<>();
+    List<String> chunk;
+    int chunks = 0;
+    while ((chunk = sendChunk()) != null) {
+      sent.addAll(chunk);
+      chunks++;
+    }
+    assertThat(chunks).isGreaterThan(1);
+    assertThat(sent).hasSize(20);
+    for (int i = 0; i < 20; i++) {
+      assertThat(sent.get(i)).isEqualTo("spilled_" + i);
+    }
+    assertThat(spill.isActive()).isFalse();
+
+    // deleted when closed
+    spill.close();
+    assertThat(Files.exists(path)).isFalse();
+    assertThat(spill.append(message("closed"), MsgKeys.CAPABILITIES)).isFalse();
+  }
+
+  @Test
+  void reusedFromTheStartOnceSent() throws Exception {
+    spill = new SpillFile(directory.resolve("member.spill"), 1000, 100);
+    int appended = 0;
+    while (spill.append(message("first_" + appended), MsgKeys.CAPABILITIES)) {
+      appended++;
+    }
+    // full until it has all been sent
+    assertThat(appended).isGreaterThan(10);
+    List<String> chunk = sendChunk();
+    assertThat(spill.append(message("full"), MsgKeys.CAPABILITIES)).isFalse();
+
+    int sent = chunk.size();
+    while ((chunk = sendChunk()) != null) {
+      sent += chunk.size();
+    }
+    assertThat(sent).isEqualTo(appended);
+
+    for (int i = 0; i < appended; i++) {
+      assertThat(spill.append(message("again_" + i), MsgKeys.CAPABILITIES)).isTrue();
+    }
+    assertThat(sendChunk()).startsWith("again_0", "again_1");
+  }
+
+  @Test
+  void clearedWhileSending() throws Exception {
+    spill = new SpillFile(directory.resolve("member.spill"), 10_000, 100);
+    for (int i = 0; i < 20; i++) {
+      spill.append(message("cleared_" + i), MsgKeys.CAPABILITIES);
+    }
+    long[] chunk = spill.nextChunk();
+    assertThat(spill.clear()).isEqualTo(20);
+    assertThat(spill.isActive()).isFalse();
+
+    // the chunk being sent when cleared is ignored
+    spill.sent(chunk);
+    assertThat(spill.nextChunk()).isNull();
+
+    spill.append(message("after_clear"), MsgKeys.CAPABILITIES);
+    assertThat(sendChunk()).containsExactly("after_clear");
+  }
+
+  @Test
+  void chunkNotSpilledForMemberWithoutChunks() throws Exception {
+    spill = new SpillFile(directory.resolve("member.spill"), 10_000, 100);
+    ClusterMessage chunk = ClusterMessage.transEvent(new byte[1000]).chunks(400).get(0);
+
+    assertThat(spill.append(chunk, MsgKeys.CAPABILITIES & ~MsgKeys.CAP_CHUNKS)).isFalse();
+    assertThat(spill.isActive()).isFalse();
+    assertThat(spill.append(chunk, MsgKeys.CAPABILITIES)).isTrue();
+  }
+}
@@ -0,0 +1,267 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.k8scache.message.ClusterMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static io.ebean.k8scache.socket.TestNode.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SwimTest {
+
+  private static final String LOCAL = "10.0.0.1";
+
+  private static final byte PING = 1;
+  private static final byte ACK = 2;
+  private static final byte PING_REQ = 3;
+
+  private final K8sClusterBroadcast owner = mock(K8sClusterBroadcast.class);
+
+  /**
+   * The messages sent to each member.
+   */
+  private final Map<String, List<Gossip>> sent = new ConcurrentHashMap<>();
+
+  private Swim swim;
+
+  /**
+   * A gossip message with its piggybacked updates.
+   */
+  private static final class Gossip {
+
+    final byte type;
+    final long seq;
+    final String target;
+    final List<String> updates = new ArrayList<>();
+
+    Gossip(ClusterMessage message) throws IOException {
+      DataInputStream input = message.getDataInput();
+      type = input.readByte();
+      seq = input.readLong();
+      target = input.readUTF();
+      int count = input.readUnsignedByte();
+      for (int i = 0; i < count; i++) {
+        Swim.State state = Swim.State.values()[input.readUnsignedByte()];
+        updates.add(state + ":" + input.readUTF() + ":" + input.readInt());
+      }
+    }
+  }
+
+  private static ClusterMessage message(byte type, long seq, String target, String... updates) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(buffer);
+    output.writeByte(type);
+    output.writeLong(seq);
+    output.writeUTF(target);
+    output.writeByte(updates.length);
+    for (String update : updates) {
+      String[] parts = update.split(":");
+      output.writeByte(Swim.State.valueOf(parts[0]).ordinal());
+      output.writeUTF(parts[1]);
+      output.writeInt(Integer.parseInt(parts[2]));
+    }
+    return ClusterMessage.gossip(buffer.toByteArray());
+  }
+
+  private interface Responder {
+    void reply(String ip, Gossip gossip) throws IOException;
+  }
+
+  /**
+   * Add the members with the given responder to the messages sent to each.
+   */
+  private void members(Responder responder, String... ips) {
+    when(owner.gossipMembers()).thenReturn(Arrays.asList(ips));
+    for (String ip : ips) {
+      List<Gossip> messages = new CopyOnWriteArrayList<>();
+      sent.put(ip, messages);
+      SocketClient client = mock(SocketClient.class);
+      doAnswer(invocation -> {
+        ClusterMessage message = invocation.getArgument(0);
+        Gossip gossip = new Gossip(message);
+        message.release();
+        messages.add(gossip);
+        // replied from another thread as a member would
+        new Thread(() -> {
+          try {
+            responder.reply(ip, gossip);
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }).start();
+        return null;
+      }).when(client).gossip(any());
+      when(owner.gossipMember(ip)).thenReturn(client);
+    }
+  }
+
+  private void start() {
+    swim = new Swim(owner, LOCAL, "test", 50, 20, 2, 300);
+    swim.start();
+  }
+
+  @AfterEach
+  void shutdown() {
+    if (swim != null) {
+      swim.shutdown();
+    }
+  }
+
+  private static boolean isPing(Gossip gossip) {
+    return gossip.type == PING;
+  }
+
+  @Test
+  void ackedMemberNotSuspected() throws Exception {
+    members((ip, gossip) -> {
+      if (isPing(gossip)) {
+        swim.receive(ip, message(ACK, gossip.seq, ""));
+      }
+    }, "10.0.0.2", "10.0.0.3");
+    start();
+    await(() -> swim.getStatus().getPings() >= 10);
+
+    assertThat(swim.getStatus().getPings()).isGreaterThanOrEqualTo(10);
+    assertThat(swim.getStatus().getSuspected()).isEqualTo(0);
+    assertThat(swim.getStatus().getFailed()).isEqualTo(0);
+  }
+
+  @Test
+  void suspectedThenDeclaredDead() throws Exception {
+    // the member never acks and there is no other member to ask
+    members((ip, gossip) -> { }, "10.0.0.2");
+    start();
+    await(() -> swim.getStatus().getSuspected() > 0);
+    assertThat(swim.getStatus().getCurrentSuspects()).isEqualTo(1);
+
+    verify(owner, timeout(5_000)).memberFailed("10.0.0.2");
+    assertThat(swim.getStatus().getFailed()).isEqualTo(1);
+    assertThat(swim.getStatus().getCurrentSuspects()).isEqualTo(0);
+    // the suspicion was piggybacked on the pings
+    assertThat(sent.get("10.0.0.2")).anyMatch(gossip -> gossip.updates.contains("SUSPECT:10.0.0.2:0"));
+  }
+
+  @Test
+  void indirectPingAvoidsSuspicion() throws Exception {
+    // the direct pings to 10.0.0.2 are lost, 10.0.0.3 reaches it on our behalf
+    members((ip, gossip) -> {
+      if (ip.equals("10.0.0.3") && (isPing(gossip) || gossip.type == PING_REQ)) {
+        swim.receive(ip, message(ACK, gossip.seq, ""));
+      }
+    }, "10.0.0.2", "10.0.0.3");
+    start();
+    await(() -> swim.getStatus().getIndirectPings() >= 3);
+    Thread.sleep(500);
+
+    assertThat(swim.getStatus().getIndirectPings()).isGreaterThanOrEqualTo(3);
+    assertThat(sent.get("10.0.0.3")).anyMatch(gossip -> gossip.type == PING_REQ && gossip.target.equals("10.0.0.2"));
+    assertThat(swim.getStatus().getSuspected()).isEqualTo(0);
+    verify(owner, never()).memberFailed(anyString());
+  }
+
+  @Test
+  void pingRequestForwarded() throws Exception {
+    members((ip, gossip) -> {
+      if (isPing(gossip)) {
+        swim.receive(ip, message(ACK, gossip.seq, ""));
+      }
+    }, "10.0.0.2", "10.0.0.3");
+    swim = new Swim(owner, LOCAL, "test", 60_000, 20, 2, 300);
+
+    // asked by 10.0.0.3 to ping 10.0.0.2
+    swim.receive("10.0.0.3", message(PING_REQ, 77, "10.0.0.2"));
+
+    await(() -> sent.get("10.0.0.3").stream().anyMatch(gossip -> gossip.type == ACK && gossip.seq == 77));
+    assertThat(sent.get("10.0.0.2")).anyMatch(SwimTest::isPing);
+    assertThat(sent.get("10.0.0.3")).anyMatch(gossip -> gossip.type == ACK && gossip.seq == 77);
+  }
+
+  @Test
+  void suspicionRefuted() throws Exception {
+    members((ip, gossip) -> { }, "10.0.0.2");
+    swim = new Swim(owner, LOCAL, "test", 60_000, 20, 2, 300);
+
+    swim.receive("10.0.0.2", message(PING, 1, "", "SUSPECT:" + LOCAL + ":0"));
+
+    assertThat(swim.getStatus().getRefuted()).isEqualTo(1);
+    // the ack carries alive with a higher incarnation
+    await(() -> !sent.get("10.0.0.2").isEmpty());
+    Gossip ack = sent.get("10.0.0.2").get(0);
+    assertThat(ack.type).isEqualTo(ACK);
+    assertThat(ack.updates).contains("ALIVE:" + LOCAL + ":1");
+
+    // an older suspicion is not refuted again
+    swim.receive("10.0.0.2", message(PING, 2, "", "SUSPECT:" + LOCAL + ":0"));
+    assertThat(swim.getStatus().getRefuted()).isEqualTo(1);
+  }
+
+  @Test
+  void gossipedUpdatesApplied() throws Exception {
+    members((ip, gossip) -> { }, "10.0.0.2", "10.0.0.3");
+    swim = new Swim(owner, LOCAL, "test", 60_000, 20, 2, 300);
+
+    swim.receive("10.0.0.2", message(PING, 1, "", "SUSPECT:10.0.0.3:0"));
+    assertThat(swim.getStatus().getCurrentSuspects()).isEqualTo(1);
+
+    swim.receive("10.0.0.2", message(PING, 2, "", "DEAD:10.0.0.3:0"));
+    verify(owner).memberFailed("10.0.0.3");
+    assertThat(swim.getStatus().getCurrentSuspects()).isEqualTo(0);
+
+    // a stale alive does not bring it back, a refutation does
+    swim.receive("10.0.0.2", message(PING, 3, "", "ALIVE:10.0.0.3:0"));
+    verify(owner, never()).memberAlive("10.0.0.3");
+    swim.receive("10.0.0.2", message(PING, 4, "", "ALIVE:10.0.0.3:1"));
+    verify(owner).memberAlive("10.0.0.3");
+
+    // the updates are passed on to the other members
+    await(() -> sent.get("10.0.0.2").size() == 4);
+    assertThat(sent.get("10.0.0.2")).anyMatch(gossip -> gossip.updates.contains("DEAD:10.0.0.3:0"));
+  }
+
+  @Test
+  void deadMemberForgotten() throws Exception {
+    members((ip, gossip) -> { });
+    swim = new Swim(owner, LOCAL, "test", 20, 10, 2, 100);
+    swim.receive("10.0.0.2", message(ACK, 1, "", "DEAD:10.0.0.9:0", "ALIVE:10.0.0.8:1"));
+    assertThat(swim.knownMembers()).isEqualTo(2);
+    verify(owner).memberFailed("10.0.0.9");
+
+    // a dead member, and one that is not a member, are forgotten after 30 periods
+    swim.start();
+    Thread.sleep(300);
+    assertThat(swim.knownMembers()).isEqualTo(2);
+    await(() -> swim.knownMembers() == 0);
+    assertThat(swim.knownMembers()).isEqualTo(0);
+  }
+
+  @Test
+  void leftMemberForgotten() throws Exception {
+    members((ip, gossip) -> { }, "10.0.0.2", "10.0.0.3");
+    swim = new Swim(owner, LOCAL, "test", 60_000, 20, 2, 300);
+    swim.receive("10.0.0.2", message(ACK, 1, "", "SUSPECT:10.0.0.3:0"));
+    assertThat(swim.knownMembers()).isEqualTo(1);
+
+    swim.left("10.0.0.3");
+    assertThat(swim.knownMembers()).isEqualTo(0);
+    assertThat(swim.getStatus().getCurrentSuspects()).isEqualTo(0);
+  }
+}
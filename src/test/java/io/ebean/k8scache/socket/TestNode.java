@@ -0,0 +1,141 @@
+package io.ebean.k8scache.socket;
+
+import io.ebean.config.ContainerConfig;
+import io.ebean.k8scache.TestConfig;
+import io.ebeaninternal.api.SpiEbeanServer;
+import io.ebeaninternal.api.TransactionEventTable;
+import io.ebeaninternal.server.cluster.ClusterManager;
+import io.ebeaninternal.server.transaction.RemoteTransactionEvent;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A member of the cluster in the tests with a server recording the events it receives.
+ */
+class TestNode implements AutoCloseable {
+
+  static final String SERVER = "db";
+
+  final String ip;
+
+  final K8sClusterBroadcast broadcast;
+
+  final List<RemoteTransactionEvent> received = new CopyOnWriteArrayList<>();
+
+  private TestNode(String ip, String... properties) {
+    this.ip = ip;
+    SpiEbeanServer server = (SpiEbeanServer) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{SpiEbeanServer.class}, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "name":
+        case "getName":
+          return SERVER;
+        case "remoteTransactionEvent":
+          received.add((RemoteTransactionEvent) args[0]);
+          return null;
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "toString":
+          return "server-" + ip;
+        default:
+          Class<?> type = method.getReturnType();
+          if (type == boolean.class) {
+            return false;
+          }
+          return type == int.class || type == long.class ? 0 : null;
+      }
+    });
+    ClusterManager manager = new ClusterManager(new ContainerConfig());
+    manager.registerServer(server);
+    List<String> all = new ArrayList<>(Arrays.asList(properties));
+    // the members of the tests share the port on different loopback addresses
+    all.add("bindAddress=" + ip);
+    this.broadcast = new K8sClusterBroadcast(manager, TestConfig.create(ip, all.toArray(new String[0])), ip, ip);
+  }
+
+  /**
+   * Start the member with the given ebean.cluster.* properties as key=value.
+   */
+  static TestNode start(String ip, String... properties) {
+    TestNode node = new TestNode(ip, properties);
+    node.broadcast.startup();
+    return node;
+  }
+
+  /**
+   * Start the members listening before they connect to each other.
+   */
+  static List<TestNode> startAll(List<String> ips, String... properties) {
+    List<TestNode> nodes = new ArrayList<>();
+    for (String ip : ips) {
+      nodes.add(new TestNode(ip, properties));
+    }
+    for (TestNode node : nodes) {
+      node.broadcast.startup();
+    }
+    return nodes;
+  }
+
+  /**
+   * Return true when connected to the given number of other members.
+   */
+  boolean isConnected(int members) {
+    return broadcast.getStatus().getMembers().size() == members;
+  }
+
+  /**
+   * Wait up to 10 seconds for the condition to be true.
+   */
+  static void await(BooleanSupplier condition) throws InterruptedException {
+    long until = System.currentTimeMillis() + 10_000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < until) {
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Return an event of the server inserting into the table.
+   */
+  static RemoteTransactionEvent event(String table) {
+    RemoteTransactionEvent event = new RemoteTransactionEvent(SERVER);
+    event.addTableIUD(new TransactionEventTable.TableIUD(table, true, false, false));
+    return event;
+  }
+
+  /**
+   * Return an event of the server inserting into the table and the given number of other tables.
+   */
+  static RemoteTransactionEvent largeEvent(String table, int tables) {
+    RemoteTransactionEvent event = event(table);
+    for (int i = 0; i < tables; i++) {
+      event.addTableIUD(new TransactionEventTable.TableIUD(UUID.randomUUID().toString(), true, false, false));
+    }
+    return event;
+  }
+
+  /**
+   * Return the number of received events inserting into a table starting with the prefix.
+   */
+  int receivedPrefix(String prefix) {
+    int count = 0;
+    for (RemoteTransactionEvent event : received) {
+      List<TransactionEventTable.TableIUD> tables = event.getTableIUDList();
+      if (tables != null && tables.stream().anyMatch(tableIUD -> tableIUD.tableName().startsWith(prefix))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void close() {
+    broadcast.shutdown();
+  }
+}
@@ -0,0 +1,80 @@
+package io.ebean.k8scache.socket;
+
+import io.ebeaninternal.server.cache.CacheChangeSet;
+import io.ebeaninternal.server.core.PersistRequest;
+import io.ebeaninternal.server.deploy.BeanDescriptor;
+import io.ebeaninternal.server.transaction.BeanPersistIds;
+import io.ebeaninternal.server.transaction.RemoteTransactionEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TransactionEventMergerTest {
+
+  static BeanDescriptor<?> descriptor(String name) {
+    BeanDescriptor<?> descriptor = mock(BeanDescriptor.class);
+    when(descriptor.descriptorId()).thenReturn(name);
+    when(descriptor.baseTable()).thenReturn(name);
+    return descriptor;
+  }
+
+  /**
+   * Return an event persisting the beans with the ids, inserts only when there are no ids.
+   */
+  static RemoteTransactionEvent persisted(BeanDescriptor<?> descriptor, Object... ids) {
+    BeanPersistIds persistIds = new BeanPersistIds(descriptor);
+    for (Object id : ids) {
+      persistIds.addId(PersistRequest.Type.UPDATE, id);
+    }
+    RemoteTransactionEvent event = new RemoteTransactionEvent("db");
+    event.addBeanPersistIds(persistIds);
+    return event;
+  }
+
+  @Test
+  void insertOnlyAndUpdate() {
+    BeanDescriptor<?> customer = descriptor("customer");
+    BeanDescriptor<?> order = descriptor("order");
+    TransactionEventMerger merger = new TransactionEventMerger("db", 1000);
+    merger.add(persisted(customer));
+    merger.add(persisted(order, 1, 2));
+    merger.add(persisted(order, 2, 3));
+
+    List<BeanPersistIds> merged = merger.merged().getBeanPersistList();
+    assertThat(merged).extracting(BeanPersistIds::getBeanDescriptor).containsExactly(customer, order);
+    assertThat(merged.get(0).getIds()).isNull();
+    assertThat(merged.get(1).getIds()).containsExactly(1, 2, 3);
+
+    CacheChangeSet changes = new CacheChangeSet();
+    for (BeanPersistIds persistIds : merged) {
+      persistIds.notifyCache(changes);
+    }
+    changes.apply();
+    // the inserts still clear the query cache
+    verify(customer).clearQueryCache();
+    verify(customer, never()).cacheApplyInvalidate(anyCollection());
+    verify(order).clearQueryCache();
+    verify(order).cacheApplyInvalidate(argThat((Collection<Object> ids) -> ids.size() == 3));
+  }
+
+  @Test
+  void insertOnlyAndUpdateOfSameBeanType() {
+    BeanDescriptor<?> customer = descriptor("customer");
+    TransactionEventMerger merger = new TransactionEventMerger("db", 1000);
+    merger.add(persisted(customer, 1));
+    merger.add(persisted(customer));
+
+    List<BeanPersistIds> merged = merger.merged().getBeanPersistList();
+    assertThat(merged).hasSize(1);
+    assertThat(merged.get(0).getIds()).containsExactly(1);
+  }
+}